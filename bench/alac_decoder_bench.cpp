@@ -0,0 +1,189 @@
+/* 
+ *  File: alac_decoder_bench.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// Checks the built-in ALAC decoder against hand-encoded frames with known PCM and
+// measures its throughput.
+//
+// The frames follow the stream parameters announced by the senders:
+// 96 352 0 16 40 10 14 2 255 0 0 44100
+//
+// usage: alac_decoder_bench [iterations]
+
+#include <chrono>
+#include <cstdint>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+#include <ap_audio_decoder.h>
+
+namespace {
+// A full stereo frame: a matrixed channel pair (mix_bits 2, mix_res 1), the first
+// channel with the first order predictor, the second channel unpredicted with a
+// zero run where both channels are equal
+const uint8_t stereo_frame[] = {
+    0x20, 0x00, 0x00, 0x04, 0x02, 0x21, 0x00, 0x01, 0x01, 0xff, 0x01, 0x42,
+    0xf7, 0xbc, 0x17, 0x97, 0xd7, 0x97, 0xd6, 0x17, 0xd7, 0x97, 0xdf, 0xf0,
+    0x24, 0x2b, 0xeb, 0xdb, 0x8b, 0xdb, 0xeb, 0xdb, 0xeb, 0xdb, 0xdb, 0x8f,
+    0xfc, 0x09, 0x06, 0xf6, 0xfa, 0xf6, 0xf6, 0xf6, 0xe6, 0xf6, 0xfa, 0xf7,
+    0xff, 0x02, 0x42, 0xbd, 0xbe, 0xb8, 0xbe, 0xbd, 0xbd, 0xbd, 0xbe, 0xbd,
+    0xb9, 0xff, 0xc0, 0x90, 0xa7, 0xb7, 0xb7, 0xd7, 0xb7, 0xd7, 0x17, 0xb7,
+    0xb7, 0xdf, 0xf8, 0x12, 0x14, 0xfa, 0xf6, 0xe2, 0xf6, 0xfa, 0xf6, 0xfa,
+    0xf6, 0xfa, 0xdf, 0xff, 0x02, 0x41, 0x9e, 0xdf, 0x5e, 0xdf, 0x5e, 0xdc,
+    0x5e, 0xdf, 0x5e, 0xff, 0xe0, 0x48, 0x33, 0xdb, 0xdb, 0x8b, 0xeb, 0xdb,
+    0xeb, 0xdb, 0xdb, 0xdb, 0x9f, 0xfc, 0x09, 0x0a, 0x7d, 0x7b, 0x7b, 0x7b,
+    0x7d, 0x71, 0x7d, 0x7b, 0x7b, 0x7b, 0xff, 0x81, 0x20, 0xcf, 0x6e, 0x6f,
+    0x6d, 0x34, 0x4a, 0x25, 0x12, 0x89, 0x44, 0xff, 0x81, 0xcf, 0x58, 0x6c,
+    0x36, 0x1b, 0x0d, 0x86, 0xc3, 0x61, 0xb0, 0xd8, 0x6c, 0x3f, 0xe4, 0x56,
+    0x1b, 0x0d, 0x86, 0xc3, 0x61, 0xb0, 0xd8, 0x6c, 0x36, 0x1f, 0xf2, 0x2b,
+    0x0d, 0x86, 0xc3, 0x61, 0xb0, 0xd8, 0x6c, 0x36, 0x1b, 0x0d, 0x87, 0xfc,
+    0x8a, 0xc3, 0x61, 0xb0, 0xd8, 0x6c, 0x36, 0x1b, 0x0d, 0x86, 0xc3, 0xfe,
+    0x45, 0x61, 0xb0, 0xd8, 0x6c, 0x36, 0x1b, 0x0d, 0x86, 0xc3, 0x61, 0xb0,
+    0xff, 0x91, 0x58, 0x6c, 0x36, 0x1b, 0x0d, 0x86, 0xc3, 0x61, 0xb0, 0xd8,
+    0x7f, 0xc8, 0xac, 0x36, 0x1b, 0x0d, 0x86, 0xc3, 0x61, 0xb0, 0xd8, 0x6c,
+    0x36, 0x1f, 0xf2, 0x2b, 0x0d, 0x86, 0xc3, 0x61, 0xb0, 0xd8, 0x6c, 0x36,
+    0x1b, 0x0d, 0x87, 0xfc, 0x8a, 0xc3, 0x61, 0xb0, 0xd8, 0x6c, 0x36, 0x1b,
+    0x0d, 0x86, 0x94, 0xf4, 0x51, 0xf4, 0xe2, 0x7d, 0x3d, 0x9e, 0xcf, 0x67,
+    0xd3, 0xdb, 0x9b, 0xdf, 0xfc, 0x09, 0x0a, 0x7b, 0x3e, 0x9e, 0xcf, 0xae,
+    0x2f, 0x6f, 0x6f, 0xaf, 0x7f, 0xf0, 0x24, 0x19, 0xec, 0xe2, 0x7b, 0x7d,
+    0x7b, 0x7d, 0x7b, 0x7d, 0x6f, 0x7d, 0xff, 0x81, 0x21, 0x4f, 0xa7, 0xb7,
+    0xd7, 0xb7, 0x17, 0xb7, 0xd7, 0xb7, 0xdf, 0xf8, 0x12, 0x14, 0xf6, 0x71,
+    0x7d, 0x7b, 0x7d, 0x7b, 0x7b, 0x7b, 0x73, 0x7b, 0xff, 0x81, 0x20, 0xcf,
+    0x6f, 0x6f, 0x6f, 0xae, 0x2f, 0xaf, 0x6f, 0x6f, 0x7f, 0xf0, 0x24, 0x19,
+    0xec, 0xe6, 0xf6, 0xf6, 0xf6, 0xfa, 0xf6, 0xfa, 0xe2, 0xf7, 0xff, 0x02,
+    0x42, 0x9f, 0x5e, 0xdf, 0x5e, 0xdc, 0x5e, 0xdf, 0x5e, 0xdf, 0x5e, 0xff,
+    0xe0, 0x48, 0x33, 0x7b, 0xeb, 0xdb, 0xeb, 0xdb, 0xeb, 0xdb, 0x8b, 0xdf,
+    0xfc, 0x09, 0x06, 0x7b, 0x7d, 0x7b, 0x7b, 0x71, 0x7d, 0x7b, 0x7d, 0x7b,
+    0x7b, 0xff, 0x81, 0x21, 0x4e, 0x6f, 0x6f, 0xaf, 0x6f, 0x6f, 0x6f, 0xae,
+    0x2f, 0xbf, 0xf0, 0x24, 0x29, 0xed, 0xed, 0xf5, 0xed, 0xcd, 0xed, 0xed,
+    0xed, 0xf5, 0xef, 0xfe, 0x04, 0x83, 0x38, 0xbd, 0xbd, 0xbe, 0xbd, 0xbe,
+    0xbd, 0xb8, 0xbd, 0xff, 0xc0, 0x90, 0x67, 0xb7, 0xd7, 0xb7, 0xd6, 0xf7,
+    0xd7, 0xb7, 0xd7, 0xb7, 0xdf, 0xf8, 0x12, 0x14, 0xe2, 0xf7, 0xff, 0x00,
+    0xfc, 0xff, 0xc0, 0x33, 0x3f, 0x03, 0x9f, 0xbf, 0x3d, 0x05, 0xb1, 0xf2,
+    0x3f, 0x65, 0xd3, 0xba, 0xce, 0xf5, 0x8d, 0x4b, 0x53, 0x04, 0xdc, 0xea,
+    0x59, 0x9f, 0x12, 0xf0, 0x1c, 0xa7, 0x48, 0xb4, 0xc2, 0x4a, 0x8d, 0xe4,
+    0x98, 0x2e, 0xc7, 0xd1, 0x3b, 0x2d, 0x07, 0x12, 0xad, 0x8b, 0x01, 0x2c,
+    0xf4, 0x8c, 0x9f, 0x84, 0x77, 0x4a, 0xc6, 0x53, 0x79, 0x25, 0x06, 0x85,
+    0x71, 0xab, 0xc6, 0xb3, 0xce, 0x3b, 0x7d, 0x1f, 0x17, 0xb0, 0x8c, 0x40,
+    0x45, 0xd9, 0xe6, 0x3b, 0xbd, 0xf6, 0xaa, 0xf6, 0x5d, 0x7f, 0x27, 0x88,
+    0x04, 0x30, 0xeb, 0x76, 0x9b, 0xcb, 0xbb, 0xdd, 0x33, 0x1d, 0xb3, 0x0d,
+    0xc0, 0xe5, 0x19, 0x96, 0x23, 0xb8, 0xf5, 0xeb, 0x1e, 0x69, 0x82, 0x55,
+    0x44, 0xa0, 0xac, 0x12, 0xc5, 0xa1, 0xf2, 0x2f, 0x03, 0xa9, 0x64, 0x56,
+    0xc1, 0xe0, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    0x00, 0x00, 0x00, 0x17, 0xff, 0x80, 0x71, 0x7f, 0xe0, 0x1d, 0x9f, 0xc1,
+    0x79, 0x2d, 0x94, 0x88, 0xfb, 0x0e, 0x43, 0xd8, 0xf1, 0xce, 0xf9, 0xcb,
+    0x74, 0xcb, 0x6c, 0x34, 0xb9, 0x06, 0x41, 0x80, 0xd7, 0xfa, 0x07, 0x69,
+    0xe1, 0x38, 0xe4, 0xed, 0x70, 0x15, 0x8e, 0x89, 0x91, 0xf1, 0x2e, 0xe1,
+    0xcd, 0xe5, 0x77, 0xb2, 0x60, 0x70, 0x6b, 0x16, 0xba, 0x6a, 0xbc, 0xd3,
+    0xb9, 0xd2, 0x71, 0x2b, 0x18, 0xcc, 0x08, 0x59, 0x9c, 0x63, 0x3c, 0x1b,
+    0xb3, 0x58, 0x33, 0x0c, 0x06, 0xa2, 0x22, 0x0a, 0xe1, 0x56, 0xad, 0x27,
+    0x95, 0x77, 0xfa, 0x76, 0x31, 0x68, 0x1c, 0x82, 0x49, 0xb2, 0xec, 0x37,
+    0x7b, 0xeb, 0x56, 0x5c, 0xdb, 0x06, 0xab, 0x89, 0xc1, 0xf7, 0xfa, 0xf6,
+    0x7f, 0xc7, 0xbb, 0xf5, 0x53, 0x1d, 0xb7, 0x0f, 0x81, 0xe4, 0x39, 0x16,
+    0x07, 0xb7, 0xf5, 0x0b, 0x5e, 0x77, 0x86, 0x57, 0x05, 0xa0, 0xab, 0x9d,
+    0x53, 0x33, 0xe2, 0x9d, 0xca, 0xb3, 0x91, 0xdc, 0xc8, 0x81, 0x41, 0xbc,
+    0x62, 0xed, 0xb2, 0xf4, 0x4b, 0x86, 0x83, 0x88, 0xd8, 0x86, 0x40, 0x4b,
+    0x4d, 0x23, 0x29, 0xe1, 0x1d, 0xa2, 0xbf, 0x94, 0x5e, 0x49, 0x21, 0xa1,
+    0x6c, 0x32, 0xd9, 0xac, 0xf3, 0xab, 0xb6, 0x8d, 0x8b, 0xd9, 0xc7, 0x00,
+    0x12, 0xec, 0xfb, 0x1d, 0xdf, 0x7a, 0xe5, 0x93, 0x2e, 0xbf, 0x38,
+};
+
+// A mono frame of 6 uncompressed samples (escape + partial frame)
+const uint8_t mono_frame[] = {
+    0x00, 0x00, 0x12, 0x00, 0x00, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x03, 0xff,
+    0xfe, 0xff, 0xff, 0x00, 0x00, 0x09, 0xa5, 0xc0,
+};
+
+const int16_t mono_pcm[] = {0, 1, -1, 32767, -32768, 1234};
+
+const uint32_t frame_length = 352;
+
+// The PCM encoded in stereo_frame
+void stereo_pcm(std::vector<int16_t> &pcm) {
+  pcm.resize(frame_length * 2);
+  for (int32_t i = 0; i < (int32_t)frame_length; i++) {
+    int32_t l = ((i * 97) % 1024) - 512;
+    int32_t r = (i >= 100 && i < 200) ? l : (l >> 1) + (i % 7) - 3;
+    pcm[i * 2] = (int16_t)l;
+    pcm[i * 2 + 1] = (int16_t)r;
+  }
+}
+
+bool check(const char *name, const uint8_t *frame, uint32_t length, const int16_t *expected, int32_t frames) {
+  auto decoder = aps::ap_audio_decoder::create(aps::audio_format_alac, frame_length);
+  if (!decoder) {
+    printf("%s: no ALAC decoder\n", name);
+    return false;
+  }
+
+  // Fill the output with garbage to catch the samples left unwritten
+  std::vector<int16_t> out(decoder->max_frames() * decoder->channels(), 0x5a5a);
+  int32_t n = decoder->decode(frame, length, out.data());
+  if (n != frames) {
+    printf("%s: decoded %d frames, expected %d\n", name, n, frames);
+    return false;
+  }
+
+  for (int32_t i = 0; i < frames * 2; i++) {
+    if (out[i] != expected[i]) {
+      printf("%s: sample %d is %d, expected %d\n", name, i, out[i], expected[i]);
+      return false;
+    }
+  }
+
+  printf("%s: OK\n", name);
+  return true;
+}
+} // namespace
+
+int main(int argc, char *argv[]) {
+  int iterations = argc > 1 ? atoi(argv[1]) : 100000;
+
+  std::vector<int16_t> pcm;
+  stereo_pcm(pcm);
+  bool ok = check("stereo", stereo_frame, sizeof(stereo_frame), pcm.data(), frame_length);
+
+  // The mono samples are played on both channels
+  std::vector<int16_t> mono;
+  for (auto s : mono_pcm) {
+    mono.push_back(s);
+    mono.push_back(s);
+  }
+  ok = check("mono", mono_frame, sizeof(mono_frame), mono.data(), (int32_t)(mono.size() / 2)) && ok;
+  if (!ok) {
+    return 1;
+  }
+
+  auto decoder = aps::ap_audio_decoder::create(aps::audio_format_alac, frame_length);
+  std::vector<int16_t> out(decoder->max_frames() * decoder->channels());
+  auto begin = std::chrono::steady_clock::now();
+  for (int i = 0; i < iterations; i++) {
+    decoder->decode(stereo_frame, sizeof(stereo_frame), out.data());
+  }
+  auto end = std::chrono::steady_clock::now();
+
+  double us = std::chrono::duration<double, std::micro>(end - begin).count() / iterations;
+  double packet_us = frame_length * 1000000.0 / decoder->sample_rate();
+  printf("decode: %.2f us/packet, %.0fx realtime (%d packets)\n", us, packet_us / us, iterations);
+  return 0;
+}
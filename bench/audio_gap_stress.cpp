@@ -0,0 +1,107 @@
+/* 
+ *  File: audio_gap_stress.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// Measures the audio gaps under CPU pressure with and without the thread policy of the audio stage.
+//
+// A thread wakes up at the packet cadence of the mirroring audio, 352 frames at 44.1 kHz, while
+// busy threads load every core. A wake-up later than the gap threshold is counted as a gap, the
+// packet would have reached the sink too late. The thread runs once with the default scheduling
+// and once with the policy of the audio stage, by default nice -16. Raising the priority needs
+// CAP_SYS_NICE or a RLIMIT_NICE allowing it on Linux, the failure is logged by the SDK.
+//
+// usage: audio_gap_stress [seconds] [load_threads] [gap_ms]
+
+#include <algorithm>
+#include <atomic>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <thread>
+#include <vector>
+
+#include <utils/thread_policy.h>
+#include <utils/utils.h>
+
+namespace {
+struct gap_result_s {
+  uint64_t wakeups;
+  uint64_t gaps;
+  double max_late_ms;
+};
+
+gap_result_s run_audio_thread(aps::thread_stage_t stage, int seconds, double gap_ms) {
+  gap_result_s result = {0, 0, 0};
+  aps_thread thread = create_aps_thread(
+      [&result, seconds, gap_ms]() {
+        const auto period = std::chrono::microseconds(352 * 1000000 / 44100);
+        auto next = std::chrono::steady_clock::now() + period;
+        auto end = next + std::chrono::seconds(seconds);
+        while (next < end) {
+          std::this_thread::sleep_until(next);
+          double late = std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - next).count();
+          result.wakeups++;
+          if (late > gap_ms) {
+            result.gaps++;
+          }
+          result.max_late_ms = std::max(result.max_late_ms, late);
+          next += period;
+        }
+      },
+      stage);
+  thread->join();
+  return result;
+}
+
+void print_result(const char *name, const gap_result_s &r) {
+  printf("%-8s wakeups: %llu, gaps: %llu (%.3f%%), max late: %.2f ms\n", name, (unsigned long long)r.wakeups,
+         (unsigned long long)r.gaps, r.wakeups ? 100.0 * r.gaps / r.wakeups : 0.0, r.max_late_ms);
+}
+} // namespace
+
+int main(int argc, char *argv[]) {
+  int seconds = argc > 1 ? atoi(argv[1]) : 10;
+  int loaders = argc > 2 ? atoi(argv[2]) : (int)std::max(1u, std::thread::hardware_concurrency());
+  double gap_ms = argc > 3 ? atof(argv[3]) : 4.0;
+
+  aps::thread_policy_t policy = aps::get_thread_policy(aps::thread_stage_audio);
+  printf("%d s per run, %d load threads, gap threshold %.1f ms, audio policy: %s nice %d\n", seconds, loaders, gap_ms,
+         policy.name.c_str(), policy.nice);
+
+  std::atomic<bool> stop(false);
+  std::vector<aps_thread> load;
+  for (int i = 0; i < loaders; i++) {
+    load.push_back(create_aps_thread([&stop]() {
+      volatile uint64_t spin = 0;
+      while (!stop.load(std::memory_order_relaxed)) {
+        spin = spin + 1;
+      }
+    }));
+  }
+
+  print_result("default", run_audio_thread(aps::thread_stage_default, seconds, gap_ms));
+  print_result("audio", run_audio_thread(aps::thread_stage_audio, seconds, gap_ms));
+
+  stop = true;
+  for (auto &t : load) {
+    t->join();
+  }
+  return 0;
+}
@@ -0,0 +1,165 @@
+/* 
+ *  File: plist_bench.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// Compares the binary plist decoding into heap objects with the decoding into a plist arena, and
+// the encoding into a malloc'ed buffer with the encoding into a reused vector. The plist has the
+// shape of the SETUP request of a mirroring session.
+//
+// A large plist is decoded into the arena last, the arena must give the memory back on the
+// next reset.
+//
+// usage: plist_bench [iterations]
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <sstream>
+#include <string>
+#include <vector>
+
+#include <utils/plist.h>
+
+namespace {
+plist_object_t *create_setup_plist() {
+  static const uint8_t key[72] = {0x46, 0x50, 0x4c, 0x59, 0x01, 0x02, 0x01};
+  static const uint8_t iv[16] = {0x0a, 0x0b, 0x0c};
+  // clang-format off
+  return plist_object_dict(10,
+      "deviceID", plist_object_string("AA:BB:CC:DD:EE:FF"),
+      "sessionUUID", plist_object_string("7E1E9D8A-4C6B-4D3E-9E43-6E5C0A6C4B01"),
+      "timingProtocol", plist_object_string("NTP"),
+      "timingPort", plist_object_integer(55000),
+      "ekey", plist_object_data(key, sizeof(key)),
+      "eiv", plist_object_data(iv, sizeof(iv)),
+      "isScreenMirroringSession", plist_object_true(),
+      "osBuildVersion", plist_object_string("17B111"),
+      "model", plist_object_string("iPhone10,1"),
+      "streams", plist_object_array(2,
+          plist_object_dict(4,
+              "type", plist_object_integer(110),
+              "streamConnectionID", plist_object_integer(0x1234567890ll),
+              "timestampInfo", plist_object_array(3,
+                  plist_object_dict(1, "name", plist_object_string("SubSu")),
+                  plist_object_dict(1, "name", plist_object_string("BePxT")),
+                  plist_object_dict(1, "name", plist_object_string("AfPxT"))),
+              "latencyMs", plist_object_integer(100)),
+          plist_object_dict(5,
+              "type", plist_object_integer(96),
+              "ct", plist_object_integer(8),
+              "spf", plist_object_integer(480),
+              "audioFormat", plist_object_integer(0x1000000),
+              "redundantAudio", plist_object_integer(2))));
+  // clang-format on
+}
+
+plist_object_t *create_setup_array() {
+  plist_object_t *entries[64];
+  for (int i = 0; i < 64; i++) {
+    entries[i] = create_setup_plist();
+  }
+  // clang-format off
+  return plist_object_array(64,
+      entries[0], entries[1], entries[2], entries[3], entries[4], entries[5], entries[6], entries[7],
+      entries[8], entries[9], entries[10], entries[11], entries[12], entries[13], entries[14], entries[15],
+      entries[16], entries[17], entries[18], entries[19], entries[20], entries[21], entries[22], entries[23],
+      entries[24], entries[25], entries[26], entries[27], entries[28], entries[29], entries[30], entries[31],
+      entries[32], entries[33], entries[34], entries[35], entries[36], entries[37], entries[38], entries[39],
+      entries[40], entries[41], entries[42], entries[43], entries[44], entries[45], entries[46], entries[47],
+      entries[48], entries[49], entries[50], entries[51], entries[52], entries[53], entries[54], entries[55],
+      entries[56], entries[57], entries[58], entries[59], entries[60], entries[61], entries[62], entries[63]);
+  // clang-format on
+}
+
+plist_object_t *create_large_plist() {
+  // The arena chains up blocks well over the size it keeps across a reset
+  return plist_object_array(4, create_setup_array(), create_setup_array(), create_setup_array(),
+                            create_setup_array());
+}
+
+template <typename F> void measure(const char *name, uint64_t iterations, F f) {
+  auto begin = std::chrono::steady_clock::now();
+  for (uint64_t i = 0; i < iterations; i++) {
+    if (!f()) {
+      printf("%-16s FAILED at %llu\n", name, (unsigned long long)i);
+      return;
+    }
+  }
+  double seconds = std::chrono::duration<double>(std::chrono::steady_clock::now() - begin).count();
+  printf("%-16s %.3f us/op, %.0f ops/s\n", name, seconds * 1000000.0 / iterations, iterations / seconds);
+}
+} // namespace
+
+int main(int argc, char *argv[]) {
+  uint64_t iterations = argc > 1 ? strtoull(argv[1], nullptr, 10) : 200000;
+
+  plist_object_t *setup = create_setup_plist();
+  std::vector<uint8_t> bplist;
+  if (0 != plist_object_to_bplist_buffer(setup, bplist)) {
+    printf("Failed to encode the plist\n");
+    return 1;
+  }
+  printf("SETUP plist: %zu bytes\n", bplist.size());
+
+  measure("decode heap", iterations, [&]() {
+    plist_object_t *object = plist_object_from_bplist(bplist.data(), (uint32_t)bplist.size());
+    bool ok = object && plist_object_dict_get_value(object, "streams");
+    plist_object_destroy(object);
+    return ok;
+  });
+
+  plist_arena_t *arena = plist_arena_create(0);
+  measure("decode arena", iterations, [&]() {
+    plist_arena_reset(arena);
+    const plist_object_t *object = plist_object_from_bplist_arena(arena, bplist.data(), (uint32_t)bplist.size());
+    return object && plist_object_dict_get_value(object, "streams");
+  });
+
+  measure("encode malloc", iterations, [&]() {
+    uint8_t *data = nullptr;
+    uint64_t length = 0;
+    bool ok = 0 == plist_object_to_bplist(setup, &data, &length) && length == bplist.size();
+    free(data);
+    return ok;
+  });
+
+  std::vector<uint8_t> buffer;
+  measure("encode buffer", iterations, [&]() {
+    return 0 == plist_object_to_bplist_buffer(setup, buffer) && buffer.size() == bplist.size();
+  });
+
+  // The large plist chains many blocks, the small plists after it are decoded as before
+  plist_object_t *large = create_large_plist();
+  std::vector<uint8_t> large_bplist;
+  plist_object_to_bplist_buffer(large, large_bplist);
+  plist_arena_reset(arena);
+  bool ok = nullptr != plist_object_from_bplist_arena(arena, large_bplist.data(), (uint32_t)large_bplist.size());
+  printf("large plist: %zu bytes, %s\n", large_bplist.size(), ok ? "decoded" : "FAILED");
+  measure("decode after", iterations, [&]() {
+    plist_arena_reset(arena);
+    const plist_object_t *object = plist_object_from_bplist_arena(arena, bplist.data(), (uint32_t)bplist.size());
+    return object && plist_object_dict_get_value(object, "streams");
+  });
+
+  plist_arena_destroy(arena);
+  plist_object_destroy(large);
+  plist_object_destroy(setup);
+  return ok ? 0 : 1;
+}
@@ -0,0 +1,163 @@
+/* 
+ *  File: udp_batch_bench.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// Compares the per-datagram receive of udp_service_base with the batched receive used by the
+// mirroring audio, in packets per second and CPU time of the receive thread per packet.
+//
+// The datagrams are sent over the loopback by the main thread, which keeps at most 2000 of
+// them in flight so the kernel does not drop them. The receive thread CPU time is only
+// measured on Linux.
+//
+// usage: udp_batch_bench [packets] [packet_size]
+
+#include <atomic>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <thread>
+#include <vector>
+
+#if defined(__linux__)
+#include <sys/resource.h>
+#endif
+
+#include <network/udp_service.h>
+
+namespace {
+const std::size_t slot_size = 2048;
+const std::size_t slot_count = 16;
+const uint64_t max_in_flight = 2000;
+
+class receiver : public aps::network::udp_service_base {
+public:
+  explicit receiver(bool batch)
+      : udp_service_base("udp_batch_bench", 0, aps::thread_stage_audio), batch_(batch), buffer_(slot_size * slot_count),
+        received_(0), calls_(0), cpu_seconds_(0) {}
+
+  void start() {
+    open();
+    post();
+  }
+
+  uint64_t received() const { return received_; }
+
+  uint64_t calls() const { return calls_; }
+
+  double cpu_seconds() const { return cpu_seconds_; }
+
+  virtual void on_recv_from(asio::ip::udp::endpoint &, const asio::error_code &e, std::size_t) override {
+    if (e) {
+      return;
+    }
+    count(1);
+    post();
+  }
+
+  virtual void on_recv_batch(const aps::network::udp_datagram_t *, std::size_t n, const asio::error_code &e) override {
+    if (e) {
+      return;
+    }
+    count(n);
+    post();
+  }
+
+private:
+  void post() {
+    if (batch_) {
+      post_recv_batch(buffer_.data(), slot_size, slot_count);
+    } else {
+      post_recv_from(buffer_.data(), slot_size, remote_endpoint_);
+    }
+  }
+
+  void count(std::size_t n) {
+#if defined(__linux__)
+    rusage usage;
+    getrusage(RUSAGE_THREAD, &usage);
+    cpu_seconds_ = usage.ru_utime.tv_sec + usage.ru_stime.tv_sec +
+                   (usage.ru_utime.tv_usec + usage.ru_stime.tv_usec) / 1000000.0;
+#endif
+    calls_++;
+    received_ += n;
+  }
+
+  bool batch_;
+
+  std::vector<uint8_t> buffer_;
+
+  asio::ip::udp::endpoint remote_endpoint_;
+
+  std::atomic<uint64_t> received_;
+
+  std::atomic<uint64_t> calls_;
+
+  std::atomic<double> cpu_seconds_;
+};
+
+void run(bool batch, uint64_t packets, std::size_t packet_size) {
+  receiver r(batch);
+  r.start();
+
+  asio::io_context io;
+  asio::ip::udp::socket socket(io, asio::ip::udp::v4());
+  asio::ip::udp::endpoint to(asio::ip::address_v4::loopback(), r.port());
+  std::vector<uint8_t> packet(packet_size, 0x5a);
+
+  auto begin = std::chrono::steady_clock::now();
+  auto deadline = begin + std::chrono::seconds(30);
+  for (uint64_t i = 0; i < packets; i++) {
+    socket.send_to(asio::buffer(packet), to);
+    while (i - r.received() > max_in_flight && std::chrono::steady_clock::now() < deadline) {
+      std::this_thread::yield();
+    }
+  }
+
+  // The datagrams dropped by the kernel never arrive, wait for most of them
+  while (r.received() < packets * 98 / 100 && std::chrono::steady_clock::now() < deadline) {
+    std::this_thread::sleep_for(std::chrono::milliseconds(1));
+  }
+  double seconds = std::chrono::duration<double>(std::chrono::steady_clock::now() - begin).count();
+  r.close();
+
+  uint64_t received = r.received();
+  printf("%-10s %llu packets in %llu calls (%.1f per call), %.0f packets/s", batch ? "batch" : "per-packet",
+         (unsigned long long)received, (unsigned long long)r.calls(),
+         r.calls() ? (double)received / r.calls() : 0.0, received / seconds);
+#if defined(__linux__)
+  printf(", receive thread CPU %.3f s (%.2f us/packet)", r.cpu_seconds(),
+         received ? r.cpu_seconds() * 1000000.0 / received : 0.0);
+#endif
+  printf("\n");
+}
+} // namespace
+
+int main(int argc, char *argv[]) {
+  uint64_t packets = argc > 1 ? strtoull(argv[1], nullptr, 10) : 400000;
+  std::size_t packet_size = argc > 2 ? (std::size_t)atoi(argv[2]) : 300;
+  if (packet_size > slot_size) {
+    printf("The packet size is at most %zu\n", slot_size);
+    return 1;
+  }
+
+  run(false, packets, packet_size);
+  run(true, packets, packet_size);
+  return 0;
+}
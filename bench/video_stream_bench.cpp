@@ -0,0 +1,176 @@
+/* 
+ *  File: video_stream_bench.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// Measures the loopback throughput of the mirroring video stream connection. A synthetic sender
+// writes heartbeats, small P-frames and a large key frame every 60 frames, the handler counts the
+// packets arriving. The payloads are not encrypted, the decryption runs over them anyway.
+//
+// The sender finishes with an oversized packet header, the connection must close and report the
+// stream stopped. The receive thread CPU time is only measured on Linux.
+//
+// usage: video_stream_bench [frames]
+
+#include <atomic>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <thread>
+#include <vector>
+
+#if defined(__linux__)
+#include <sys/resource.h>
+#endif
+
+#include <service/ap_mirroring_video_stream_service.h>
+
+namespace {
+const int frames_per_round = 600;
+const uint32_t key_frame_size = 120 * 1024;
+
+class counter : public aps::ap_mirroring_session_handler {
+public:
+  counter() : packets_(0), stopped_(false), cpu_seconds_(0) {}
+
+  uint64_t packets() const { return packets_; }
+
+  bool stopped() const { return stopped_; }
+
+  double cpu_seconds() const { return cpu_seconds_; }
+
+  virtual void on_video_stream_started() override {}
+
+  virtual void on_video_stream_stopped() override { stopped_ = true; }
+
+  virtual void on_video_stream_codec(const aps::sms_video_codec_packet_t *) override { count(); }
+
+  virtual void on_video_stream_data(const aps::sms_video_data_packet_t *) override { count(); }
+
+  virtual void on_video_stream_heartbeat() override { count(); }
+
+  virtual void on_audio_set_volume(const float, const float) override {}
+
+  virtual void on_audio_set_progress(const float, const uint64_t, const uint64_t, const uint64_t) override {}
+
+  virtual void on_audio_set_cover(const std::string, const void *, const uint32_t) override {}
+
+  virtual void on_audio_set_meta_data(const void *, const uint32_t) override {}
+
+  virtual void on_audio_stream_started(const aps::audio_data_format_t) override {}
+
+  virtual void on_audio_stream_data(const aps::rtp_audio_data_packet_t *, const uint32_t) override {}
+
+  virtual void on_audio_stream_stopped() override {}
+
+private:
+  void count() {
+#if defined(__linux__)
+    rusage usage;
+    getrusage(RUSAGE_THREAD, &usage);
+    cpu_seconds_ = usage.ru_utime.tv_sec + usage.ru_stime.tv_sec +
+                   (usage.ru_utime.tv_usec + usage.ru_stime.tv_usec) / 1000000.0;
+#endif
+    packets_++;
+  }
+
+  std::atomic<uint64_t> packets_;
+
+  std::atomic<bool> stopped_;
+
+  std::atomic<double> cpu_seconds_;
+};
+
+void append_packet(std::vector<uint8_t> &stream, uint16_t type, uint32_t size) {
+  // The fields are little-endian on the wire
+  aps::sms_packet_header_t header;
+  memset(&header, 0, sizeof(header));
+  header.payload_size = size;
+  header.payload_type = type;
+  const uint8_t *p = (const uint8_t *)&header;
+  stream.insert(stream.end(), p, p + sizeof(header));
+  stream.insert(stream.end(), size, 0x5a);
+}
+} // namespace
+
+int main(int argc, char *argv[]) {
+  uint64_t frames = argc > 1 ? strtoull(argv[1], nullptr, 10) : 200000;
+  uint64_t rounds = std::max<uint64_t>(frames / frames_per_round, 1);
+
+  aps::ap_crypto_ptr crypto = std::make_shared<aps::ap_crypto>();
+  aps::agent_version_t version = {220, 68, 0, 0};
+  crypto->init_video_stream_aes_ctr(1, version);
+  auto handler = std::make_shared<counter>();
+  aps::ap_mirroring_session_handler_ptr session_handler = handler;
+  aps::service::ap_mirroring_video_stream_service service(crypto, 0, session_handler);
+  service.start();
+
+  std::vector<uint8_t> stream;
+  uint64_t packets_per_round = 0;
+  for (int i = 0; i < frames_per_round; i++) {
+    if (0 == i % 30) {
+      append_packet(stream, aps::sms_payload_5, 0);
+      packets_per_round++;
+    }
+    append_packet(stream, aps::sms_video_data, 0 == i % 60 ? key_frame_size : 600 + (i * 37) % 3000);
+    packets_per_round++;
+  }
+  uint64_t expected = packets_per_round * rounds;
+
+  asio::io_context io;
+  asio::ip::tcp::socket socket(io);
+  socket.connect(asio::ip::tcp::endpoint(asio::ip::address_v4::loopback(), service.port()));
+
+  auto begin = std::chrono::steady_clock::now();
+  auto deadline = begin + std::chrono::seconds(60);
+  uint64_t bytes = 0;
+  for (uint64_t r = 0; r < rounds; r++) {
+    asio::write(socket, asio::buffer(stream));
+    bytes += stream.size();
+  }
+  while (handler->packets() < expected && std::chrono::steady_clock::now() < deadline) {
+    std::this_thread::sleep_for(std::chrono::microseconds(200));
+  }
+  double seconds = std::chrono::duration<double>(std::chrono::steady_clock::now() - begin).count();
+
+  printf("%llu/%llu packets, %.1f MB in %.3f s, %.0f MB/s, %.0f packets/s", (unsigned long long)handler->packets(),
+         (unsigned long long)expected, bytes / 1000000.0, seconds, bytes / 1000000.0 / seconds,
+         handler->packets() / seconds);
+#if defined(__linux__)
+  printf(", receive thread CPU %.3f s", handler->cpu_seconds());
+#endif
+  printf("\n");
+
+  // The payload size is over the limit, the connection gives up on the stream
+  std::vector<uint8_t> invalid;
+  append_packet(invalid, aps::sms_video_data, 0);
+  ((aps::sms_packet_header_t *)invalid.data())->payload_size = 0x7fffffff;
+  asio::error_code ec;
+  asio::write(socket, asio::buffer(invalid), ec);
+  deadline = std::chrono::steady_clock::now() + std::chrono::seconds(5);
+  while (!handler->stopped() && std::chrono::steady_clock::now() < deadline) {
+    std::this_thread::sleep_for(std::chrono::milliseconds(1));
+  }
+  printf("invalid packet: the stream is %s\n", handler->stopped() ? "stopped" : "NOT stopped");
+
+  socket.close(ec);
+  service.stop();
+  return handler->stopped() && handler->packets() >= expected ? 0 : 1;
+}
@@ -0,0 +1,92 @@
+/* 
+ *  File: ap_audio_decoder.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef AP_AUDIO_DECODER_H
+#define AP_AUDIO_DECODER_H
+#pragma once
+
+#include <cstdint>
+#include <functional>
+#include <memory>
+
+#include <ap_export.h>
+#include <ap_types.h>
+
+namespace aps {
+class ap_audio_decoder;
+typedef std::shared_ptr<ap_audio_decoder> ap_audio_decoder_ptr;
+
+/// <summary>
+/// Creates the decoder for the stream with the specified number of frames per packet.
+/// </summary>
+typedef std::function<ap_audio_decoder_ptr(const uint32_t frames_per_packet)> ap_audio_decoder_factory;
+
+/// <summary>
+/// Decodes the mirroring audio packets into interleaved 16-bit PCM. The SDK has a built-in
+/// ALAC decoder only, AAC-ELD is not decoded unless the application registers a decoder
+/// for it. The registration is a C++ API, it is not exposed to the Java layer.
+/// </summary>
+class APS_EXPORT ap_audio_decoder {
+public:
+  /// <summary>
+  ///
+  /// </summary>
+  virtual ~ap_audio_decoder(){};
+
+  /// <summary>
+  /// Decodes one packet.
+  /// </summary>
+  /// <param name="data">The decrypted payload of the packet.</param>
+  /// <param name="length">The length of the payload.</param>
+  /// <param name="out">The buffer of at least max_frames() * channels() samples.</param>
+  /// <returns>The number of frames decoded, or -1 if the packet is invalid.</returns>
+  virtual int32_t decode(const uint8_t *data, const uint32_t length, int16_t *out) = 0;
+
+  /// <summary>
+  /// The number of channels of the decoded audio.
+  /// </summary>
+  virtual uint32_t channels() const = 0;
+
+  /// <summary>
+  /// The sample rate of the decoded audio.
+  /// </summary>
+  virtual uint32_t sample_rate() const = 0;
+
+  /// <summary>
+  /// The maximum number of frames decoded from one packet.
+  /// </summary>
+  virtual uint32_t max_frames() const = 0;
+
+  /// <summary>
+  /// Registers the decoder factory of the format, replacing the built-in one if any.
+  /// Passing an empty factory removes the registration.
+  /// </summary>
+  static void register_factory(const audio_data_format_t format, const ap_audio_decoder_factory &factory);
+
+  /// <summary>
+  /// Creates a decoder of the format.
+  /// </summary>
+  /// <returns>The decoder, or null if there is none for the format.</returns>
+  static ap_audio_decoder_ptr create(const audio_data_format_t format, const uint32_t frames_per_packet);
+};
+} // namespace aps
+
+#endif // AP_AUDIO_DECODER_H
@@ -0,0 +1,130 @@
+/* 
+ *  File: ap_audio_ring.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef AP_AUDIO_RING_H
+#define AP_AUDIO_RING_H
+#pragma once
+
+#include <atomic>
+#include <cstdint>
+#include <memory>
+
+#include <ap_export.h>
+
+namespace aps {
+/// <summary>
+/// A single producer single consumer ring of interleaved 16-bit PCM. The SDK writes the decoded
+/// mirroring audio on the network thread and the audio sink reads it on its own thread, no lock
+/// is taken on either side. The read and write indices are the total bytes consumed and produced.
+/// </summary>
+class APS_EXPORT ap_audio_ring {
+public:
+  /// <summary>
+  /// The largest capacity, the next power of two would not fit in a Java direct buffer.
+  /// </summary>
+  static const uint32_t max_capacity = 1u << 30;
+
+  /// <summary>
+  /// Constructs the ring, the capacity is rounded up to a power of two and capped at max_capacity.
+  /// </summary>
+  explicit ap_audio_ring(uint32_t capacity);
+
+  ~ap_audio_ring();
+
+  /// <summary>
+  /// The memory of the ring, the byte at index i is data()[i & (capacity() - 1)].
+  /// </summary>
+  uint8_t *data() const;
+
+  uint32_t capacity() const;
+
+  /// <summary>
+  /// Writes the samples as a whole, they are dropped and counted as an overrun if the
+  /// ring has no room for them. Called by the producer only.
+  /// </summary>
+  /// <returns>True if the samples have been written.</returns>
+  bool write(const int16_t *samples, uint32_t count, uint32_t channels, uint32_t sample_rate);
+
+  /// <summary>
+  /// Copies up to length bytes to the buffer and fills the rest with silence, a short
+  /// read is counted as an underrun. Called by the consumer only.
+  /// </summary>
+  /// <returns>The number of bytes copied from the ring.</returns>
+  uint32_t read(uint8_t *buffer, uint32_t length);
+
+  /// <summary>
+  /// Gets the bytes available to the consumer, an underrun is counted if fewer than
+  /// wanted bytes are available. Called by the consumer only.
+  /// </summary>
+  uint32_t acquire(uint32_t wanted);
+
+  /// <summary>
+  /// Releases the bytes read in place from data(). Called by the consumer only.
+  /// </summary>
+  void release(uint32_t length);
+
+  /// <summary>
+  /// Discards all the readable bytes. Called by the consumer only.
+  /// </summary>
+  void flush();
+
+  uint64_t read_index() const;
+
+  uint64_t write_index() const;
+
+  uint64_t underruns() const;
+
+  uint64_t overruns() const;
+
+  /// <summary>
+  /// The number of channels of the last written samples, 0 before any write.
+  /// </summary>
+  uint32_t channels() const;
+
+  /// <summary>
+  /// The sample rate of the last written samples, 0 before any write.
+  /// </summary>
+  uint32_t sample_rate() const;
+
+private:
+  ap_audio_ring(const ap_audio_ring &) = delete;
+  ap_audio_ring &operator=(const ap_audio_ring &) = delete;
+
+  uint8_t *data_;
+  uint32_t capacity_;
+  uint32_t mask_;
+
+  // The indices are kept apart on separate cache lines, each one is written by one side only
+  uint8_t producer_padding_[64];
+  std::atomic<uint64_t> write_index_;
+  std::atomic<uint64_t> overruns_;
+  std::atomic<uint32_t> channels_;
+  std::atomic<uint32_t> sample_rate_;
+
+  uint8_t consumer_padding_[64];
+  std::atomic<uint64_t> read_index_;
+  std::atomic<uint64_t> underruns_;
+};
+
+typedef std::shared_ptr<ap_audio_ring> ap_audio_ring_ptr;
+} // namespace aps
+
+#endif // AP_AUDIO_RING_H
@@ -198,6 +198,31 @@ public:
   DECLARE_STRING_PROPERTY(uuid);
 };
 
+/// <summary>
+/// The scheduling policy of the threads of a pipeline stage.
+/// </summary>
+class APS_EXPORT ap_config_thread_policy {
+public:
+  ap_config_thread_policy();
+
+  ~ap_config_thread_policy();
+
+  /// <summary>
+  /// The thread name, truncated to 15 characters on Linux and Android. Empty keeps the name.
+  /// </summary>
+  DECLARE_STRING_PROPERTY(name);
+
+  /// <summary>
+  /// The nice value from -20 (highest priority) to 19, 0 keeps the default priority.
+  /// </summary>
+  DECLARE_INTEGER32_PROPERTY(nice);
+
+  /// <summary>
+  /// The mask of the CPUs the threads may run on, 0 allows all.
+  /// </summary>
+  DECLARE_INTEGER64_PROPERTY(affinity);
+};
+
 /// <summary>
 ///
 /// </summary>
@@ -313,6 +338,51 @@ public:
   /// </summary>
   DECLARE_OBJECT_PROPERTY(display, ap_config_display);
 
+  /// <summary>
+  /// The number of mirroring sessions whose ports and buffers are prepared
+  /// in advance, 0 (the default) disables the pool. Each pooled session holds
+  /// a 4 MB video buffer, two bound audio sockets and their threads.
+  /// </summary>
+  DECLARE_INTEGER32_PROPERTY(sessionPoolSize);
+
+  /// <summary>
+  /// The total bytes of the stream buffers shared by all servers in the process,
+  /// 0 means unlimited. New streams are rejected when the budget is exhausted.
+  /// </summary>
+  DECLARE_INTEGER64_PROPERTY(memoryBudget);
+
+  /// <summary>
+  /// Decodes the mirroring audio into PCM before delivering it, the formats
+  /// without a decoder are delivered encoded. Only ALAC is decoded built-in,
+  /// AAC-ELD is always delivered encoded unless a decoder is registered with
+  /// ap_audio_decoder::register_factory. The PCM goes to the handlers accepting it,
+  /// see ap_mirroring_session_handler::accepts_audio_pcm.
+  /// </summary>
+  DECLARE_BOOL_PROPERTY(audioDecoding);
+
+  /// <summary>
+  /// The seconds a mirroring session may go without any traffic before it is
+  /// torn down, 0 keeps idle sessions until the connection fails.
+  /// </summary>
+  DECLARE_INTEGER32_PROPERTY(sessionIdleTimeout);
+
+  /// <summary>
+  /// The scheduling of the RTSP and HTTP connections and the timing sync. The thread
+  /// policies are shared by all servers in the process and apply to the threads started
+  /// after the configuration is set.
+  /// </summary>
+  DECLARE_OBJECT_PROPERTY(control_thread, ap_config_thread_policy);
+
+  /// <summary>
+  /// The scheduling of the mirroring video stream.
+  /// </summary>
+  DECLARE_OBJECT_PROPERTY(video_thread, ap_config_thread_policy);
+
+  /// <summary>
+  /// The scheduling of the mirroring audio data and control.
+  /// </summary>
+  DECLARE_OBJECT_PROPERTY(audio_thread, ap_config_thread_policy);
+
   /// <summary>
   ///
   /// </summary>
@@ -0,0 +1,70 @@
+/* 
+ *  File: ap_identity.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef AP_IDENTITY_H
+#define AP_IDENTITY_H
+#pragma once
+
+#include <cstdint>
+#include <memory>
+#include <string>
+#include <vector>
+
+#include <ap_export.h>
+
+namespace aps {
+/// <summary>
+/// Represents the storage of the persistent server identity. The identity
+/// keeps the device ID and the long-term key pair stable across restarts.
+/// </summary>
+class APS_EXPORT ap_identity_store {
+public:
+  /// <summary>
+  ///
+  /// </summary>
+  virtual ~ap_identity_store(){};
+
+  /// <summary>
+  /// Loads the identity data saved previously.
+  /// </summary>
+  /// <param name="data">The identity data.</param>
+  /// <returns>False if there is no identity data saved.</returns>
+  virtual bool load(std::vector<uint8_t> &data) = 0;
+
+  /// <summary>
+  /// Saves the identity data.
+  /// </summary>
+  /// <param name="data">The identity data.</param>
+  /// <returns></returns>
+  virtual bool save(const std::vector<uint8_t> &data) = 0;
+
+  /// <summary>
+  /// Creates the identity store backed by the file.
+  /// </summary>
+  /// <param name="path">The path of the file.</param>
+  /// <returns></returns>
+  static std::shared_ptr<ap_identity_store> from_file(const std::string &path);
+};
+
+typedef std::shared_ptr<ap_identity_store> ap_identity_store_ptr;
+} // namespace aps
+
+#endif // AP_IDENTITY_H
@@ -0,0 +1,148 @@
+/* 
+ *  File: ap_mp4_recorder.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef AP_MP4_RECORDER_H
+#define AP_MP4_RECORDER_H
+#pragma once
+
+#include <cstdint>
+#include <memory>
+#include <string>
+
+#include <ap_export.h>
+#include <ap_session.h>
+
+namespace aps {
+/// <summary>
+///
+/// </summary>
+struct ap_mp4_recorder_options_s {
+  /// <summary>
+  /// The files are named <path_prefix>_0001.mp4, <path_prefix>_0002.mp4 and so on.
+  /// </summary>
+  std::string path_prefix;
+
+  /// <summary>
+  /// Starts a new file at the next key frame once the file reaches this size, 0 for no limit.
+  /// </summary>
+  uint64_t max_file_bytes;
+
+  /// <summary>
+  /// Starts a new file at the next key frame once the file reaches this duration, 0 for no limit.
+  /// </summary>
+  uint32_t max_file_duration_ms;
+
+  /// <summary>
+  /// The target duration of a fragment, a fragment always starts with a key frame.
+  /// </summary>
+  uint32_t fragment_duration_ms;
+
+  /// <summary>
+  /// The fragments are dropped if the writer falls behind by more than this many bytes.
+  /// </summary>
+  uint64_t max_queued_bytes;
+
+  ap_mp4_recorder_options_s()
+      : max_file_bytes(0), max_file_duration_ms(0), fragment_duration_ms(1000), max_queued_bytes(32 * 1024 * 1024) {}
+};
+typedef ap_mp4_recorder_options_s ap_mp4_recorder_options_t;
+
+/// <summary>
+///
+/// </summary>
+struct ap_mp4_recorder_stats_s {
+  uint32_t files;
+  uint32_t fragments;
+  uint64_t bytes_written;
+  uint32_t dropped_fragments;
+  uint32_t write_errors;
+};
+typedef ap_mp4_recorder_stats_s ap_mp4_recorder_stats_t;
+
+/// <summary>
+/// Records the mirroring session to fragmented MP4 files, the H.264 stream and the compressed
+/// audio are stored as received. The receiving threads only copy the samples into the current
+/// fragment, the fragments are written to the disk in large sequential writes on a dedicated
+/// writer thread.
+/// </summary>
+class APS_EXPORT ap_mp4_recorder : public ap_mirroring_session_handler {
+public:
+  explicit ap_mp4_recorder(const ap_mp4_recorder_options_t &options);
+
+  ~ap_mp4_recorder();
+
+  /// <summary>
+  /// Starts the writer thread, the first file is created at the first key frame.
+  /// </summary>
+  /// <returns></returns>
+  bool start();
+
+  /// <summary>
+  /// Writes the buffered samples, closes the current file and stops the writer thread.
+  /// </summary>
+  void stop();
+
+  /// <summary>
+  ///
+  /// </summary>
+  /// <returns></returns>
+  ap_mp4_recorder_stats_t get_stats();
+
+  virtual void on_video_stream_started() override;
+
+  virtual void on_video_stream_stopped() override;
+
+  virtual void on_video_stream_codec(const aps::sms_video_codec_packet_t *p) override;
+
+  virtual void on_video_stream_data(const aps::sms_video_data_packet_t *p) override;
+
+  virtual void on_video_stream_heartbeat() override;
+
+  virtual void on_audio_set_volume(const float ratio, const float volume) override;
+
+  virtual void on_audio_set_progress(const float ratio, const uint64_t start, const uint64_t current,
+                                     const uint64_t end) override;
+
+  virtual void on_audio_set_cover(const std::string format, const void *data, const uint32_t length) override;
+
+  virtual void on_audio_set_meta_data(const void *data, const uint32_t length) override;
+
+  virtual void on_audio_stream_started(const aps::audio_data_format_t format) override;
+
+  virtual void on_audio_stream_data(const aps::rtp_audio_data_packet_t *p, const uint32_t payload_length) override;
+
+  virtual void on_audio_stream_stopped() override;
+
+private:
+  ap_mp4_recorder(const ap_mp4_recorder &) = delete;
+  ap_mp4_recorder &operator=(const ap_mp4_recorder &) = delete;
+
+  class implementation;
+  implementation *impl_;
+};
+
+/// <summary>
+///
+/// </summary>
+typedef std::shared_ptr<ap_mp4_recorder> ap_mp4_recorder_ptr;
+} // namespace aps
+
+#endif // AP_MP4_RECORDER_H
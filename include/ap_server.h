@@ -23,6 +23,7 @@
 #define AP_SERVER_H
 #pragma once
 
+#include <functional>
 #include <memory>
 #if __ANDROID__
 #include <jni.h>
@@ -31,6 +32,7 @@
 #include <ap_config.h>
 #include <ap_export.h>
 #include <ap_handler.h>
+#include <ap_identity.h>
 
 namespace aps {
 /// <summary>
@@ -60,12 +62,27 @@ public:
   /// <param name="hanlder"></param>
   void set_handler(ap_handler_ptr &hanlder);
 
+  /// <summary>
+  /// Sets the store of the persistent server identity. The identity is loaded
+  /// immediately, or created and saved if the store is empty. The stored identity
+  /// overrides the macAddress and pk in the server's own copy of the configuration,
+  /// the config passed to set_config is never modified.
+  /// </summary>
+  /// <param name="store"></param>
+  void set_identity_store(ap_identity_store_ptr &store);
+
   /// <summary>
   ///
   /// </summary>
   /// <returns></returns>
   bool start();
 
+  /// <summary>
+  /// Starts the server on a background thread and returns immediately.
+  /// </summary>
+  /// <param name="callback">Called on the background thread with the result of start.</param>
+  void start_async(std::function<void(bool)> callback);
+
   /// <summary>
   ///
   /// </summary>
@@ -28,10 +28,87 @@
 #include <string>
 #include <vector>
 
+#include <ap_audio_ring.h>
 #include <ap_export.h>
+#include <ap_stream_consumer.h>
 #include <ap_types.h>
+#include <ap_video_buffer_provider.h>
 
 namespace aps {
+/// <summary>
+/// The track metadata parsed from the DAAP payload of the sender, the absent
+/// fields are empty or 0.
+/// </summary>
+struct track_metadata_s {
+  /// <summary>
+  /// The title of the track (minm).
+  /// </summary>
+  std::string title;
+
+  /// <summary>
+  /// The artist (asar).
+  /// </summary>
+  std::string artist;
+
+  /// <summary>
+  /// The album (asal).
+  /// </summary>
+  std::string album;
+
+  /// <summary>
+  /// The album artist (asaa).
+  /// </summary>
+  std::string album_artist;
+
+  /// <summary>
+  /// The genre (asgn).
+  /// </summary>
+  std::string genre;
+
+  /// <summary>
+  /// The composer (ascp).
+  /// </summary>
+  std::string composer;
+
+  /// <summary>
+  /// The persistent id of the item (mper).
+  /// </summary>
+  uint64_t item_id;
+
+  /// <summary>
+  /// The duration in milliseconds (astm).
+  /// </summary>
+  uint32_t duration_ms;
+
+  /// <summary>
+  /// The track number (astn) and the number of tracks (astc).
+  /// </summary>
+  uint16_t track_number;
+  uint16_t track_count;
+
+  /// <summary>
+  /// The disc number (asdn) and the number of discs (asdc).
+  /// </summary>
+  uint16_t disc_number;
+  uint16_t disc_count;
+
+  /// <summary>
+  /// The year (asyr).
+  /// </summary>
+  uint16_t year;
+
+  track_metadata_s() {
+    item_id = 0;
+    duration_ms = 0;
+    track_number = 0;
+    track_count = 0;
+    disc_number = 0;
+    disc_count = 0;
+    year = 0;
+  }
+};
+typedef track_metadata_s track_metadata_t;
+
 /// <summary>
 ///
 /// </summary>
@@ -107,7 +184,7 @@ public:
                                      const uint64_t end) = 0;
 
   /// <summary>
-  ///
+  /// Called when the artwork changes, the artwork resent unchanged by the sender is not reported again.
   /// </summary>
   /// <param name="format"></param>
   /// <param name="data"></param>
@@ -118,7 +195,8 @@ public:
   virtual void on_audio_set_cover(const std::string format, const void *data, const uint32_t length) = 0;
 
   /// <summary>
-  ///
+  /// Called with the raw DAAP payload when the metadata changes, the metadata resent unchanged
+  /// by the sender is not reported again.
   /// </summary>
   /// <param name="data"></param>
   /// <param name="length"></param>
@@ -127,6 +205,15 @@ public:
   /// </remarks>
   virtual void on_audio_set_meta_data(const void *data, const uint32_t length) = 0;
 
+  /// <summary>
+  /// Called after on_audio_set_meta_data with the parsed metadata.
+  /// </summary>
+  /// <param name="metadata">The track metadata.</param>
+  /// <remarks>
+  /// THREAD_AIRPLAY
+  /// </remarks>
+  virtual void on_audio_set_track_metadata(const aps::track_metadata_t &metadata) { (void)metadata; }
+
   /// <summary>
   ///
   /// </summary>
@@ -145,6 +232,25 @@ public:
   /// </remarks>
   virtual void on_audio_stream_data(const aps::rtp_audio_data_packet_t *p, const uint32_t payload_length) = 0;
 
+  /// <summary>
+  /// Called instead of on_audio_stream_data when the audio decoding is enabled
+  /// in the configuration and there is a decoder for the stream format.
+  /// </summary>
+  /// <param name="p">The decoded frames, valid during the call only.</param>
+  /// <remarks>
+  /// THREAD_AUDIO_STREAM
+  /// </remarks>
+  virtual void on_audio_stream_pcm(const aps::audio_pcm_frames_t *p) { (void)p; }
+
+  /// <summary>
+  /// Whether the handler takes on_audio_stream_pcm. The audio is not decoded for a handler
+  /// returning false, it receives on_audio_stream_data even if the decoding is enabled.
+  /// </summary>
+  /// <remarks>
+  /// THREAD_AUDIO_STREAM
+  /// </remarks>
+  virtual bool accepts_audio_pcm() { return true; }
+
   /// <summary>
   ///
   /// </summary>
@@ -253,6 +359,17 @@ struct playback_info_s {
 };
 typedef playback_info_s playback_info_t;
 
+/// <summary>
+/// The flags of the playback state pushed by the application.
+/// </summary>
+enum ap_playback_state_flags_e {
+  playback_ready_to_play = 0x01,
+  playback_buffer_empty = 0x02,
+  playback_buffer_full = 0x04,
+  playback_likely_to_keep_up = 0x08,
+};
+typedef ap_playback_state_flags_e ap_playback_state_flags_t;
+
 /// <summary>
 ///
 /// <remarks>All methods will be called in the mirroring </remarks>
@@ -325,6 +442,27 @@ enum session_type_e {
 };
 typedef session_type_e session_type_t;
 
+/// <summary>
+/// The native stream buffer memory of a session in bytes.
+/// </summary>
+struct ap_session_memory_usage_s {
+  /// <summary>
+  /// The bytes currently held by the session.
+  /// </summary>
+  uint64_t in_use;
+
+  /// <summary>
+  /// The peak of in_use.
+  /// </summary>
+  uint64_t peak;
+
+  /// <summary>
+  /// The number of allocations rejected by the memory budget.
+  /// </summary>
+  uint64_t rejected;
+};
+typedef ap_session_memory_usage_s ap_session_memory_usage_t;
+
 class APS_EXPORT ap_session {
 public:
   virtual ~ap_session(){};
@@ -335,6 +473,82 @@ public:
 
   virtual void disconnect() = 0;
 
+  virtual ap_session_memory_usage_t get_memory_usage() = 0;
+
+  /// <summary>
+  /// Enables the demand driven delivery of the mirroring stream. While enabled, the stream units are
+  /// only delivered against the demand added by request_stream_units(), the video socket is not read
+  /// while there is no demand and the audio packets arriving without demand are dropped.
+  /// </summary>
+  virtual void set_stream_flow_control(bool enabled) = 0;
+
+  /// <summary>
+  /// Adds demand for the specified number of mirroring stream units, the video data, video codec
+  /// and audio data packets count as one unit each.
+  /// </summary>
+  virtual void request_stream_units(uint64_t n) = 0;
+
+  /// <summary>
+  /// Sets the ring the decoded mirroring audio is written to instead of the handler, the audio is
+  /// decoded regardless of the audioDecoding option. The ring is taken when the audio stream is set
+  /// up, so it should be set when the session begins. Null restores the delivery to the handler.
+  /// Only the formats with a decoder reach the ring, see ap_audio_decoder. The ring stays empty
+  /// for AAC-ELD, the packets of which still go to the handler.
+  /// </summary>
+  virtual void set_audio_ring(const ap_audio_ring_ptr &ring) = 0;
+
+  /// <summary>
+  /// Attaches a recorder of the mirroring stream, such as an ap_mp4_recorder. The recorder receives
+  /// the decrypted stream as sent, independent of the handler and of the flow control of the audio.
+  /// It can be attached at any time, a recorder attached to a running stream gets its codec packet
+  /// first and the recording of the video begins with the next key frame. Null detaches the recorder.
+  /// </summary>
+  virtual void set_recorder(const ap_mirroring_session_handler_ptr &recorder) = 0;
+
+  /// <summary>
+  /// Adds a consumer of the mirroring stream, the frames are shared by all the consumers and each
+  /// consumer is fed by its own thread from its own bounded queue. A slow consumer only loses its
+  /// own frames, it never holds back the others, the handler or the stream. Like the recorder, a
+  /// consumer added mid-session gets the codec packet of the running stream first, and then the
+  /// video from the next key frame on.
+  /// </summary>
+  /// <returns>false if the consumer has been added already or the session has ended.</returns>
+  virtual bool add_stream_consumer(const ap_stream_consumer_ptr &consumer, uint32_t max_queued_frames,
+                                   ap_stream_drop_policy_t policy) = 0;
+
+  /// <summary>
+  /// Removes the consumer, its on_stream_end is called before this returns unless called by the
+  /// consumer itself.
+  /// </summary>
+  virtual void remove_stream_consumer(const ap_stream_consumer_ptr &consumer) = 0;
+
+  /// <summary>
+  /// Sets the provider of the buffers the mirroring video frames are received and decrypted into,
+  /// it takes effect from the next frame. The recorder and the consumers still receive the frames,
+  /// at the cost of one copy while any is attached. Null restores the delivery to the handler.
+  /// </summary>
+  virtual void set_video_buffer_provider(const ap_video_buffer_provider_ptr &provider) = 0;
+
+  /// <summary>
+  /// Pushes the state of the casting playback, call it whenever the player starts, pauses, seeks
+  /// or changes the rate. The playback info polls of the sender are answered from the latest state
+  /// without calling the handler, the position advances by the rate between the updates unless
+  /// playback_buffer_empty is set. Until the first update after a play request,
+  /// on_acquire_playback_info is still called.
+  /// </summary>
+  /// <param name="position">The position in seconds.</param>
+  /// <param name="duration">The duration in seconds.</param>
+  /// <param name="rate">The playback rate, 0 while paused.</param>
+  /// <param name="flags">The ap_playback_state_flags_t.</param>
+  virtual void update_playback_state(double position, double duration, double rate, uint32_t flags) = 0;
+
+  /// <summary>
+  /// Sets the mirroring handler. If the video stream is running, the handler first gets the stream
+  /// started event, the last codec packet and the frames since the last key frame, and then the live
+  /// stream, all on the video stream thread. The call does not wait for the replay and may be made
+  /// from the handler callbacks.
+  /// </summary>
+  /// <param name="handler">The handler.</param>
   virtual void set_mirroring_handler(ap_mirroring_session_handler_ptr handler) = 0;
 
   virtual void set_casting_handler(ap_casting_session_handler_ptr handler) = 0;
@@ -0,0 +1,127 @@
+/* 
+ *  File: ap_stream_consumer.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef AP_STREAM_CONSUMER_H
+#define AP_STREAM_CONSUMER_H
+#pragma once
+
+#include <cstdint>
+#include <memory>
+#include <vector>
+
+#include <ap_export.h>
+
+namespace aps {
+/// <summary>
+///
+/// </summary>
+enum ap_stream_frame_type_e {
+  stream_frame_video_codec = 0,
+  stream_frame_video_data = 1,
+  stream_frame_audio_data = 2,
+};
+typedef ap_stream_frame_type_e ap_stream_frame_type_t;
+
+/// <summary>
+/// A frame of the mirroring stream shared by all the consumers, it is never modified once published.
+/// </summary>
+struct ap_stream_frame_s {
+  /// <summary>
+  /// One of ap_stream_frame_type_t.
+  /// </summary>
+  uint32_t type;
+
+  /// <summary>
+  /// The audio_data_format_t of the audio stream, 0 for the video frames.
+  /// </summary>
+  uint32_t format;
+
+  /// <summary>
+  /// Whether the video frame contains an IDR slice, always true for the codec and audio frames.
+  /// </summary>
+  bool key_frame;
+
+  /// <summary>
+  /// The NTP timestamp of the video frames, the RTP timestamp of the audio frames.
+  /// </summary>
+  uint64_t timestamp;
+
+  /// <summary>
+  /// The avcC record, the AVCC access unit, or the compressed audio packet.
+  /// </summary>
+  std::vector<uint8_t> data;
+};
+typedef ap_stream_frame_s ap_stream_frame_t;
+typedef std::shared_ptr<const ap_stream_frame_t> ap_stream_frame_ptr;
+
+/// <summary>
+///
+/// </summary>
+enum ap_stream_drop_policy_e {
+  /// <summary>
+  /// Drops the oldest queued frame to make room for the new one, a codec packet is never dropped.
+  /// </summary>
+  stream_drop_oldest = 0,
+
+  /// <summary>
+  /// Drops the new frame.
+  /// </summary>
+  stream_drop_newest = 1,
+
+  /// <summary>
+  /// Drops the queued video frames and the following ones up to the next key frame, so the
+  /// consumer never receives a frame it can not decode.
+  /// </summary>
+  stream_drop_until_key_frame = 2,
+};
+typedef ap_stream_drop_policy_e ap_stream_drop_policy_t;
+
+/// <summary>
+/// A consumer of the mirroring stream. Each consumer is called on its own thread, a slow consumer
+/// only overflows its own queue.
+/// </summary>
+class APS_EXPORT ap_stream_consumer {
+public:
+  virtual ~ap_stream_consumer(){};
+
+  /// <summary>
+  /// Called for every frame the drop policy lets through. The frame can be kept as long as needed.
+  /// </summary>
+  virtual void on_stream_frame(const ap_stream_frame_ptr &frame) = 0;
+
+  /// <summary>
+  /// Called before the next frame once frames have been dropped for this consumer.
+  /// </summary>
+  virtual void on_stream_frames_dropped(uint32_t count) { (void)count; }
+
+  /// <summary>
+  /// Called last on the thread of the consumer, when it is removed or the session ends.
+  /// </summary>
+  virtual void on_stream_end() {}
+};
+
+/// <summary>
+///
+/// </summary>
+typedef std::shared_ptr<ap_stream_consumer> ap_stream_consumer_ptr;
+} // namespace aps
+
+#endif // AP_STREAM_CONSUMER_H
@@ -0,0 +1,102 @@
+/* 
+ *  File: ap_stream_fanout.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef AP_STREAM_FANOUT_H
+#define AP_STREAM_FANOUT_H
+#pragma once
+
+#include <ap_export.h>
+#include <ap_session.h>
+#include <ap_stream_consumer.h>
+
+namespace aps {
+/// <summary>
+/// Fans the mirroring stream out to several consumers. Every packet is copied once into a frame
+/// and the frame is shared by the queues of all the consumers.
+/// </summary>
+class APS_EXPORT ap_stream_fanout : public ap_mirroring_session_handler {
+public:
+  ap_stream_fanout();
+
+  ~ap_stream_fanout();
+
+  /// <summary>
+  /// Adds a consumer with its own delivery thread. A consumer added while the stream runs
+  /// gets the codec packet of the stream first, the video starts at the next key frame.
+  /// </summary>
+  /// <param name="consumer">The consumer.</param>
+  /// <param name="max_queued_frames">The capacity of the queue of the consumer.</param>
+  /// <param name="policy">What to drop when the queue is full.</param>
+  /// <returns>false if the consumer has been added already or the fanout is closed.</returns>
+  bool add_consumer(const ap_stream_consumer_ptr &consumer, uint32_t max_queued_frames,
+                    ap_stream_drop_policy_t policy);
+
+  /// <summary>
+  /// Removes the consumer, it receives on_stream_end and no frame after this returns, unless
+  /// this is called by the consumer itself.
+  /// </summary>
+  void remove_consumer(const ap_stream_consumer_ptr &consumer);
+
+  /// <summary>
+  /// Removes all the consumers and rejects new ones.
+  /// </summary>
+  void close();
+
+  virtual void on_video_stream_started() override;
+
+  virtual void on_video_stream_stopped() override;
+
+  virtual void on_video_stream_codec(const aps::sms_video_codec_packet_t *p) override;
+
+  virtual void on_video_stream_data(const aps::sms_video_data_packet_t *p) override;
+
+  virtual void on_video_stream_heartbeat() override;
+
+  virtual void on_audio_set_volume(const float ratio, const float volume) override;
+
+  virtual void on_audio_set_progress(const float ratio, const uint64_t start, const uint64_t current,
+                                     const uint64_t end) override;
+
+  virtual void on_audio_set_cover(const std::string format, const void *data, const uint32_t length) override;
+
+  virtual void on_audio_set_meta_data(const void *data, const uint32_t length) override;
+
+  virtual void on_audio_stream_started(const aps::audio_data_format_t format) override;
+
+  virtual void on_audio_stream_data(const aps::rtp_audio_data_packet_t *p, const uint32_t payload_length) override;
+
+  virtual void on_audio_stream_stopped() override;
+
+private:
+  ap_stream_fanout(const ap_stream_fanout &) = delete;
+  ap_stream_fanout &operator=(const ap_stream_fanout &) = delete;
+
+  class implementation;
+  implementation *impl_;
+};
+
+/// <summary>
+///
+/// </summary>
+typedef std::shared_ptr<ap_stream_fanout> ap_stream_fanout_ptr;
+} // namespace aps
+
+#endif // AP_STREAM_FANOUT_H
@@ -92,6 +92,37 @@ enum audio_data_format_e {
 };
 typedef audio_data_format_e audio_data_format_t;
 
+/// <summary>
+/// The decoded audio of one packet.
+/// </summary>
+struct audio_pcm_frames_s {
+  /// <summary>
+  /// The interleaved 16-bit samples in host byte order.
+  /// </summary>
+  const int16_t *samples;
+
+  /// <summary>
+  /// The number of frames, each frame holds one sample per channel.
+  /// </summary>
+  uint32_t frames;
+
+  /// <summary>
+  ///
+  /// </summary>
+  uint32_t channels;
+
+  /// <summary>
+  ///
+  /// </summary>
+  uint32_t sample_rate;
+
+  /// <summary>
+  /// The RTP timestamp of the first frame, in samples.
+  /// </summary>
+  uint32_t timestamp;
+};
+typedef audio_pcm_frames_s audio_pcm_frames_t;
+
 /// <summary>
 ///
 /// </summary>
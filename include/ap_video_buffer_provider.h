@@ -0,0 +1,104 @@
+/* 
+ *  File: ap_video_buffer_provider.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef AP_VIDEO_BUFFER_PROVIDER_H
+#define AP_VIDEO_BUFFER_PROVIDER_H
+#pragma once
+
+#include <cstdint>
+#include <memory>
+
+#include <ap_export.h>
+
+namespace aps {
+/// <summary>
+/// A buffer of the application a video frame is received into.
+/// </summary>
+struct ap_video_buffer_s {
+  /// <summary>
+  /// The memory the frame is written to.
+  /// </summary>
+  uint8_t *data;
+
+  /// <summary>
+  /// The size of the memory, at least the size requested.
+  /// </summary>
+  uint32_t capacity;
+
+  /// <summary>
+  /// The value of the provider identifying the buffer, it is passed back as is.
+  /// </summary>
+  void *context;
+
+  ap_video_buffer_s() {
+    data = 0;
+    capacity = 0;
+    context = 0;
+  }
+};
+typedef ap_video_buffer_s ap_video_buffer_t;
+
+/// <summary>
+/// Supplies the memory the mirroring video frames are received into, such as the input buffers of a
+/// decoder. The encrypted payload is read from the socket into the buffer and decrypted in place, so
+/// the frame is not copied between the socket and the application. The frames received this way are
+/// not delivered to on_video_stream_data, the codec packets and the heartbeats still are.
+/// </summary>
+/// <remarks>
+/// All methods are called on THREAD_VIDEO_STREAM, one buffer is acquired at a time.
+/// </remarks>
+class APS_EXPORT ap_video_buffer_provider {
+public:
+  virtual ~ap_video_buffer_provider(){};
+
+  /// <summary>
+  /// Called when the header of a video frame has arrived, before its payload is read.
+  /// </summary>
+  /// <param name="size">The size of the frame.</param>
+  /// <param name="buffer">Receives the buffer of at least size bytes.</param>
+  /// <returns>false to receive the frame into the buffer of the session and deliver it to
+  /// on_video_stream_data instead.</returns>
+  virtual bool acquire_video_buffer(uint32_t size, ap_video_buffer_t &buffer) = 0;
+
+  /// <summary>
+  /// Called when the frame has been received and decrypted into the buffer, the buffer belongs to
+  /// the provider again.
+  /// </summary>
+  /// <param name="buffer">The buffer returned by acquire_video_buffer.</param>
+  /// <param name="size">The size of the AVCC access unit at the beginning of the buffer.</param>
+  /// <param name="timestamp">The NTP timestamp of the frame.</param>
+  virtual void on_video_buffer_filled(const ap_video_buffer_t &buffer, uint32_t size, uint64_t timestamp) = 0;
+
+  /// <summary>
+  /// Called instead of on_video_buffer_filled when the frame could not be received, e.g. the session
+  /// ended. The buffer belongs to the provider again, its content is undefined.
+  /// </summary>
+  /// <param name="buffer">The buffer returned by acquire_video_buffer.</param>
+  virtual void on_video_buffer_released(const ap_video_buffer_t &buffer) = 0;
+};
+
+/// <summary>
+///
+/// </summary>
+typedef std::shared_ptr<ap_video_buffer_provider> ap_video_buffer_provider_ptr;
+} // namespace aps
+
+#endif // AP_VIDEO_BUFFER_PROVIDER_H
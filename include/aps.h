@@ -22,11 +22,18 @@
 #ifndef APS_H
 #define APS_H
 
+#include <ap_audio_decoder.h>
+#include <ap_audio_ring.h>
 #include <ap_config.h>
 #include <ap_export.h>
 #include <ap_handler.h>
+#include <ap_identity.h>
+#include <ap_mp4_recorder.h>
 #include <ap_server.h>
 #include <ap_session.h>
+#include <ap_stream_consumer.h>
+#include <ap_stream_fanout.h>
 #include <ap_types.h>
+#include <ap_video_buffer_provider.h>
 
 #endif // !APS_H
@@ -26,34 +26,81 @@
 DEFINE_NCI_METHODS(AirPlayServer);
 
 extern "C" JNIEXPORT jboolean JNICALL Java_com_sheentech_apsdk_AirPlayServer_nciStart(JNIEnv *env, jobject thiz) {
-  return static_cast<jboolean>(AirPlayServer::get(env, thiz)->start());
+  AirPlayServer *p = AirPlayServer::get(env, thiz);
+  if (p) {
+    return static_cast<jboolean>(p->start());
+  }
+  return JNI_FALSE;
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlayServer_nciStartAsync(JNIEnv *env, jobject thiz,
+                                                                                       jobject callback) {
+  AirPlayServer *p = AirPlayServer::get(env, thiz);
+  if (p) {
+    p->startAsync(callback);
+  }
 }
 
 extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlayServer_nciStop(JNIEnv *env, jobject thiz) {
-  AirPlayServer::get(env, thiz)->stop();
+  AirPlayServer *p = AirPlayServer::get(env, thiz);
+  if (p) {
+    p->stop();
+  }
 }
 
 extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlayServer_nciSetConfig(JNIEnv *env, jobject thiz,
                                                                                       jobject config) {
-  env->DeleteLocalRef(config);
-  AirPlayConfig airPlayConfig = AirPlayConfig::attach(env, config);
-  AirPlayServer::get(env, thiz)->setConfig(airPlayConfig);
+  AirPlayServer *p = AirPlayServer::get(env, thiz);
+  if (p) {
+    AirPlayConfig airPlayConfig = AirPlayConfig::attach(env, config);
+    p->setConfig(airPlayConfig);
+  }
 }
 
 extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlayServer_nciSetHandler(JNIEnv *env, jobject thiz,
                                                                                        jobject handler) {
+  AirPlayServer *p = AirPlayServer::get(env, thiz);
+  if (!p) {
+    return;
+  }
   if (handler) {
     auto airplayHandler = IAirPlayHandler::attach(env, handler);
     if (airplayHandler) {
-      AirPlayServer::get(env, thiz)->setHandler(airplayHandler);
+      p->setHandler(airplayHandler);
     }
   } else {
-    AirPlayServer::get(env, thiz)->setHandler(0);
+    p->setHandler(0);
+  }
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlayServer_nciSetIdentityStore(JNIEnv *env, jobject thiz,
+                                                                                             jobject store) {
+  AirPlayServer *p = AirPlayServer::get(env, thiz);
+  if (p && store) {
+    ap_identity_store_ptr s(IAirPlayIdentityStore::attach(env, store));
+    if (s) {
+      p->setIdentityStore(s);
+    }
+  }
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlayServer_nciSetIdentityFile(JNIEnv *env, jobject thiz,
+                                                                                            jstring path) {
+  AirPlayServer *p = AirPlayServer::get(env, thiz);
+  if (p && path) {
+    const char *s = env->GetStringUTFChars(path, 0);
+    ap_identity_store_ptr store = ap_identity_store::from_file(s);
+    env->ReleaseStringUTFChars(path, s);
+    p->setIdentityStore(store);
   }
 }
 
 extern "C" JNIEXPORT jint JNICALL Java_com_sheentech_apsdk_AirPlayServer_nciGetServicePort(JNIEnv *env, jobject thiz) {
-  return AirPlayServer::get(env, thiz)->getServicePort();
+  AirPlayServer *p = AirPlayServer::get(env, thiz);
+  if (p) {
+    return p->getServicePort();
+  }
+  return 0;
 }
 
 AirPlayServer::AirPlayServer(JNIEnv *env) : nci_object<AirPlayServer, AirPlayServer_cls>() {
@@ -68,33 +115,148 @@ bool AirPlayServer::start() {
   return false;
 }
 
+void AirPlayServer::startAsync(jobject callback) {
+  JNIEnv *env = getJNIEnv();
+  if (!server_ || !env) {
+    return;
+  }
+
+  // The callback is invoked on the start thread, hold it with a global reference until then
+  jobject cb = callback ? env->NewGlobalRef(callback) : 0;
+  server_->start_async([cb](bool result) {
+    JNIEnv *env = getJNIEnv();
+    if (!env || !cb) {
+      return;
+    }
+
+    jclass clz = env->GetObjectClass(cb);
+    jmethodID mid = env->GetMethodID(clz, "on_start_completed", "(Z)V");
+    if (mid) {
+      env->CallVoidMethod(cb, mid, static_cast<jboolean>(result));
+    } else {
+      __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of on_start_completed");
+    }
+    env->DeleteLocalRef(clz);
+    env->DeleteGlobalRef(cb);
+  });
+}
+
 void AirPlayServer::stop() {
   if (server_)
     server_->stop();
 }
 
+static bool get_string_field(JNIEnv *env, jobject obj, std::string &value) {
+  jstring str = (jstring)obj;
+  if (!str) {
+    return false;
+  }
+
+  const char *s = env->GetStringUTFChars(str, 0);
+  if (s) {
+    value = s;
+    env->ReleaseStringUTFChars(str, s);
+  }
+  env->DeleteLocalRef(str);
+  return s != 0;
+}
+
+static ap_config_thread_policy get_thread_policy(JNIEnv *env, jobject obj) {
+  AirPlayConfigThreadPolicy p = AirPlayConfigThreadPolicy::attach(env, obj);
+  ap_config_thread_policy value;
+  std::string s;
+  if (get_string_field(env, p.name(), s))
+    value.name(s);
+  value.nice(p.nice());
+  value.affinity(p.affinity());
+  return value;
+}
+
 void AirPlayServer::setConfig(const AirPlayConfig &config) {
   if (server_) {
     JNIEnv *env = getJNIEnv();
     if (env) {
-      ap_config_ptr cfg = ap_config::default_instance();
-      const char *s = 0;
-
-      // Get the server name
-      jstring name = (jstring)config.name();
-      s = env->GetStringUTFChars(name, 0);
-      cfg->name(s);
-      env->ReleaseStringUTFChars(name, s);
-
-      // Get publish service flag
-      jboolean publishService = (jboolean)config.publishService();
-      cfg->publishService(publishService);
-
-      // Get the mac address
-      jstring macAddress = (jstring)config.macAddress();
-      s = env->GetStringUTFChars(macAddress, 0);
-      cfg->macAddress(s);
-      env->ReleaseStringUTFChars(macAddress, s);
+      // A copy of its own, the running sessions and the other servers keep the config they have
+      ap_config_ptr cfg = std::make_shared<ap_config>(*ap_config::default_instance());
+      std::string s;
+
+      // Marshal all fields in one pass, the field ids are cached by the wrappers
+      if (get_string_field(env, config.name(), s))
+        cfg->name(s);
+      cfg->publishService(config.publishService());
+      if (get_string_field(env, config.macAddress(), s))
+        cfg->macAddress(s);
+      if (get_string_field(env, config.model(), s))
+        cfg->model(s);
+      if (get_string_field(env, config.sourceVersion(), s))
+        cfg->serverVersion(s);
+      if (get_string_field(env, config.pi(), s))
+        cfg->pi(s);
+      if (get_string_field(env, config.pk(), s))
+        cfg->pk(s);
+      cfg->vv(config.vv());
+      cfg->features((uint32_t)config.features());
+      cfg->statusFlag(config.statusFlag());
+      cfg->sessionPoolSize(config.sessionPoolSize());
+      cfg->memoryBudget(config.memoryBudget());
+      cfg->audioDecoding(config.audioDecoding());
+      cfg->sessionIdleTimeout(config.sessionIdleTimeout());
+
+      jobject display = config.display();
+      if (display) {
+        AirPlayConfigDisplay d = AirPlayConfigDisplay::attach(env, display);
+        ap_config_display value = cfg->display();
+        value.width(d.width());
+        value.height(d.height());
+        value.refreshRate(d.refreshRate());
+        if (get_string_field(env, d.uuid(), s))
+          value.uuid(s);
+        cfg->display(value);
+        env->DeleteLocalRef(display);
+      }
+
+      jobject audioFormat = config.audioFormat();
+      if (audioFormat) {
+        AirPlayConfigAudioFormat f = AirPlayConfigAudioFormat::attach(env, audioFormat);
+        ap_config_audio_format value = cfg->audio_format();
+        value.type(f.type());
+        value.audioInputFormats(f.audioInputFormats());
+        value.audioOutputFormats(f.audioOutputFormats());
+        cfg->audio_format(value);
+        env->DeleteLocalRef(audioFormat);
+      }
+
+      jobject audioLatency = config.audioLatency();
+      if (audioLatency) {
+        AirPlayConfigAudioLatency l = AirPlayConfigAudioLatency::attach(env, audioLatency);
+        ap_config_audio_latency value = cfg->audio_latency();
+        value.type(l.type());
+        if (get_string_field(env, l.audioType(), s))
+          value.audioType(s);
+        value.inputLatencyMicros(l.inputLatencyMicros());
+        value.outputLatencyMicros(l.outputLatencyMicros());
+        cfg->audio_latency(value);
+        env->DeleteLocalRef(audioLatency);
+      }
+
+      jobject controlThread = config.controlThread();
+      if (controlThread) {
+        cfg->control_thread(get_thread_policy(env, controlThread));
+        env->DeleteLocalRef(controlThread);
+      }
+
+      jobject videoThread = config.videoThread();
+      if (videoThread) {
+        cfg->video_thread(get_thread_policy(env, videoThread));
+        env->DeleteLocalRef(videoThread);
+      }
+
+      jobject audioThread = config.audioThread();
+      if (audioThread) {
+        cfg->audio_thread(get_thread_policy(env, audioThread));
+        env->DeleteLocalRef(audioThread);
+      }
+
       server_->set_config(cfg);
     }
   }
@@ -112,6 +274,12 @@ void AirPlayServer::setHandler(IAirPlayHandler *handler) {
   }
 }
 
+void AirPlayServer::setIdentityStore(ap_identity_store_ptr store) {
+  if (server_) {
+    server_->set_identity_store(store);
+  }
+}
+
 uint16_t AirPlayServer::getServicePort() {
   if (server_) {
     return server_->get_service_port();
@@ -28,6 +28,7 @@
 #include "jni_ap_handler.h"
 #include "jni_class_wrapper.h"
 #include "IAirPlayHandler.h"
+#include "IAirPlayIdentityStore.h"
 // clang-format on
 
 using namespace aps;
@@ -39,12 +40,16 @@ public:
 
   bool start();
 
+  void startAsync(jobject callback);
+
   void stop();
 
   void setConfig(const AirPlayConfig &config);
 
   void setHandler(IAirPlayHandler *handler);
 
+  void setIdentityStore(ap_identity_store_ptr store);
+
   uint16_t getServicePort();
 
 private:
@@ -23,28 +23,155 @@
 #include <dlfcn.h>
 #include <string>
 #include "AirPlaySession.h"
+#include "IAirPlayStreamConsumer.h"
+#include "IAirPlayVideoBufferProvider.h"
 // clang-format on
 
 DEFINE_NCI_METHODS(AirPlaySession);
 
-extern "C" JNIEXPORT jint JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciGetSessionType(JNIEnv *env,
-                                                                                            jobject instance) {
+extern "C" JNIEXPORT jlongArray JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciGetMemoryUsage(JNIEnv *env,
+                                                                                                 jobject instance) {
   AirPlaySession *p = AirPlaySession::get(env, instance);
   if (p) {
-    return p->get_session_type();
+    ap_session_memory_usage_t usage = p->get_memory_usage();
+    jlong values[3] = {(jlong)usage.in_use, (jlong)usage.peak, (jlong)usage.rejected};
+    jlongArray result = env->NewLongArray(3);
+    if (result) {
+      env->SetLongArrayRegion(result, 0, 3, values);
+    }
+    return result;
   }
   return 0;
 }
 
-extern "C" JNIEXPORT jlong JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciGetSessionId(JNIEnv *env,
-                                                                                           jobject instance) {
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciSetStreamFlowControl(JNIEnv *env,
+                                                                                                  jobject instance,
+                                                                                                  jboolean enabled) {
   AirPlaySession *p = AirPlaySession::get(env, instance);
   if (p) {
-    return p->get_session_id();
+    p->set_stream_flow_control(enabled);
+  }
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciRequestStreamUnits(JNIEnv *env,
+                                                                                                jobject instance,
+                                                                                                jlong n) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p && n > 0) {
+    p->request_stream_units((uint64_t)n);
+  }
+}
+
+extern "C" JNIEXPORT jobject JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciCreateAudioRing(JNIEnv *env,
+                                                                                               jobject instance,
+                                                                                               jint capacity) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p && capacity > 0 && (uint32_t)capacity <= ap_audio_ring::max_capacity) {
+    ap_audio_ring_ptr ring = std::make_shared<ap_audio_ring>((uint32_t)capacity);
+    jobject obj = AudioRing::new_jvmObject(env);
+    AudioRing *r = AudioRing::attach(env, obj);
+    if (r) {
+      r->set_ring(env, ring);
+      p->set_audio_ring(ring);
+      return obj;
+    }
+    env->DeleteLocalRef(obj);
+  }
+  return 0;
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciDetachAudioRing(JNIEnv *env,
+                                                                                             jobject instance) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p) {
+    p->set_audio_ring(nullptr);
+  }
+}
+
+extern "C" JNIEXPORT jboolean JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciStartRecording(JNIEnv *env,
+                                                                                               jobject instance,
+                                                                                               jstring pathPrefix,
+                                                                                               jlong maxFileBytes,
+                                                                                               jint maxFileDurationMs) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p && pathPrefix) {
+    ap_mp4_recorder_options_t options;
+    const char *s = env->GetStringUTFChars(pathPrefix, 0);
+    options.path_prefix = s;
+    env->ReleaseStringUTFChars(pathPrefix, s);
+    options.max_file_bytes = maxFileBytes > 0 ? (uint64_t)maxFileBytes : 0;
+    options.max_file_duration_ms = maxFileDurationMs > 0 ? (uint32_t)maxFileDurationMs : 0;
+    return p->start_recording(options);
+  }
+  return false;
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciStopRecording(JNIEnv *env,
+                                                                                          jobject instance) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p) {
+    p->stop_recording();
+  }
+}
+
+extern "C" JNIEXPORT jlongArray JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciGetRecordingStats(JNIEnv *env,
+                                                                                                    jobject instance) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p) {
+    ap_mp4_recorder_stats_t stats = p->get_recording_stats();
+    jlong values[5] = {(jlong)stats.files,
+                       (jlong)stats.fragments,
+                       (jlong)stats.bytes_written,
+                       (jlong)stats.dropped_fragments,
+                       (jlong)stats.write_errors};
+    jlongArray result = env->NewLongArray(5);
+    if (result) {
+      env->SetLongArrayRegion(result, 0, 5, values);
+    }
+    return result;
   }
   return 0;
 }
 
+extern "C" JNIEXPORT jboolean JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciAddStreamConsumer(
+    JNIEnv *env, jobject instance, jobject consumer, jint maxQueuedFrames, jint dropPolicy) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p && consumer && maxQueuedFrames > 0) {
+    return p->add_stream_consumer(env, consumer, (uint32_t)maxQueuedFrames, (ap_stream_drop_policy_t)dropPolicy);
+  }
+  return false;
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciRemoveStreamConsumer(JNIEnv *env,
+                                                                                                  jobject instance,
+                                                                                                  jobject consumer) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p && consumer) {
+    p->remove_stream_consumer(env, consumer);
+  }
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciSetVideoBufferProvider(JNIEnv *env,
+                                                                                                    jobject instance,
+                                                                                                    jobject provider) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p) {
+    p->set_video_buffer_provider(env, provider);
+  }
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciUpdatePlaybackState(JNIEnv *env,
+                                                                                                 jobject instance,
+                                                                                                 jdouble position,
+                                                                                                 jdouble duration,
+                                                                                                 jdouble rate,
+                                                                                                 jint flags) {
+  AirPlaySession *p = AirPlaySession::get(env, instance);
+  if (p) {
+    p->update_playback_state(position, duration, rate, (uint32_t)flags);
+  }
+}
+
 extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciSetMirrorHandler(JNIEnv *env,
                                                                                               jobject instance,
                                                                                               jobject handler) {
@@ -82,7 +209,22 @@ extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AirPlaySession_nciDis
 
 AirPlaySession::AirPlaySession(JNIEnv *env) : nci_object<AirPlaySession, AirPlaySession_cls>() { (void)env; }
 
-void AirPlaySession::set_ap_session(const ap_session_ptr &p) { session_ = p; }
+AirPlaySession::~AirPlaySession() { stop_recording(); }
+
+void AirPlaySession::set_ap_session(JNIEnv *env, const ap_session_ptr &p) {
+  session_ = p;
+  if (!p) {
+    return;
+  }
+
+  // The attributes never change, cache them in the Java object to save the JNI round trips
+  GET_METHOD_ID(nciInitialize, "(JI)V");
+  if (mid) {
+    env->CallVoidMethod(jvm_obj_, mid, (jlong)p->get_session_id(), (jint)p->get_session_type());
+  } else {
+    __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of nciInitialize");
+  }
+}
 
 uint64_t AirPlaySession::get_session_id() {
   auto p = session_.lock();
@@ -100,6 +242,151 @@ int AirPlaySession::get_session_type() {
   return -1;
 }
 
+ap_session_memory_usage_t AirPlaySession::get_memory_usage() {
+  ap_session_memory_usage_t usage = {0, 0, 0};
+  auto p = session_.lock();
+  if (p) {
+    usage = p->get_memory_usage();
+  }
+  return usage;
+}
+
+void AirPlaySession::set_stream_flow_control(bool enabled) {
+  auto p = session_.lock();
+  if (p) {
+    p->set_stream_flow_control(enabled);
+  }
+}
+
+void AirPlaySession::request_stream_units(uint64_t n) {
+  auto p = session_.lock();
+  if (p) {
+    p->request_stream_units(n);
+  }
+}
+
+void AirPlaySession::set_audio_ring(const ap_audio_ring_ptr &ring) {
+  auto p = session_.lock();
+  if (p) {
+    p->set_audio_ring(ring);
+  }
+}
+
+bool AirPlaySession::start_recording(const ap_mp4_recorder_options_t &options) {
+  auto p = session_.lock();
+  if (!p) {
+    return false;
+  }
+
+  std::lock_guard<std::mutex> l(recorder_mtx_);
+  if (recorder_) {
+    p->set_recorder(nullptr);
+    recorder_->stop();
+  }
+  recorder_ = std::make_shared<ap_mp4_recorder>(options);
+  if (!recorder_->start()) {
+    recorder_.reset();
+    return false;
+  }
+  p->set_recorder(recorder_);
+  return true;
+}
+
+void AirPlaySession::stop_recording() {
+  std::lock_guard<std::mutex> l(recorder_mtx_);
+  if (!recorder_) {
+    return;
+  }
+
+  auto p = session_.lock();
+  if (p) {
+    p->set_recorder(nullptr);
+  }
+  // The last fragment is written before this returns
+  recorder_->stop();
+}
+
+ap_mp4_recorder_stats_t AirPlaySession::get_recording_stats() {
+  std::lock_guard<std::mutex> l(recorder_mtx_);
+  if (recorder_) {
+    return recorder_->get_stats();
+  }
+  ap_mp4_recorder_stats_t stats = {0, 0, 0, 0, 0};
+  return stats;
+}
+
+bool AirPlaySession::add_stream_consumer(JNIEnv *env,
+                                         jobject consumer,
+                                         uint32_t max_queued_frames,
+                                         ap_stream_drop_policy_t policy) {
+  auto p = session_.lock();
+  if (!p) {
+    return false;
+  }
+
+  std::lock_guard<std::mutex> l(consumers_mtx_);
+  for (auto &c : consumers_) {
+    if (c->is_same(env, consumer)) {
+      return false;
+    }
+  }
+
+  IAirPlayStreamConsumer *proxy = IAirPlayStreamConsumer::attach(env, consumer);
+  if (!proxy) {
+    return false;
+  }
+  auto c = std::make_shared<jni_ap_stream_consumer>(proxy);
+  if (!p->add_stream_consumer(c, max_queued_frames, policy)) {
+    return false;
+  }
+  consumers_.push_back(c);
+  return true;
+}
+
+void AirPlaySession::remove_stream_consumer(JNIEnv *env, jobject consumer) {
+  jni_ap_stream_consumer_ptr removed;
+  {
+    std::lock_guard<std::mutex> l(consumers_mtx_);
+    for (auto it = consumers_.begin(); it != consumers_.end(); ++it) {
+      if ((*it)->is_same(env, consumer)) {
+        removed = *it;
+        consumers_.erase(it);
+        break;
+      }
+    }
+  }
+
+  auto p = session_.lock();
+  if (removed && p) {
+    p->remove_stream_consumer(removed);
+  }
+}
+
+void AirPlaySession::set_video_buffer_provider(JNIEnv *env, jobject provider) {
+  auto p = session_.lock();
+  if (!p) {
+    return;
+  }
+
+  if (!provider) {
+    p->set_video_buffer_provider(nullptr);
+    return;
+  }
+
+  IAirPlayVideoBufferProvider *proxy = IAirPlayVideoBufferProvider::attach(env, provider);
+  if (proxy) {
+    // The session keeps the provider, the Java object is pinned as long as frames may be received into it
+    p->set_video_buffer_provider(std::make_shared<jni_ap_video_buffer_provider>(proxy));
+  }
+}
+
+void AirPlaySession::update_playback_state(double position, double duration, double rate, uint32_t flags) {
+  auto p = session_.lock();
+  if (p) {
+    p->update_playback_state(position, duration, rate, flags);
+  }
+}
+
 void AirPlaySession::setMirroringHandler(IAirPlayMirroringHandler *handler) {
   auto p = session_.lock();
   if (p) {
@@ -22,11 +22,14 @@
 #ifndef APS_SDK_AIRPLAY_SESSION_H
 #define APS_SDK_AIRPLAY_SESSION_H
 // clang-format off
+#include <mutex>
 #include <aps.h>
 #include "aps-jni.h"
 #include "nci_object.h"
 #include "IAirPlayMirroringHandler.h"
 #include "IAirPlayCastingHandler.h"
+#include "AudioRing.h"
+#include "jni_ap_handler.h"
 // clang-format on
 
 using namespace aps;
@@ -36,12 +39,36 @@ class AirPlaySession : public nci_object<AirPlaySession, AirPlaySession_cls> {
 public:
   AirPlaySession(JNIEnv *env);
 
-  void set_ap_session(const ap_session_ptr &p);
+  ~AirPlaySession();
+
+  void set_ap_session(JNIEnv *env, const ap_session_ptr &p);
 
   uint64_t get_session_id();
 
   int get_session_type();
 
+  ap_session_memory_usage_t get_memory_usage();
+
+  void set_stream_flow_control(bool enabled);
+
+  void request_stream_units(uint64_t n);
+
+  void set_audio_ring(const ap_audio_ring_ptr &ring);
+
+  bool start_recording(const ap_mp4_recorder_options_t &options);
+
+  void stop_recording();
+
+  ap_mp4_recorder_stats_t get_recording_stats();
+
+  bool add_stream_consumer(JNIEnv *env, jobject consumer, uint32_t max_queued_frames, ap_stream_drop_policy_t policy);
+
+  void remove_stream_consumer(JNIEnv *env, jobject consumer);
+
+  void set_video_buffer_provider(JNIEnv *env, jobject provider);
+
+  void update_playback_state(double position, double duration, double rate, uint32_t flags);
+
   void setMirroringHandler(IAirPlayMirroringHandler *handler);
 
   void setCastingHandler(IAirPlayCastingHandler *handler);
@@ -50,6 +77,14 @@ public:
 
 private:
   ap_session_weakptr session_;
+
+  std::mutex recorder_mtx_;
+
+  ap_mp4_recorder_ptr recorder_;
+
+  std::mutex consumers_mtx_;
+
+  std::vector<jni_ap_stream_consumer_ptr> consumers_;
 };
 
 #endif // APS_SDK_AIRPLAY_SESSION_H
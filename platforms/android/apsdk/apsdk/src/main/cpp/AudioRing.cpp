@@ -0,0 +1,123 @@
+/*
+ *  File: AudioRing.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public)
+ *  Copyright (C) 2018-2024 Sheen Tian
+ *
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with Foobar.
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// clang-format off
+#include <algorithm>
+#include "AudioRing.h"
+// clang-format on
+
+DEFINE_NCI_METHODS(AudioRing);
+
+extern "C" JNIEXPORT jint JNICALL Java_com_sheentech_apsdk_AudioRing_nciRead(JNIEnv *env, jobject instance,
+                                                                             jbyteArray dst, jint offset, jint length) {
+  AudioRing *p = AudioRing::get(env, instance);
+  if (p && dst && offset >= 0 && length > 0) {
+    // Copy straight from the ring memory, the array is written without an intermediate buffer
+    jbyte *buffer = (jbyte *)env->GetPrimitiveArrayCritical(dst, 0);
+    if (buffer) {
+      jint n = (jint)p->get_ring()->read((uint8_t *)(buffer + offset), (uint32_t)length);
+      env->ReleasePrimitiveArrayCritical(dst, buffer, 0);
+      return n;
+    }
+  }
+  return 0;
+}
+
+extern "C" JNIEXPORT jint JNICALL Java_com_sheentech_apsdk_AudioRing_nciReadDirect(JNIEnv *env, jobject instance,
+                                                                                   jobject dst, jint offset,
+                                                                                   jint length) {
+  AudioRing *p = AudioRing::get(env, instance);
+  if (p && dst && offset >= 0 && length > 0) {
+    uint8_t *buffer = (uint8_t *)env->GetDirectBufferAddress(dst);
+    if (buffer) {
+      return (jint)p->get_ring()->read(buffer + offset, (uint32_t)length);
+    }
+  }
+  return 0;
+}
+
+extern "C" JNIEXPORT jint JNICALL Java_com_sheentech_apsdk_AudioRing_nciAcquire(JNIEnv *env, jobject instance,
+                                                                                jint wanted) {
+  AudioRing *p = AudioRing::get(env, instance);
+  if (p) {
+    return (jint)p->get_ring()->acquire((uint32_t)std::max(wanted, 0));
+  }
+  return 0;
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AudioRing_nciRelease(JNIEnv *env, jobject instance,
+                                                                                jint length) {
+  AudioRing *p = AudioRing::get(env, instance);
+  if (p && length > 0) {
+    p->get_ring()->release((uint32_t)length);
+  }
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_AudioRing_nciFlush(JNIEnv *env, jobject instance) {
+  AudioRing *p = AudioRing::get(env, instance);
+  if (p) {
+    p->get_ring()->flush();
+  }
+}
+
+extern "C" JNIEXPORT jlongArray JNICALL Java_com_sheentech_apsdk_AudioRing_nciGetStatus(JNIEnv *env,
+                                                                                        jobject instance) {
+  AudioRing *p = AudioRing::get(env, instance);
+  if (p) {
+    const ap_audio_ring_ptr &ring = p->get_ring();
+    jlong values[6] = {(jlong)ring->read_index(), (jlong)ring->write_index(), (jlong)ring->underruns(),
+                       (jlong)ring->overruns(),   (jlong)ring->channels(),    (jlong)ring->sample_rate()};
+    jlongArray result = env->NewLongArray(6);
+    if (result) {
+      env->SetLongArrayRegion(result, 0, 6, values);
+    }
+    return result;
+  }
+  return 0;
+}
+
+extern "C" JNIEXPORT jlong JNICALL Java_com_sheentech_apsdk_AudioRing_nciGetReadIndex(JNIEnv *env,
+                                                                                      jobject instance) {
+  AudioRing *p = AudioRing::get(env, instance);
+  if (p) {
+    return (jlong)p->get_ring()->read_index();
+  }
+  return 0;
+}
+
+AudioRing::AudioRing(JNIEnv *env) : nci_object<AudioRing, AudioRing_cls>() { (void)env; }
+
+void AudioRing::set_ring(JNIEnv *env, const ap_audio_ring_ptr &ring) {
+  ring_ = ring;
+
+  jobject buffer = env->NewDirectByteBuffer(ring->data(), (jlong)ring->capacity());
+  GET_METHOD_ID(nciInitialize, "(Ljava/nio/ByteBuffer;)V");
+  if (mid && buffer) {
+    env->CallVoidMethod(jvm_obj_, mid, buffer);
+  } else {
+    __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of nciInitialize");
+  }
+  if (buffer) {
+    env->DeleteLocalRef(buffer);
+  }
+}
+
+const ap_audio_ring_ptr &AudioRing::get_ring() const { return ring_; }
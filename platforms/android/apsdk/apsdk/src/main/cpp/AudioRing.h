@@ -0,0 +1,48 @@
+/*
+ *  File: AudioRing.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public)
+ *  Copyright (C) 2018-2024 Sheen Tian
+ *
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with Foobar.
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef APS_SDK_AUDIO_RING_H
+#define APS_SDK_AUDIO_RING_H
+// clang-format off
+#include <aps.h>
+#include "aps-jni.h"
+#include "nci_object.h"
+// clang-format on
+
+using namespace aps;
+
+static const char AudioRing_cls[] = "com/sheentech/apsdk/AudioRing";
+class AudioRing : public nci_object<AudioRing, AudioRing_cls> {
+public:
+  AudioRing(JNIEnv *env);
+
+  /// <summary>
+  /// Binds the native ring and hands its memory to the Java object as a direct buffer.
+  /// </summary>
+  void set_ring(JNIEnv *env, const ap_audio_ring_ptr &ring);
+
+  const ap_audio_ring_ptr &get_ring() const;
+
+private:
+  ap_audio_ring_ptr ring_;
+};
+
+#endif // APS_SDK_AUDIO_RING_H
@@ -30,10 +30,17 @@
 IAirPlayCastingHandler::IAirPlayCastingHandler(JNIEnv *env)
     : jni_meta_object<IAirPlayCastingHandler, IAirPlayCastingHandler_cls>() {
   (void)env;
-  handler_ = std::make_shared<jni_ap_video_handler>(this);
 }
 
-ap_casting_session_handler_ptr IAirPlayCastingHandler::get_casting_session_handler() { return handler_; }
+ap_casting_session_handler_ptr IAirPlayCastingHandler::get_casting_session_handler() {
+  // The native handler owns this proxy, it is created on demand and lives as long as the session holds it
+  jni_ap_video_handler_ptr h = handler_.lock();
+  if (!h) {
+    h = std::make_shared<jni_ap_video_handler>(this);
+    handler_ = h;
+  }
+  return h;
+}
 
 void IAirPlayCastingHandler::on_video_play(const uint64_t session_id, const std::string &location,
                                            const float start_pos) {
@@ -49,7 +49,7 @@ public:
   void on_acquire_playback_info(const uint64_t session_id, playback_info_t &playback_info);
 
 private:
-  jni_ap_video_handler_ptr handler_;
+  jni_ap_video_handler_weakptr handler_;
 };
 
 #endif // APS_SDK_AIRPLAY_VIDEO_HANDLER_H
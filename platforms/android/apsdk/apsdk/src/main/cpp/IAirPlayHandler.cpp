@@ -30,10 +30,17 @@
 
 IAirPlayHandler::IAirPlayHandler(JNIEnv *env) : jni_meta_object<IAirPlayHandler, IAirPlayHandler_cls>() {
   (void)env;
-  handler_ = std::make_shared<jni_ap_handler>(this);
 }
 
-ap_handler_ptr IAirPlayHandler::get_ap_handler() { return handler_; }
+ap_handler_ptr IAirPlayHandler::get_ap_handler() {
+  // The native handler owns this proxy, it is created on demand and lives as long as the server holds it
+  jni_ap_handler_ptr h = handler_.lock();
+  if (!h) {
+    h = std::make_shared<jni_ap_handler>(this);
+    handler_ = h;
+  }
+  return h;
+}
 
 void IAirPlayHandler::on_session_begin(ap_session_ptr session) {
   JNIEnv *env = getJNIEnv();
@@ -43,8 +50,10 @@ void IAirPlayHandler::on_session_begin(ap_session_ptr session) {
       // Create the airplay mirror session object
       jobject obj = AirPlaySession::new_jvmObject(env);
       AirPlaySession *s = AirPlaySession::attach(env, obj);
-      s->set_ap_session(session);
-      env->CallVoidMethod(jvm_obj_, mid, obj);
+      if (s) {
+        s->set_ap_session(env, session);
+        env->CallVoidMethod(jvm_obj_, mid, obj);
+      }
       env->DeleteLocalRef(obj);
     } else {
       __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of on_video_stream_started");
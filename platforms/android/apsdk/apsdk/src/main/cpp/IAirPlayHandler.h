@@ -43,7 +43,7 @@ public:
   void on_session_end(const uint64_t session_id);
 
 private:
-  jni_ap_handler_ptr handler_;
+  jni_ap_handler_weakptr handler_;
 };
 
 #endif // APS_SDK_AIRPLAY_HANDLER_H
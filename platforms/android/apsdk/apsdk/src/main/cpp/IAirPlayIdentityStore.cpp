@@ -0,0 +1,81 @@
+/*
+ *  File: IAirPlayIdentityStore.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public)
+ *  Copyright (C) 2018-2024 Sheen Tian
+ *
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with Foobar.
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// clang-format off
+#include "jni_class_wrapper.h"
+#include "IAirPlayIdentityStore.h"
+// clang-format on
+
+IAirPlayIdentityStore::IAirPlayIdentityStore(JNIEnv *env)
+    : jni_meta_object<IAirPlayIdentityStore, IAirPlayIdentityStore_cls>() {
+  (void)env;
+}
+
+bool IAirPlayIdentityStore::load(std::vector<uint8_t> &data) {
+  JNIEnv *env = getJNIEnv();
+  if (!env) {
+    return false;
+  }
+
+  GET_METHOD_ID(load, "()[B");
+  if (!mid) {
+    __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of load");
+    return false;
+  }
+
+  jbyteArray array = (jbyteArray)env->CallObjectMethod(jvm_obj_, mid);
+  if (env->ExceptionCheck()) {
+    env->ExceptionClear();
+    return false;
+  }
+  if (!array) {
+    return false;
+  }
+
+  jsize length = env->GetArrayLength(array);
+  data.resize(length);
+  env->GetByteArrayRegion(array, 0, length, (jbyte *)data.data());
+  env->DeleteLocalRef(array);
+  return length > 0;
+}
+
+bool IAirPlayIdentityStore::save(const std::vector<uint8_t> &data) {
+  JNIEnv *env = getJNIEnv();
+  if (!env) {
+    return false;
+  }
+
+  GET_METHOD_ID(save, "([B)Z");
+  if (!mid) {
+    __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of save");
+    return false;
+  }
+
+  jbyteArray array = env->NewByteArray((jsize)data.size());
+  env->SetByteArrayRegion(array, 0, (jsize)data.size(), (const jbyte *)data.data());
+  jboolean result = env->CallBooleanMethod(jvm_obj_, mid, array);
+  env->DeleteLocalRef(array);
+  if (env->ExceptionCheck()) {
+    env->ExceptionClear();
+    return false;
+  }
+  return result;
+}
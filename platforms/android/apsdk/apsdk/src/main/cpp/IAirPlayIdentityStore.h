@@ -0,0 +1,43 @@
+/*
+ *  File: IAirPlayIdentityStore.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public)
+ *  Copyright (C) 2018-2024 Sheen Tian
+ *
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with Foobar.
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef APS_SDK_AIRPLAY_IDENTITY_STORE_H
+#define APS_SDK_AIRPLAY_IDENTITY_STORE_H
+// clang-format off
+#include <aps.h>
+#include "aps-jni.h"
+#include "nci_object.h"
+// clang-format on
+
+using namespace aps;
+
+static const char IAirPlayIdentityStore_cls[] = "com/sheentech/apsdk/IAirPlayIdentityStore";
+class IAirPlayIdentityStore : public jni_meta_object<IAirPlayIdentityStore, IAirPlayIdentityStore_cls>,
+                              public ap_identity_store {
+public:
+  IAirPlayIdentityStore(JNIEnv *env);
+
+  virtual bool load(std::vector<uint8_t> &data) override;
+
+  virtual bool save(const std::vector<uint8_t> &data) override;
+};
+
+#endif // APS_SDK_AIRPLAY_IDENTITY_STORE_H
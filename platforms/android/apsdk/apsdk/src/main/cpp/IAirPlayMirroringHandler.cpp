@@ -35,12 +35,36 @@ static uint64_t normalize_ntp_to_ms(uint64_t ntp) {
   return (milliseconds + fraction);
 }
 
+// Looks up a method of an optional interface the Java handler may implement
+static jmethodID get_optional_method_id(JNIEnv *env, jobject obj, const char *name, const char *sig) {
+  jclass cls = env->GetObjectClass(obj);
+  jmethodID mid = env->GetMethodID(cls, name, sig);
+  if (env->ExceptionCheck()) {
+    env->ExceptionClear();
+    mid = 0;
+  }
+  env->DeleteLocalRef(cls);
+  if (!mid) {
+    __android_log_print(ANDROID_LOG_WARN, LOG_TAG, "The mirroring handler does not implement %s", name);
+  }
+  return mid;
+}
+
 IAirPlayMirroringHandler::IAirPlayMirroringHandler(JNIEnv *env)
-    : jni_meta_object<IAirPlayMirroringHandler, IAirPlayMirroringHandler_cls>() {
-  handler_ = std::make_shared<jni_ap_mirror_handler>(this);
+    : jni_meta_object<IAirPlayMirroringHandler, IAirPlayMirroringHandler_cls>(), pcm_mid_resolved_(false),
+      pcm_mid_(0), metadata_mid_resolved_(false), metadata_mid_(0) {
+  (void)env;
 }
 
-ap_mirroring_session_handler_ptr IAirPlayMirroringHandler::get_mirroring_session_handler() { return handler_; }
+ap_mirroring_session_handler_ptr IAirPlayMirroringHandler::get_mirroring_session_handler() {
+  // The native handler owns this proxy, it is created on demand and lives as long as the session holds it
+  jni_ap_mirror_handler_ptr h = handler_.lock();
+  if (!h) {
+    h = std::make_shared<jni_ap_mirror_handler>(this);
+    handler_ = h;
+  }
+  return h;
+}
 
 void IAirPlayMirroringHandler::on_video_stream_started() {
   JNIEnv *env = getJNIEnv();
@@ -166,6 +190,45 @@ void IAirPlayMirroringHandler::on_audio_set_meta_data(const void *data, const ui
   }
 }
 
+void IAirPlayMirroringHandler::on_audio_set_track_metadata(const aps::track_metadata_t &metadata) {
+  JNIEnv *env = getJNIEnv();
+  if (env) {
+    if (!metadata_mid_resolved_) {
+      // The handler receives the parsed metadata only if it implements IAirPlayMetadataHandler
+      metadata_mid_ = get_optional_method_id(
+          env, jvm_obj_, "on_audio_set_track_metadata", "(Lcom/sheentech/apsdk/TrackMetadata;)V");
+      metadata_mid_resolved_ = true;
+    }
+
+    if (metadata_mid_) {
+      LocalJvmObject<TrackMetadata> track(TrackMetadata::create(env));
+      if (!track.get()) {
+        return;
+      }
+      LocalJvmObject<String> title(String::fromUTF8(env, metadata.title.c_str()));
+      LocalJvmObject<String> artist(String::fromUTF8(env, metadata.artist.c_str()));
+      LocalJvmObject<String> album(String::fromUTF8(env, metadata.album.c_str()));
+      LocalJvmObject<String> album_artist(String::fromUTF8(env, metadata.album_artist.c_str()));
+      LocalJvmObject<String> genre(String::fromUTF8(env, metadata.genre.c_str()));
+      LocalJvmObject<String> composer(String::fromUTF8(env, metadata.composer.c_str()));
+      track.title(title.get());
+      track.artist(artist.get());
+      track.album(album.get());
+      track.albumArtist(album_artist.get());
+      track.genre(genre.get());
+      track.composer(composer.get());
+      track.itemId((jlong)metadata.item_id);
+      track.durationMs((jint)metadata.duration_ms);
+      track.trackNumber((jint)metadata.track_number);
+      track.trackCount((jint)metadata.track_count);
+      track.discNumber((jint)metadata.disc_number);
+      track.discCount((jint)metadata.disc_count);
+      track.year((jint)metadata.year);
+      env->CallVoidMethod(jvm_obj_, metadata_mid_, track.get());
+    }
+  }
+}
+
 void IAirPlayMirroringHandler::on_audio_stream_started(const aps::audio_data_format_t format) {
   JNIEnv *env = getJNIEnv();
   if (env) {
@@ -194,6 +257,34 @@ void IAirPlayMirroringHandler::on_audio_stream_data(const aps::rtp_audio_data_pa
   }
 }
 
+bool IAirPlayMirroringHandler::accepts_audio_pcm() {
+  if (!pcm_mid_resolved_) {
+    JNIEnv *env = getJNIEnv();
+    if (!env) {
+      return false;
+    }
+    // The handler receives PCM only if it implements IAirPlayPcmAudioHandler
+    pcm_mid_ = get_optional_method_id(env, jvm_obj_, "on_audio_stream_pcm", "([BIIJ)V");
+    pcm_mid_resolved_ = true;
+  }
+  return 0 != pcm_mid_;
+}
+
+void IAirPlayMirroringHandler::on_audio_stream_pcm(const aps::audio_pcm_frames_t *p) {
+  JNIEnv *env = getJNIEnv();
+  if (env) {
+    if (accepts_audio_pcm()) {
+      // Android is little-endian, the samples are copied as they are
+      jsize length = (jsize)(p->frames * p->channels * sizeof(int16_t));
+      jbyteArray byte_array = env->NewByteArray(length);
+      env->SetByteArrayRegion(byte_array, 0, length, (const jbyte *)(p->samples));
+      env->CallVoidMethod(jvm_obj_, pcm_mid_, byte_array, (jint)p->channels, (jint)p->sample_rate,
+                          (jlong)(p->timestamp));
+      env->DeleteLocalRef(byte_array);
+    }
+  }
+}
+
 void IAirPlayMirroringHandler::on_audio_stream_stopped() {
   JNIEnv *env = getJNIEnv();
   if (env) {
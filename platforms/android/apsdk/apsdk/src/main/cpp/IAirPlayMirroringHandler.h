@@ -55,14 +55,28 @@ public:
 
   void on_audio_set_meta_data(const void *data, const uint32_t length);
 
+  void on_audio_set_track_metadata(const aps::track_metadata_t &metadata);
+
   void on_audio_stream_started(const aps::audio_data_format_t format);
 
   void on_audio_stream_data(const aps::rtp_audio_data_packet_t *p, const uint32_t payload_length);
 
+  void on_audio_stream_pcm(const aps::audio_pcm_frames_t *p);
+
+  bool accepts_audio_pcm();
+
   void on_audio_stream_stopped();
 
 private:
-  jni_ap_mirror_handler_ptr handler_;
+  jni_ap_mirror_handler_weakptr handler_;
+
+  // The optional IAirPlayPcmAudioHandler method of the Java object, resolved on the first PCM packet
+  bool pcm_mid_resolved_;
+  jmethodID pcm_mid_;
+
+  // The optional IAirPlayMetadataHandler method of the Java object, resolved on the first metadata
+  bool metadata_mid_resolved_;
+  jmethodID metadata_mid_;
 };
 
 #endif // APS_SDK_AIRPLAY_MIRROR_HANDLER_H
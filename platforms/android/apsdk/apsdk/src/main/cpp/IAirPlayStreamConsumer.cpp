@@ -0,0 +1,78 @@
+/*
+ *  File: IAirPlayStreamConsumer.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public)
+ *  Copyright (C) 2018-2024 Sheen Tian
+ *
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with Foobar.
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// clang-format off
+#include "IAirPlayStreamConsumer.h"
+// clang-format on
+
+IAirPlayStreamConsumer::IAirPlayStreamConsumer(JNIEnv *env)
+    : jni_meta_object<IAirPlayStreamConsumer, IAirPlayStreamConsumer_cls>() {
+  (void)env;
+}
+
+bool IAirPlayStreamConsumer::is_same(JNIEnv *env, jobject obj) { return env->IsSameObject(jvm_obj_, obj); }
+
+void IAirPlayStreamConsumer::on_stream_frame(const aps::ap_stream_frame_ptr &frame) {
+  JNIEnv *env = getJNIEnv();
+  if (env) {
+    GET_METHOD_ID(on_stream_frame, "(IIZJLjava/nio/ByteBuffer;)V");
+    if (mid) {
+      // The Java side reads the shared frame in place, the frame outlives the call
+      jobject buffer = env->NewDirectByteBuffer((void *)frame->data.data(), (jlong)frame->data.size());
+      env->CallVoidMethod(jvm_obj_,
+                          mid,
+                          (jint)frame->type,
+                          (jint)frame->format,
+                          (jboolean)frame->key_frame,
+                          (jlong)frame->timestamp,
+                          buffer);
+      if (buffer) {
+        env->DeleteLocalRef(buffer);
+      }
+    } else {
+      __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of on_stream_frame");
+    }
+  }
+}
+
+void IAirPlayStreamConsumer::on_stream_frames_dropped(uint32_t count) {
+  JNIEnv *env = getJNIEnv();
+  if (env) {
+    GET_METHOD_ID(on_stream_frames_dropped, "(I)V");
+    if (mid) {
+      env->CallVoidMethod(jvm_obj_, mid, (jint)count);
+    } else {
+      __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of on_stream_frames_dropped");
+    }
+  }
+}
+
+void IAirPlayStreamConsumer::on_stream_end() {
+  JNIEnv *env = getJNIEnv();
+  if (env) {
+    GET_METHOD_ID(on_stream_end, "()V");
+    if (mid) {
+      env->CallVoidMethod(jvm_obj_, mid);
+    } else {
+      __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of on_stream_end");
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ *  File: IAirPlayStreamConsumer.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public)
+ *  Copyright (C) 2018-2024 Sheen Tian
+ *
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with Foobar.
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef APS_SDK_AIRPLAY_STREAM_CONSUMER_H
+#define APS_SDK_AIRPLAY_STREAM_CONSUMER_H
+// clang-format off
+#include <aps.h>
+#include "aps-jni.h"
+#include "jni_class_wrapper.h"
+// clang-format on
+
+using namespace aps;
+
+static const char IAirPlayStreamConsumer_cls[] = "com/sheentech/apsdk/IAirPlayStreamConsumer";
+class IAirPlayStreamConsumer : public jni_meta_object<IAirPlayStreamConsumer, IAirPlayStreamConsumer_cls> {
+public:
+  IAirPlayStreamConsumer(JNIEnv *env);
+
+  bool is_same(JNIEnv *env, jobject obj);
+
+  void on_stream_frame(const aps::ap_stream_frame_ptr &frame);
+
+  void on_stream_frames_dropped(uint32_t count);
+
+  void on_stream_end();
+};
+
+#endif // APS_SDK_AIRPLAY_STREAM_CONSUMER_H
@@ -0,0 +1,101 @@
+/*
+ *  File: IAirPlayVideoBufferProvider.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public)
+ *  Copyright (C) 2018-2024 Sheen Tian
+ *
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with Foobar.
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// clang-format off
+#include "IAirPlayVideoBufferProvider.h"
+// clang-format on
+
+IAirPlayVideoBufferProvider::IAirPlayVideoBufferProvider(JNIEnv *env)
+    : jni_meta_object<IAirPlayVideoBufferProvider, IAirPlayVideoBufferProvider_cls>() {
+  (void)env;
+}
+
+bool IAirPlayVideoBufferProvider::acquire_video_buffer(uint32_t size, ap_video_buffer_t &buffer) {
+  JNIEnv *env = getJNIEnv();
+  if (!env) {
+    return false;
+  }
+
+  GET_METHOD_ID(acquire_video_buffer, "(I)Ljava/nio/ByteBuffer;");
+  if (!mid) {
+    __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of acquire_video_buffer");
+    return false;
+  }
+
+  jobject obj = env->CallObjectMethod(jvm_obj_, mid, (jint)size);
+  if (env->ExceptionCheck()) {
+    env->ExceptionClear();
+    obj = 0;
+  }
+  if (!obj) {
+    return false;
+  }
+
+  // Only a direct buffer has memory the frame can be received into
+  void *data = env->GetDirectBufferAddress(obj);
+  jlong capacity = env->GetDirectBufferCapacity(obj);
+  if (!data || capacity < (jlong)size) {
+    __android_log_print(ANDROID_LOG_WARN, LOG_TAG, "The video buffer is not direct or too small: %lld/%u",
+                        (long long)capacity, size);
+    env->DeleteLocalRef(obj);
+    return false;
+  }
+
+  // The buffer is handed back after the payload has been read, pin it until then
+  buffer.data = (uint8_t *)data;
+  buffer.capacity = capacity > (jlong)UINT32_MAX ? UINT32_MAX : (uint32_t)capacity;
+  buffer.context = env->NewGlobalRef(obj);
+  env->DeleteLocalRef(obj);
+  return true;
+}
+
+void IAirPlayVideoBufferProvider::on_video_buffer_filled(const ap_video_buffer_t &buffer, uint32_t size,
+                                                         uint64_t timestamp) {
+  JNIEnv *env = getJNIEnv();
+  if (env) {
+    GET_METHOD_ID(on_video_buffer_filled, "(Ljava/nio/ByteBuffer;IJ)V");
+    if (mid) {
+      env->CallVoidMethod(jvm_obj_, mid, (jobject)buffer.context, (jint)size, (jlong)timestamp);
+      if (env->ExceptionCheck()) {
+        env->ExceptionClear();
+      }
+    } else {
+      __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of on_video_buffer_filled");
+    }
+    env->DeleteGlobalRef((jobject)buffer.context);
+  }
+}
+
+void IAirPlayVideoBufferProvider::on_video_buffer_released(const ap_video_buffer_t &buffer) {
+  JNIEnv *env = getJNIEnv();
+  if (env) {
+    GET_METHOD_ID(on_video_buffer_released, "(Ljava/nio/ByteBuffer;)V");
+    if (mid) {
+      env->CallVoidMethod(jvm_obj_, mid, (jobject)buffer.context);
+      if (env->ExceptionCheck()) {
+        env->ExceptionClear();
+      }
+    } else {
+      __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, "Failed to get method id of on_video_buffer_released");
+    }
+    env->DeleteGlobalRef((jobject)buffer.context);
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ *  File: IAirPlayVideoBufferProvider.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public)
+ *  Copyright (C) 2018-2024 Sheen Tian
+ *
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Foundation,
+ *  either version 3 of the License, or (at your option) any later version.
+ *
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with Foobar.
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef APS_SDK_AIRPLAY_VIDEO_BUFFER_PROVIDER_H
+#define APS_SDK_AIRPLAY_VIDEO_BUFFER_PROVIDER_H
+// clang-format off
+#include <aps.h>
+#include "aps-jni.h"
+#include "jni_class_wrapper.h"
+// clang-format on
+
+using namespace aps;
+
+static const char IAirPlayVideoBufferProvider_cls[] = "com/sheentech/apsdk/IAirPlayVideoBufferProvider";
+class IAirPlayVideoBufferProvider
+    : public jni_meta_object<IAirPlayVideoBufferProvider, IAirPlayVideoBufferProvider_cls> {
+public:
+  IAirPlayVideoBufferProvider(JNIEnv *env);
+
+  bool acquire_video_buffer(uint32_t size, ap_video_buffer_t &buffer);
+
+  void on_video_buffer_filled(const ap_video_buffer_t &buffer, uint32_t size, uint64_t timestamp);
+
+  void on_video_buffer_released(const ap_video_buffer_t &buffer);
+};
+
+#endif // APS_SDK_AIRPLAY_VIDEO_BUFFER_PROVIDER_H
@@ -25,6 +25,8 @@
 #include "IAirPlayHandler.h"
 #include "IAirPlayMirroringHandler.h"
 #include "IAirPlayCastingHandler.h"
+#include "IAirPlayStreamConsumer.h"
+#include "IAirPlayVideoBufferProvider.h"
 // clang-format on
 
 // void attach_thread() {
@@ -70,6 +72,13 @@ void jni_ap_handler::on_session_end(const uint64_t session_id) {
 
 jni_ap_mirror_handler::jni_ap_mirror_handler(IAirPlayMirroringHandler *p) : proxy(p) {}
 
+jni_ap_mirror_handler::~jni_ap_mirror_handler() {
+  // Released with the session, this drops the global reference to the Java handler
+  if (proxy) {
+    delete proxy;
+  }
+}
+
 void jni_ap_mirror_handler::on_video_stream_started() {
   __android_log_write(ANDROID_LOG_INFO, LOG_TAG, "on_video_stream_started");
   if (proxy)
@@ -125,6 +134,12 @@ void jni_ap_mirror_handler::on_audio_set_meta_data(const void *data, const uint3
     proxy->on_audio_set_meta_data(data, length);
 }
 
+void jni_ap_mirror_handler::on_audio_set_track_metadata(const aps::track_metadata_t &metadata) {
+  __android_log_write(ANDROID_LOG_INFO, LOG_TAG, "on_audio_set_track_metadata");
+  if (proxy)
+    proxy->on_audio_set_track_metadata(metadata);
+}
+
 void jni_ap_mirror_handler::on_audio_stream_started(const aps::audio_data_format_t format) {
   __android_log_write(ANDROID_LOG_INFO, LOG_TAG, "on_audio_stream_started");
   if (proxy)
@@ -137,6 +152,13 @@ void jni_ap_mirror_handler::on_audio_stream_data(const aps::rtp_audio_data_packe
     proxy->on_audio_stream_data(p, payload_length);
 }
 
+void jni_ap_mirror_handler::on_audio_stream_pcm(const aps::audio_pcm_frames_t *p) {
+  if (proxy)
+    proxy->on_audio_stream_pcm(p);
+}
+
+bool jni_ap_mirror_handler::accepts_audio_pcm() { return proxy && proxy->accepts_audio_pcm(); }
+
 void jni_ap_mirror_handler::on_audio_stream_stopped() {
   __android_log_write(ANDROID_LOG_INFO, LOG_TAG, "on_audio_stream_stopped");
   if (proxy)
@@ -145,6 +167,13 @@ void jni_ap_mirror_handler::on_audio_stream_stopped() {
 
 jni_ap_video_handler::jni_ap_video_handler(IAirPlayCastingHandler *p) : proxy(p) {}
 
+jni_ap_video_handler::~jni_ap_video_handler() {
+  // Released with the session, this drops the global reference to the Java handler
+  if (proxy) {
+    delete proxy;
+  }
+}
+
 void jni_ap_video_handler::on_video_play(const uint64_t session_id, const std::string &location,
                                          const float start_pos) {
   __android_log_write(ANDROID_LOG_INFO, LOG_TAG, "on_video_play");
@@ -175,3 +204,55 @@ void jni_ap_video_handler::on_acquire_playback_info(const uint64_t session_id, p
   if (proxy)
     proxy->on_acquire_playback_info(session_id, playback_info);
 }
+
+jni_ap_stream_consumer::jni_ap_stream_consumer(IAirPlayStreamConsumer *p) : proxy(p) {}
+
+jni_ap_stream_consumer::~jni_ap_stream_consumer() {
+  // Released with the last queued frame, this drops the global reference to the Java consumer
+  if (proxy) {
+    delete proxy;
+  }
+}
+
+bool jni_ap_stream_consumer::is_same(JNIEnv *env, jobject obj) { return proxy && proxy->is_same(env, obj); }
+
+void jni_ap_stream_consumer::on_stream_frame(const aps::ap_stream_frame_ptr &frame) {
+  if (proxy)
+    proxy->on_stream_frame(frame);
+}
+
+void jni_ap_stream_consumer::on_stream_frames_dropped(uint32_t count) {
+  __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, "on_stream_frames_dropped: %u", count);
+  if (proxy)
+    proxy->on_stream_frames_dropped(count);
+}
+
+void jni_ap_stream_consumer::on_stream_end() {
+  __android_log_write(ANDROID_LOG_INFO, LOG_TAG, "on_stream_end");
+  if (proxy)
+    proxy->on_stream_end();
+}
+
+jni_ap_video_buffer_provider::jni_ap_video_buffer_provider(IAirPlayVideoBufferProvider *p) : proxy(p) {}
+
+jni_ap_video_buffer_provider::~jni_ap_video_buffer_provider() {
+  // Released by the session once no frame is received into a buffer of the provider
+  if (proxy) {
+    delete proxy;
+  }
+}
+
+bool jni_ap_video_buffer_provider::acquire_video_buffer(uint32_t size, ap_video_buffer_t &buffer) {
+  return proxy && proxy->acquire_video_buffer(size, buffer);
+}
+
+void jni_ap_video_buffer_provider::on_video_buffer_filled(const ap_video_buffer_t &buffer, uint32_t size,
+                                                          uint64_t timestamp) {
+  if (proxy)
+    proxy->on_video_buffer_filled(buffer, size, timestamp);
+}
+
+void jni_ap_video_buffer_provider::on_video_buffer_released(const ap_video_buffer_t &buffer) {
+  if (proxy)
+    proxy->on_video_buffer_released(buffer);
+}
@@ -43,12 +43,15 @@ private:
   IAirPlayHandler *proxy;
 };
 typedef std::shared_ptr<jni_ap_handler> jni_ap_handler_ptr;
+typedef std::weak_ptr<jni_ap_handler> jni_ap_handler_weakptr;
 
 class IAirPlayMirroringHandler;
 class jni_ap_mirror_handler : public ap_mirroring_session_handler {
 public:
   jni_ap_mirror_handler(IAirPlayMirroringHandler *p);
 
+  ~jni_ap_mirror_handler();
+
   virtual void on_video_stream_started() override;
 
   virtual void on_video_stream_codec(const aps::sms_video_codec_packet_t *p) override;
@@ -68,22 +71,31 @@ public:
 
   virtual void on_audio_set_meta_data(const void *data, const uint32_t length) override;
 
+  virtual void on_audio_set_track_metadata(const aps::track_metadata_t &metadata) override;
+
   virtual void on_audio_stream_started(const aps::audio_data_format_t format) override;
 
   virtual void on_audio_stream_data(const aps::rtp_audio_data_packet_t *p, const uint32_t payload_length) override;
 
+  virtual void on_audio_stream_pcm(const aps::audio_pcm_frames_t *p) override;
+
+  virtual bool accepts_audio_pcm() override;
+
   virtual void on_audio_stream_stopped() override;
 
 private:
   IAirPlayMirroringHandler *proxy;
 };
 typedef std::shared_ptr<jni_ap_mirror_handler> jni_ap_mirror_handler_ptr;
+typedef std::weak_ptr<jni_ap_mirror_handler> jni_ap_mirror_handler_weakptr;
 
 class IAirPlayCastingHandler;
 class jni_ap_video_handler : public ap_casting_session_handler {
 public:
   jni_ap_video_handler(IAirPlayCastingHandler *p);
 
+  ~jni_ap_video_handler();
+
   virtual void on_video_play(const uint64_t session_id, const std::string &location, const float start_pos) override;
 
   virtual void on_video_scrub(const uint64_t session_id, const float position) override;
@@ -98,5 +110,44 @@ private:
   IAirPlayCastingHandler *proxy;
 };
 typedef std::shared_ptr<jni_ap_video_handler> jni_ap_video_handler_ptr;
+typedef std::weak_ptr<jni_ap_video_handler> jni_ap_video_handler_weakptr;
+
+class IAirPlayStreamConsumer;
+class jni_ap_stream_consumer : public ap_stream_consumer {
+public:
+  jni_ap_stream_consumer(IAirPlayStreamConsumer *p);
+
+  ~jni_ap_stream_consumer();
+
+  bool is_same(JNIEnv *env, jobject obj);
+
+  virtual void on_stream_frame(const aps::ap_stream_frame_ptr &frame) override;
+
+  virtual void on_stream_frames_dropped(uint32_t count) override;
+
+  virtual void on_stream_end() override;
+
+private:
+  IAirPlayStreamConsumer *proxy;
+};
+typedef std::shared_ptr<jni_ap_stream_consumer> jni_ap_stream_consumer_ptr;
+
+class IAirPlayVideoBufferProvider;
+class jni_ap_video_buffer_provider : public ap_video_buffer_provider {
+public:
+  jni_ap_video_buffer_provider(IAirPlayVideoBufferProvider *p);
+
+  ~jni_ap_video_buffer_provider();
+
+  virtual bool acquire_video_buffer(uint32_t size, ap_video_buffer_t &buffer) override;
+
+  virtual void on_video_buffer_filled(const ap_video_buffer_t &buffer, uint32_t size, uint64_t timestamp) override;
+
+  virtual void on_video_buffer_released(const ap_video_buffer_t &buffer) override;
+
+private:
+  IAirPlayVideoBufferProvider *proxy;
+};
+typedef std::shared_ptr<jni_ap_video_buffer_provider> jni_ap_video_buffer_provider_ptr;
 
 #endif // APS_SDK_JNI_AP_HANDLER_H
@@ -25,6 +25,7 @@
 #include <jni.h>
 #include <jni_class_loader.h>
 #include <mutex>
+#include <vector>
 
 template <const char *CLS> class jni_class_meta {
 protected:
@@ -62,6 +63,11 @@ protected:
     mid = env->GetMethodID(get_class(env), #name, sig);                                                                \
   ;
 
+/// <summary>
+/// A native proxy of a Java interface implementation. The proxy pins the Java object with a
+/// global reference for its whole lifetime and drops the reference when it is deleted, so the
+/// owner of the proxy decides how long the Java object stays reachable.
+/// </summary>
 template <typename T, const char *CLS> class jni_meta_object : public jni_class_meta<CLS> {
 public:
   static T *attach(JNIEnv *env, jobject o) {
@@ -72,16 +78,20 @@ public:
     return p;
   }
 
-  static void destroy(JNIEnv *env, jobject o) {
-    T *p = T::get(env, o);
-    jobject ref = p->jvm_obj_;
-    delete (T *)((void *)(p));
-    if (ref) {
-      env->DeleteGlobalRef(ref);
+  static void destroy(T *p) { delete p; }
+
+protected:
+  jni_meta_object() : jvm_obj_(0) {}
+
+  ~jni_meta_object() {
+    // The proxy may be released on any native thread, they are all attached to the JVM
+    JNIEnv *env = getJNIEnv();
+    if (env && jvm_obj_) {
+      env->DeleteGlobalRef(jvm_obj_);
     }
+    jvm_obj_ = 0;
   }
 
-protected:
   jobject jvm_obj_;
 };
 
@@ -131,8 +141,49 @@ class String {
 public:
   static String attach(JNIEnv *env, jstring obj, bool auto_release = true) { return String(env, obj, auto_release); }
 
+  // NewStringUTF takes the modified UTF-8 of the JVM and aborts on the 4-byte sequences of the
+  // standard UTF-8 the senders use, so the string is converted to UTF-16 here. The invalid
+  // sequences become U+FFFD.
   static String fromUTF8(JNIEnv *env, const char *s) {
-    jstring obj = env->NewStringUTF(s);
+    std::vector<jchar> utf16;
+    const uint8_t *p = (const uint8_t *)s;
+    while (*p) {
+      uint32_t c = *p++;
+      uint32_t extra = 0;
+      uint32_t min = 0;
+      if (c >= 0xf0 && c < 0xf5) {
+        extra = 3;
+        min = 0x10000;
+        c &= 0x07;
+      } else if (c >= 0xe0) {
+        extra = c < 0xf0 ? 2 : 0;
+        min = 0x800;
+        c = extra ? (c & 0x0f) : 0xfffd;
+      } else if (c >= 0xc2) {
+        extra = 1;
+        min = 0x80;
+        c &= 0x1f;
+      } else if (c >= 0x80) {
+        c = 0xfffd;
+      }
+
+      for (; extra && 0x80 == (*p & 0xc0); extra--) {
+        c = (c << 6) | (*p++ & 0x3f);
+      }
+      if (extra || (min && c < min) || (c >= 0xd800 && c < 0xe000) || c > 0x10ffff) {
+        c = 0xfffd;
+      }
+
+      if (c >= 0x10000) {
+        c -= 0x10000;
+        utf16.push_back((jchar)(0xd800 + (c >> 10)));
+        utf16.push_back((jchar)(0xdc00 + (c & 0x3ff)));
+      } else {
+        utf16.push_back((jchar)c);
+      }
+    }
+
+    jstring obj = env->NewString(utf16.data(), (jsize)utf16.size());
     return String(env, obj, true);
   }
 
@@ -184,6 +235,22 @@ WRAPPER_CLASS_BEGIN(PlaybackInfo, "com/sheentech/apsdk/PlaybackInfo")
   BOOLEAN_FIELD(playbackLikelyToKeepUp);
 WRAPPER_CLASS_END()
 
+WRAPPER_CLASS_BEGIN(TrackMetadata, "com/sheentech/apsdk/TrackMetadata")
+  STRING_FIELD(title);
+  STRING_FIELD(artist);
+  STRING_FIELD(album);
+  STRING_FIELD(albumArtist);
+  STRING_FIELD(genre);
+  STRING_FIELD(composer);
+  LONG_FIELD(itemId);
+  INT_FIELD(durationMs);
+  INT_FIELD(trackNumber);
+  INT_FIELD(trackCount);
+  INT_FIELD(discNumber);
+  INT_FIELD(discCount);
+  INT_FIELD(year);
+WRAPPER_CLASS_END()
+
 /*
 WRAPPER_CLASS_BEGIN(AudioControlSync, "com/sheentech/apsdk/AudioControlSync")
   SHORT_FIELD(sequence);
@@ -202,18 +269,36 @@ WRAPPER_CLASS_BEGIN(AudioControlRetransmit, "com/sheentech/apsdk/AudioControlRet
 WRAPPER_CLASS_END()
 */
 
-/*
 WRAPPER_CLASS_BEGIN(AirPlayConfigDisplay, "com/sheentech/apsdk/AirPlayConfigDisplay")
   INT_FIELD(width);
   INT_FIELD(height);
+  FLOAT_FIELD(refreshRate);
+  STRING_FIELD(uuid);
+WRAPPER_CLASS_END()
+
+WRAPPER_CLASS_BEGIN(AirPlayConfigThreadPolicy, "com/sheentech/apsdk/AirPlayConfigThreadPolicy")
+  STRING_FIELD(name);
+  INT_FIELD(nice);
+  LONG_FIELD(affinity);
+WRAPPER_CLASS_END()
+
+WRAPPER_CLASS_BEGIN(AirPlayConfigAudioFormat, "com/sheentech/apsdk/AirPlayConfigAudioFormat")
+  INT_FIELD(type);
+  INT_FIELD(audioInputFormats);
+  INT_FIELD(audioOutputFormats);
+WRAPPER_CLASS_END()
+
+WRAPPER_CLASS_BEGIN(AirPlayConfigAudioLatency, "com/sheentech/apsdk/AirPlayConfigAudioLatency")
+  INT_FIELD(type);
+  STRING_FIELD(audioType);
+  INT_FIELD(inputLatencyMicros);
+  INT_FIELD(outputLatencyMicros);
 WRAPPER_CLASS_END()
-*/
 
 WRAPPER_CLASS_BEGIN(AirPlayConfig, "com/sheentech/apsdk/AirPlayConfig")
   STRING_FIELD(name);
   BOOLEAN_FIELD(publishService);
   STRING_FIELD(macAddress);
-  STRING_FIELD(deviceID);
   STRING_FIELD(model);
   STRING_FIELD(sourceVersion);
   STRING_FIELD(pi);
@@ -221,7 +306,16 @@ WRAPPER_CLASS_BEGIN(AirPlayConfig, "com/sheentech/apsdk/AirPlayConfig")
   INT_FIELD(vv);
   INT_FIELD(features);
   INT_FIELD(statusFlag);
-  OBJECT_FIELD(display, "com/sheentech/apsdk/AirPlayConfigDisplay");
+  INT_FIELD(sessionPoolSize);
+  LONG_FIELD(memoryBudget);
+  BOOLEAN_FIELD(audioDecoding);
+  INT_FIELD(sessionIdleTimeout);
+  OBJECT_FIELD(audioFormat, "Lcom/sheentech/apsdk/AirPlayConfigAudioFormat;");
+  OBJECT_FIELD(audioLatency, "Lcom/sheentech/apsdk/AirPlayConfigAudioLatency;");
+  OBJECT_FIELD(display, "Lcom/sheentech/apsdk/AirPlayConfigDisplay;");
+  OBJECT_FIELD(controlThread, "Lcom/sheentech/apsdk/AirPlayConfigThreadPolicy;");
+  OBJECT_FIELD(videoThread, "Lcom/sheentech/apsdk/AirPlayConfigThreadPolicy;");
+  OBJECT_FIELD(audioThread, "Lcom/sheentech/apsdk/AirPlayConfigThreadPolicy;");
 WRAPPER_CLASS_END()
 
 // clang-format on
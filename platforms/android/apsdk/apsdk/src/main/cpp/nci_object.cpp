@@ -27,11 +27,14 @@ jclass nci_core::clz_ = 0;
 
 jfieldID nci_core::field_nci_obj_ = 0;
 
+jmethodID nci_core::method_nci_attached_ = 0;
+
 void nci_core::initialize(JNIEnv *env) {
   clz_ = env->FindClass("com/sheentech/apsdk/NciObject");
   if (clz_) {
     clz_ = static_cast<jclass>(env->NewGlobalRef(clz_));
     field_nci_obj_ = env->GetFieldID(clz_, "nci_obj_", "J");
+    method_nci_attached_ = env->GetMethodID(clz_, "nciAttached", "(J)V");
   }
 }
 
@@ -46,6 +49,10 @@ void nci_core::set_nciPtr(JNIEnv *env, jobject o, jlong p) {
   if (field_nci_obj_) {
     env->SetLongField(o, field_nci_obj_, p);
   }
+  if (p && method_nci_attached_) {
+    // Let the Java side track the handle so it can be released without the owner
+    env->CallVoidMethod(o, method_nci_attached_, p);
+  }
 }
 
 void nci_core::throw_null_exception(JNIEnv *env) {
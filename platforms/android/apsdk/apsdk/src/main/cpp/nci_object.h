@@ -30,6 +30,7 @@
 class nci_core {
   static jclass clz_;
   static jfieldID field_nci_obj_;
+  static jmethodID method_nci_attached_;
 
 public:
   static void initialize(JNIEnv *env);
@@ -66,8 +67,19 @@ public:
     if (0 == p) {
       return nci_core::throw_null_exception(env);
     }
+    nci_core::set_nciPtr(env, o, 0);
+    destroy(env, p);
+  }
+
+  /// <summary>
+  /// Deletes the native object by its address, the Java object may already be unreachable.
+  /// </summary>
+  static void destroy(JNIEnv *env, T *p) {
+    if (0 == p) {
+      return;
+    }
     jobject ref = p->jvm_obj_;
-    delete (T *)((void *)(p));
+    delete p;
     if (ref) {
       env->DeleteWeakGlobalRef(ref);
     }
@@ -82,8 +94,9 @@ protected:
     x::attach(env, thiz);                                                                                              \
   }                                                                                                                    \
                                                                                                                        \
-  extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_##x##_nciDelete(JNIEnv *env, jobject thiz) {              \
-    x::destroy(env, thiz);                                                                                             \
+  extern "C" JNIEXPORT void JNICALL Java_com_sheentech_apsdk_##x##_nciDelete(JNIEnv *env, jclass clz, jlong ptr) {     \
+    (void)clz;                                                                                                         \
+    x::destroy(env, (x *)(void *)ptr);                                                                                 \
   }
 
 #endif // APS_SDK_NCI_OBJECT_H
@@ -36,10 +36,17 @@ public class AirPlayConfig {
   private int vv = 0;
   private int features = 0;
   private int statusFlag = 0;
+  private int sessionPoolSize = 0;
+  private long memoryBudget = 0;
+  private boolean audioDecoding = false;
+  private int sessionIdleTimeout = 0;
   private AirPlayConfigAudioFormat audioFormat = new AirPlayConfigAudioFormat();
   private AirPlayConfigAudioLatency audioLatency =
       new AirPlayConfigAudioLatency();
   private AirPlayConfigDisplay display = new AirPlayConfigDisplay();
+  private AirPlayConfigThreadPolicy controlThread = new AirPlayConfigThreadPolicy();
+  private AirPlayConfigThreadPolicy videoThread = new AirPlayConfigThreadPolicy();
+  private AirPlayConfigThreadPolicy audioThread = new AirPlayConfigThreadPolicy();
   public static AirPlayConfig defaultInstance() {
     AirPlayConfig instance = new AirPlayConfig();
     instance.setName("Virtalbe Airplay Display");
@@ -53,9 +60,11 @@ public class AirPlayConfig {
     instance.setVv(2);
     instance.setFeatures(0x527FFFF7);
     instance.setStatusFlag(68);
+    instance.setSessionPoolSize(0);
+    instance.setSessionIdleTimeout(15);
     instance.display.setWidth(1920);
     instance.display.setHeight(1080);
-    instance.display.setRefreshRate(1.0f / 24);
+    instance.display.setRefreshRate(1.0f / 60);
     instance.display.setUuid("e5f7a68d-7b0f-4305-984b-974f677a150b");
     instance.audioLatency.setType(96);
     instance.audioLatency.setAudioType("default");
@@ -64,6 +73,11 @@ public class AirPlayConfig {
     instance.audioFormat.setType(96);
     instance.audioFormat.setAudioInputFormats(0x01000000);
     instance.audioFormat.setAudioOutputFormats(0x01000000);
+    instance.controlThread.setName("aps-control");
+    instance.videoThread.setName("aps-video");
+    instance.videoThread.setNice(-4);
+    instance.audioThread.setName("aps-audio");
+    instance.audioThread.setNice(-16);
     return instance;
   }
   public String getName() { return name; }
@@ -81,6 +95,30 @@ public class AirPlayConfig {
   private void setFeatures(int features) { this.features = features; }
   public int getStatusFlag() { return statusFlag; }
   private void setStatusFlag(int statusFlag) { this.statusFlag = statusFlag; }
+  public int getSessionPoolSize() { return sessionPoolSize; }
+  public void setSessionPoolSize(int sessionPoolSize) { this.sessionPoolSize = sessionPoolSize; }
+  public long getMemoryBudget() { return memoryBudget; }
+  /**
+   * Sets the total bytes of the native stream buffers, shared by all servers in the process.
+   * New streams are rejected when the budget is exhausted, 0 means unlimited.
+   */
+  public void setMemoryBudget(long memoryBudget) { this.memoryBudget = memoryBudget; }
+  public boolean isAudioDecoding() { return audioDecoding; }
+  /**
+   * Decodes the mirroring audio to PCM natively, the handler implementing
+   * {@link IAirPlayPcmAudioHandler} receives the samples instead of the compressed packets.
+   * The formats without a decoder are still delivered compressed: only ALAC is
+   * decoded, AAC-ELD always arrives compressed. The decoders of other formats can
+   * be registered from the native code only.
+   */
+  public void setAudioDecoding(boolean audioDecoding) { this.audioDecoding = audioDecoding; }
+  public int getSessionIdleTimeout() { return sessionIdleTimeout; }
+  /**
+   * Sets the seconds a mirroring session may go without any traffic before it is torn down
+   * and {@link IAirPlayHandler#on_session_end} is called, 0 keeps idle sessions until the
+   * connection fails.
+   */
+  public void setSessionIdleTimeout(int sessionIdleTimeout) { this.sessionIdleTimeout = sessionIdleTimeout; }
   public String getDeviceID() { return simplifyMacAddress(macAddress); }
   public String getModel() { return model; }
   ///////////////////////////////////////////////////////////////////////////////////////
@@ -106,6 +144,18 @@ public class AirPlayConfig {
   private void setDisplay(AirPlayConfigDisplay display) {
     this.display = display;
   }
+  /**
+   * @return The scheduling of the RTSP and HTTP connections and the timing sync.
+   */
+  public AirPlayConfigThreadPolicy getControlThread() { return controlThread; }
+  /**
+   * @return The scheduling of the mirroring video stream.
+   */
+  public AirPlayConfigThreadPolicy getVideoThread() { return videoThread; }
+  /**
+   * @return The scheduling of the mirroring audio data and control.
+   */
+  public AirPlayConfigThreadPolicy getAudioThread() { return audioThread; }
 
   private String generateMacAddress() {
     if (null != randomMac)
@@ -50,6 +50,12 @@ public class AirPlayConfigDisplay {
     return refreshRate;
   }
 
+  /**
+   * Sets the refresh rate as the frame interval in seconds, e.g. 1/60 for 60 fps.
+   * Values greater than 1 are taken as frames per second.
+   *
+   * @param refreshRate The refresh rate.
+   */
   public void setRefreshRate(float refreshRate) {
     this.refreshRate = refreshRate;
   }
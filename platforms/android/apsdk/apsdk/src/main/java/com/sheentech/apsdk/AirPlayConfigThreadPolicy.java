@@ -0,0 +1,76 @@
+/* 
+ *  File: AirPlayConfigThreadPolicy.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+/**
+ * The scheduling policy of the native threads of a pipeline stage. The policies
+ * are shared by all servers in the process and apply to the threads started
+ * after the configuration is set.
+ */
+public class AirPlayConfigThreadPolicy {
+  private String name;
+
+  private int nice = 0;
+
+  private long affinity = 0;
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Sets the thread name, truncated to 15 characters. Null keeps the name.
+   *
+   * @param name The thread name.
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public int getNice() {
+    return nice;
+  }
+
+  /**
+   * Sets the nice value from -20 (highest priority) to 19, 0 keeps the default
+   * priority. The values match {@link android.os.Process#setThreadPriority(int)},
+   * e.g. {@link android.os.Process#THREAD_PRIORITY_AUDIO}.
+   *
+   * @param nice The nice value.
+   */
+  public void setNice(int nice) {
+    this.nice = nice;
+  }
+
+  public long getAffinity() {
+    return affinity;
+  }
+
+  /**
+   * Sets the mask of the CPUs the threads may run on, 0 allows all.
+   *
+   * @param affinity The CPU mask.
+   */
+  public void setAffinity(long affinity) {
+    this.affinity = affinity;
+  }
+}
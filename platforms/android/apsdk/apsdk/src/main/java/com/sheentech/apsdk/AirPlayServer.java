@@ -23,11 +23,14 @@ package com.sheentech.apsdk;
 
 import android.content.Context;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Represents the AiaPlayer server.
  */
 public class AirPlayServer extends NciObject {
   private AirPlayConfig config;
+  private boolean mdnsDaemonAcquired = false;
 
   /**
    * Constructs a instance of {@link AirPlayServer}.
@@ -37,6 +40,41 @@ public class AirPlayServer extends NciObject {
   public AirPlayServer(Context context) {
     MDNSHelper.initializeContext(context);
   }
+  /**
+   * Constructs a instance of {@link AirPlayServer} with a persistent identity.
+   * The device ID and the public key stay the same across restarts, so paired
+   * clients do not need to pair again.
+   *
+   * @param context The context.
+   * @param store The {@link IAirPlayIdentityStore} to load and save the identity.
+   */
+  public AirPlayServer(Context context, IAirPlayIdentityStore store) {
+    this(context);
+    nciEnter();
+    try {
+      nciSetIdentityStore(store);
+    } finally {
+      nciExit();
+    }
+  }
+  /**
+   * Constructs a instance of {@link AirPlayServer} with a persistent identity
+   * saved in the specified file.
+   *
+   * @param context The context.
+   * @param identityPath The path of the identity file, for example in {@link Context#getFilesDir()}.
+   */
+  public AirPlayServer(Context context, String identityPath) {
+    this(context);
+    nciEnter();
+    try {
+      nciSetIdentityFile(identityPath);
+    } finally {
+      nciExit();
+    }
+  }
+  private native void nciSetIdentityStore(IAirPlayIdentityStore store);
+  private native void nciSetIdentityFile(String path);
   /**
    * Creates the native class instance.
    */
@@ -49,11 +87,16 @@ public class AirPlayServer extends NciObject {
   /**
    * Destroys the native class instance.
    */
-  private native void nciDelete();
+  private static native void nciDelete(long ptr);
+  private static final NciRegistry.Releaser RELEASER = new NciRegistry.Releaser() {
+    @Override
+    public void release(long ptr) {
+      nciDelete(ptr);
+    }
+  };
   @Override
-  protected void deleteNci() {
-    // Call JIN method
-    nciDelete();
+  NciRegistry.Releaser nciReleaser() {
+    return RELEASER;
   }
   /**
    * Gets the configuration data.
@@ -64,13 +107,19 @@ public class AirPlayServer extends NciObject {
     return config;
   }
   /**
-   * Sets the configuration data.
+   * Sets the configuration data. If the server is running the new capabilities
+   * are re-announced immediately and applied to the next session.
    *
    * @param config The {@link AirPlayConfig}.
    */
   public void setConfig(AirPlayConfig config) {
     this.config = config;
-    nciSetConfig(config);
+    nciEnter();
+    try {
+      nciSetConfig(config);
+    } finally {
+      nciExit();
+    }
   }
   private native void nciSetConfig(AirPlayConfig config);
   private native void nciSetHandler(IAirPlayHandler handler);
@@ -80,7 +129,12 @@ public class AirPlayServer extends NciObject {
    * @param handler The {@link IAirPlayHandler}.
    */
   public void setHandler(IAirPlayHandler handler) {
-    nciSetHandler(handler);
+    nciEnter();
+    try {
+      nciSetHandler(null != handler ? new SessionTracker(handler) : null);
+    } finally {
+      nciExit();
+    }
   }
 
   private native boolean nciStart();
@@ -90,8 +144,29 @@ public class AirPlayServer extends NciObject {
    * @return True if successful; otherwise false.
    */
   public boolean start() {
-    MDNSHelper.acquireMDNSDaemon();
-    return nciStart();
+    acquireMDNSDaemon();
+    nciEnter();
+    try {
+      return nciStart();
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native void nciStartAsync(IAirPlayStartCallback callback);
+  /**
+   * Starts the server without blocking the calling thread.
+   *
+   * @param callback The {@link IAirPlayStartCallback} to receive the result, can be null.
+   */
+  public void startAsync(IAirPlayStartCallback callback) {
+    acquireMDNSDaemon();
+    nciEnter();
+    try {
+      nciStartAsync(callback);
+    } finally {
+      nciExit();
+    }
   }
 
   private native void nciStop();
@@ -99,8 +174,40 @@ public class AirPlayServer extends NciObject {
    * Stops the server.
    */
   public void stop() {
-    MDNSHelper.releaseMDNSDaemon();
-    nciStop();
+    releaseMDNSDaemon();
+    nciEnter();
+    try {
+      nciStop();
+    } finally {
+      nciExit();
+    }
+  }
+
+  private synchronized void acquireMDNSDaemon() {
+    // The daemon is shared by the servers, each of them holds it once while started
+    if (!mdnsDaemonAcquired) {
+      MDNSHelper.acquireMDNSDaemon();
+      mdnsDaemonAcquired = true;
+    }
+  }
+
+  private synchronized void releaseMDNSDaemon() {
+    if (mdnsDaemonAcquired) {
+      MDNSHelper.releaseMDNSDaemon();
+      mdnsDaemonAcquired = false;
+    }
+  }
+
+  /**
+   * Stops the server and releases the native resources. The server can not
+   * be started again after it is closed.
+   */
+  @Override
+  public void close() {
+    if (!isClosed()) {
+      stop();
+    }
+    super.close();
   }
 
   private native int nciGetServicePort();
@@ -110,6 +217,40 @@ public class AirPlayServer extends NciObject {
    * @return The port of the service.
    */
   public int getServicePort() {
-    return nciGetServicePort();
+    nciEnter();
+    try {
+      return nciGetServicePort();
+    } finally {
+      nciExit();
+    }
+  }
+
+  /**
+   * Forwards the session events to the application handler and drives the
+   * state of the sessions, which are kept alive until they end.
+   */
+  private static final class SessionTracker implements IAirPlayHandler {
+    private final IAirPlayHandler handler;
+    private final ConcurrentHashMap<Long, AirPlaySession> sessions = new ConcurrentHashMap<Long, AirPlaySession>();
+
+    SessionTracker(IAirPlayHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void on_session_begin(AirPlaySession session) {
+      sessions.put(session.getSessionId(), session);
+      session.updateState(AirPlaySession.STATE_READY);
+      handler.on_session_begin(session);
+    }
+
+    @Override
+    public void on_session_end(long session_id) {
+      AirPlaySession session = sessions.remove(session_id);
+      if (null != session) {
+        session.updateState(AirPlaySession.STATE_ENDED);
+      }
+      handler.on_session_end(session_id);
+    }
   }
 }
@@ -22,15 +22,62 @@
 package com.sheentech.apsdk;
 
 import android.os.ConditionVariable;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
- *
+ * Represents an AirPlay session. Close the session once it has ended to
+ * release the native resources right away.
  */
 public class AirPlaySession extends NciObject {
   public static final int MIRROR_SESSION = 0;
   public static final int VIDEO_SESSION = 1;
   public static final int UNKNOWN_SESSION = 0xffffffff;
 
+  /**
+   * The session has begun and its attributes are available.
+   */
+  public static final int STATE_READY = 1;
+
+  /**
+   * The sender is streaming media.
+   */
+  public static final int STATE_STREAMING = 2;
+
+  /**
+   * The sender is connected but not streaming.
+   */
+  public static final int STATE_PAUSED = 3;
+
+  /**
+   * The session has ended, this is the final state.
+   */
+  public static final int STATE_ENDED = 4;
+
+  private static final String TAG = "AirPlaySession";
+
+  // The state changes of all sessions are delivered in order on one thread
+  private static final Executor STATE_EVENTS = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "AirPlaySessionState");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private long sessionId = 0;
+  private int sessionType = UNKNOWN_SESSION;
+  private int state = 0;
+  private final CopyOnWriteArrayList<IAirPlaySessionListener> listeners =
+      new CopyOnWriteArrayList<IAirPlaySessionListener>();
+  private final Object mirrorHandlerLock = new Object();
+  private IAirPlayMirroringHandler mirrorHandler = null;
+
   /**
    * Creates the native class instance.
    */
@@ -40,35 +87,390 @@ public class AirPlaySession extends NciObject {
   /**
    * Destroys the native class instance.
    */
-  private native void nciDelete();
+  private static native void nciDelete(long ptr);
+  private static final NciRegistry.Releaser RELEASER = new NciRegistry.Releaser() {
+    @Override
+    public void release(long ptr) {
+      nciDelete(ptr);
+    }
+  };
   @Override
-  protected void deleteNci() {
-    // Call JIN method
-    nciDelete();
+  NciRegistry.Releaser nciReleaser() {
+    return RELEASER;
+  }
+
+  /**
+   * Called by the native side when the session is created.
+   *
+   * @param id   The session id.
+   * @param type The session type.
+   */
+  private void nciInitialize(long id, int type) {
+    sessionId = id;
+    sessionType = type;
   }
 
   /**
    * @return The session id.
    */
-  private native long nciGetSessionId();
   public long getSessionId() {
-    return nciGetSessionId();
+    return sessionId;
   }
 
   /**
    * @return The session type.
    */
-  private native int nciGetSessionType();
   public int getSessionType() {
-    return nciGetSessionType();
+    return sessionType;
   }
 
   /**
-   * @param handler The mirror session handler.
+   * @return The current state, one of the STATE_* values or 0 before the session is ready.
+   */
+  public synchronized int getState() {
+    return state;
+  }
+
+  /**
+   * Adds a listener of the session state. The current state is delivered to
+   * the listener first, so no event is missed.
+   *
+   * @param listener The {@link IAirPlaySessionListener}.
    */
+  public void addStateListener(IAirPlaySessionListener listener) {
+    synchronized (this) {
+      if (listeners.addIfAbsent(listener) && 0 != state) {
+        notifyState(new IAirPlaySessionListener[] {listener}, state);
+      }
+    }
+  }
+
+  /**
+   * Removes a listener of the session state.
+   *
+   * @param listener The {@link IAirPlaySessionListener}.
+   */
+  public void removeStateListener(IAirPlaySessionListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Moves the session to the specified state and notifies the listeners.
+   *
+   * @param newState The new state.
+   */
+  void updateState(int newState) {
+    synchronized (this) {
+      if (newState == state || STATE_ENDED == state) {
+        return;
+      }
+      state = newState;
+      notifyState(listeners.toArray(new IAirPlaySessionListener[0]), newState);
+      if (STATE_ENDED == newState) {
+        listeners.clear();
+      }
+    }
+  }
+
+  /**
+   * Queues the state change to the listeners. Called with the lock held, so
+   * the changes are delivered in the order they were made.
+   *
+   * @param targets The listeners at the time of the change.
+   * @param newState The new state.
+   */
+  private void notifyState(final IAirPlaySessionListener[] targets, final int newState) {
+    STATE_EVENTS.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (IAirPlaySessionListener listener : targets) {
+          try {
+            listener.on_session_state_changed(AirPlaySession.this, newState);
+          } catch (RuntimeException e) {
+            Log.e(TAG, "The session listener failed.", e);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @return The native stream buffer memory used by this session.
+   */
+  private native long[] nciGetMemoryUsage();
+  public SessionMemoryUsage getMemoryUsage() {
+    SessionMemoryUsage usage = new SessionMemoryUsage();
+    long[] values;
+    nciEnter();
+    try {
+      values = nciGetMemoryUsage();
+    } finally {
+      nciExit();
+    }
+    if (null != values && values.length == 3) {
+      usage.inUse = values[0];
+      usage.peak = values[1];
+      usage.rejected = values[2];
+    }
+    return usage;
+  }
+
   private native void nciSetMirrorHandler(IAirPlayMirroringHandler handler);
+  /**
+   * Sets the mirror session handler. A handler set while the video stream runs
+   * first gets the stream start, the last codec packet and the frames since
+   * the last key frame, so a decoder attached late can show a picture at once.
+   * The live stream follows. The replay runs on the video stream thread, this
+   * method does not wait for it and may be called from the handler callbacks.
+   * @param handler The mirror session handler.
+   */
   public void setMirrorHandler(IAirPlayMirroringHandler handler) {
-    nciSetMirrorHandler(handler);
+    IAirPlayMirroringHandler tracker = null;
+    if (handler instanceof IAirPlayPcmAudioHandler) {
+      tracker = new PcmMirroringStateTracker(handler);
+    } else if (null != handler) {
+      tracker = new MirroringStateTracker(handler);
+    }
+    synchronized (mirrorHandlerLock) {
+      mirrorHandler = handler;
+      nciEnter();
+      try {
+        nciSetMirrorHandler(tracker);
+      } finally {
+        nciExit();
+      }
+    }
+  }
+
+  /**
+   * Removes the mirroring handler if it is still the specified one.
+   */
+  private void removeMirrorHandler(IAirPlayMirroringHandler handler) {
+    synchronized (mirrorHandlerLock) {
+      if (mirrorHandler == handler) {
+        setMirrorHandler(null);
+      }
+    }
+  }
+
+  private native AudioRing nciCreateAudioRing(int capacity);
+  /**
+   * Creates a ring the decoded mirroring audio is written to, instead of the
+   * mirroring handler. The audio is decoded regardless of
+   * {@link AirPlayConfig#setAudioDecoding(boolean)}. The ring is taken when
+   * the audio stream is set up, so create it before, for example in
+   * {@link IAirPlayHandler#on_session_begin(AirPlaySession)}. A new ring
+   * replaces the previous one.
+   *
+   * <p>Only ALAC is decoded, the ring stays empty for an AAC-ELD stream and its
+   * compressed packets still go to the mirroring handler.
+   *
+   * @param capacity The capacity in bytes, at most {@link AudioRing#MAX_CAPACITY},
+   *                 see {@link AudioRing#capacityFor(int, int, int)}.
+   * @return The {@link AudioRing}, or null if the session is closed.
+   */
+  public AudioRing createAudioRing(int capacity) {
+    if (capacity <= 0 || capacity > AudioRing.MAX_CAPACITY) {
+      throw new IllegalArgumentException(
+          "The capacity must be in (0, " + AudioRing.MAX_CAPACITY + "]: " + capacity);
+    }
+    nciEnter();
+    try {
+      return nciCreateAudioRing(capacity);
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native void nciDetachAudioRing();
+  /**
+   * Restores the delivery of the audio to the mirroring handler from the next
+   * audio stream on.
+   */
+  public void detachAudioRing() {
+    nciEnter();
+    try {
+      nciDetachAudioRing();
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native boolean nciStartRecording(String pathPrefix, long maxFileBytes, int maxFileDurationMs);
+  /**
+   * Records the mirroring session to fragmented MP4 files named
+   * {@code <pathPrefix>_0001.mp4}, {@code <pathPrefix>_0002.mp4} and so on.
+   * The video and the compressed audio are muxed and written by a native
+   * thread, nothing is copied to the Java heap. A new file is started at a key
+   * frame once a limit is reached. A running recording is replaced.
+   *
+   * @param pathPrefix The path of the files without the index and extension.
+   * @param maxFileBytes The size limit of a file, 0 for no limit.
+   * @param maxFileDurationMs The duration limit of a file, 0 for no limit.
+   * @return true if the recording started; false if the session is closed.
+   */
+  public boolean startRecording(String pathPrefix, long maxFileBytes, int maxFileDurationMs) {
+    if (null == pathPrefix || pathPrefix.isEmpty()) {
+      throw new IllegalArgumentException("The path prefix must not be empty");
+    }
+    nciEnter();
+    try {
+      return nciStartRecording(pathPrefix, maxFileBytes, maxFileDurationMs);
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native void nciStopRecording();
+  /**
+   * Stops the recording, the last fragment is written before this returns.
+   */
+  public void stopRecording() {
+    nciEnter();
+    try {
+      nciStopRecording();
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native long[] nciGetRecordingStats();
+  /**
+   * @return The progress of the last recording.
+   */
+  public RecordingStats getRecordingStats() {
+    RecordingStats stats = new RecordingStats();
+    long[] values;
+    nciEnter();
+    try {
+      values = nciGetRecordingStats();
+    } finally {
+      nciExit();
+    }
+    if (null != values && values.length == 5) {
+      stats.files = values[0];
+      stats.fragments = values[1];
+      stats.bytesWritten = values[2];
+      stats.droppedFragments = values[3];
+      stats.writeErrors = values[4];
+    }
+    return stats;
+  }
+
+  private native boolean nciAddStreamConsumer(IAirPlayStreamConsumer consumer, int maxQueuedFrames, int dropPolicy);
+  /**
+   * Adds a consumer of the mirroring stream next to the mirroring handler.
+   * Every frame is copied once natively and shared by all the consumers, each
+   * consumer is fed by its own thread from its own bounded queue, so a slow
+   * consumer never delays the others or the stream.
+   *
+   * @param consumer The {@link IAirPlayStreamConsumer}.
+   * @param maxQueuedFrames The capacity of the queue of the consumer.
+   * @param dropPolicy One of the {@link StreamDropPolicy} values.
+   * @return false if the consumer has been added already or the session is closed.
+   */
+  public boolean addStreamConsumer(IAirPlayStreamConsumer consumer, int maxQueuedFrames, int dropPolicy) {
+    if (null == consumer) {
+      throw new IllegalArgumentException("The consumer must not be null");
+    }
+    if (maxQueuedFrames <= 0) {
+      throw new IllegalArgumentException("The queue capacity must be positive: " + maxQueuedFrames);
+    }
+    if (dropPolicy < StreamDropPolicy.DROP_OLDEST || dropPolicy > StreamDropPolicy.DROP_UNTIL_KEY_FRAME) {
+      throw new IllegalArgumentException("Unknown drop policy: " + dropPolicy);
+    }
+    nciEnter();
+    try {
+      return nciAddStreamConsumer(consumer, maxQueuedFrames, dropPolicy);
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native void nciRemoveStreamConsumer(IAirPlayStreamConsumer consumer);
+  /**
+   * Removes the consumer, its {@link IAirPlayStreamConsumer#on_stream_end()}
+   * is called before this returns unless called by the consumer itself.
+   *
+   * @param consumer The {@link IAirPlayStreamConsumer}.
+   */
+  public void removeStreamConsumer(IAirPlayStreamConsumer consumer) {
+    if (null != consumer) {
+      nciEnter();
+      try {
+        nciRemoveStreamConsumer(consumer);
+      } finally {
+        nciExit();
+      }
+    }
+  }
+
+  private native void nciSetVideoBufferProvider(IAirPlayVideoBufferProvider provider);
+  /**
+   * Sets the provider of the buffers the mirroring video frames are received
+   * and decrypted into, it takes effect from the next frame. The frames
+   * received this way are not delivered to the mirroring handler, the codec
+   * and the heartbeats still are.
+   *
+   * @param provider The {@link IAirPlayVideoBufferProvider}, null to restore
+   *                 the delivery to the mirroring handler.
+   */
+  public void setVideoBufferProvider(IAirPlayVideoBufferProvider provider) {
+    nciEnter();
+    try {
+      nciSetVideoBufferProvider(provider);
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native void nciUpdatePlaybackState(double position, double duration, double rate, int flags);
+  /**
+   * Pushes the state of the casting playback, call it whenever the player
+   * starts, pauses, seeks or changes the rate. The playback info polls of the
+   * sender are answered natively from the latest state, the position advances
+   * by the rate between the updates unless
+   * {@link PlaybackStateFlags#BUFFER_EMPTY} is set, so periodic updates are
+   * not needed. Until
+   * the first update after a play request
+   * {@link IAirPlayCastingHandler#get_playback_info(long)}
+   * is still called.
+   *
+   * @param position The position in seconds.
+   * @param duration The duration in seconds.
+   * @param rate The playback rate, 0 while paused.
+   * @param flags The {@link PlaybackStateFlags}.
+   */
+  public void updatePlaybackState(double position, double duration, double rate, int flags) {
+    nciEnter();
+    try {
+      nciUpdatePlaybackState(position, duration, rate, flags);
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native void nciSetStreamFlowControl(boolean enabled);
+  private native void nciRequestStreamUnits(long n);
+  /**
+   * Subscribes to the mirroring stream with demand driven delivery, as an
+   * alternative to {@link #setMirrorHandler(IAirPlayMirroringHandler)}. The
+   * subscription replaces the mirroring handler, so subscribe before the
+   * streams are set up, for example in {@link IAirPlayHandler#on_session_begin(AirPlaySession)}.
+   *
+   * @param subscriber The {@link IAirPlayStreamSubscriber}.
+   */
+  public void subscribe(IAirPlayStreamSubscriber subscriber) {
+    StreamSubscription subscription = new StreamSubscription(subscriber);
+    nciEnter();
+    try {
+      nciSetStreamFlowControl(true);
+    } finally {
+      nciExit();
+    }
+    setMirrorHandler(subscription);
+    subscriber.on_subscribe(subscription);
+    addStateListener(subscription);
   }
 
   /**
@@ -76,7 +478,12 @@ public class AirPlaySession extends NciObject {
    */
   private native void nciSetCastHandler(IAirPlayCastingHandler handler);
   public void setCastHandler(IAirPlayCastingHandler handler) {
-    nciSetCastHandler(handler);
+    nciEnter();
+    try {
+      nciSetCastHandler(null != handler ? new CastingStateTracker(handler) : null);
+    } finally {
+      nciExit();
+    }
   }
 
   /**
@@ -84,7 +491,12 @@ public class AirPlaySession extends NciObject {
    */
   private native void nciDisconnect();
   public void disconnect() {
-    nciDisconnect();
+    nciEnter();
+    try {
+      nciDisconnect();
+    } finally {
+      nciExit();
+    }
   }
 
   // The callback interface
@@ -104,15 +516,302 @@ public class AirPlaySession extends NciObject {
   }
 
   private ConditionVariable mCondiationVariable = new ConditionVariable();
+  /**
+   * @deprecated This parks the calling thread, use {@link #addStateListener(IAirPlaySessionListener)}.
+   */
+  @Deprecated
   public void waitForReady() {
     mCondiationVariable.block();
   }
 
+  /**
+   * @deprecated Use {@link #addStateListener(IAirPlaySessionListener)}.
+   */
+  @Deprecated
   public void notifyReady() {
     mCondiationVariable.open();
   }
 
+  /**
+   * @deprecated Use {@link #addStateListener(IAirPlaySessionListener)}.
+   */
+  @Deprecated
   public void resetReady() {
     mCondiationVariable.close();
   }
+
+  /**
+   * Forwards the mirroring events to the application handler and tracks the
+   * streaming state of the session. The native side decodes the audio only for
+   * a handler implementing {@link IAirPlayPcmAudioHandler}, so the tracker
+   * implements it only if the application handler does, see
+   * {@link PcmMirroringStateTracker}.
+   */
+  private class MirroringStateTracker implements IAirPlayMirroringHandler, IAirPlayMetadataHandler {
+    protected final IAirPlayMirroringHandler handler;
+    private boolean videoStreaming = false;
+    private boolean audioStreaming = false;
+
+    MirroringStateTracker(IAirPlayMirroringHandler handler) {
+      this.handler = handler;
+    }
+
+    private synchronized int streamingState() {
+      return (videoStreaming || audioStreaming) ? STATE_STREAMING : STATE_PAUSED;
+    }
+
+    private void setVideoStreaming(boolean streaming) {
+      synchronized (this) {
+        videoStreaming = streaming;
+      }
+      updateState(streamingState());
+    }
+
+    private void setAudioStreaming(boolean streaming) {
+      synchronized (this) {
+        audioStreaming = streaming;
+      }
+      updateState(streamingState());
+    }
+
+    @Override
+    public void on_video_stream_started() {
+      setVideoStreaming(true);
+      handler.on_video_stream_started();
+    }
+
+    @Override
+    public void on_video_stream_codec(byte[] data) {
+      handler.on_video_stream_codec(data);
+    }
+
+    @Override
+    public void on_video_stream_data(byte[] data, long timestamp) {
+      handler.on_video_stream_data(data, timestamp);
+    }
+
+    @Override
+    public void on_video_stream_heartbeat() {
+      handler.on_video_stream_heartbeat();
+    }
+
+    @Override
+    public void on_video_stream_stopped() {
+      handler.on_video_stream_stopped();
+      setVideoStreaming(false);
+    }
+
+    @Override
+    public void on_audio_set_volume(float ratio, float volume) {
+      handler.on_audio_set_volume(ratio, volume);
+    }
+
+    @Override
+    public void on_audio_set_progress(float ratio, long start, long current, long end) {
+      handler.on_audio_set_progress(ratio, start, current, end);
+    }
+
+    @Override
+    public void on_audio_set_cover(String format, byte[] data) {
+      handler.on_audio_set_cover(format, data);
+    }
+
+    @Override
+    public void on_audio_set_meta_data(byte[] data) {
+      handler.on_audio_set_meta_data(data);
+    }
+
+    @Override
+    public void on_audio_set_track_metadata(TrackMetadata metadata) {
+      if (handler instanceof IAirPlayMetadataHandler) {
+        ((IAirPlayMetadataHandler) handler).on_audio_set_track_metadata(metadata);
+      }
+    }
+
+    @Override
+    public void on_audio_stream_started(int format) {
+      setAudioStreaming(true);
+      handler.on_audio_stream_started(format);
+    }
+
+    @Override
+    public void on_audio_stream_data(byte[] data, long timestamp) {
+      handler.on_audio_stream_data(data, timestamp);
+    }
+
+    @Override
+    public void on_audio_stream_stopped() {
+      handler.on_audio_stream_stopped();
+      setAudioStreaming(false);
+    }
+  }
+
+  /**
+   * The {@link MirroringStateTracker} of an application handler taking the
+   * decoded audio.
+   */
+  private final class PcmMirroringStateTracker extends MirroringStateTracker
+      implements IAirPlayPcmAudioHandler {
+    PcmMirroringStateTracker(IAirPlayMirroringHandler handler) {
+      super(handler);
+    }
+
+    @Override
+    public void on_audio_stream_pcm(byte[] data, int channels, int sampleRate, long timestamp) {
+      ((IAirPlayPcmAudioHandler) handler).on_audio_stream_pcm(data, channels, sampleRate, timestamp);
+    }
+  }
+
+  /**
+   * Delivers the mirroring stream to a subscriber against its demand, the
+   * native side holds the stream back while there is no demand.
+   */
+  private final class StreamSubscription
+      implements IAirPlayStreamSubscription, IAirPlayMirroringHandler, IAirPlayPcmAudioHandler,
+                 IAirPlaySessionListener {
+    private final IAirPlayStreamSubscriber subscriber;
+    private volatile boolean done = false;
+
+    StreamSubscription(IAirPlayStreamSubscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (done) {
+        return;
+      }
+      if (n <= 0) {
+        cancel();
+        subscriber.on_error(new IllegalArgumentException("The demand must be positive: " + n));
+        return;
+      }
+      nciEnter();
+      try {
+        nciRequestStreamUnits(n);
+      } finally {
+        nciExit();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      if (done) {
+        return;
+      }
+      done = true;
+      removeStateListener(this);
+      // Stop the delivery and let the socket drain again
+      removeMirrorHandler(this);
+      nciEnter();
+      try {
+        nciSetStreamFlowControl(false);
+      } finally {
+        nciExit();
+      }
+    }
+
+    @Override
+    public void on_session_state_changed(AirPlaySession session, int state) {
+      if (STATE_ENDED == state && !done) {
+        done = true;
+        subscriber.on_complete();
+      }
+    }
+
+    @Override
+    public void on_video_stream_started() {}
+
+    @Override
+    public void on_video_stream_codec(byte[] data) {
+      if (!done) {
+        subscriber.on_next(new StreamUnit(StreamUnit.VIDEO_CODEC, data, 0));
+      }
+    }
+
+    @Override
+    public void on_video_stream_data(byte[] data, long timestamp) {
+      if (!done) {
+        subscriber.on_next(new StreamUnit(StreamUnit.VIDEO_DATA, data, timestamp));
+      }
+    }
+
+    @Override
+    public void on_video_stream_heartbeat() {}
+
+    @Override
+    public void on_video_stream_stopped() {}
+
+    @Override
+    public void on_audio_set_volume(float ratio, float volume) {}
+
+    @Override
+    public void on_audio_set_progress(float ratio, long start, long current, long end) {}
+
+    @Override
+    public void on_audio_set_cover(String format, byte[] data) {}
+
+    @Override
+    public void on_audio_set_meta_data(byte[] data) {}
+
+    @Override
+    public void on_audio_stream_started(int format) {}
+
+    @Override
+    public void on_audio_stream_data(byte[] data, long timestamp) {
+      if (!done) {
+        subscriber.on_next(new StreamUnit(StreamUnit.AUDIO_DATA, data, timestamp));
+      }
+    }
+
+    @Override
+    public void on_audio_stream_pcm(byte[] data, int channels, int sampleRate, long timestamp) {
+      if (!done) {
+        subscriber.on_next(new StreamUnit(StreamUnit.AUDIO_PCM, data, timestamp));
+      }
+    }
+
+    @Override
+    public void on_audio_stream_stopped() {}
+  }
+
+  /**
+   * Forwards the casting events to the application handler and tracks the
+   * playback state of the session.
+   */
+  private final class CastingStateTracker implements IAirPlayCastingHandler {
+    private final IAirPlayCastingHandler handler;
+
+    CastingStateTracker(IAirPlayCastingHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void on_video_play(long session, String location, float position) {
+      updateState(STATE_STREAMING);
+      handler.on_video_play(session, location, position);
+    }
+
+    @Override
+    public void on_video_scrub(long session, float position) {
+      handler.on_video_scrub(session, position);
+    }
+
+    @Override
+    public void on_video_rate(long session, float value) {
+      handler.on_video_rate(session, value);
+      updateState(0 == value ? STATE_PAUSED : STATE_STREAMING);
+    }
+
+    @Override
+    public void on_video_stop(long session) {
+      handler.on_video_stop(session);
+      updateState(STATE_PAUSED);
+    }
+
+    @Override
+    public PlaybackInfo get_playback_info(long session) {
+      return handler.get_playback_info(session);
+    }
+  }
 }
@@ -0,0 +1,290 @@
+/* 
+ *  File: AudioRing.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A lock-free single producer single consumer ring of the decoded mirroring
+ * audio, created by {@link AirPlaySession#createAudioRing(int)}. The SDK writes
+ * interleaved 16-bit little-endian PCM on its network thread and the audio sink
+ * reads it on its own thread, no callback is made and nothing is allocated per
+ * read. The ring must only be read by one thread at a time.
+ *
+ * <p>The memory of the ring is exposed by {@link #buffer()}, to read in place
+ * call {@link #acquire(int)}, read from the offset {@link #getReadOffset()} with
+ * wrap around at {@link #capacity()}, then {@link #release(int)} the bytes read.
+ * The indices are kept in native atomics, Java has no ordered access to direct
+ * memory on all supported API levels.
+ *
+ * <p>The ring is only written while the stream has a decoder, that is for
+ * ALAC. It stays empty for AAC-ELD.
+ *
+ * <p>Close the ring once the sink stops, the buffer must not be used afterwards.
+ */
+public class AudioRing extends NciObject {
+  /**
+   * The largest capacity in bytes, the capacity is rounded up to a power of
+   * two and a direct buffer holds at most 2^31 - 1 bytes.
+   */
+  public static final int MAX_CAPACITY = 1 << 30;
+
+  private ByteBuffer buffer;
+
+  private AudioRing() { }
+
+  /**
+   * The ring is created by the native side.
+   */
+  @Override
+  protected void newNci() { }
+
+  /**
+   * Destroys the native class instance.
+   */
+  private static native void nciDelete(long ptr);
+  private static final NciRegistry.Releaser RELEASER = new NciRegistry.Releaser() {
+    @Override
+    public void release(long ptr) {
+      nciDelete(ptr);
+    }
+  };
+  @Override
+  NciRegistry.Releaser nciReleaser() {
+    return RELEASER;
+  }
+
+  /**
+   * Called by the native side when the ring is created.
+   *
+   * @param buffer The direct buffer of the ring memory.
+   */
+  private void nciInitialize(ByteBuffer buffer) {
+    this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Computes the capacity holding the specified duration of audio.
+   *
+   * @param latencyMicros The duration in microseconds, for example the output
+   *                      latency of the {@link AirPlayConfigAudioLatency}.
+   * @param sampleRate    The sample rate in Hz.
+   * @param channels      The number of channels.
+   * @return The capacity in bytes.
+   */
+  public static int capacityFor(int latencyMicros, int sampleRate, int channels) {
+    long frames = (long) latencyMicros * sampleRate / 1000000L;
+    return (int) Math.min(MAX_CAPACITY, frames * channels * 2);
+  }
+
+  /**
+   * @return The direct buffer of the ring memory, valid until the ring is closed.
+   */
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  /**
+   * @return The capacity of the ring in bytes, a power of two.
+   */
+  public int capacity() {
+    return buffer.capacity();
+  }
+
+  private native int nciRead(byte[] dst, int offset, int length);
+  /**
+   * Copies up to length bytes to the array and fills the rest with silence,
+   * a short read is counted as an underrun.
+   *
+   * @param dst    The destination array.
+   * @param offset The offset in the array.
+   * @param length The number of bytes to read.
+   * @return The number of bytes copied from the ring.
+   */
+  public int read(byte[] dst, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > dst.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    nciEnter();
+    try {
+      return nciRead(dst, offset, length);
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native int nciReadDirect(ByteBuffer dst, int offset, int length);
+  /**
+   * Copies up to length bytes to the position of the direct buffer and fills
+   * the rest with silence, a short read is counted as an underrun. The position
+   * of the buffer is advanced by length.
+   *
+   * @param dst    The destination direct buffer.
+   * @param length The number of bytes to read.
+   * @return The number of bytes copied from the ring.
+   */
+  public int read(ByteBuffer dst, int length) {
+    if (!dst.isDirect()) {
+      throw new IllegalArgumentException("The buffer must be direct");
+    }
+    if (length < 0 || length > dst.remaining()) {
+      throw new IndexOutOfBoundsException();
+    }
+    int n;
+    nciEnter();
+    try {
+      n = nciReadDirect(dst, dst.position(), length);
+    } finally {
+      nciExit();
+    }
+    dst.position(dst.position() + length);
+    return n;
+  }
+
+  private native int nciAcquire(int wanted);
+  /**
+   * Gets the bytes available to read in place, an underrun is counted if fewer
+   * than wanted bytes are available.
+   *
+   * @param wanted The number of bytes the sink needs.
+   * @return The number of bytes available.
+   */
+  public int acquire(int wanted) {
+    nciEnter();
+    try {
+      return nciAcquire(wanted);
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native void nciRelease(int length);
+  /**
+   * Releases the bytes read in place.
+   *
+   * @param length The number of bytes read.
+   */
+  public void release(int length) {
+    nciEnter();
+    try {
+      nciRelease(length);
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native long nciGetReadIndex();
+  /**
+   * @return The offset in {@link #buffer()} of the next byte to read.
+   */
+  public int getReadOffset() {
+    nciEnter();
+    try {
+      return (int) (nciGetReadIndex() & (capacity() - 1));
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native void nciFlush();
+  /**
+   * Discards all the buffered audio, for example when the sink restarts.
+   */
+  public void flush() {
+    nciEnter();
+    try {
+      nciFlush();
+    } finally {
+      nciExit();
+    }
+  }
+
+  private native long[] nciGetStatus();
+  /**
+   * @return The counters of the ring.
+   */
+  public Status getStatus() {
+    Status status = new Status();
+    long[] values;
+    nciEnter();
+    try {
+      values = nciGetStatus();
+    } finally {
+      nciExit();
+    }
+    if (null != values && values.length == 6) {
+      status.readIndex = values[0];
+      status.writeIndex = values[1];
+      status.underruns = values[2];
+      status.overruns = values[3];
+      status.channels = (int) values[4];
+      status.sampleRate = (int) values[5];
+    }
+    return status;
+  }
+
+  /**
+   * Represents the counters of the ring.
+   */
+  public static class Status {
+    /**
+     * The total bytes read.
+     */
+    public long readIndex;
+
+    /**
+     * The total bytes written.
+     */
+    public long writeIndex;
+
+    /**
+     * The number of reads finding less audio than wanted.
+     */
+    public long underruns;
+
+    /**
+     * The number of packets dropped for the ring being full.
+     */
+    public long overruns;
+
+    /**
+     * The number of channels of the audio, 0 before any audio.
+     */
+    public int channels;
+
+    /**
+     * The sample rate of the audio, 0 before any audio.
+     */
+    public int sampleRate;
+
+    /**
+     * @return The duration of the buffered audio in microseconds.
+     */
+    public long getBufferedMicros() {
+      if (0 == channels || 0 == sampleRate) {
+        return 0;
+      }
+      return (writeIndex - readIndex) / (channels * 2) * 1000000L / sampleRate;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/* 
+ *  File: IAirPlayIdentityStore.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+/**
+ * Represents the persistent storage of the server identity.
+ */
+public interface IAirPlayIdentityStore {
+  /**
+   * Loads the saved identity data.
+   *
+   * @return The identity data, or null if nothing was saved.
+   */
+  byte[] load();
+
+  /**
+   * Saves the identity data.
+   *
+   * @param data The identity data.
+   * @return True if successful; otherwise false.
+   */
+  boolean save(byte[] data);
+}
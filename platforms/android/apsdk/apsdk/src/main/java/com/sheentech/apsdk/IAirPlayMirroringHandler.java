@@ -90,7 +90,8 @@ public interface IAirPlayMirroringHandler {
   void on_audio_set_progress(float ratio, long start, long current, long end);
 
   /**
-   * Gets called when the sender requires to set the cover image.
+   * Gets called when the sender requires to set the cover image. The image
+   * resent unchanged by the sender is not reported again.
    *
    * @param format The image format of the cover image.
    * @param data   The binary raw data of the cover image.
@@ -99,7 +100,9 @@ public interface IAirPlayMirroringHandler {
 
   /**
    * Gets called when the sender requires to set the meta data.
-   * Refer to the DAAP (http://tapjam.net/daap/).
+   * Refer to the DAAP (http://tapjam.net/daap/). The meta data resent
+   * unchanged by the sender is not reported again, implement
+   * {@link IAirPlayMetadataHandler} to get the parsed meta data.
    *
    * @param data The raw binary raw meta data.
    */
@@ -0,0 +1,40 @@
+/* 
+ *  File: IAirPlayPcmAudioHandler.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+/**
+ * Receives the decoded mirroring audio, implemented by an {@link IAirPlayMirroringHandler}
+ * which wants PCM instead of the compressed packets. The decoding is enabled with
+ * {@link AirPlayConfig#setAudioDecoding(boolean)}.
+ */
+public interface IAirPlayPcmAudioHandler {
+  /**
+   * Called for every decoded audio packet instead of
+   * {@link IAirPlayMirroringHandler#on_audio_stream_data(byte[], long)}.
+   *
+   * @param data       The interleaved 16-bit little-endian samples.
+   * @param channels   The number of channels.
+   * @param sampleRate The sample rate in Hz.
+   * @param timestamp  The RTP timestamp of the packet.
+   */
+  void on_audio_stream_pcm(byte[] data, int channels, int sampleRate, long timestamp);
+}
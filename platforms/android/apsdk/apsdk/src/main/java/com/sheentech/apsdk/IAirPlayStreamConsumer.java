@@ -0,0 +1,58 @@
+/* 
+ *  File: IAirPlayStreamConsumer.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A consumer of the mirroring stream, added with
+ * {@link AirPlaySession#addStreamConsumer(IAirPlayStreamConsumer, int, int)}.
+ * Each consumer is called on its own native thread from its own bounded
+ * queue, a slow consumer only loses its own frames.
+ */
+public interface IAirPlayStreamConsumer {
+  /**
+   * Called for every frame the drop policy lets through.
+   *
+   * @param type One of {@link StreamUnit#VIDEO_CODEC}, {@link StreamUnit#VIDEO_DATA}
+   *             and {@link StreamUnit#AUDIO_DATA}.
+   * @param format The audio data format of the audio frames, such as
+   *               {@link IAirPlayMirroringHandler#AACELD}, 0 for the video frames.
+   * @param keyFrame Whether the video frame contains an IDR slice, always true for the other frames.
+   * @param timestamp The NTP timestamp of the video frames, the RTP timestamp of the audio frames.
+   * @param data The frame shared with the other consumers, a direct buffer over the native
+   *             memory. It must not be modified, and must not be used after this returns.
+   */
+  void on_stream_frame(int type, int format, boolean keyFrame, long timestamp, ByteBuffer data);
+
+  /**
+   * Called before the next frame once frames have been dropped for this consumer.
+   *
+   * @param count The number of frames dropped.
+   */
+  void on_stream_frames_dropped(int count);
+
+  /**
+   * Called last, when the consumer is removed or the session ends.
+   */
+  void on_stream_end();
+}
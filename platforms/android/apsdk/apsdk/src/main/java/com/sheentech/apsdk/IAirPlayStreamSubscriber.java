@@ -0,0 +1,52 @@
+/* 
+ *  File: IAirPlayStreamSubscriber.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+public interface IAirPlayStreamSubscriber {
+  /**
+   * Called once when the subscription is created, no unit is delivered
+   * before {@link IAirPlayStreamSubscription#request(long)} is called.
+   *
+   * @param subscription The {@link IAirPlayStreamSubscription}.
+   */
+  void on_subscribe(IAirPlayStreamSubscription subscription);
+
+  /**
+   * Called on an SDK thread for every stream unit, never more often than
+   * requested.
+   *
+   * @param unit The {@link StreamUnit}.
+   */
+  void on_next(StreamUnit unit);
+
+  /**
+   * Called when the subscription fails, this is a terminal event.
+   *
+   * @param error The cause.
+   */
+  void on_error(Throwable error);
+
+  /**
+   * Called when the session ends, this is a terminal event.
+   */
+  void on_complete();
+}
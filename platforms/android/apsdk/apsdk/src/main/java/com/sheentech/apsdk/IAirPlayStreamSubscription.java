@@ -0,0 +1,40 @@
+/* 
+ *  File: IAirPlayStreamSubscription.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+public interface IAirPlayStreamSubscription {
+  /**
+   * Adds demand for the specified number of stream units. The SDK stops
+   * reading the mirroring video socket while there is no demand, so the
+   * sender is held back by TCP flow control.
+   *
+   * @param n The number of units, must be positive.
+   */
+  void request(long n);
+
+  /**
+   * Cancels the subscription, no more units are delivered. The subscription
+   * is removed as the mirroring handler of the session unless another handler
+   * was set since.
+   */
+  void cancel();
+}
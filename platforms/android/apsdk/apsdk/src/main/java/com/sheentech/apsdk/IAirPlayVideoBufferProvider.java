@@ -0,0 +1,63 @@
+/* 
+ *  File: IAirPlayVideoBufferProvider.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Supplies the buffers the mirroring video frames are received into, set with
+ * {@link AirPlaySession#setVideoBufferProvider(IAirPlayVideoBufferProvider)}.
+ * The encrypted frame is read from the socket into the buffer and decrypted in
+ * place, so it can be queued to a decoder without being copied. All methods are
+ * called on the native video stream thread, one buffer is acquired at a time.
+ */
+public interface IAirPlayVideoBufferProvider {
+  /**
+   * Called when a video frame arrives, before it is received.
+   *
+   * @param size The size of the frame in bytes.
+   * @return A direct buffer with a capacity of at least size bytes, such as a
+   *         MediaCodec input buffer, or null to have the frame delivered to
+   *         {@link IAirPlayMirroringHandler#on_video_stream_data(byte[], long)} instead.
+   */
+  ByteBuffer acquire_video_buffer(int size);
+
+  /**
+   * Called when the frame has been received and decrypted into the buffer. The
+   * frame is written from the beginning of the memory of the buffer, the
+   * position and the limit of the buffer are not changed.
+   *
+   * @param buffer The buffer returned by {@link #acquire_video_buffer(int)}.
+   * @param size The size of the AVCC access unit.
+   * @param timestamp The NTP timestamp of the frame.
+   */
+  void on_video_buffer_filled(ByteBuffer buffer, int size, long timestamp);
+
+  /**
+   * Called instead of {@link #on_video_buffer_filled(ByteBuffer, int, long)} when
+   * the frame could not be received, for example the session ended. The content
+   * of the buffer is undefined.
+   *
+   * @param buffer The buffer returned by {@link #acquire_video_buffer(int)}.
+   */
+  void on_video_buffer_released(ByteBuffer buffer);
+}
@@ -0,0 +1,193 @@
+/* 
+ *  File: NciRegistry.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+import android.util.Log;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the native handles held by the SDK objects. A handle is released
+ * deterministically by {@link AutoCloseable#close()}; a handle whose owner is
+ * collected without being closed is released by a background cleaner thread
+ * and reported as a leak.
+ */
+public final class NciRegistry {
+  /**
+   * The Log tag.
+   */
+  private static final String TAG = "NciRegistry";
+
+  /**
+   * Releases the native object at the specified address. The implementation
+   * must not reference the Java owner, it may already be unreachable.
+   */
+  interface Releaser {
+    void release(long ptr);
+  }
+
+  /**
+   * A live native handle, enqueued once its owner becomes unreachable.
+   */
+  static final class Handle extends PhantomReference<NciObject> {
+    private final long ptr;
+    private final Releaser releaser;
+    private final String type;
+    private final Throwable allocationSite;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private Handle(NciObject owner, long ptr, Releaser releaser, Throwable allocationSite) {
+      super(owner, queue);
+      this.ptr = ptr;
+      this.releaser = releaser;
+      this.type = owner.getClass().getSimpleName();
+      this.allocationSite = allocationSite;
+    }
+
+    /**
+     * Releases the native object, only the first call takes effect.
+     *
+     * @return True if this call released the native object.
+     */
+    boolean release() {
+      if (!released.compareAndSet(false, true)) {
+        return false;
+      }
+      live.remove(this);
+      clear();
+      releaser.release(ptr);
+      return true;
+    }
+  }
+
+  private static final ReferenceQueue<NciObject> queue = new ReferenceQueue<>();
+
+  private static final Set<Handle> live = Collections.newSetFromMap(new ConcurrentHashMap<Handle, Boolean>());
+
+  private static final AtomicLong leaked = new AtomicLong(0);
+
+  private static volatile boolean trackAllocations = false;
+
+  private static Thread cleaner = null;
+
+  private NciRegistry() {}
+
+  /**
+   * Registers the native handle of the owner.
+   *
+   * @param owner The Java object owning the native object.
+   * @param ptr The address of the native object.
+   * @param releaser The {@link Releaser} of the native object.
+   * @return The registered handle.
+   */
+  static Handle register(NciObject owner, long ptr, Releaser releaser) {
+    startCleaner();
+    Handle handle = new Handle(owner, ptr, releaser, trackAllocations ? new Throwable("Allocated here") : null);
+    live.add(handle);
+    return handle;
+  }
+
+  private static synchronized void startCleaner() {
+    if (null != cleaner) {
+      return;
+    }
+    cleaner = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            Handle handle = (Handle) queue.remove();
+            if (handle.release()) {
+              leaked.incrementAndGet();
+              Log.w(TAG, "A " + handle.type + " was not closed, released by the cleaner.", handle.allocationSite);
+            }
+          } catch (InterruptedException e) {
+            // The cleaner runs for the lifetime of the process
+          } catch (Throwable e) {
+            Log.e(TAG, "Failed to release the native handle.", e);
+          }
+        }
+      }
+    }, "NciCleaner");
+    cleaner.setDaemon(true);
+    cleaner.start();
+  }
+
+  /**
+   * Records the call stack of every new handle so the leak report shows where
+   * the unclosed objects were created. This is meant for debug builds.
+   *
+   * @param enabled True to record the allocation sites.
+   */
+  public static void setTrackAllocations(boolean enabled) {
+    trackAllocations = enabled;
+  }
+
+  /**
+   * Gets the number of native handles not released yet.
+   *
+   * @return The number of live handles.
+   */
+  public static int getLiveCount() {
+    return live.size();
+  }
+
+  /**
+   * Gets the number of native handles released by the cleaner because their
+   * owners were not closed.
+   *
+   * @return The number of leaked handles.
+   */
+  public static long getLeakedCount() {
+    return leaked.get();
+  }
+
+  /**
+   * Builds a report of the live native handles, including the allocation
+   * sites when {@link #setTrackAllocations(boolean)} is enabled.
+   *
+   * @return The report text.
+   */
+  public static String getLeakReport() {
+    List<Handle> handles = new ArrayList<>(live);
+    StringBuilder sb = new StringBuilder();
+    sb.append("Live native handles: ").append(handles.size());
+    sb.append(", released by the cleaner: ").append(leaked.get()).append('\n');
+    for (Handle handle : handles) {
+      sb.append("  ").append(handle.type).append(" @0x").append(Long.toHexString(handle.ptr)).append('\n');
+      if (null != handle.allocationSite) {
+        for (StackTraceElement e : handle.allocationSite.getStackTrace()) {
+          sb.append("      at ").append(e).append('\n');
+        }
+      }
+    }
+    return sb.toString();
+  }
+}
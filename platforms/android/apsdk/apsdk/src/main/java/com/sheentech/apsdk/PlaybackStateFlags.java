@@ -0,0 +1,48 @@
+/* 
+ *  File: PlaybackStateFlags.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+/**
+ * The flags of the state passed to
+ * {@link AirPlaySession#updatePlaybackState(double, double, double, int)}.
+ */
+public class PlaybackStateFlags {
+  /**
+   * The player is ready to play the item.
+   */
+  public static final int READY_TO_PLAY = 0x01;
+
+  /**
+   * The playback buffer is empty.
+   */
+  public static final int BUFFER_EMPTY = 0x02;
+
+  /**
+   * The playback buffer is full.
+   */
+  public static final int BUFFER_FULL = 0x04;
+
+  /**
+   * The playback is likely to keep up without stalling.
+   */
+  public static final int LIKELY_TO_KEEP_UP = 0x08;
+}
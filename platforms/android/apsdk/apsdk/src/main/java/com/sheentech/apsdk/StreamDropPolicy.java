@@ -0,0 +1,44 @@
+/* 
+ *  File: StreamDropPolicy.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+/**
+ * What a {@link IAirPlayStreamConsumer} loses when its queue is full.
+ */
+public class StreamDropPolicy {
+  /**
+   * Drops the oldest queued frame to make room for the new one, a codec
+   * packet is never dropped.
+   */
+  public static final int DROP_OLDEST = 0;
+
+  /**
+   * Drops the new frame.
+   */
+  public static final int DROP_NEWEST = 1;
+
+  /**
+   * Drops the queued video frames and the following ones up to the next key
+   * frame, so the consumer never receives a frame it can not decode.
+   */
+  public static final int DROP_UNTIL_KEY_FRAME = 2;
+}
@@ -0,0 +1,68 @@
+/* 
+ *  File: StreamUnit.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+/**
+ * Represents a unit of the mirroring stream delivered to a {@link IAirPlayStreamSubscriber}.
+ */
+public class StreamUnit {
+  /**
+   * The unit carries the video codec configuration.
+   */
+  public static final int VIDEO_CODEC = 0;
+
+  /**
+   * The unit carries video frame data.
+   */
+  public static final int VIDEO_DATA = 1;
+
+  /**
+   * The unit carries audio data.
+   */
+  public static final int AUDIO_DATA = 2;
+
+  /**
+   * The unit carries decoded audio, interleaved 16-bit little-endian samples.
+   */
+  public static final int AUDIO_PCM = 3;
+
+  /**
+   * The type of the unit.
+   */
+  public int type;
+
+  /**
+   * The payload of the unit.
+   */
+  public byte[] data;
+
+  /**
+   * The timestamp of the unit, 0 for the codec configuration.
+   */
+  public long timestamp;
+
+  StreamUnit(int type, byte[] data, long timestamp) {
+    this.type = type;
+    this.data = data;
+    this.timestamp = timestamp;
+  }
+}
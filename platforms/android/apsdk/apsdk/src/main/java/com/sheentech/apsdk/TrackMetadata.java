@@ -0,0 +1,93 @@
+/* 
+ *  File: TrackMetadata.java
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sheentech.apsdk;
+
+/**
+ * Represents the track metadata parsed natively from the DAAP payload of the
+ * sender. The absent text fields are empty and the absent numbers are 0.
+ */
+public class TrackMetadata {
+  /**
+   * The title of the track.
+   */
+  public String title;
+
+  /**
+   * The artist.
+   */
+  public String artist;
+
+  /**
+   * The album.
+   */
+  public String album;
+
+  /**
+   * The album artist.
+   */
+  public String albumArtist;
+
+  /**
+   * The genre.
+   */
+  public String genre;
+
+  /**
+   * The composer.
+   */
+  public String composer;
+
+  /**
+   * The persistent id of the item, stable across the resends of the same track.
+   */
+  public long itemId;
+
+  /**
+   * The duration in milliseconds.
+   */
+  public int durationMs;
+
+  /**
+   * The track number.
+   */
+  public int trackNumber;
+
+  /**
+   * The number of tracks.
+   */
+  public int trackCount;
+
+  /**
+   * The disc number.
+   */
+  public int discNumber;
+
+  /**
+   * The number of discs.
+   */
+  public int discCount;
+
+  /**
+   * The year.
+   */
+  public int year;
+}
@@ -43,6 +43,11 @@ final class MDNSHelper {
    */
   static private NsdManager.RegistrationListener mRegistrationListener = null;
 
+  /**
+   * The number of servers using the daemon.
+   */
+  static private int mDaemonUsers = 0;
+
   /**
    * Initializes the application context.
    *
@@ -55,9 +60,13 @@ final class MDNSHelper {
   }
 
   /**
-   * Launches the mdns daemon process by registering an empty service.
+   * Launches the mdns daemon process by registering an empty service. The daemon
+   * is shared by all servers of the process, only the first call registers the
+   * service, the native services multiplex their registrations over one
+   * connection to the daemon.
    */
-  static void acquireMDNSDaemon() {
+  static synchronized void acquireMDNSDaemon() {
+    mDaemonUsers++;
     if (null != mRegistrationListener) {
       Log.i(TAG, "acquireMDNSDaemon: MDNS Daemon is running already.");
       return;
@@ -98,9 +107,13 @@ final class MDNSHelper {
   }
 
   /**
-   * Releases the mdnsd daemon process
+   * Releases the mdnsd daemon process once the last server releases it.
    */
-  static void releaseMDNSDaemon() {
+  static synchronized void releaseMDNSDaemon() {
+    if (mDaemonUsers > 0 && --mDaemonUsers > 0) {
+      return;
+    }
+
     if (null == mRegistrationListener) {
       Log.i(TAG, "acquireMDNSDaemon: MDNS Daemon is not running.");
       return;
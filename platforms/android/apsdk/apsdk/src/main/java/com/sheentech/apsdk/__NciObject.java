@@ -24,9 +24,10 @@ package com.sheentech.apsdk;
 import android.util.Log;
 
 /**
- * Represents the NciObject
+ * Represents the NciObject. The native resource is released by {@link #close()};
+ * an object collected without being closed is released by the {@link NciRegistry}.
  */
-abstract class NciObject {
+abstract class NciObject implements AutoCloseable {
   /**
    * The Log tag.
    */
@@ -42,6 +43,21 @@ abstract class NciObject {
    */
   private long nci_obj_;
 
+  /**
+   * The registered handle of the native resource.
+   */
+  private NciRegistry.Handle nci_handle_;
+
+  /**
+   * The number of native calls in flight.
+   */
+  private int nci_uses_;
+
+  /**
+   * Whether {@link #close()} has been called.
+   */
+  private boolean nci_closing_;
+
   /**
    * Constructs the NciObject.
    */
@@ -53,18 +69,77 @@ abstract class NciObject {
    */
   abstract protected void newNci();
   /**
-   * Destroys the NCI resources. The class should implement this method to call
-   * the JNI method for destroying the NCI object.
+   * Gets the releaser of the NCI resources. The class should return a static
+   * instance calling the JNI method for destroying the NCI object, it must not
+   * reference the object itself.
+   *
+   * @return The {@link NciRegistry.Releaser}.
    */
-  abstract protected void deleteNci();
+  abstract NciRegistry.Releaser nciReleaser();
   /**
-   * Finalizes the NCI resource.
+   * Called by the native side once the NCI object is attached.
    *
-   * @throws Throwable **
+   * @param ptr The address of the NCI object.
+   */
+  private synchronized void nciAttached(long ptr) {
+    nci_handle_ = NciRegistry.register(this, ptr, nciReleaser());
+  }
+  /**
+   * Checks whether the NCI resource has been released.
+   *
+   * @return True if the object is closed.
+   */
+  public synchronized boolean isClosed() {
+    return null == nci_handle_ || nci_closing_;
+  }
+  /**
+   * Pins the NCI resource for a native call, every call of a JNI method
+   * reading the NCI pointer must be enclosed by this and {@link #nciExit()}.
+   */
+  protected final synchronized void nciEnter() {
+    nci_uses_++;
+  }
+  /**
+   * Unpins the NCI resource, the last call leaving a closed object releases it.
+   */
+  protected final void nciExit() {
+    NciRegistry.Handle handle = null;
+    synchronized (this) {
+      if (0 == --nci_uses_ && nci_closing_) {
+        handle = detachHandle();
+      }
+    }
+    if (null != handle) {
+      handle.release();
+    }
+  }
+  /**
+   * Releases the NCI resource. The object must not be used afterwards; calling
+   * this method more than once has no effect. If native calls are in flight on
+   * other threads, or this is called from a callback of one, the resource is
+   * released when the last of them returns.
    */
   @Override
-  protected synchronized void finalize() throws Throwable {
-    super.finalize();
-    deleteNci();
+  public void close() {
+    NciRegistry.Handle handle = null;
+    synchronized (this) {
+      if (nci_closing_) {
+        return;
+      }
+      nci_closing_ = true;
+      if (0 == nci_uses_) {
+        handle = detachHandle();
+      }
+    }
+    if (null != handle) {
+      handle.release();
+    }
+  }
+
+  private NciRegistry.Handle detachHandle() {
+    NciRegistry.Handle handle = nci_handle_;
+    nci_handle_ = null;
+    nci_obj_ = 0;
+    return handle;
   }
 }
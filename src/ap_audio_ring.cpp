@@ -0,0 +1,123 @@
+/* 
+ *  File: ap_audio_ring.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+#include <cstring>
+
+#include <ap_audio_ring.h>
+
+namespace aps {
+namespace {
+uint32_t round_up_power_of_two(uint32_t v) {
+  uint32_t p = 1;
+  while (p < v && p < ap_audio_ring::max_capacity) {
+    p <<= 1;
+  }
+  return p;
+}
+} // namespace
+
+const uint32_t ap_audio_ring::max_capacity;
+
+ap_audio_ring::ap_audio_ring(uint32_t capacity)
+    : data_(nullptr), capacity_(round_up_power_of_two(std::max<uint32_t>(capacity, 64))), mask_(capacity_ - 1),
+      write_index_(0), overruns_(0), channels_(0), sample_rate_(0), read_index_(0), underruns_(0) {
+  data_ = new uint8_t[capacity_];
+  memset(data_, 0, capacity_);
+}
+
+ap_audio_ring::~ap_audio_ring() { delete[] data_; }
+
+uint8_t *ap_audio_ring::data() const { return data_; }
+
+uint32_t ap_audio_ring::capacity() const { return capacity_; }
+
+bool ap_audio_ring::write(const int16_t *samples, uint32_t count, uint32_t channels, uint32_t sample_rate) {
+  uint32_t length = count * (uint32_t)sizeof(int16_t);
+  uint64_t w = write_index_.load(std::memory_order_relaxed);
+  uint64_t r = read_index_.load(std::memory_order_acquire);
+  if (length > capacity_ - (uint32_t)(w - r)) {
+    overruns_.fetch_add(1, std::memory_order_relaxed);
+    return false;
+  }
+
+  channels_.store(channels, std::memory_order_relaxed);
+  sample_rate_.store(sample_rate, std::memory_order_relaxed);
+
+  const uint8_t *src = (const uint8_t *)samples;
+  uint32_t offset = (uint32_t)(w & mask_);
+  uint32_t first = std::min(length, capacity_ - offset);
+  memcpy(data_ + offset, src, first);
+  memcpy(data_, src + first, length - first);
+
+  // Publish the bytes to the consumer
+  write_index_.store(w + length, std::memory_order_release);
+  return true;
+}
+
+uint32_t ap_audio_ring::read(uint8_t *buffer, uint32_t length) {
+  uint32_t available = acquire(length);
+  uint32_t n = std::min(length, available);
+
+  uint64_t r = read_index_.load(std::memory_order_relaxed);
+  uint32_t offset = (uint32_t)(r & mask_);
+  uint32_t first = std::min(n, capacity_ - offset);
+  memcpy(buffer, data_ + offset, first);
+  memcpy(buffer + first, data_, n - first);
+  if (n < length) {
+    memset(buffer + n, 0, length - n);
+  }
+
+  release(n);
+  return n;
+}
+
+uint32_t ap_audio_ring::acquire(uint32_t wanted) {
+  uint64_t r = read_index_.load(std::memory_order_relaxed);
+  uint32_t available = (uint32_t)(write_index_.load(std::memory_order_acquire) - r);
+  if (available < wanted) {
+    underruns_.fetch_add(1, std::memory_order_relaxed);
+  }
+  return available;
+}
+
+void ap_audio_ring::release(uint32_t length) {
+  uint64_t r = read_index_.load(std::memory_order_relaxed);
+  uint32_t available = (uint32_t)(write_index_.load(std::memory_order_acquire) - r);
+  read_index_.store(r + std::min(length, available), std::memory_order_release);
+}
+
+void ap_audio_ring::flush() {
+  read_index_.store(write_index_.load(std::memory_order_acquire), std::memory_order_release);
+}
+
+uint64_t ap_audio_ring::read_index() const { return read_index_.load(std::memory_order_acquire); }
+
+uint64_t ap_audio_ring::write_index() const { return write_index_.load(std::memory_order_acquire); }
+
+uint64_t ap_audio_ring::underruns() const { return underruns_.load(std::memory_order_relaxed); }
+
+uint64_t ap_audio_ring::overruns() const { return overruns_.load(std::memory_order_relaxed); }
+
+uint32_t ap_audio_ring::channels() const { return channels_.load(std::memory_order_relaxed); }
+
+uint32_t ap_audio_ring::sample_rate() const { return sample_rate_.load(std::memory_order_relaxed); }
+} // namespace aps
@@ -26,6 +26,17 @@
 #include <utils/utils.h>
 
 namespace aps {
+namespace {
+ap_config_thread_policy default_config_thread_policy(thread_stage_t stage) {
+  thread_policy_t policy = default_thread_policy(stage);
+  ap_config_thread_policy config;
+  config.name(policy.name);
+  config.nice(policy.nice);
+  config.affinity((int64_t)policy.affinity);
+  return config;
+}
+} // namespace
+
 ap_config_audio_format::ap_config_audio_format() {
   type_ = 0;
   audioInputFormats_ = 0;
@@ -66,6 +77,18 @@ ap_config_display::~ap_config_display() {
   uuid_.clear();
 }
 
+ap_config_thread_policy::ap_config_thread_policy() {
+  nice_ = 0;
+  affinity_ = 0;
+  name_.clear();
+}
+
+ap_config_thread_policy::~ap_config_thread_policy() {
+  nice_ = 0;
+  affinity_ = 0;
+  name_.clear();
+}
+
 ap_config_ptr ap_config::default_instance() {
   static ap_config_ptr s_instance = 0;
   if (!s_instance) {
@@ -99,12 +122,19 @@ ap_config_ptr ap_config::default_instance() {
     s_instance->audio_format_.type(96);
     s_instance->audio_format_.audioInputFormats(0x01000000);
     s_instance->audio_format_.audioOutputFormats(0x01000000);
+    s_instance->sessionPoolSize_ = 0;
+    s_instance->memoryBudget_ = 0;
+    s_instance->audioDecoding_ = false;
+    s_instance->sessionIdleTimeout_ = 15;
+    s_instance->control_thread_ = default_config_thread_policy(thread_stage_control);
+    s_instance->video_thread_ = default_config_thread_policy(thread_stage_video);
+    s_instance->audio_thread_ = default_config_thread_policy(thread_stage_audio);
   }
 
   return s_instance;
 }
 
-ap_config::ap_config() {}
+ap_config::ap_config() : sessionPoolSize_(0), memoryBudget_(0), audioDecoding_(false), sessionIdleTimeout_(0) {}
 
 ap_config::~ap_config() {}
 
@@ -0,0 +1,461 @@
+/* 
+ *  File: ap_mp4_recorder.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <chrono>
+#include <condition_variable>
+#include <cstdio>
+#include <deque>
+#include <mutex>
+#include <vector>
+
+#include <ap_mp4_recorder.h>
+#include <service/ap_mp4_muxer.h>
+#include <utils/logger.h>
+#include <utils/utils.h>
+
+namespace aps {
+namespace {
+// A fragment is cut before the next sample once the buffered samples reach this size
+const uint64_t MAX_FRAGMENT_BYTES = 8 * 1024 * 1024;
+
+// The NTP timestamp of the video packets is 32.32 fixed point
+const uint32_t NTP_FRACTION_BITS = 32;
+} // namespace
+
+class ap_mp4_recorder::implementation {
+  struct write_item_s {
+    bool open;
+    std::string path;
+    std::vector<uint8_t> data;
+  };
+
+public:
+  explicit implementation(const ap_mp4_recorder_options_t &options)
+      : options_(options), running_(false), file_open_(false), file_index_(0), file_bytes_(0),
+        video_anchored_(false), video_base_(0), video_origin_(0), audio_anchored_(false), audio_last_(0),
+        audio_extended_(0), audio_origin_(0), writer_stop_(false), queued_bytes_(0), file_(nullptr) {
+    stats_.files = 0;
+    stats_.fragments = 0;
+    stats_.bytes_written = 0;
+    stats_.dropped_fragments = 0;
+    stats_.write_errors = 0;
+  }
+
+  ~implementation() { stop(); }
+
+  bool start() {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (running_) {
+      return true;
+    }
+    if (options_.path_prefix.empty()) {
+      LOGE() << "The path prefix of the recording is empty";
+      return false;
+    }
+
+    {
+      std::lock_guard<std::mutex> ql(queue_mtx_);
+      writer_stop_ = false;
+    }
+    writer_thread_ = create_aps_thread(std::bind(&implementation::writer_loop, this));
+    start_time_ = std::chrono::steady_clock::now();
+    file_open_ = false;
+    video_anchored_ = false;
+    audio_anchored_ = false;
+    muxer_.reset_samples();
+    running_ = true;
+    return true;
+  }
+
+  void stop() {
+    {
+      std::lock_guard<std::mutex> l(mtx_);
+      if (!running_) {
+        return;
+      }
+      running_ = false;
+      close_file();
+    }
+
+    {
+      std::lock_guard<std::mutex> ql(queue_mtx_);
+      writer_stop_ = true;
+    }
+    queue_cv_.notify_all();
+    if (writer_thread_) {
+      writer_thread_->join();
+      writer_thread_.reset();
+    }
+  }
+
+  ap_mp4_recorder_stats_t get_stats() {
+    std::lock_guard<std::mutex> ql(queue_mtx_);
+    return stats_;
+  }
+
+  void on_video_stream_started() {
+    std::lock_guard<std::mutex> l(mtx_);
+    video_anchored_ = false;
+  }
+
+  void on_video_stream_codec(const aps::sms_video_codec_packet_t *p) {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (muxer_.set_video_codec(p->payload, p->payload_size)) {
+      LOGI() << "Recording video codec changed, the next file starts at the next key frame";
+    }
+  }
+
+  void on_video_stream_data(const aps::sms_video_data_packet_t *p) {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (!running_ || !muxer_.has_video_codec()) {
+      return;
+    }
+
+    bool key = muxer_.is_key_frame(p->payload, p->payload_size);
+    int64_t dts = video_dts(p->timestamp);
+    if (key) {
+      if (!file_open_ || !muxer_.init_segment_current() || file_limit_reached()) {
+        open_file();
+      } else if (muxer_.buffered_duration_ms() >= options_.fragment_duration_ms) {
+        flush_fragment(false);
+      }
+    }
+
+    if (file_open_ && muxer_.video_in_init()) {
+      if (muxer_.buffered_bytes() >= MAX_FRAGMENT_BYTES) {
+        flush_fragment(false);
+      }
+      muxer_.add_video_sample(p->payload, p->payload_size, dts, key);
+    }
+  }
+
+  void on_video_stream_stopped() {
+    std::lock_guard<std::mutex> l(mtx_);
+    video_anchored_ = false;
+  }
+
+  void on_audio_stream_started(const aps::audio_data_format_t format) {
+    std::lock_guard<std::mutex> l(mtx_);
+    audio_anchored_ = false;
+    if (muxer_.set_audio_format(format)) {
+      LOGI() << "Recording audio format changed: " << format;
+    }
+  }
+
+  void on_audio_stream_data(const aps::rtp_audio_data_packet_t *p, const uint32_t payload_length) {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (!running_ || !muxer_.has_audio_format()) {
+      return;
+    }
+
+    int64_t dts = audio_dts(p->timestamp);
+    if (!muxer_.has_video_codec()) {
+      // There is no video, the audio drives the files and the fragments
+      if (!file_open_ || !muxer_.init_segment_current() || file_limit_reached()) {
+        open_file();
+      } else if (muxer_.buffered_duration_ms() >= options_.fragment_duration_ms) {
+        flush_fragment(false);
+      }
+    }
+
+    if (file_open_ && muxer_.audio_in_init()) {
+      muxer_.add_audio_sample(p->payload, payload_length, dts);
+    }
+  }
+
+  void on_audio_stream_stopped() {
+    std::lock_guard<std::mutex> l(mtx_);
+    audio_anchored_ = false;
+  }
+
+private:
+  int64_t elapsed(uint32_t timescale) const {
+    auto d = std::chrono::steady_clock::now() - start_time_;
+    return std::chrono::duration_cast<std::chrono::microseconds>(d).count() * timescale / 1000000;
+  }
+
+  // Both tracks are anchored to the time of their first sample since the start of the
+  // recording, then follow the timestamps of the sender.
+  int64_t video_dts(uint64_t ntp) {
+    int64_t t = (int64_t)(ntp >> NTP_FRACTION_BITS) * service::ap_mp4_muxer::VIDEO_TIMESCALE +
+                (int64_t)(((ntp & 0xffffffff) * service::ap_mp4_muxer::VIDEO_TIMESCALE) >> NTP_FRACTION_BITS);
+    if (!video_anchored_) {
+      video_anchored_ = true;
+      video_base_ = t;
+      video_origin_ = elapsed(service::ap_mp4_muxer::VIDEO_TIMESCALE);
+    }
+    return t - video_base_ + video_origin_;
+  }
+
+  int64_t audio_dts(uint32_t rtp) {
+    if (!audio_anchored_) {
+      audio_anchored_ = true;
+      audio_extended_ = 0;
+      audio_origin_ = elapsed(muxer_.audio_timescale());
+    } else {
+      audio_extended_ += (int32_t)(rtp - audio_last_);
+    }
+    audio_last_ = rtp;
+    return audio_extended_ + audio_origin_;
+  }
+
+  bool file_limit_reached() const {
+    if (options_.max_file_bytes && file_bytes_ + muxer_.buffered_bytes() >= options_.max_file_bytes) {
+      return true;
+    }
+    if (options_.max_file_duration_ms) {
+      auto d = std::chrono::steady_clock::now() - file_start_time_;
+      return std::chrono::duration_cast<std::chrono::milliseconds>(d).count() >= options_.max_file_duration_ms;
+    }
+    return false;
+  }
+
+  void open_file() {
+    close_file();
+
+    char suffix[16] = {0};
+    snprintf(suffix, sizeof(suffix), "_%04u.mp4", ++file_index_);
+    write_item_s open;
+    open.open = true;
+    open.path = options_.path_prefix + suffix;
+    enqueue(open, true);
+
+    write_item_s init;
+    init.open = false;
+    muxer_.build_init_segment(init.data);
+    file_bytes_ = init.data.size();
+    enqueue(init, true);
+
+    file_open_ = true;
+    file_start_time_ = std::chrono::steady_clock::now();
+  }
+
+  void close_file() {
+    if (file_open_) {
+      flush_fragment(true);
+      file_open_ = false;
+    }
+    muxer_.reset_samples();
+  }
+
+  void flush_fragment(bool final) {
+    write_item_s fragment;
+    fragment.open = false;
+    if (muxer_.build_fragment(fragment.data, final)) {
+      file_bytes_ += fragment.data.size();
+      enqueue(fragment, false);
+    }
+  }
+
+  void enqueue(write_item_s &item, bool mandatory) {
+    {
+      std::lock_guard<std::mutex> ql(queue_mtx_);
+      if (!mandatory && queued_bytes_ + item.data.size() > options_.max_queued_bytes) {
+        stats_.dropped_fragments++;
+        LOGW() << "Recording writer is behind, dropped a fragment of " << item.data.size() << " bytes";
+        return;
+      }
+      queued_bytes_ += item.data.size();
+      queue_.push_back(write_item_s());
+      queue_.back().open = item.open;
+      queue_.back().path.swap(item.path);
+      queue_.back().data.swap(item.data);
+    }
+    queue_cv_.notify_one();
+  }
+
+  void writer_loop() {
+    while (true) {
+      write_item_s item;
+      {
+        std::unique_lock<std::mutex> ql(queue_mtx_);
+        queue_cv_.wait(ql, [this]() { return writer_stop_ || !queue_.empty(); });
+        if (queue_.empty()) {
+          break;
+        }
+        item.open = queue_.front().open;
+        item.path.swap(queue_.front().path);
+        item.data.swap(queue_.front().data);
+        queue_.pop_front();
+        queued_bytes_ -= item.data.size();
+      }
+
+      if (item.open) {
+        open_output(item.path);
+      } else {
+        write_output(item.data);
+      }
+    }
+
+    if (file_) {
+      fclose(file_);
+      file_ = nullptr;
+    }
+  }
+
+  void open_output(const std::string &path) {
+    if (file_) {
+      fclose(file_);
+    }
+
+    file_ = fopen(path.c_str(), "wb");
+    std::lock_guard<std::mutex> ql(queue_mtx_);
+    if (!file_) {
+      LOGE() << "Failed to create the recording file: " << path;
+      stats_.write_errors++;
+      return;
+    }
+
+    // Each fragment is handed to the kernel in a single write
+    setvbuf(file_, nullptr, _IONBF, 0);
+    stats_.files++;
+    LOGI() << "Recording to " << path;
+  }
+
+  void write_output(const std::vector<uint8_t> &data) {
+    if (!file_) {
+      return;
+    }
+
+    size_t n = fwrite(data.data(), 1, data.size(), file_);
+    std::lock_guard<std::mutex> ql(queue_mtx_);
+    stats_.bytes_written += n;
+    if (n != data.size()) {
+      LOGE() << "Failed to write the recording file";
+      stats_.write_errors++;
+      return;
+    }
+    stats_.fragments++;
+  }
+
+  ap_mp4_recorder_options_t options_;
+
+  // Guards the muxer and the state of the receiving side
+  std::mutex mtx_;
+
+  bool running_;
+
+  service::ap_mp4_muxer muxer_;
+
+  std::chrono::steady_clock::time_point start_time_;
+
+  std::chrono::steady_clock::time_point file_start_time_;
+
+  bool file_open_;
+
+  uint32_t file_index_;
+
+  uint64_t file_bytes_;
+
+  bool video_anchored_;
+
+  int64_t video_base_;
+
+  int64_t video_origin_;
+
+  bool audio_anchored_;
+
+  uint32_t audio_last_;
+
+  int64_t audio_extended_;
+
+  int64_t audio_origin_;
+
+  // Guards the queue of the writer and the statistics
+  std::mutex queue_mtx_;
+
+  std::condition_variable queue_cv_;
+
+  std::deque<write_item_s> queue_;
+
+  bool writer_stop_;
+
+  uint64_t queued_bytes_;
+
+  ap_mp4_recorder_stats_t stats_;
+
+  aps_thread writer_thread_;
+
+  // Owned by the writer thread
+  FILE *file_;
+};
+
+ap_mp4_recorder::ap_mp4_recorder(const ap_mp4_recorder_options_t &options) : impl_(new implementation(options)) {}
+
+ap_mp4_recorder::~ap_mp4_recorder() {
+  if (impl_) {
+    delete impl_;
+    impl_ = nullptr;
+  }
+}
+
+bool ap_mp4_recorder::start() { return impl_->start(); }
+
+void ap_mp4_recorder::stop() { impl_->stop(); }
+
+ap_mp4_recorder_stats_t ap_mp4_recorder::get_stats() { return impl_->get_stats(); }
+
+void ap_mp4_recorder::on_video_stream_started() { impl_->on_video_stream_started(); }
+
+void ap_mp4_recorder::on_video_stream_stopped() { impl_->on_video_stream_stopped(); }
+
+void ap_mp4_recorder::on_video_stream_codec(const aps::sms_video_codec_packet_t *p) {
+  impl_->on_video_stream_codec(p);
+}
+
+void ap_mp4_recorder::on_video_stream_data(const aps::sms_video_data_packet_t *p) { impl_->on_video_stream_data(p); }
+
+void ap_mp4_recorder::on_video_stream_heartbeat() {}
+
+void ap_mp4_recorder::on_audio_set_volume(const float ratio, const float volume) {
+  (void)ratio;
+  (void)volume;
+}
+
+void ap_mp4_recorder::on_audio_set_progress(const float ratio, const uint64_t start, const uint64_t current,
+                                            const uint64_t end) {
+  (void)ratio;
+  (void)start;
+  (void)current;
+  (void)end;
+}
+
+void ap_mp4_recorder::on_audio_set_cover(const std::string format, const void *data, const uint32_t length) {
+  (void)format;
+  (void)data;
+  (void)length;
+}
+
+void ap_mp4_recorder::on_audio_set_meta_data(const void *data, const uint32_t length) {
+  (void)data;
+  (void)length;
+}
+
+void ap_mp4_recorder::on_audio_stream_started(const aps::audio_data_format_t format) {
+  impl_->on_audio_stream_started(format);
+}
+
+void ap_mp4_recorder::on_audio_stream_data(const aps::rtp_audio_data_packet_t *p, const uint32_t payload_length) {
+  impl_->on_audio_stream_data(p, payload_length);
+}
+
+void ap_mp4_recorder::on_audio_stream_stopped() { impl_->on_audio_stream_stopped(); }
+} // namespace aps
@@ -40,13 +40,18 @@
 
 #include <ctime>
 #include <memory>
+#include <mutex>
+#include <thread>
 
 #include <ap_config.h>
 #include <ap_server.h>
+#include <crypto/ap_crypto.h>
 #include <mdns/net_service.h>
 #include <service/ap_airplay_service.h>
 #include <service/ap_casting_media_data_store.h>
 #include <service/ap_casting_media_http_service.h>
+#include <utils/buffer_pool.h>
+#include <utils/thread_policy.h>
 
 using namespace aps::service;
 using namespace aps::network;
@@ -55,24 +60,67 @@ namespace aps {
 class ap_server::implementation {
 public:
   implementation()
-      : airplay_net_service_("_airplay._tcp"), raop_net_service_("_raop._tcp"), airplay_tcp_service_(0),
-        ap_casting_media_http_service_(0) {}
+      : airplay_net_service_("_airplay._tcp"), raop_net_service_("_raop._tcp"), net_service_published_(false),
+        airplay_tcp_service_(0), ap_casting_media_http_service_(0) {}
 
-  ~implementation() { release_net_service(); }
+  ~implementation() {
+    join_start_thread();
+    release_net_service();
+  }
 
-  void set_config(ap_config_ptr &config) { ap_config_ = config; }
+  void set_config(ap_config_ptr &config) {
+    std::lock_guard<std::recursive_mutex> l(mtx_);
+    source_config_ = config;
+    apply_identity();
+    buffer_pool::get().set_budget(config->memoryBudget() > 0 ? (uint64_t)config->memoryBudget() : 0);
+    apply_thread_policies();
 
-  void set_handler(ap_handler_ptr handler) { ap_handler_ = handler; }
+    if (airplay_tcp_service_) {
+      // Drop the responses built from the previous configuration, the next
+      // session picks up the new one
+      airplay_tcp_service_->set_config(ap_config_);
+
+      // Announce the new capabilities
+      if (!refresh_net_service()) {
+        LOGE() << "Failed to re-announce the service with the new configuration";
+      }
+    }
+  }
+
+  void set_handler(ap_handler_ptr handler) {
+    std::lock_guard<std::recursive_mutex> l(mtx_);
+    ap_handler_ = handler;
+  }
+
+  void set_identity_store(ap_identity_store_ptr &store) {
+    std::lock_guard<std::recursive_mutex> l(mtx_);
+    identity_ = server_identity::load(store);
+    identity_persisted_ = true;
+    apply_identity();
+
+    if (airplay_tcp_service_) {
+      airplay_tcp_service_->set_config(ap_config_);
+      airplay_tcp_service_->set_identity(identity_);
+    }
+  }
 
   bool start() {
+    std::lock_guard<std::recursive_mutex> l(mtx_);
     if (airplay_tcp_service_)
       return true;
 
+    if (!identity_) {
+      // No persistent store, the identity lives as long as this server
+      identity_ = std::make_shared<server_identity>(ap_config_->macAddress());
+    }
+    apply_identity();
+
     airplay_tcp_service_ = std::make_shared<ap_airplay_service>(ap_config_, 0);
     if (!airplay_tcp_service_)
       return false;
 
     airplay_tcp_service_->set_handler(ap_handler_);
+    airplay_tcp_service_->set_identity(identity_);
 
     if (!airplay_tcp_service_->start()) {
       airplay_tcp_service_.reset();
@@ -96,10 +144,35 @@ public:
       return false;
     }
 
+    // The receiver is visible now, prepare the mirroring session resources in background
+    airplay_tcp_service_->warm_up();
+
     return true;
   }
 
+  void start_async(std::function<void(bool)> callback) {
+    join_start_thread();
+
+    std::lock_guard<std::recursive_mutex> l(mtx_);
+    start_thread_ = create_aps_thread([this, callback]() {
+      {
+        std::lock_guard<std::recursive_mutex> l(mtx_);
+        start_thread_id_ = std::this_thread::get_id();
+      }
+
+      bool result = start();
+      if (callback) {
+        callback(result);
+      }
+    });
+
+    if (!start_thread_ && callback) {
+      callback(false);
+    }
+  }
+
   void stop() {
+    std::lock_guard<std::recursive_mutex> l(mtx_);
     release_net_service();
 
     if (airplay_tcp_service_) {
@@ -109,6 +182,7 @@ public:
   }
 
   uint16_t get_service_port() {
+    std::lock_guard<std::recursive_mutex> l(mtx_);
     if (airplay_tcp_service_) {
       return airplay_tcp_service_->port();
     }
@@ -116,11 +190,53 @@ public:
   }
 
 protected:
-  bool initialize_net_service() {
-    if (!ap_config_->publishService()) {
-      return true;
+  void join_start_thread() {
+    aps_thread t;
+    {
+      std::lock_guard<std::recursive_mutex> l(mtx_);
+      // Never join from the start thread itself, e.g. stop() called in the callback
+      if (start_thread_id_ == std::this_thread::get_id()) {
+        return;
+      }
+      t = start_thread_;
+      start_thread_.reset();
+      start_thread_id_ = std::thread::id();
+    }
+
+    if (t) {
+      t->join();
+    }
+  }
+
+  void apply_thread_policies() {
+    set_thread_policy(thread_stage_control, to_thread_policy(ap_config_->control_thread()));
+    set_thread_policy(thread_stage_video, to_thread_policy(ap_config_->video_thread()));
+    set_thread_policy(thread_stage_audio, to_thread_policy(ap_config_->audio_thread()));
+  }
+
+  static thread_policy_t to_thread_policy(const ap_config_thread_policy &config) {
+    return thread_policy_t(config.name(), config.nice(), (uint64_t)config.affinity());
+  }
+
+  void apply_identity() {
+    if (!source_config_) {
+      return;
     }
 
+    // The identity goes into a copy of this server, the caller's config may be shared with other
+    // servers and the running sessions keep reading the previous copy
+    auto config = std::make_shared<ap_config>(*source_config_);
+    if (identity_) {
+      // The pk must always match the key used by pair-setup and pair-verify
+      config->pk(identity_->pk());
+      if (identity_persisted_) {
+        config->macAddress(identity_->mac_address());
+      }
+    }
+    ap_config_ = config;
+  }
+
+  void set_txt_records() {
     airplay_net_service_.add_txt_record("deviceId", ap_config_->macAddress());
     airplay_net_service_.add_txt_record("features", ap_config_->features_hex_string());
     airplay_net_service_.add_txt_record("model", ap_config_->model());
@@ -142,15 +258,31 @@ protected:
     raop_net_service_.add_txt_record("vn", "65537");
     raop_net_service_.add_txt_record("da", "true");
     raop_net_service_.add_txt_record("sf", "0x04");
+  }
+
+  std::string raop_service_name() {
+    std::string raop_name = ap_config_->deviceID();
+    raop_name += "@";
+    raop_name += ap_config_->name();
+    return raop_name;
+  }
+
+  bool initialize_net_service() {
+    if (!ap_config_->publishService()) {
+      return true;
+    }
+
+    set_txt_records();
 
     std::string airplay_service_name = ap_config_->name();
     if (airplay_net_service_.publish(airplay_service_name, airplay_tcp_service_->port())) {
-      std::string raop_name = ap_config_->deviceID();
-      raop_name += "@";
-      raop_name += airplay_service_name;
-
-      if (raop_net_service_.publish(raop_name, airplay_tcp_service_->port()))
+      std::string raop_name = raop_service_name();
+      if (raop_net_service_.publish(raop_name, airplay_tcp_service_->port())) {
+        published_airplay_name_ = airplay_service_name;
+        published_raop_name_ = raop_name;
+        net_service_published_ = true;
         return true;
+      }
 
       airplay_net_service_.suppress();
     }
@@ -158,27 +290,67 @@ protected:
     return false;
   }
 
+  bool refresh_net_service() {
+    // The names are part of the registrations, only the TXT records can change in place
+    if (!net_service_published_ || !ap_config_->publishService() || published_airplay_name_ != ap_config_->name() ||
+        published_raop_name_ != raop_service_name()) {
+      release_net_service();
+      return initialize_net_service();
+    }
+
+    // The browsers see the new records right away and the receiver never disappears from them
+    set_txt_records();
+    if (airplay_net_service_.update_txt_record() && raop_net_service_.update_txt_record()) {
+      return true;
+    }
+
+    LOGW() << "Failed to update the TXT records in place, re-registering the services";
+    release_net_service();
+    return initialize_net_service();
+  }
+
   void release_net_service() {
-    if (!ap_config_->publishService()) {
+    if (!net_service_published_) {
       return;
     }
 
     airplay_net_service_.suppress();
     raop_net_service_.suppress();
+    net_service_published_ = false;
   }
 
 private:
+  // The config set by the caller, never modified
+  ap_config_ptr source_config_;
+
+  // The copy of the config with the identity applied, used by this server
   ap_config_ptr ap_config_;
 
   ap_handler_ptr ap_handler_;
 
+  server_identity_ptr identity_;
+
+  bool identity_persisted_ = false;
+
   net_service airplay_net_service_;
 
   net_service raop_net_service_;
 
+  bool net_service_published_;
+
+  std::string published_airplay_name_;
+
+  std::string published_raop_name_;
+
   ap_airplay_service_ptr airplay_tcp_service_;
 
   ap_casting_media_http_service_ptr ap_casting_media_http_service_;
+
+  std::recursive_mutex mtx_;
+
+  aps_thread start_thread_;
+
+  std::thread::id start_thread_id_;
 };
 
 ap_server::ap_server() : impl_(new implementation()) {}
@@ -194,8 +366,12 @@ void ap_server::set_config(ap_config_ptr &config) { impl_->set_config(config); }
 
 void ap_server::set_handler(ap_handler_ptr &handler) { impl_->set_handler(handler); }
 
+void ap_server::set_identity_store(ap_identity_store_ptr &store) { impl_->set_identity_store(store); }
+
 bool aps::ap_server::start() { return impl_->start(); }
 
+void ap_server::start_async(std::function<void(bool)> callback) { impl_->start_async(callback); }
+
 void ap_server::stop() { impl_->stop(); }
 
 uint16_t ap_server::get_service_port() { return impl_->get_service_port(); }
@@ -0,0 +1,405 @@
+/* 
+ *  File: ap_stream_fanout.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+#include <atomic>
+#include <condition_variable>
+#include <deque>
+#include <mutex>
+#include <thread>
+
+#include <ap_stream_fanout.h>
+#include <service/ap_mp4_muxer.h>
+#include <utils/logger.h>
+#include <utils/utils.h>
+
+namespace aps {
+class ap_stream_fanout::implementation {
+  /// <summary>
+  /// The queue and the delivery thread of a consumer.
+  /// </summary>
+  class subscription : public std::enable_shared_from_this<subscription> {
+  public:
+    subscription(const ap_stream_consumer_ptr &consumer, uint32_t max_queued_frames, ap_stream_drop_policy_t policy)
+        : consumer_(consumer), max_queued_frames_(std::max<uint32_t>(max_queued_frames, 1)), policy_(policy),
+          stopped_(false), waiting_key_frame_(true), dropped_(0) {}
+
+    const ap_stream_consumer_ptr &consumer() const { return consumer_; }
+
+    void start() { thread_ = create_aps_thread(std::bind(&subscription::run, shared_from_this())); }
+
+    void push(const ap_stream_frame_ptr &frame) {
+      {
+        std::lock_guard<std::mutex> l(mtx_);
+        if (stopped_ || !admit(frame)) {
+          return;
+        }
+        queue_.push_back(frame);
+      }
+      cv_.notify_one();
+    }
+
+    /// <summary>
+    /// Stops the delivery, waits for the thread unless called by the consumer itself.
+    /// </summary>
+    void stop() {
+      std::thread::id thread_id;
+      {
+        std::lock_guard<std::mutex> l(mtx_);
+        stopped_ = true;
+        thread_id = thread_id_;
+      }
+      cv_.notify_one();
+
+      if (thread_ && std::this_thread::get_id() != thread_id) {
+        thread_->join();
+        thread_.reset();
+      }
+    }
+
+  private:
+    // Applies the drop policy, called with the lock held
+    bool admit(const ap_stream_frame_ptr &frame) {
+      bool video_data = (stream_frame_video_data == frame->type);
+      if (waiting_key_frame_ && video_data) {
+        if (!frame->key_frame) {
+          dropped_++;
+          return false;
+        }
+        waiting_key_frame_ = false;
+      }
+
+      if (queue_.size() < max_queued_frames_) {
+        return true;
+      }
+
+      if (stream_drop_newest == policy_) {
+        dropped_++;
+        return false;
+      }
+
+      if (stream_drop_until_key_frame == policy_) {
+        // The queued video frames are useless without the ones dropped, skip to the next key frame
+        auto it = std::remove_if(queue_.begin(), queue_.end(), [](const ap_stream_frame_ptr &f) {
+          return stream_frame_video_data == f->type;
+        });
+        uint32_t evicted = (uint32_t)(queue_.end() - it);
+        if (evicted) {
+          dropped_ += evicted;
+          queue_.erase(it, queue_.end());
+          if (video_data && !frame->key_frame) {
+            waiting_key_frame_ = true;
+            dropped_++;
+            return false;
+          }
+          waiting_key_frame_ = !video_data;
+          if (queue_.size() < max_queued_frames_) {
+            return true;
+          }
+        }
+      }
+
+      // The codec packet is needed to decode all the frames after it, drop the oldest other frame
+      auto it = std::find_if(queue_.begin(), queue_.end(), [](const ap_stream_frame_ptr &f) {
+        return stream_frame_video_codec != f->type;
+      });
+      if (it != queue_.end()) {
+        queue_.erase(it);
+      } else if (stream_frame_video_codec == frame->type) {
+        // Only codec packets are queued, the new one supersedes the oldest
+        queue_.pop_front();
+      } else {
+        dropped_++;
+        return false;
+      }
+      dropped_++;
+      return true;
+    }
+
+    void run() {
+      {
+        std::lock_guard<std::mutex> l(mtx_);
+        thread_id_ = std::this_thread::get_id();
+      }
+
+      while (true) {
+        ap_stream_frame_ptr frame;
+        uint32_t dropped = 0;
+        {
+          std::unique_lock<std::mutex> l(mtx_);
+          cv_.wait(l, [this]() { return stopped_ || !queue_.empty(); });
+          if (stopped_) {
+            queue_.clear();
+            break;
+          }
+          frame = std::move(queue_.front());
+          queue_.pop_front();
+          dropped = dropped_;
+          dropped_ = 0;
+        }
+
+        if (dropped) {
+          consumer_->on_stream_frames_dropped(dropped);
+        }
+        consumer_->on_stream_frame(frame);
+      }
+
+      consumer_->on_stream_end();
+    }
+
+    ap_stream_consumer_ptr consumer_;
+
+    uint32_t max_queued_frames_;
+
+    ap_stream_drop_policy_t policy_;
+
+    std::mutex mtx_;
+
+    std::condition_variable cv_;
+
+    std::deque<ap_stream_frame_ptr> queue_;
+
+    bool stopped_;
+
+    // The video data is dropped up to the next key frame, also from the start of the subscription
+    bool waiting_key_frame_;
+
+    uint32_t dropped_;
+
+    std::thread::id thread_id_;
+
+    aps_thread thread_;
+  };
+
+  typedef std::shared_ptr<subscription> subscription_ptr;
+  typedef std::vector<subscription_ptr> subscription_list;
+
+public:
+  implementation()
+      : closed_(false), subscriptions_(std::make_shared<subscription_list>()), audio_format_(0), length_size_(4) {}
+
+  ~implementation() { close(); }
+
+  bool add_consumer(const ap_stream_consumer_ptr &consumer, uint32_t max_queued_frames,
+                    ap_stream_drop_policy_t policy) {
+    if (!consumer) {
+      return false;
+    }
+
+    std::lock_guard<std::mutex> l(mtx_);
+    auto current = std::atomic_load(&subscriptions_);
+    for (auto &s : *current) {
+      if (s->consumer() == consumer) {
+        return false;
+      }
+    }
+    if (closed_) {
+      return false;
+    }
+
+    auto s = std::make_shared<subscription>(consumer, max_queued_frames, policy);
+    if (codec_) {
+      // Join the running stream at its codec packet
+      s->push(codec_);
+    }
+    s->start();
+    auto list = std::make_shared<subscription_list>(*current);
+    list->push_back(s);
+    std::atomic_store(&subscriptions_, std::shared_ptr<const subscription_list>(list));
+    return true;
+  }
+
+  void remove_consumer(const ap_stream_consumer_ptr &consumer) {
+    subscription_ptr removed;
+    {
+      std::lock_guard<std::mutex> l(mtx_);
+      auto list = std::make_shared<subscription_list>(*std::atomic_load(&subscriptions_));
+      auto it = std::find_if(list->begin(), list->end(), [&consumer](const subscription_ptr &s) {
+        return s->consumer() == consumer;
+      });
+      if (it == list->end()) {
+        return;
+      }
+      removed = *it;
+      list->erase(it);
+      std::atomic_store(&subscriptions_, std::shared_ptr<const subscription_list>(list));
+    }
+
+    // The producer may still hold the old list, the stopped subscription ignores its frames
+    removed->stop();
+  }
+
+  void close() {
+    std::shared_ptr<const subscription_list> removed;
+    {
+      std::lock_guard<std::mutex> l(mtx_);
+      closed_ = true;
+      removed = std::atomic_load(&subscriptions_);
+      std::atomic_store(&subscriptions_, std::shared_ptr<const subscription_list>(
+                                             std::make_shared<subscription_list>()));
+    }
+
+    for (auto &s : *removed) {
+      s->stop();
+    }
+  }
+
+  void set_audio_format(audio_data_format_t format) { audio_format_ = format; }
+
+  void video_codec(const sms_video_codec_packet_t *p) {
+    // The codec and data packets arrive on the same video thread
+    if (p->payload_size >= 5) {
+      length_size_ = (p->payload[4] & 0x3) + 1;
+    }
+    auto frame = make_frame(stream_frame_video_codec, 0, true, p->timestamp, p->payload, p->payload_size);
+    std::shared_ptr<const subscription_list> list;
+    {
+      // Kept for the consumers added later, under the lock so a new consumer gets it either way once
+      std::lock_guard<std::mutex> l(mtx_);
+      codec_ = frame;
+      list = std::atomic_load(&subscriptions_);
+    }
+    for (auto &s : *list) {
+      s->push(frame);
+    }
+  }
+
+  void video_stopped() {
+    std::lock_guard<std::mutex> l(mtx_);
+    codec_.reset();
+  }
+
+  void video_data(const sms_video_data_packet_t *p) {
+    if (!has_subscriptions()) {
+      return;
+    }
+    bool key = service::ap_mp4_muxer::contains_idr(p->payload, p->payload_size, length_size_);
+    publish(stream_frame_video_data, 0, key, p->timestamp, p->payload, p->payload_size);
+  }
+
+  void audio_data(const rtp_audio_data_packet_t *p, uint32_t payload_length) {
+    publish(stream_frame_audio_data, audio_format_, true, p->timestamp, p->payload, payload_length);
+  }
+
+private:
+  bool has_subscriptions() const { return !std::atomic_load(&subscriptions_)->empty(); }
+
+  void publish(uint32_t type, uint32_t format, bool key, uint64_t timestamp, const uint8_t *data, uint32_t length) {
+    auto list = std::atomic_load(&subscriptions_);
+    if (list->empty()) {
+      return;
+    }
+
+    ap_stream_frame_ptr frame = make_frame(type, format, key, timestamp, data, length);
+    for (auto &s : *list) {
+      s->push(frame);
+    }
+  }
+
+  static ap_stream_frame_ptr make_frame(uint32_t type, uint32_t format, bool key, uint64_t timestamp,
+                                        const uint8_t *data, uint32_t length) {
+    // The only copy of the packet, the receive buffer is reused after this returns
+    auto frame = std::make_shared<ap_stream_frame_t>();
+    frame->type = type;
+    frame->format = format;
+    frame->key_frame = key;
+    frame->timestamp = timestamp;
+    frame->data.assign(data, data + length);
+    return frame;
+  }
+
+  // Serializes the changes of the subscriptions
+  std::mutex mtx_;
+
+  bool closed_;
+
+  std::shared_ptr<const subscription_list> subscriptions_;
+
+  // The codec packet of the running stream
+  ap_stream_frame_ptr codec_;
+
+  std::atomic<uint32_t> audio_format_;
+
+  uint32_t length_size_;
+};
+
+ap_stream_fanout::ap_stream_fanout() : impl_(new implementation()) {}
+
+ap_stream_fanout::~ap_stream_fanout() {
+  if (impl_) {
+    delete impl_;
+    impl_ = nullptr;
+  }
+}
+
+bool ap_stream_fanout::add_consumer(const ap_stream_consumer_ptr &consumer, uint32_t max_queued_frames,
+                                    ap_stream_drop_policy_t policy) {
+  return impl_->add_consumer(consumer, max_queued_frames, policy);
+}
+
+void ap_stream_fanout::remove_consumer(const ap_stream_consumer_ptr &consumer) { impl_->remove_consumer(consumer); }
+
+void ap_stream_fanout::close() { impl_->close(); }
+
+void ap_stream_fanout::on_video_stream_started() {}
+
+void ap_stream_fanout::on_video_stream_stopped() { impl_->video_stopped(); }
+
+void ap_stream_fanout::on_video_stream_codec(const aps::sms_video_codec_packet_t *p) { impl_->video_codec(p); }
+
+void ap_stream_fanout::on_video_stream_data(const aps::sms_video_data_packet_t *p) { impl_->video_data(p); }
+
+void ap_stream_fanout::on_video_stream_heartbeat() {}
+
+void ap_stream_fanout::on_audio_set_volume(const float ratio, const float volume) {
+  (void)ratio;
+  (void)volume;
+}
+
+void ap_stream_fanout::on_audio_set_progress(const float ratio, const uint64_t start, const uint64_t current,
+                                             const uint64_t end) {
+  (void)ratio;
+  (void)start;
+  (void)current;
+  (void)end;
+}
+
+void ap_stream_fanout::on_audio_set_cover(const std::string format, const void *data, const uint32_t length) {
+  (void)format;
+  (void)data;
+  (void)length;
+}
+
+void ap_stream_fanout::on_audio_set_meta_data(const void *data, const uint32_t length) {
+  (void)data;
+  (void)length;
+}
+
+void ap_stream_fanout::on_audio_stream_started(const aps::audio_data_format_t format) {
+  impl_->set_audio_format(format);
+}
+
+void ap_stream_fanout::on_audio_stream_data(const aps::rtp_audio_data_packet_t *p, const uint32_t payload_length) {
+  impl_->audio_data(p, payload_length);
+}
+
+void ap_stream_fanout::on_audio_stream_stopped() {}
+} // namespace aps
@@ -20,24 +20,254 @@
  */
 
 #include <array>
+#include <cerrno>
+#include <cstdio>
+#include <fstream>
+#include <iomanip>
 #include <sstream>
 
+#if defined(_WIN32)
+#include <windows.h>
+#else
+#include <fcntl.h>
+#include <sys/stat.h>
+#include <unistd.h>
+#endif
+
 #include <asio.hpp>
 #include <curve25519/curve25519-donna.h>
 #include <ed25519/ed25519.h>
 #include <ed25519/sha512.h>
 #include <fairplay/fairplay.h>
+#include <utils/logger.h>
 #include <utils/utils.h>
 
 #include "ap_crypto.h"
 
-aps::server_key_chain::server_key_chain() {
+#define IDENTITY_VERSION "1"
+#define IDENTITY_KEY_VERSION "version"
+#define IDENTITY_KEY_MAC_ADDRESS "macAddress"
+#define IDENTITY_KEY_SEED "seed"
+
+namespace aps {
+class ap_identity_file_store : public ap_identity_store {
+public:
+  explicit ap_identity_file_store(const std::string &path) : path_(path) {}
+
+  virtual bool load(std::vector<uint8_t> &data) override {
+    std::ifstream ifs(path_, std::ios::binary);
+    if (!ifs) {
+      return false;
+    }
+    data.assign(std::istreambuf_iterator<char>(ifs), std::istreambuf_iterator<char>());
+    return !data.empty();
+  }
+
+  virtual bool save(const std::vector<uint8_t> &data) override {
+    // Write a durable temporary file and rename it over the identity, a crash leaves either
+    // the old or the new identity but never none
+    std::string temp = path_ + ".tmp";
+    if (!write_file(temp, data)) {
+      std::remove(temp.c_str());
+      return false;
+    }
+#if defined(_WIN32)
+    return FALSE != MoveFileExA(temp.c_str(), path_.c_str(), MOVEFILE_REPLACE_EXISTING | MOVEFILE_WRITE_THROUGH);
+#else
+    if (0 != std::rename(temp.c_str(), path_.c_str())) {
+      std::remove(temp.c_str());
+      return false;
+    }
+
+    // Persist the rename itself
+    std::string dir = ".";
+    std::size_t slash = path_.find_last_of('/');
+    if (std::string::npos != slash) {
+      dir = (0 == slash) ? "/" : path_.substr(0, slash);
+    }
+    int fd = ::open(dir.c_str(), O_RDONLY);
+    if (fd >= 0) {
+      ::fsync(fd);
+      ::close(fd);
+    }
+    return true;
+#endif
+  }
+
+private:
+  static bool write_file(const std::string &path, const std::vector<uint8_t> &data) {
+#if defined(_WIN32)
+    HANDLE file =
+        CreateFileA(path.c_str(), GENERIC_WRITE, 0, nullptr, CREATE_ALWAYS, FILE_ATTRIBUTE_NORMAL, nullptr);
+    if (INVALID_HANDLE_VALUE == file) {
+      return false;
+    }
+    DWORD written = 0;
+    bool ok = FALSE != WriteFile(file, data.data(), (DWORD)data.size(), &written, nullptr) &&
+              written == data.size() && FALSE != FlushFileBuffers(file);
+    CloseHandle(file);
+    return ok;
+#else
+    // The identity holds the private seed, only the owner may read it
+    int fd = ::open(path.c_str(), O_WRONLY | O_CREAT | O_TRUNC, S_IRUSR | S_IWUSR);
+    if (fd < 0) {
+      return false;
+    }
+    // The mode only applies to a new file, tighten a stale one too
+    ::fchmod(fd, S_IRUSR | S_IWUSR);
+    std::size_t offset = 0;
+    while (offset < data.size()) {
+      ssize_t n = ::write(fd, data.data() + offset, data.size() - offset);
+      if (n < 0) {
+        if (EINTR == errno) {
+          continue;
+        }
+        ::close(fd);
+        return false;
+      }
+      offset += (std::size_t)n;
+    }
+    bool ok = 0 == ::fsync(fd);
+    return 0 == ::close(fd) && ok;
+#endif
+  }
+
+  std::string path_;
+};
+} // namespace aps
+
+aps::ap_identity_store_ptr aps::ap_identity_store::from_file(const std::string &path) {
+  return std::make_shared<ap_identity_file_store>(path);
+}
+
+static std::string to_hex_string(const std::vector<uint8_t> &data) {
+  std::ostringstream oss;
+  for (auto b : data) {
+    oss << std::hex << std::uppercase << std::setw(2) << std::setfill('0') << (int)b;
+  }
+  return oss.str();
+}
+
+static bool from_hex_string(const std::string &s, std::vector<uint8_t> &data) {
+  if (s.length() % 2) {
+    return false;
+  }
+  data.clear();
+  for (size_t i = 0; i < s.length(); i += 2) {
+    char *end = nullptr;
+    std::string byte = s.substr(i, 2);
+    long v = std::strtol(byte.c_str(), &end, 16);
+    if (end != byte.c_str() + 2) {
+      return false;
+    }
+    data.push_back((uint8_t)v);
+  }
+  return true;
+}
+
+aps::server_identity::server_identity(const std::string &mac_address) : mac_address_(mac_address), seed_(32, 0) {
+  ed25519_create_seed(seed_.data());
+  ed_private_key_.resize(64, 0);
+  ed_public_key_.resize(32, 0);
+  ed25519_create_keypair(ed_public_key_.data(), ed_private_key_.data(), seed_.data());
+}
+
+aps::server_identity::server_identity(const std::string &mac_address, const std::vector<uint8_t> &seed)
+    : mac_address_(mac_address), seed_(seed) {
+  ed_private_key_.resize(64, 0);
+  ed_public_key_.resize(32, 0);
+  ed25519_create_keypair(ed_public_key_.data(), ed_private_key_.data(), seed_.data());
+}
+
+aps::server_identity::~server_identity() {}
+
+aps::server_identity_ptr aps::server_identity::load(const ap_identity_store_ptr &store) {
+  server_identity_ptr identity;
+  std::vector<uint8_t> data;
+
+  if (store && store->load(data)) {
+    identity = deserialize(data);
+    if (identity) {
+      LOGI() << "Server identity loaded: " << identity->mac_address();
+      return identity;
+    }
+    LOGW() << "Invalid server identity data, creating a new one";
+  }
+
+  identity = std::make_shared<server_identity>(generate_mac_address());
+  if (store && !store->save(identity->serialize())) {
+    LOGE() << "Failed to save the server identity";
+  }
+  return identity;
+}
+
+const std::string &aps::server_identity::mac_address() const { return mac_address_; }
+
+const std::vector<uint8_t> &aps::server_identity::seed() const { return seed_; }
+
+const std::vector<uint8_t> &aps::server_identity::ed_public_key() const { return ed_public_key_; }
+
+const std::vector<uint8_t> &aps::server_identity::ed_private_key() const { return ed_private_key_; }
+
+std::string aps::server_identity::pk() const { return to_hex_string(ed_public_key_); }
+
+std::vector<uint8_t> aps::server_identity::serialize() const {
+  std::ostringstream oss;
+  oss << IDENTITY_KEY_VERSION << "=" << IDENTITY_VERSION << "\n";
+  oss << IDENTITY_KEY_MAC_ADDRESS << "=" << mac_address_ << "\n";
+  oss << IDENTITY_KEY_SEED << "=" << to_hex_string(seed_) << "\n";
+  std::string s = oss.str();
+  return std::vector<uint8_t>(s.begin(), s.end());
+}
+
+aps::server_identity_ptr aps::server_identity::deserialize(const std::vector<uint8_t> &data) {
+  std::istringstream iss(std::string(data.begin(), data.end()));
+  std::string line;
+  std::string version;
+  std::string mac_address;
+  std::vector<uint8_t> seed;
+
+  while (std::getline(iss, line)) {
+    if (!line.empty() && line.back() == '\r') {
+      line.pop_back();
+    }
+    auto pos = line.find('=');
+    if (pos == std::string::npos) {
+      continue;
+    }
+    std::string key = line.substr(0, pos);
+    std::string value = line.substr(pos + 1);
+    if (key == IDENTITY_KEY_VERSION) {
+      version = value;
+    } else if (key == IDENTITY_KEY_MAC_ADDRESS) {
+      mac_address = value;
+    } else if (key == IDENTITY_KEY_SEED) {
+      if (!from_hex_string(value, seed)) {
+        return nullptr;
+      }
+    }
+  }
+
+  if (version != IDENTITY_VERSION || mac_address.empty() || seed.size() != 32) {
+    return nullptr;
+  }
+  return std::make_shared<server_identity>(mac_address, seed);
+}
+
+aps::server_key_chain::server_key_chain(const server_identity_ptr &identity /*= nullptr*/) {
+  // The Curve25519 key pair is ephemeral, it is only used for the key exchange of pair-verify
   curve_private_key_.resize(32, 0);
   ed25519_create_seed(curve_private_key_.data());
 
   curve_public_key_.resize(32, 0);
   curve25519_donna(curve_public_key_.data(), curve_private_key_.data(), 0);
 
+  if (identity) {
+    ed_private_key_ = identity->ed_private_key();
+    ed_public_key_ = identity->ed_public_key();
+    return;
+  }
+
   std::array<uint8_t, 32> seed;
   ed_private_key_.resize(64, 0);
   ed_public_key_.resize(32, 0);
@@ -55,8 +285,8 @@ const std::vector<uint8_t> &aps::server_key_chain::curve_public_key() const { re
 
 const std::vector<uint8_t> &aps::server_key_chain::curve_private_key() const { return curve_private_key_; }
 
-aps::ap_crypto::ap_crypto()
-    : pair_verifyed_(false), fp_key_message_(164), shared_secret_(32), client_aes_key_(16), client_aes_iv_(16),
+aps::ap_crypto::ap_crypto(const server_identity_ptr &identity /*= nullptr*/)
+    : pair_verifyed_(false), server_(identity), fp_key_message_(164), shared_secret_(32), client_aes_key_(16), client_aes_iv_(16),
       client_ed_public_key_(32), client_curve_public_key_(32) {}
 
 aps::ap_crypto::~ap_crypto() {}
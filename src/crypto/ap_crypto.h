@@ -25,14 +25,55 @@
 #include <string>
 #include <vector>
 
+#include <ap_identity.h>
 #include <ap_types.h>
 
 #include "ap_aes.h"
 
 namespace aps {
+class server_identity;
+typedef std::shared_ptr<server_identity> server_identity_ptr;
+
+/// <summary>
+/// Represents the long-term identity of the server, the device ID and the
+/// Ed25519 key pair derived from the seed.
+/// </summary>
+class server_identity {
+public:
+  explicit server_identity(const std::string &mac_address);
+  server_identity(const std::string &mac_address, const std::vector<uint8_t> &seed);
+  ~server_identity();
+
+  /// <summary>
+  /// Loads the identity from the store, or creates a new one and saves it
+  /// to the store if there is no valid identity saved.
+  /// </summary>
+  static server_identity_ptr load(const ap_identity_store_ptr &store);
+
+  const std::string &mac_address() const;
+  const std::vector<uint8_t> &seed() const;
+  const std::vector<uint8_t> &ed_public_key() const;
+  const std::vector<uint8_t> &ed_private_key() const;
+
+  /// <summary>
+  /// The hex string of the public key, which is published as pk.
+  /// </summary>
+  std::string pk() const;
+
+  std::vector<uint8_t> serialize() const;
+
+  static server_identity_ptr deserialize(const std::vector<uint8_t> &data);
+
+private:
+  std::string mac_address_;
+  std::vector<uint8_t> seed_;
+  std::vector<uint8_t> ed_public_key_;
+  std::vector<uint8_t> ed_private_key_;
+};
+
 class server_key_chain {
 public:
-  server_key_chain();
+  explicit server_key_chain(const server_identity_ptr &identity = nullptr);
   ~server_key_chain();
 
   const std::vector<uint8_t> &ed_public_key() const;
@@ -49,7 +90,7 @@ private:
 
 class ap_crypto {
 public:
-  ap_crypto();
+  explicit ap_crypto(const server_identity_ptr &identity = nullptr);
   ~ap_crypto();
 
   void init_client_public_keys(const uint8_t *pcurve, uint64_t curve_len, const uint8_t *ped, uint64_t ed_len);
@@ -20,6 +20,7 @@
  */
 
 #include <dlfcn.h>
+#include <mutex>
 #include <sys/endian.h>
 
 #include <utils/logger.h>
@@ -27,14 +28,30 @@
 #include "../dns_sd.h"
 #include "../net_service_impl.h"
 
+// The connection to the daemon shared by all services of the process, the
+// registrations are multiplexed over it instead of opening one connection each
+struct shared_dns_connection_t {
+  std::mutex mtx;
+  DNSServiceRef ref = 0;
+  int users = 0;
+};
+
+static shared_dns_connection_t &shared_dns_connection() {
+  static shared_dns_connection_t connection;
+  return connection;
+}
+
 class net_service::net_service_impl : public net_service::implementation {
 public:
-  net_service_impl(const std::string &type) : dns_service_(0) {
+  net_service_impl(const std::string &type) : dns_service_(0), shared_(false) {
     type_ = type;
     TXTRecordCreate(&txt_records_, 0, 0);
   }
 
-  ~net_service_impl() { TXTRecordDeallocate(&txt_records_); }
+  ~net_service_impl() {
+    suppress();
+    TXTRecordDeallocate(&txt_records_);
+  }
 
   virtual void add_txt_record(const std::string &k,
                               const std::string &v) override {
@@ -46,27 +63,99 @@ public:
   }
 
   virtual bool publish(const std::string &name, const uint16_t port) override {
-    auto error =
-        DNSServiceRegister(&dns_service_, 0, 0, name.c_str(), type_.c_str(), 0,
-                           0, htons(port), TXTRecordGetLength(&txt_records_),
-                           TXTRecordGetBytesPtr(&txt_records_), 0, 0);
+    auto &connection = shared_dns_connection();
+    std::lock_guard<std::mutex> l(connection.mtx);
 
-    if (!error)
+    // Fall back to a connection of its own if the daemon can not share one
+    DNSServiceRef service = 0;
+    DNSServiceFlags flags = 0;
+    if (!connection.ref) {
+      auto error = DNSServiceCreateConnection(&connection.ref);
+      if (error) {
+        LOGW() << "Failed to create the shared daemon connection: " << error;
+        connection.ref = 0;
+      }
+    }
+    if (connection.ref) {
+      service = connection.ref;
+      flags = kDNSServiceFlagsShareConnection;
+    }
+
+    auto error = register_service(service, flags, name, port);
+    if (error && flags) {
+      // The shared connection may be broken, drop it if it is unused and
+      // register on its own
+      LOGW() << "Failed to register service on the shared daemon connection: "
+             << name << ": " << error;
+      if (!connection.users) {
+        DNSServiceRefDeallocate(connection.ref);
+        connection.ref = 0;
+      }
+      service = 0;
+      flags = 0;
+      error = register_service(service, flags, name, port);
+    }
+
+    if (!error) {
+      dns_service_ = service;
+      shared_ = (0 != flags);
+      if (shared_)
+        connection.users++;
       return true;
+    }
 
     LOGE() << "Failed to register service: " << name << ": " << error;
     return false;
   }
 
+  virtual bool update_txt_record() override {
+    auto &connection = shared_dns_connection();
+    std::lock_guard<std::mutex> l(connection.mtx);
+    if (!dns_service_)
+      return false;
+
+    // A null record reference updates the primary TXT record of the service
+    auto error = DNSServiceUpdateRecord(dns_service_, 0, 0,
+                                        TXTRecordGetLength(&txt_records_),
+                                        TXTRecordGetBytesPtr(&txt_records_), 0);
+
+    if (!error)
+      return true;
+
+    LOGE() << "Failed to update TXT record: " << error;
+    return false;
+  }
+
   virtual void suppress() override {
+    auto &connection = shared_dns_connection();
+    std::lock_guard<std::mutex> l(connection.mtx);
     if (dns_service_) {
       DNSServiceRefDeallocate(dns_service_);
+      dns_service_ = 0;
+
+      // The last service closes the shared connection
+      if (shared_ && 0 == --connection.users) {
+        DNSServiceRefDeallocate(connection.ref);
+        connection.ref = 0;
+      }
+      shared_ = false;
     }
   }
 
 private:
+  DNSServiceErrorType register_service(DNSServiceRef &service,
+                                       DNSServiceFlags flags,
+                                       const std::string &name,
+                                       const uint16_t port) {
+    return DNSServiceRegister(&service, flags, 0, name.c_str(), type_.c_str(),
+                              0, 0, htons(port),
+                              TXTRecordGetLength(&txt_records_),
+                              TXTRecordGetBytesPtr(&txt_records_), 0, 0);
+  }
+
   std::string type_;
   DNSServiceRef dns_service_;
+  bool shared_;
   TXTRecordRef txt_records_;
 };
 
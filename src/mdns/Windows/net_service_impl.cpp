@@ -19,11 +19,26 @@
  *  If not, see <https://www.gnu.org/licenses/>.
  */
 
+#include <mutex>
+
 #include <utils/logger.h>
 
 #include "../dns_sd.h"
 #include "../net_service_impl.h"
 
+// The connection to the daemon shared by all services of the process, the registrations
+// are multiplexed over it instead of opening one connection each
+struct shared_dns_connection_t {
+  std::mutex mtx;
+  DNSServiceRef ref = 0;
+  int users = 0;
+};
+
+static shared_dns_connection_t &shared_dns_connection() {
+  static shared_dns_connection_t connection;
+  return connection;
+}
+
 class net_service::net_service_impl : public net_service::implementation {
   typedef DNSServiceErrorType(DNSSD_API *DNSServiceRegister_t)(DNSServiceRef *sdRef, DNSServiceFlags flags,
                                                                uint32_t interfaceIndex, const char *name,
@@ -34,6 +49,12 @@ class net_service::net_service_impl : public net_service::implementation {
 
   typedef void(DNSSD_API *DNSServiceRefDeallocate_t)(DNSServiceRef sdRef);
 
+  typedef DNSServiceErrorType(DNSSD_API *DNSServiceCreateConnection_t)(DNSServiceRef *sdRef);
+
+  typedef DNSServiceErrorType(DNSSD_API *DNSServiceUpdateRecord_t)(DNSServiceRef sdRef, DNSRecordRef RecordRef,
+                                                                   DNSServiceFlags flags, uint16_t rdlen,
+                                                                   const void *rdata, uint32_t ttl);
+
   typedef void(DNSSD_API *TXTRecordCreate_t)(TXTRecordRef *txtRecord, uint16_t bufferLen, void *buffer);
 
   typedef void(DNSSD_API *TXTRecordDeallocate_t)(TXTRecordRef *txtRecord);
@@ -49,6 +70,8 @@ class net_service::net_service_impl : public net_service::implementation {
     HMODULE Module;
     DNSServiceRegister_t DNSServiceRegister;
     DNSServiceRefDeallocate_t DNSServiceRefDeallocate;
+    DNSServiceCreateConnection_t DNSServiceCreateConnection;
+    DNSServiceUpdateRecord_t DNSServiceUpdateRecord;
     TXTRecordCreate_t TXTRecordCreate;
     TXTRecordSetValue_t TXTRecordSetValue;
     TXTRecordGetLength_t TXTRecordGetLength;
@@ -57,13 +80,17 @@ class net_service::net_service_impl : public net_service::implementation {
   } dnssd_lib_t;
 
 public:
-  net_service_impl(const std::string &type) : dns_service_(0) {
+  net_service_impl(const std::string &type) : dns_service_(0), shared_(false) {
     type_ = type;
     dnssd_lib_.Module = ::LoadLibraryA("dnssd.dll");
     if (dnssd_lib_.Module) {
       dnssd_lib_.DNSServiceRegister = (DNSServiceRegister_t)GetProcAddress(dnssd_lib_.Module, "DNSServiceRegister");
       dnssd_lib_.DNSServiceRefDeallocate =
           (DNSServiceRefDeallocate_t)GetProcAddress(dnssd_lib_.Module, "DNSServiceRefDeallocate");
+      dnssd_lib_.DNSServiceCreateConnection =
+          (DNSServiceCreateConnection_t)GetProcAddress(dnssd_lib_.Module, "DNSServiceCreateConnection");
+      dnssd_lib_.DNSServiceUpdateRecord =
+          (DNSServiceUpdateRecord_t)GetProcAddress(dnssd_lib_.Module, "DNSServiceUpdateRecord");
       dnssd_lib_.TXTRecordCreate = (TXTRecordCreate_t)GetProcAddress(dnssd_lib_.Module, "TXTRecordCreate");
       dnssd_lib_.TXTRecordSetValue = (TXTRecordSetValue_t)GetProcAddress(dnssd_lib_.Module, "TXTRecordSetValue");
       dnssd_lib_.TXTRecordGetLength = (TXTRecordGetLength_t)GetProcAddress(dnssd_lib_.Module, "TXTRecordGetLength");
@@ -78,6 +105,8 @@ public:
   }
 
   ~net_service_impl() {
+    suppress();
+
     if (dnssd_lib_.Module) {
       dnssd_lib_.TXTRecordDeallocate(&txt_records_);
 
@@ -98,38 +127,113 @@ public:
   virtual bool publish(const std::string &name, const uint16_t port) override {
     if (dnssd_lib_.Module && dnssd_lib_.DNSServiceRegister && dnssd_lib_.TXTRecordGetLength &&
         dnssd_lib_.TXTRecordGetBytesPtr) {
-      auto error = dnssd_lib_.DNSServiceRegister(&dns_service_,
-                                                 0,
-                                                 0,
-                                                 name.c_str(),
-                                                 type_.c_str(),
-                                                 0,
-                                                 0,
-                                                 htons(port),
-                                                 dnssd_lib_.TXTRecordGetLength(&txt_records_),
-                                                 dnssd_lib_.TXTRecordGetBytesPtr(&txt_records_),
-                                                 0,
-                                                 0);
-
-      if (error)
-        LOGE() << "Failed to register service: " << name << ": " << error;
-      else
+      auto &connection = shared_dns_connection();
+      std::lock_guard<std::mutex> l(connection.mtx);
+
+      // Fall back to a connection of its own if the daemon can not share one
+      DNSServiceRef service = 0;
+      DNSServiceFlags flags = 0;
+      if (!connection.ref && dnssd_lib_.DNSServiceCreateConnection) {
+        auto error = dnssd_lib_.DNSServiceCreateConnection(&connection.ref);
+        if (error) {
+          LOGW() << "Failed to create the shared daemon connection: " << error;
+          connection.ref = 0;
+        }
+      }
+      if (connection.ref) {
+        service = connection.ref;
+        flags = kDNSServiceFlagsShareConnection;
+      }
+
+      auto error = register_service(service, flags, name, port);
+      if (error && flags) {
+        // The shared connection may be broken, drop it if it is unused and register on its own
+        LOGW() << "Failed to register service on the shared daemon connection: " << name << ": " << error;
+        if (!connection.users) {
+          dnssd_lib_.DNSServiceRefDeallocate(connection.ref);
+          connection.ref = 0;
+        }
+        service = 0;
+        flags = 0;
+        error = register_service(service, flags, name, port);
+      }
+
+      if (!error) {
+        dns_service_ = service;
+        shared_ = (0 != flags);
+        if (shared_)
+          connection.users++;
         return true;
+      }
+
+      LOGE() << "Failed to register service: " << name << ": " << error;
     }
 
     return false;
   }
 
+  virtual bool update_txt_record() override {
+    if (!dnssd_lib_.Module || !dnssd_lib_.DNSServiceUpdateRecord)
+      return false;
+
+    auto &connection = shared_dns_connection();
+    std::lock_guard<std::mutex> l(connection.mtx);
+    if (!dns_service_)
+      return false;
+
+    // A null record reference updates the primary TXT record of the registration
+    auto error = dnssd_lib_.DNSServiceUpdateRecord(dns_service_,
+                                                   0,
+                                                   0,
+                                                   dnssd_lib_.TXTRecordGetLength(&txt_records_),
+                                                   dnssd_lib_.TXTRecordGetBytesPtr(&txt_records_),
+                                                   0);
+
+    if (!error)
+      return true;
+
+    LOGE() << "Failed to update TXT record: " << error;
+    return false;
+  }
+
   virtual void suppress() override {
+    auto &connection = shared_dns_connection();
+    std::lock_guard<std::mutex> l(connection.mtx);
     if (dns_service_ && dnssd_lib_.Module && dnssd_lib_.DNSServiceRefDeallocate) {
       dnssd_lib_.DNSServiceRefDeallocate(dns_service_);
       dns_service_ = 0;
+
+      // The last service closes the shared connection
+      if (shared_ && 0 == --connection.users) {
+        dnssd_lib_.DNSServiceRefDeallocate(connection.ref);
+        connection.ref = 0;
+      }
+      shared_ = false;
     }
   }
 
 private:
+  DNSServiceErrorType register_service(DNSServiceRef &service,
+                                       DNSServiceFlags flags,
+                                       const std::string &name,
+                                       const uint16_t port) {
+    return dnssd_lib_.DNSServiceRegister(&service,
+                                         flags,
+                                         0,
+                                         name.c_str(),
+                                         type_.c_str(),
+                                         0,
+                                         0,
+                                         htons(port),
+                                         dnssd_lib_.TXTRecordGetLength(&txt_records_),
+                                         dnssd_lib_.TXTRecordGetBytesPtr(&txt_records_),
+                                         0,
+                                         0);
+  }
+
   std::string type_;
   DNSServiceRef dns_service_;
+  bool shared_;
   TXTRecordRef txt_records_;
   dnssd_lib_t dnssd_lib_;
 };
@@ -64,6 +64,15 @@ public:
     return true;
   }
 
+  virtual bool update_txt_record() override {
+    if (!net_service_)
+      return false;
+
+    // NSNetService updates the TXT record of a published service in place
+    NSData *txt_data = [NSNetService dataFromTXTRecordDictionary:txt_records_];
+    return [net_service_ setTXTRecordData:txt_data];
+  }
+
   virtual void suppress() override {
     if (net_service_) {
       [net_service_ stop];
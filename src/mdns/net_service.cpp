@@ -46,6 +46,13 @@ bool net_service::publish(const std::string &name, const uint16_t port) {
   return false;
 }
 
+bool net_service::update_txt_record() {
+  if (impl_)
+    return impl_->update_txt_record();
+
+  return false;
+}
+
 void net_service::suppress() {
   if (impl_)
     return impl_->suppress();
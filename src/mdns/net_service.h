@@ -39,6 +39,12 @@ public:
 
   bool publish(const std::string &name, const uint16_t port);
 
+  /// <summary>
+  /// Replaces the TXT record of the published service in place with the current
+  /// values, the service stays visible to the browsers while it changes.
+  /// </summary>
+  bool update_txt_record();
+
   void suppress();
 
 private:
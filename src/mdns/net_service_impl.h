@@ -31,5 +31,7 @@ public:
 
   virtual bool publish(const std::string &name, const uint16_t port) = 0;
 
+  virtual bool update_txt_record() = 0;
+
   virtual void suppress() = 0;
 };
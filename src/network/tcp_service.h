@@ -83,17 +83,35 @@ protected:
 
 class tcp_service_base : public tcp_service {
 public:
-  tcp_service_base(const std::string &name, uint16_t port = 0, bool single_session = false)
-      : single_session_(single_session), service_name_(name), io_context_(), io_work_(io_context_),
-        acceptor_(io_context_), local_endpoint_(asio::ip::tcp::v6(), port), worker_thread_(0) {}
+  tcp_service_base(const std::string &name,
+                   uint16_t port = 0,
+                   bool single_session = false,
+                   thread_stage_t stage = thread_stage_control)
+      : single_session_(single_session), prepared_(false), service_name_(name), stage_(stage), io_context_(),
+        io_work_(io_context_), acceptor_(io_context_), local_endpoint_(asio::ip::tcp::v6(), port), worker_thread_(0) {}
 
   ~tcp_service_base() { cleanup(); }
 
   virtual const uint16_t port() const override { return local_endpoint_.port(); }
 
+  /// <summary>
+  /// Binds the port and creates the worker thread without accepting any connection,
+  /// start() can be called later to begin accepting.
+  /// </summary>
+  bool prepare() {
+    if (prepared_)
+      return true;
+
+    if (!setup())
+      return false;
+
+    prepared_ = true;
+    return true;
+  }
+
   virtual bool start() override {
     // Setup the resources
-    if (!setup())
+    if (!prepare())
       return false;
 
     // Post the first accept operation
@@ -144,7 +162,7 @@ protected:
 
       io_context_.run();
 
-    });
+    }, stage_);
 
     if (!worker_thread_)
       return false;
@@ -161,6 +179,7 @@ protected:
   }
 
   void cleanup() {
+    prepared_ = false;
     io_context_.stop();
 
     if (worker_thread_) {
@@ -171,7 +190,9 @@ protected:
 
 private:
   bool single_session_;
+  bool prepared_;
   std::string service_name_;
+  thread_stage_t stage_;
   asio::io_context io_context_;
   asio::io_context::work io_work_;
   asio::ip::tcp::acceptor acceptor_;
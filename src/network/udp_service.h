@@ -22,6 +22,13 @@
 #pragma once
 #include <memory>
 #include <thread>
+#include <vector>
+
+#if defined(__linux__)
+#include <cerrno>
+#include <cstring>
+#include <sys/socket.h>
+#endif
 
 #include <asio.hpp>
 
@@ -48,11 +55,20 @@ typedef std::shared_ptr<udp_service> udp_service_ptr;
 
 typedef std::shared_ptr<asio::ip::udp::endpoint> udp_endpoint_ptr;
 
+/// <summary>
+/// A datagram of a batch, the data points into the buffer passed to post_recv_batch.
+/// </summary>
+struct udp_datagram_s {
+  uint8_t *data;
+  std::size_t length;
+};
+typedef udp_datagram_s udp_datagram_t;
+
 class udp_service_base : public udp_service {
 public:
-  udp_service_base(const std::string &name, uint16_t port = 0)
-      : service_name_(name), io_context_(), io_work_(io_context_), socket_(io_context_),
-        local_endpoint_(asio::ip::udp::v6(), port), worker_thread_(0) {}
+  udp_service_base(const std::string &name, uint16_t port = 0, thread_stage_t stage = thread_stage_control)
+      : service_name_(name), stage_(stage), io_context_(), io_work_(io_context_), socket_(io_context_),
+        local_endpoint_(asio::ip::udp::v6(), port), worker_thread_(0), batch_full_(false) {}
 
   ~udp_service_base() { close(); }
 
@@ -64,7 +80,7 @@ public:
 
       io_context_.run();
 
-    });
+    }, stage_);
 
     if (!worker_thread_)
       return false;
@@ -123,15 +139,103 @@ public:
   virtual void on_recv_from(asio::ip::udp::endpoint &remote_endpoint, const asio::error_code &e,
                             std::size_t bytes_transferred) {}
 
+  /// <summary>
+  /// Waits until the socket is readable, then drains up to count datagrams into the consecutive
+  /// slots of slot_size bytes of buf and hands them to on_recv_batch in one call. On Linux the
+  /// datagrams are received by a single recvmmsg call, elsewhere by non-blocking receives.
+  /// </summary>
+  virtual void post_recv_batch(uint8_t *buf, size_t slot_size, size_t count) {
+    if (batch_full_) {
+      // More datagrams are likely queued, receive them without waiting for the reactor
+      asio::post(io_context_,
+                 std::bind(&udp_service_base::on_recv_ready, this, buf, slot_size, count, asio::error_code()));
+      return;
+    }
+    socket_.async_wait(
+        asio::ip::udp::socket::wait_read,
+        std::bind(&udp_service_base::on_recv_ready, this, buf, slot_size, count, std::placeholders::_1));
+  }
+
+  virtual void on_recv_batch(const udp_datagram_t *, std::size_t, const asio::error_code &) {}
+
   virtual asio::io_context &io_context() override { return io_context_; }
 
+protected:
+  void on_recv_ready(uint8_t *buf, size_t slot_size, size_t count, const asio::error_code &e) {
+    if (e) {
+      on_recv_batch(nullptr, 0, e);
+      return;
+    }
+
+    asio::error_code ec;
+    std::size_t received = recv_batch(buf, slot_size, count, ec);
+    batch_full_ = received == count;
+    if (ec == asio::error::would_block || ec == asio::error::try_again) {
+      // Woken up without a datagram, or drained
+      ec.clear();
+    }
+    on_recv_batch(batch_.data(), received, ec);
+  }
+
+  std::size_t recv_batch(uint8_t *buf, size_t slot_size, size_t count, asio::error_code &ec) {
+    batch_.resize(count);
+#if defined(__linux__)
+    if (msgs_.size() != count) {
+      msgs_.resize(count);
+      iovs_.resize(count);
+    }
+    for (size_t i = 0; i < count; i++) {
+      iovs_[i].iov_base = buf + i * slot_size;
+      iovs_[i].iov_len = slot_size;
+      memset(&msgs_[i], 0, sizeof(struct mmsghdr));
+      msgs_[i].msg_hdr.msg_iov = &iovs_[i];
+      msgs_[i].msg_hdr.msg_iovlen = 1;
+    }
+
+    int n = ::recvmmsg(socket_.native_handle(), msgs_.data(), (unsigned int)count, MSG_DONTWAIT, nullptr);
+    if (n < 0) {
+      ec = asio::error_code(errno, asio::error::get_system_category());
+      return 0;
+    }
+    for (int i = 0; i < n; i++) {
+      batch_[i].data = buf + i * slot_size;
+      batch_[i].length = msgs_[i].msg_len;
+    }
+    return (std::size_t)n;
+#else
+    // One non-blocking receive per datagram, until the socket is drained
+    socket_.non_blocking(true, ec);
+    std::size_t n = 0;
+    while (!ec && n < count) {
+      uint8_t *slot = buf + n * slot_size;
+      std::size_t length = socket_.receive(asio::buffer(slot, slot_size), 0, ec);
+      if (!ec) {
+        batch_[n].data = slot;
+        batch_[n].length = length;
+        n++;
+      }
+    }
+    if (n && (ec == asio::error::would_block || ec == asio::error::try_again)) {
+      ec.clear();
+    }
+    return n;
+#endif
+  }
+
 private:
   std::string service_name_;
+  thread_stage_t stage_;
   asio::io_context io_context_;
   asio::io_context::work io_work_;
   asio::ip::udp::socket socket_;
   asio::ip::udp::endpoint local_endpoint_;
   aps_thread worker_thread_;
+  std::vector<udp_datagram_t> batch_;
+  bool batch_full_;
+#if defined(__linux__)
+  std::vector<struct mmsghdr> msgs_;
+  std::vector<struct iovec> iovs_;
+#endif
 };
 } // namespace network
 } // namespace aps
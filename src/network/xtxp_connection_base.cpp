@@ -276,6 +276,20 @@ void xtxp_connection_base::on_message_content_received(const asio::error_code &e
 }
 
 void xtxp_connection_base::post_send_response(const response &res) {
+  if (res.shared_content) {
+    // Send the shared content as is, only the head is serialized
+    auto head = std::make_shared<std::string>(res.serialize_head());
+    auto content = res.shared_content;
+    std::array<asio::const_buffer, 2> buffers = {{asio::buffer(*head), asio::buffer(*content)}};
+    auto self = shared_from_self();
+    asio::async_write(socket_,
+                      buffers,
+                      asio::bind_executor(strand_, [self, head, content](const asio::error_code &e, std::size_t n) {
+                        self->on_response_sent(e, n);
+                      }));
+    return;
+  }
+
   std::ostream os(&out_stream_);
   os << res.serialize();
   asio::async_write(socket_,
@@ -42,9 +42,9 @@ xtxp_message &xtxp_message::with_content(const std::string &data) {
   return *this;
 }
 
-xtxp_message &xtxp_message::with_content(const std::vector<uint8_t> data) {
-  content = data;
-  content_length = data.size();
+xtxp_message &xtxp_message::with_content(std::vector<uint8_t> data) {
+  content.swap(data);
+  content_length = content.size();
   return *this;
 }
 
@@ -54,12 +54,19 @@ xtxp_message &xtxp_message::with_content(const uint8_t *data, int length) {
   return *this;
 }
 
+xtxp_message &xtxp_message::with_content(const shared_content_ptr &data) {
+  content.clear();
+  shared_content = data;
+  content_length = data ? data->size() : 0;
+  return *this;
+}
+
 xtxp_message &xtxp_message::with_header(const std::string &name, const std::string &value) {
   headers[name] = value;
   return *this;
 }
 
-std::string xtxp_message::serialize() const {
+std::string xtxp_message::serialize_head() const {
   std::ostringstream oss;
   for (auto &kv : headers)
     oss << kv.first << CHAR_COLON << CHAR_BLANK << kv.second << RN_LINE_BREAK;
@@ -70,8 +77,17 @@ std::string xtxp_message::serialize() const {
     oss << HEADER_CONTENT_TYPE << CHAR_COLON << CHAR_BLANK << content_type << RN_LINE_BREAK;
 
   oss << RN_LINE_BREAK;
+  return oss.str();
+}
+
+std::string xtxp_message::serialize() const {
+  std::ostringstream oss;
+  oss << serialize_head();
 
-  std::copy(content.begin(), content.end(), std::ostream_iterator<uint8_t>(oss));
+  if (shared_content)
+    std::copy(shared_content->begin(), shared_content->end(), std::ostream_iterator<uint8_t>(oss));
+  else
+    std::copy(content.begin(), content.end(), std::ostream_iterator<uint8_t>(oss));
   return oss.str();
 }
 
@@ -128,6 +144,13 @@ response &response::with_status(status_type_t code) {
   return *this;
 }
 
+std::string response::serialize_head() const {
+  std::ostringstream oss;
+  oss << scheme_version << CHAR_BLANK << status_code << CHAR_BLANK << status_text << RN_LINE_BREAK;
+  oss << xtxp_message::serialize_head();
+  return oss.str();
+}
+
 std::string response::serialize() const {
   std::ostringstream oss;
   oss << scheme_version << CHAR_BLANK << status_code << CHAR_BLANK << status_text << RN_LINE_BREAK;
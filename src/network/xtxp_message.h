@@ -24,6 +24,7 @@
 #include <cstring>
 #include <iterator>
 #include <map>
+#include <memory>
 #include <sstream>
 #include <string>
 #include <vector>
@@ -58,6 +59,11 @@ static const char *IMAGE_PNG = "image/png";
 
 typedef std::map<std::string, std::string> header_map;
 
+/// <summary>
+/// Represents the immutable content shared by multiple messages.
+/// </summary>
+typedef std::shared_ptr<const std::vector<uint8_t>> shared_content_ptr;
+
 class xtxp_message {
 public:
   std::string scheme_version;
@@ -65,6 +71,7 @@ public:
   std::string content_type;
   header_map headers;
   std::vector<uint8_t> content;
+  shared_content_ptr shared_content;
 
   xtxp_message();
   ;
@@ -75,14 +82,18 @@ public:
 
   xtxp_message &with_content_type(const std::string &type);
 
-  xtxp_message &with_content(const std::vector<uint8_t> data);
+  xtxp_message &with_content(std::vector<uint8_t> data);
 
   xtxp_message &with_content(const uint8_t *data, int length);
 
   xtxp_message &with_content(const std::string &data);
 
+  xtxp_message &with_content(const shared_content_ptr &data);
+
   xtxp_message &with_header(const std::string &name, const std::string &value);
 
+  std::string serialize_head() const;
+
   std::string serialize() const;
 };
 
@@ -112,6 +123,7 @@ enum status_type_e {
   bad_request = 400,
   not_found = 404,
   method_not_allowed = 405,
+  not_enough_bandwidth = 453,
   internal_error = 500,
 };
 typedef status_type_e status_type_t;
@@ -122,6 +134,7 @@ static std::map<int, const std::string> g_status_code_sting_map = {
     {bad_request, "Bad Request"},
     {not_found, "Not Found"},
     {method_not_allowed, "Method Not Allowed"},
+    {not_enough_bandwidth, "Not Enough Bandwidth"},
     {internal_error, "Internal Error"},
 };
 
@@ -139,6 +152,8 @@ public:
 
   response &with_status(status_type_t code);
 
+  std::string serialize_head() const;
+
   std::string serialize() const;
 };
 
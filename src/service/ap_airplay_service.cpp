@@ -42,19 +42,166 @@ using namespace aps::service::details;
 
 namespace aps {
 namespace service {
-ap_airplay_connection::ap_airplay_connection(asio::io_context &io_ctx, ap_config_ptr &config, ap_handler_ptr &handler,
+static int64_t steady_time_ms() {
+  return std::chrono::duration_cast<std::chrono::milliseconds>(std::chrono::steady_clock::now().time_since_epoch())
+      .count();
+}
+
+ap_airplay_info_cache::ap_airplay_info_cache(const ap_config_ptr &config) : config_(config) {}
+
+ap_airplay_info_cache::~ap_airplay_info_cache() = default;
+
+void ap_airplay_info_cache::reset(const ap_config_ptr &config) {
+  std::lock_guard<std::mutex> l(mtx_);
+  config_ = config;
+  info_.reset();
+  server_info_.reset();
+}
+
+ap_config_ptr ap_airplay_info_cache::config() {
+  std::lock_guard<std::mutex> l(mtx_);
+  return config_;
+}
+
+shared_content_ptr ap_airplay_info_cache::info() {
+  std::lock_guard<std::mutex> l(mtx_);
+  if (!info_) {
+    info_ = build_info(config_);
+  }
+  return info_;
+}
+
+shared_content_ptr ap_airplay_info_cache::server_info() {
+  std::lock_guard<std::mutex> l(mtx_);
+  if (!server_info_) {
+    server_info_ = build_server_info(config_);
+  }
+  return server_info_;
+}
+
+shared_content_ptr ap_airplay_info_cache::build_info(const ap_config_ptr &config) {
+  // The refresh rate is advertised as the frame interval in seconds, accept
+  // the frame rate as well
+  double refresh_rate = config->display().refreshRate();
+  if (refresh_rate > 1) {
+    refresh_rate = 1.0 / refresh_rate;
+  }
+  int64_t max_fps = (refresh_rate > 0) ? (int64_t)(1.0 / refresh_rate + 0.5) : 0;
+
+  // clang-format off
+  auto_plist info = plist_object_dict(15,
+      "deviceID", plist_object_string(config->deviceID().c_str()),
+      "features", plist_object_integer(config->features()),
+      "keepAliveLowPower", plist_object_integer(1),
+      "keepAliveSendStatsAsBody", plist_object_integer(1),
+      "macAddress", plist_object_string(config->macAddress().c_str()),
+      "model", plist_object_string(config->model().c_str()),
+      "name", plist_object_string(config->name().c_str()),
+      "sourceVersion", plist_object_string(config->serverVersion().c_str()),
+      "statusFlags", plist_object_integer(config->statusFlag()),
+      "pi", plist_object_string(config->pi().c_str()),
+      "pk", plist_object_data((uint8_t *)config->pk().c_str(), (uint32_t)config->pk().length()),
+      "vv", plist_object_integer(config->vv()),
+      "audioFormats",
+      plist_object_array(1,
+          plist_object_dict(3,
+              "type", plist_object_integer(config->audio_format().type()),
+              "audioInputFormats", plist_object_integer(config->audio_format().audioInputFormats()),
+              "audioOutputFormats", plist_object_integer(config->audio_format().audioOutputFormats()))),
+      "audioLatencies", plist_object_array(1,
+          plist_object_dict(4,
+              "type", plist_object_integer(config->audio_latency().type()),
+              "audioType", plist_object_string(config->audio_latency().audioType().c_str()),
+              "inputLatencyMicros", plist_object_integer(config->audio_latency().inputLatencyMicros()),
+              "outputLatencyMicros", plist_object_integer(config->audio_latency().outputLatencyMicros())
+          )
+      ),
+      "displays", plist_object_array(1,
+          plist_object_dict(12,
+              "features", plist_object_integer(14),
+              "height", plist_object_integer(config->display().height()),
+              "heightPixels", plist_object_integer(config->display().height()),
+              "heightPhysical", plist_object_integer(0),
+              "width", plist_object_integer(config->display().width()),
+              "widthPixels", plist_object_integer(config->display().width()),
+              "widthPhysical", plist_object_integer(0),
+              "refreshRate", plist_object_real(refresh_rate),
+              "maxFPS", plist_object_integer(max_fps),
+              "overscanned", plist_object_true(),
+              "rotation", plist_object_true(),
+              "uuid", plist_object_string(config->display().uuid().c_str())
+          )
+      )
+  );
+  // clang-format on
+
+  auto content = std::make_shared<std::vector<uint8_t>>();
+  info.to_bytes_array(*content);
+  return content;
+}
+
+shared_content_ptr ap_airplay_info_cache::build_server_info(const ap_config_ptr &config) {
+  std::ostringstream oss;
+  // clang-format off
+  oss << "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+         "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n"
+         "<plist version=\"1.0\">\n"
+         "<dict>\n"
+         "\t<key>features</key>\n"
+         "\t<integer>" << /*config->features()*/"0x27F" << "</integer>\n"
+         "\t<key>macAddress</key>\n"
+         "\t<string>" << config->macAddress() << "</string>\n"
+         "\t<key>model</key>\n"
+         "\t<string>" << config->model() /*"AppleTV3,2"*/ << "</string>\n"
+         "\t<key>osBuildVersion</key>\n"
+         "\t<string>12B435</string>\n"
+         "\t<key>protovers</key>\n"
+         "\t<string>1.0</string>\n"
+         "\t<key>srcvers</key>\n"
+         "\t<string>" << config->serverVersion()/*"101.28"*/ << "</string>\n"
+         "\t<key>vv</key>\n"
+         "\t<integer>" << config->vv() << "</integer>\n"
+         "\t<key>deviceid</key>\n"
+         "\t<string>" << config->macAddress() << "</string>\n"
+         "</dict>\n"
+         "</plist>";
+  // clang-format on
+
+  std::string xml = oss.str();
+  return std::make_shared<std::vector<uint8_t>>(xml.begin(), xml.end());
+}
+
+ap_airplay_connection::ap_airplay_connection(asio::io_context &io_ctx,
+                                             ap_config_ptr &config,
+                                             ap_handler_ptr &handler,
+                                             ap_airplay_info_cache_ptr &info_cache,
+                                             const server_identity_ptr &identity,
+                                             const ap_mirroring_session_pool_ptr &session_pool,
+                                             const ap_session_idle_monitor_ptr &idle_monitor,
                                              tcp_service_weak_ptr service)
     : xtxp_connection_base(io_ctx)
     , session_id_(0)
     , session_type_(unknown_session)
-    , start_pos_in_ms_(0)
     , config_(config)
-    , handler_(handler)
     , service_(std::move(service))
+    , handler_(handler)
+    , info_cache_(info_cache)
+    , session_pool_(session_pool)
+    , idle_monitor_(idle_monitor)
+    , activity_(std::make_shared<ap_session_activity>())
+    , buffer_account_(std::make_shared<buffer_account>())
+    , stream_demand_(std::make_shared<ap_mirroring_stream_demand>())
+    , stream_tap_(std::make_shared<ap_mirroring_stream_tap>())
+    , video_buffer_source_(std::make_shared<ap_mirroring_video_buffer_source>())
+    , video_frame_cache_(std::make_shared<ap_mirroring_video_frame_cache>())
+    , stream_ended_(false)
+    , audio_stream_format_(-1)
     , mirroring_session_handler_(nullptr)
+    , start_pos_in_ms_(0)
     , video_session_handler_(nullptr) {
   init_session_id();
-  crypto_ = std::make_shared<ap_crypto>();
+  video_frame_cache_->set_account(buffer_account_);
+  crypto_ = std::make_shared<ap_crypto>(identity);
   timing_sync_service_ = std::make_shared<ap_mirroring_timing_sync_service>();
   timing_sync_service_->open();
   initialize_request_handlers();
@@ -62,6 +209,17 @@ ap_airplay_connection::ap_airplay_connection(asio::io_context &io_ctx, ap_config
 }
 
 ap_airplay_connection::~ap_airplay_connection() {
+  ap_stream_fanout_ptr fanout;
+  {
+    std::lock_guard<std::mutex> l(tap_mtx_);
+    stream_ended_ = true;
+    fanout = stream_fanout_;
+  }
+  if (fanout) {
+    // The consumers receive on_stream_end
+    fanout->close();
+  }
+
   if (timing_sync_service_) {
     timing_sync_service_->close();
     timing_sync_service_.reset();
@@ -78,6 +236,7 @@ ap_airplay_connection::~ap_airplay_connection() {
     }
   } else if (mirroring_session == session_type_) {
     mirroring_session_handler_.reset();
+    video_frame_cache_->set_handler(nullptr);
     if (handler_) {
       handler_->on_session_end(session_id_);
     }
@@ -93,6 +252,8 @@ uint32_t ap_airplay_connection::get_session_type() { return session_type_; }
 void ap_airplay_connection::set_mirroring_handler(ap_mirroring_session_handler_ptr handler) {
   if (mirroring_session == session_type_) {
     mirroring_session_handler_ = handler;
+    // A handler set while the video stream runs gets the codec and the frames since the last key frame
+    video_frame_cache_->set_handler(handler);
   }
 }
 
@@ -104,6 +265,135 @@ void ap_airplay_connection::set_casting_handler(ap_casting_session_handler_ptr h
 
 void ap_airplay_connection::disconnect() { stop(); }
 
+void ap_airplay_connection::on_session_idle() {
+  LOGW() << "Mirroring session (" << std::hex << this << ") is idle, tearing it down";
+
+  // End the streams like a TEARDOWN, the session ends once the pending reads complete
+  stop_video_stream();
+  stop_audio_stream();
+
+  // The peer is gone, the shutdown may fail
+  asio::error_code ec;
+  socket_.shutdown(asio::socket_base::shutdown_both, ec);
+  socket_.close(ec);
+}
+
+void ap_airplay_connection::stop_video_stream() {
+  if (mirroring_video_stream_service_) {
+    mirroring_video_stream_service_->stop();
+    mirroring_video_stream_service_.reset();
+  }
+
+  // The stream is stopped already if the connection closed on an invalid packet
+  if (video_frame_cache_->stop()) {
+    stream_tap_->for_each([](const ap_mirroring_session_handler_ptr &h) { h->on_video_stream_stopped(); });
+  }
+
+  LOGD() << "Mirroring video stream disconnected";
+}
+
+void ap_airplay_connection::stop_audio_stream() {
+  if (!mirroring_audio_stream_service_) {
+    return;
+  }
+  mirroring_audio_stream_service_->stop();
+  mirroring_audio_stream_service_.reset();
+
+  // The next stream reports its artwork and metadata again
+  metadata_cache_.reset();
+
+  audio_stream_format_ = -1;
+  stream_tap_->for_each([](const ap_mirroring_session_handler_ptr &h) { h->on_audio_stream_stopped(); });
+
+  if (mirroring_session_handler_) {
+    mirroring_session_handler_->on_audio_stream_stopped();
+  }
+
+  LOGD() << "Audio stream disconnected";
+}
+
+ap_session_memory_usage_t ap_airplay_connection::get_memory_usage() {
+  ap_session_memory_usage_t usage;
+  usage.in_use = buffer_account_->in_use();
+  usage.peak = buffer_account_->peak();
+  usage.rejected = buffer_account_->rejected();
+  return usage;
+}
+
+void ap_airplay_connection::set_stream_flow_control(bool enabled) { stream_demand_->enable(enabled); }
+
+void ap_airplay_connection::request_stream_units(uint64_t n) { stream_demand_->request(n); }
+
+void ap_airplay_connection::set_audio_ring(const ap_audio_ring_ptr &ring) { std::atomic_store(&audio_ring_, ring); }
+
+void ap_airplay_connection::set_recorder(const ap_mirroring_session_handler_ptr &recorder) {
+  std::lock_guard<std::mutex> l(tap_mtx_);
+  if (recorder_) {
+    stream_tap_->remove_handler(recorder_);
+  }
+  recorder_ = recorder;
+  if (recorder) {
+    // Join a running stream at its codec packet instead of waiting for the sender to send another
+    auto codec = video_frame_cache_->codec_packet();
+    if (codec) {
+      recorder->on_video_stream_codec((const sms_video_codec_packet_t *)codec->data());
+    }
+    add_stream_tap_handler(recorder);
+  }
+}
+
+bool ap_airplay_connection::add_stream_consumer(const ap_stream_consumer_ptr &consumer, uint32_t max_queued_frames,
+                                                ap_stream_drop_policy_t policy) {
+  std::lock_guard<std::mutex> l(tap_mtx_);
+  if (stream_ended_) {
+    return false;
+  }
+  if (!stream_fanout_) {
+    stream_fanout_ = std::make_shared<ap_stream_fanout>();
+    // The fanout joins a running stream, give it the codec packet it has missed
+    auto codec = video_frame_cache_->codec_packet();
+    if (codec) {
+      stream_fanout_->on_video_stream_codec((const sms_video_codec_packet_t *)codec->data());
+    }
+    add_stream_tap_handler(stream_fanout_);
+  }
+  return stream_fanout_->add_consumer(consumer, max_queued_frames, policy);
+}
+
+void ap_airplay_connection::remove_stream_consumer(const ap_stream_consumer_ptr &consumer) {
+  ap_stream_fanout_ptr fanout;
+  {
+    std::lock_guard<std::mutex> l(tap_mtx_);
+    fanout = stream_fanout_;
+  }
+  if (fanout) {
+    fanout->remove_consumer(consumer);
+  }
+}
+
+void ap_airplay_connection::set_video_buffer_provider(const ap_video_buffer_provider_ptr &provider) {
+  video_buffer_source_->set(provider);
+}
+
+void ap_airplay_connection::update_playback_state(double position, double duration, double rate, uint32_t flags) {
+  ap_playback_state state;
+  state.position = position;
+  state.duration = duration;
+  state.rate = rate;
+  state.flags = flags;
+  state.updated_ms = steady_time_ms();
+  playback_state_.store(state);
+}
+
+void ap_airplay_connection::add_stream_tap_handler(const ap_mirroring_session_handler_ptr &handler) {
+  // The audio format is only announced at the stream setup, tell a late handler about it
+  int32_t format = audio_stream_format_;
+  if (format >= 0) {
+    handler->on_audio_stream_started((audio_data_format_t)format);
+  }
+  stream_tap_->add_handler(handler);
+}
+
 void ap_airplay_connection::options_handler(const request &req, response &res) {
   DUMP_REQUEST_WITH_CONNECTION(req);
 
@@ -190,8 +480,7 @@ void ap_airplay_connection::setup_handler(const request &req, response &res) {
     if (req.content_type.compare(APPLICATION_BINARY_PLIST))
       break;
 
-    auto_plist plist_obj = plist_object_from_bplist(req.content.data(), (uint32_t)req.content.size());
-    auto data_obj = plist_obj.get();
+    auto data_obj = plist_arena_.from_bplist(req.content);
     if (!data_obj)
       break;
 
@@ -248,13 +537,40 @@ void ap_airplay_connection::setup_handler(const request &req, response &res) {
         }
 
         if (!mirroring_audio_stream_service_) {
-          mirroring_audio_stream_service_ =
-              std::make_shared<ap_mirroring_audio_stream_service>(crypto_, mirroring_session_handler_);
-          mirroring_audio_stream_service_->start();
+          mirroring_audio_stream_service_ = session_pool_->acquire_audio_service(
+              crypto_, mirroring_session_handler_, buffer_account_, stream_demand_);
+          if (!mirroring_audio_stream_service_) {
+            LOGE() << "Rejected the audio stream for the memory budget";
+            res.with_status(not_enough_bandwidth);
+            return;
+          }
           LOGI() << "mirroring service audio data port: " << mirroring_audio_stream_service_->data_port()
                  << ", control port: " << mirroring_audio_stream_service_->control_port();
         }
 
+        auto audio_ring = std::atomic_load(&audio_ring_);
+        mirroring_audio_stream_service_->set_audio_ring(audio_ring);
+        if (config_->audioDecoding() || audio_ring) {
+          // The samples per frame is optional, the decoder falls back to its default
+          int64_t spf = 0;
+          auto spf_obj = plist_object_dict_get_value(stream_obj, "spf");
+          if (spf_obj && PLIST_TYPE_INTEGER == plist_object_get_type(spf_obj))
+            plist_object_integer_get_value(spf_obj, &spf);
+
+          auto decoder = ap_audio_decoder::create((audio_data_format_t)format, (uint32_t)spf);
+          if (!decoder) {
+            LOGW() << "No audio decoder for format " << format << ", delivering the compressed packets";
+          }
+          mirroring_audio_stream_service_->set_decoder(decoder);
+        }
+
+        mirroring_audio_stream_service_->set_stream_tap(stream_tap_);
+        mirroring_audio_stream_service_->set_activity(activity_);
+        audio_stream_format_ = (int32_t)format;
+        stream_tap_->for_each([format](const ap_mirroring_session_handler_ptr &h) {
+          h->on_audio_stream_started((audio_data_format_t)format);
+        });
+
         if (mirroring_session_handler_) {
           mirroring_session_handler_->on_audio_stream_started((audio_data_format_t)format);
         }
@@ -302,17 +618,25 @@ void ap_airplay_connection::setup_handler(const request &req, response &res) {
 
         crypto_->init_video_stream_aes_ctr(connection_id, agent_version_);
 
-        if (mirroring_session_handler_) {
-          mirroring_session_handler_->on_video_stream_started();
-        }
-
         if (!mirroring_video_stream_service_) {
-          mirroring_video_stream_service_ =
-              std::make_shared<ap_mirroring_video_stream_service>(crypto_, 0, mirroring_session_handler_);
-          mirroring_video_stream_service_->start();
+          mirroring_video_stream_service_ = session_pool_->acquire_video_service(
+              crypto_, mirroring_session_handler_, buffer_account_, stream_demand_);
+          if (!mirroring_video_stream_service_) {
+            LOGE() << "Rejected the video stream for the memory budget";
+            res.with_status(not_enough_bandwidth);
+            return;
+          }
           LOGI() << "mirroring service video port: " << mirroring_video_stream_service_->port();
         }
 
+        mirroring_video_stream_service_->set_stream_tap(stream_tap_);
+        mirroring_video_stream_service_->set_activity(activity_);
+        mirroring_video_stream_service_->set_video_buffer_source(video_buffer_source_);
+        mirroring_video_stream_service_->set_frame_cache(video_frame_cache_);
+        if (video_frame_cache_->start()) {
+          stream_tap_->for_each([](const ap_mirroring_session_handler_ptr &h) { h->on_video_stream_started(); });
+        }
+
         uint16_t listen_port = 0;
         auto service = service_.lock();
         if (service) {
@@ -382,6 +706,17 @@ void ap_airplay_connection::setup_handler(const request &req, response &res) {
         handler_->on_session_begin(shared_from_this());
       }
 
+      if (idle_monitor_ && config_->sessionIdleTimeout() > 0) {
+        // The monitor calls back on the thread of this connection
+        ap_airplay_connection_weak_ptr weak_self = shared_from_this();
+        idle_monitor_->watch(activity_, (uint32_t)config_->sessionIdleTimeout() * 1000, [weak_self]() {
+          auto self = weak_self.lock();
+          if (self) {
+            self->on_session_idle();
+          }
+        });
+      }
+
       timing_sync_service_->set_server_endpoint(socket_.remote_endpoint().address(), (uint16_t)timing_port);
 
       auto_plist content = plist_object_dict(
@@ -400,53 +735,7 @@ void ap_airplay_connection::setup_handler(const request &req, response &res) {
 void ap_airplay_connection::get_info_handler(const request &req, response &res) {
   DUMP_REQUEST_WITH_CONNECTION(req);
 
-  // clang-format off
-  auto_plist info = plist_object_dict(15,
-      "deviceID", plist_object_string(config_->deviceID().c_str()),
-      "features", plist_object_integer(config_->features()),
-      "keepAliveLowPower", plist_object_integer(1),
-      "keepAliveSendStatsAsBody", plist_object_integer(1),
-      "macAddress", plist_object_string(config_->macAddress().c_str()),
-      "model", plist_object_string(config_->model().c_str()),
-      "name", plist_object_string(config_->name().c_str()),
-      "sourceVersion", plist_object_string(config_->serverVersion().c_str()),
-      "statusFlags", plist_object_integer(config_->statusFlag()),
-      "pi", plist_object_string(config_->pi().c_str()),
-      "pk", plist_object_data((uint8_t *)config_->pk().c_str(), (uint32_t)config_->pk().length()),
-      "vv", plist_object_integer(config_->vv()),
-      "audioFormats",
-      plist_object_array(1,
-          plist_object_dict(3,
-              "type", plist_object_integer(96),
-              "audioInputFormats", plist_object_integer(0x01000000),
-              "audioOutputFormats", plist_object_integer(0x01000000))),
-      "audioLatencies", plist_object_array(1,
-          plist_object_dict(4,
-              "type", plist_object_integer(96),
-              "audioType", plist_object_string("default"),
-              "inputLatencyMicros", plist_object_integer(0),
-              "outputLatencyMicros", plist_object_integer(0)
-          )
-      ),
-      "displays", plist_object_array(1,
-          plist_object_dict(11,
-              "features", plist_object_integer(14),
-              "height", plist_object_integer(config_->display().height()),
-              "heightPixels", plist_object_integer(config_->display().height()),
-              "heightPhysical", plist_object_integer(0),
-              "width", plist_object_integer(config_->display().width()),
-              "widthPixels", plist_object_integer(config_->display().width()),
-              "widthPhysical", plist_object_integer(0),
-              "refreshRate", plist_object_real(config_->display().refreshRate()),
-              "overscanned", plist_object_true(),
-              "rotation", plist_object_true(),
-              "uuid", plist_object_string(config_->display().uuid().c_str())
-          )
-      )
-  );
-  // clang-format on
-
-  res.with_status(ok).with_content_type(APPLICATION_BINARY_PLIST).with_content(info.to_bytes_array());
+  res.with_status(ok).with_content_type(APPLICATION_BINARY_PLIST).with_content(info_cache_->info());
 }
 
 void ap_airplay_connection::post_feedback_handler(const request &req, response &res) {
@@ -476,8 +765,8 @@ void ap_airplay_connection::post_audioMode(const request &req, response &res) {
 
 void ap_airplay_connection::set_parameter_handler(const request &req, response &res) {
   DUMP_REQUEST_WITH_CONNECTION(req);
-  std::string content(req.content.begin(), req.content.end());
   if (0 == req.content_type.compare(TEXT_PARAMETERS)) {
+    std::string content(req.content.begin(), req.content.end());
     float ratio = 0;
     float volume = 0;
     uint64_t start = 0;
@@ -506,15 +795,24 @@ void ap_airplay_connection::set_parameter_handler(const request &req, response &
       }
     }
   } else if (0 == req.content_type.compare(IMAGE_JPEG) || 0 == req.content_type.compare(IMAGE_PNG)) {
-    // body is image data
-    if (mirroring_session_handler_) {
+    // body is image data, the sender resends the same artwork often
+    if (mirroring_session_handler_ &&
+        metadata_cache_.update_cover(req.content_type, req.content.data(), (uint32_t)req.content.size())) {
       mirroring_session_handler_->on_audio_set_cover(
           req.content_type, req.content.data(), (uint32_t)req.content.size());
     }
   } else if (0 == req.content_type.compare(APPLICATION_DMAP_TAGGED)) {
     // body is dmap data
-    if (mirroring_session_handler_) {
+    if (mirroring_session_handler_ &&
+        metadata_cache_.update_meta_data(req.content.data(), (uint32_t)req.content.size())) {
       mirroring_session_handler_->on_audio_set_meta_data(req.content.data(), (uint32_t)req.content.size());
+
+      track_metadata_t metadata;
+      if (ap_daap_parser::parse_track_metadata(metadata, req.content.data(), (uint32_t)req.content.size())) {
+        mirroring_session_handler_->on_audio_set_track_metadata(metadata);
+      } else {
+        LOGW() << "Malformed DAAP metadata: " << req.content.size();
+      }
     }
   } else {
     LOGE() << "Unknown parameter type: " << req.content_type;
@@ -527,7 +825,7 @@ void ap_airplay_connection::teardown_handler(const request &req, response &res)
   DUMP_REQUEST_WITH_CONNECTION(req);
 
   if (0 == req.content_type.compare(APPLICATION_BINARY_PLIST)) {
-    auto_plist data_obj = plist_object_from_bplist(req.content.data(), (uint32_t)req.content.size());
+    auto data_obj = plist_arena_.from_bplist(req.content);
     if (data_obj) {
       auto streams = plist_object_dict_get_value(data_obj, "streams");
       if (streams && PLIST_TYPE_ARRAY == plist_object_get_type(streams)) {
@@ -538,29 +836,9 @@ void ap_airplay_connection::teardown_handler(const request &req, response &res)
             int64_t type = 0;
             plist_object_integer_get_value(type_obj, &type);
             if (stream_type_t::video == type) {
-              // Stop video stream
-              if (mirroring_video_stream_service_) {
-                mirroring_video_stream_service_->stop();
-                mirroring_video_stream_service_.reset();
-              }
-
-              if (mirroring_session_handler_) {
-                mirroring_session_handler_->on_video_stream_stopped();
-              }
-
-              LOGD() << "Mirroring video stream disconnected";
+              stop_video_stream();
             } else if (stream_type_t::audio == type) {
-              // Stop audio stream
-              if (mirroring_audio_stream_service_) {
-                mirroring_audio_stream_service_->stop();
-                mirroring_audio_stream_service_.reset();
-              }
-
-              if (mirroring_session_handler_) {
-                mirroring_session_handler_->on_audio_stream_stopped();
-              }
-
-              LOGD() << "Audio stream disconnected";
+              stop_audio_stream();
             } else
               LOGE() << "Unknown stream type";
           }
@@ -593,38 +871,12 @@ void ap_airplay_connection::get_server_info_handler(const request &req, response
   res.with_status(ok);
   // return;
 
-  std::ostringstream oss;
-  // clang-format off
-  oss << "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
-         "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n"
-         "<plist version=\"1.0\">\n"
-         "<dict>\n"
-         "\t<key>features</key>\n"
-         "\t<integer>" << /*config_->features()*/"0x27F" << "</integer>\n"
-         "\t<key>macAddress</key>\n"
-         "\t<string>" << config_->macAddress() << "</string>\n"
-         "\t<key>model</key>\n"
-         "\t<string>" << config_->model() /*"AppleTV3,2"*/ << "</string>\n"
-         "\t<key>osBuildVersion</key>\n"
-         "\t<string>12B435</string>\n"
-         "\t<key>protovers</key>\n"
-         "\t<string>1.0</string>\n"
-         "\t<key>srcvers</key>\n"
-         "\t<string>" << config_->serverVersion()/*"101.28"*/ << "</string>\n"
-         "\t<key>vv</key>\n"
-         "\t<integer>" << config_->vv() << "</integer>\n"
-         "\t<key>deviceid</key>\n"
-         "\t<string>" << config_->macAddress() << "</string>\n"
-         "</dict>\n"
-         "</plist>";
-  // clang-format on
-
   session_type_ = casting_session;
   if (handler_) {
     handler_->on_session_begin(shared_from_this());
   }
 
-  res.with_status(ok).with_content_type(TEXT_APPLE_PLIST_XML).with_content(oss.str());
+  res.with_status(ok).with_content_type(TEXT_APPLE_PLIST_XML).with_content(info_cache_->server_info());
 }
 
 void ap_airplay_connection::post_fp_setup2_handler(const request &req, response &res) {
@@ -691,14 +943,14 @@ void ap_airplay_connection::post_play_handler(const request &req, response &res)
     //    uuid = "CA558786-81DC-4F5F-BE5A-30869D597576";
     //    volume = 1;
     //}
-    auto_plist data_obj = plist_object_from_bplist(req.content.data(), (uint32_t)req.content.size());
+    auto data_obj = plist_arena_.from_bplist(req.content);
     if (!data_obj) {
       res.with_status(bad_request);
       return;
     }
 
 #if !defined(NDEBUG)
-    std::string obj_str = data_obj.dump();
+    std::string obj_str = auto_plist::dump(data_obj);
     LOGD() << obj_str;
 #endif // !
 
@@ -748,6 +1000,9 @@ void ap_airplay_connection::post_play_handler(const request &req, response &res)
     return;
   }
 
+  // The state pushed for the previous item is stale
+  playback_state_.clear();
+
   if (!ap_casting_media_data_store::get().request_media_data(location, it_session_id->second)) {
     // Normal URL
     if (video_session_handler_) {
@@ -790,6 +1045,8 @@ void ap_airplay_connection::post_stop_handler(const request &req, response &res)
 
   ap_casting_media_data_store::get().reset();
 
+  playback_state_.clear();
+
   if (video_session_handler_) {
     video_session_handler_->on_video_stop(session_id_);
   }
@@ -801,7 +1058,7 @@ void ap_airplay_connection::post_action_handler(const request &req, response &re
   DUMP_REQUEST_WITH_CONNECTION(req);
   // req.body (bplist)
 
-  auto_plist data_obj = plist_object_from_bplist(req.content.data(), (uint32_t)req.content.size());
+  auto data_obj = plist_arena_.from_bplist(req.content);
   if (!data_obj) {
     res.with_status(bad_request);
     return;
@@ -874,7 +1131,29 @@ void ap_airplay_connection::get_playback_info_handler(const request &req, respon
   // DUMP_REQUEST_WITH_CONNECTION(req);
 
   playback_info_t playback_info;
-  if (video_session_handler_) {
+  int buffer_empty = 1;
+  int buffer_full = 0;
+  int likely_to_keep_up = 1;
+  ap_playback_state state;
+  if (playback_state_.load(state)) {
+    // Answer from the pushed state, the position has moved on by the rate since the update unless
+    // the player is stalled on an empty buffer
+    double position = state.position;
+    if (0 != state.rate && 0 == (state.flags & playback_buffer_empty)) {
+      position += state.rate * (double)(steady_time_ms() - state.updated_ms) / 1000.0;
+      if (position < 0)
+        position = 0;
+      if (state.duration > 0 && position > state.duration)
+        position = state.duration;
+    }
+    playback_info.position = (float)position;
+    playback_info.duration = state.duration;
+    playback_info.rate = state.rate;
+    playback_info.readyToPlay = (0 != (state.flags & playback_ready_to_play));
+    buffer_empty = (0 != (state.flags & playback_buffer_empty)) ? 1 : 0;
+    buffer_full = (0 != (state.flags & playback_buffer_full)) ? 1 : 0;
+    likely_to_keep_up = (0 != (state.flags & playback_likely_to_keep_up)) ? 1 : 0;
+  } else if (video_session_handler_) {
     video_session_handler_->on_acquire_playback_info(session_id_, playback_info);
   }
   LOGV() << "PlaybackInfo duration: " << playback_info.duration << ", position: " << playback_info.position;
@@ -923,11 +1202,11 @@ void ap_airplay_connection::get_playback_info_handler(const request &req, respon
          "\t<key>readyToPlay</key>\n"
          "\t<integer>" << playback_info.readyToPlay << "</integer>\n"
          "\t<key>playbackBufferEmpty</key>\n"
-         "\t<integer>1</integer>\n"
+         "\t<integer>" << buffer_empty << "</integer>\n"
          "\t<key>playbackBufferFull</key>\n"
-         "\t<integer>0</integer>\n"
+         "\t<integer>" << buffer_full << "</integer>\n"
          "\t<key>playbackLikelyToKeepUp</key>\n"
-         "\t<integer>1</integer>\n"
+         "\t<integer>" << likely_to_keep_up << "</integer>\n"
          "\t<key>loadedTimeRanges</key>\n"
          "\t<array>\n"
          "\t\t<dict>\n"
@@ -965,7 +1244,7 @@ void ap_airplay_connection::put_setProperty_handler(const request &req, response
     // pause = 1;   puase the playback
     // none = 2;    do nothing
     do {
-      auto_plist data_obj = plist_object_from_bplist(req.content.data(), (uint32_t)req.content.size());
+      auto data_obj = plist_arena_.from_bplist(req.content);
       if (!data_obj) {
         LOGE() << "Failed to pares the actionAtItemEnd value";
         break;
@@ -1024,6 +1303,9 @@ void ap_airplay_connection::post_getProperty_handler(const request &req, respons
 std::shared_ptr<xtxp_connection_base> ap_airplay_connection::shared_from_self() { return shared_from_this(); }
 
 void ap_airplay_connection::add_common_header(const request &req, response &res) {
+  // Every request counts as traffic, the sender posts /feedback every two seconds
+  activity_->touch();
+
   res.with_header(HEADER_DATE, gmt_time_string());
 
   static std::string ver = "AirTunes/" + config_->serverVersion();
@@ -1164,14 +1446,34 @@ void ap_airplay_connection::reverse_connection(const std::string &session) {
 }
 
 ap_airplay_service::ap_airplay_service(ap_config_ptr &config, uint16_t port /*= 0*/)
-    : tcp_service_base("ap_airplay_service", port), config_(config) {}
+    : tcp_service_base("ap_airplay_service", port) {
+  info_cache_ = std::make_shared<ap_airplay_info_cache>(config);
+  session_pool_ = std::make_shared<ap_mirroring_session_pool>(config->sessionPoolSize());
+  idle_monitor_ = std::make_shared<ap_session_idle_monitor>(io_context());
+}
 
 ap_airplay_service::~ap_airplay_service() = default;
 
 void ap_airplay_service::set_handler(ap_handler_ptr &handler) { handler_ = handler; }
 
+void ap_airplay_service::set_config(ap_config_ptr &config) {
+  info_cache_->reset(config);
+  session_pool_->resize(config->sessionPoolSize());
+}
+
+void ap_airplay_service::set_identity(const server_identity_ptr &identity) { identity_ = identity; }
+
+void ap_airplay_service::warm_up() { session_pool_->post_fill(); }
+
+void ap_airplay_service::stop() {
+  session_pool_->clear();
+  tcp_service_base::stop();
+}
+
 tcp_connection_ptr ap_airplay_service::prepare_new_connection() {
-  return std::make_shared<ap_airplay_connection>(io_context(), config_, handler_, shared_from_this());
+  ap_config_ptr config = info_cache_->config();
+  return std::make_shared<ap_airplay_connection>(
+      io_context(), config, handler_, info_cache_, identity_, session_pool_, idle_monitor_, shared_from_this());
 }
 
 } // namespace service
@@ -21,7 +21,9 @@
 
 #pragma once
 #include <array>
+#include <atomic>
 #include <map>
+#include <mutex>
 #include <string>
 #include <unordered_map>
 #include <vector>
@@ -30,6 +32,7 @@
 
 #include <ap_config.h>
 #include <ap_handler.h>
+#include <ap_stream_fanout.h>
 #include <crypto/ap_crypto.h>
 #include <network/tcp_service.h>
 #include <network/udp_service.h>
@@ -38,18 +41,156 @@
 #include <service/ap_airplay_service_details.h>
 #include <service/ap_casting_content_parser.h>
 #include <service/ap_mirroring_audio_stream_service.h>
+#include <service/ap_mirroring_metadata_cache.h>
+#include <service/ap_mirroring_session_pool.h>
+#include <service/ap_mirroring_stream_tap.h>
+#include <service/ap_mirroring_video_buffer_source.h>
+#include <service/ap_mirroring_video_frame_cache.h>
 #include <service/ap_mirroring_timing_sync_service.h>
 #include <service/ap_mirroring_video_stream_service.h>
+#include <service/ap_session_idle_monitor.h>
+#include <utils/plist.h>
 
 using namespace aps::network;
 
 namespace aps {
 namespace service {
+/// <summary>
+/// Caches the serialized device description responses of the current configuration.
+/// The responses are built once and shared by all connections until the
+/// configuration is changed.
+/// </summary>
+class ap_airplay_info_cache {
+public:
+  explicit ap_airplay_info_cache(const ap_config_ptr &config);
+
+  ~ap_airplay_info_cache();
+
+  void reset(const ap_config_ptr &config);
+
+  ap_config_ptr config();
+
+  /// <summary>
+  /// The binary plist of the GET /info response.
+  /// </summary>
+  shared_content_ptr info();
+
+  /// <summary>
+  /// The XML plist of the GET /server-info response.
+  /// </summary>
+  shared_content_ptr server_info();
+
+protected:
+  static shared_content_ptr build_info(const ap_config_ptr &config);
+
+  static shared_content_ptr build_server_info(const ap_config_ptr &config);
+
+private:
+  std::mutex mtx_;
+  ap_config_ptr config_;
+  shared_content_ptr info_;
+  shared_content_ptr server_info_;
+};
+
+typedef std::shared_ptr<ap_airplay_info_cache> ap_airplay_info_cache_ptr;
+
+/// <summary>
+/// The playback state pushed by the application.
+/// </summary>
+struct ap_playback_state {
+  double position;
+  double duration;
+  double rate;
+  uint32_t flags;
+
+  // The steady clock time of the update in milliseconds
+  int64_t updated_ms;
+};
+
+/// <summary>
+/// A seqlock over the playback state, the readers never block the writer and neither takes a
+/// lock or allocates. The sequence is odd while a write is in progress, the writers take turns
+/// on it, a reader retries until it reads the same even sequence before and after the fields.
+/// </summary>
+class ap_playback_state_snapshot {
+public:
+  ap_playback_state_snapshot()
+      : sequence_(0), valid_(false), position_(0), duration_(0), rate_(0), flags_(0), updated_ms_(0) {}
+
+  void store(const ap_playback_state &state) {
+    uint32_t sequence = begin_write();
+    position_.store(state.position, std::memory_order_relaxed);
+    duration_.store(state.duration, std::memory_order_relaxed);
+    rate_.store(state.rate, std::memory_order_relaxed);
+    flags_.store(state.flags, std::memory_order_relaxed);
+    updated_ms_.store(state.updated_ms, std::memory_order_relaxed);
+    valid_.store(true, std::memory_order_relaxed);
+    sequence_.store(sequence + 2, std::memory_order_release);
+  }
+
+  void clear() {
+    uint32_t sequence = begin_write();
+    valid_.store(false, std::memory_order_relaxed);
+    sequence_.store(sequence + 2, std::memory_order_release);
+  }
+
+  /// <summary>
+  /// Reads the state, returns false if there is none.
+  /// </summary>
+  bool load(ap_playback_state &state) const {
+    uint32_t before;
+    uint32_t after;
+    bool valid;
+    do {
+      before = sequence_.load(std::memory_order_acquire);
+      valid = valid_.load(std::memory_order_relaxed);
+      state.position = position_.load(std::memory_order_relaxed);
+      state.duration = duration_.load(std::memory_order_relaxed);
+      state.rate = rate_.load(std::memory_order_relaxed);
+      state.flags = flags_.load(std::memory_order_relaxed);
+      state.updated_ms = updated_ms_.load(std::memory_order_relaxed);
+      std::atomic_thread_fence(std::memory_order_acquire);
+      after = sequence_.load(std::memory_order_relaxed);
+    } while ((before & 1) || before != after);
+    return valid;
+  }
+
+private:
+  // Makes the sequence odd, returns the even sequence it started from
+  uint32_t begin_write() {
+    uint32_t sequence = sequence_.load(std::memory_order_relaxed);
+    do {
+      sequence &= ~1u;
+    } while (!sequence_.compare_exchange_weak(sequence, sequence + 1, std::memory_order_acquire,
+                                              std::memory_order_relaxed));
+    // The field stores must not become visible before the odd sequence
+    std::atomic_thread_fence(std::memory_order_release);
+    return sequence;
+  }
+
+  ap_playback_state_snapshot(const ap_playback_state_snapshot &) = delete;
+  ap_playback_state_snapshot &operator=(const ap_playback_state_snapshot &) = delete;
+
+  std::atomic<uint32_t> sequence_;
+  std::atomic<bool> valid_;
+  std::atomic<double> position_;
+  std::atomic<double> duration_;
+  std::atomic<double> rate_;
+  std::atomic<uint32_t> flags_;
+  std::atomic<int64_t> updated_ms_;
+};
+
 class ap_airplay_connection : public xtxp_connection_base,
                               public ap_session,
                               public std::enable_shared_from_this<ap_airplay_connection> {
 public:
-  explicit ap_airplay_connection(asio::io_context &io_ctx, ap_config_ptr &config, ap_handler_ptr &handler,
+  explicit ap_airplay_connection(asio::io_context &io_ctx,
+                                 ap_config_ptr &config,
+                                 ap_handler_ptr &handler,
+                                 ap_airplay_info_cache_ptr &info_cache,
+                                 const server_identity_ptr &identity,
+                                 const ap_mirroring_session_pool_ptr &session_pool,
+                                 const ap_session_idle_monitor_ptr &idle_monitor,
                                  tcp_service_weak_ptr service);
 
   ~ap_airplay_connection();
@@ -60,11 +201,38 @@ public:
 
   virtual void disconnect() override;
 
+  virtual ap_session_memory_usage_t get_memory_usage() override;
+
+  virtual void set_stream_flow_control(bool enabled) override;
+
+  virtual void request_stream_units(uint64_t n) override;
+
+  virtual void set_audio_ring(const ap_audio_ring_ptr &ring) override;
+
+  virtual void set_recorder(const ap_mirroring_session_handler_ptr &recorder) override;
+
+  virtual bool add_stream_consumer(const ap_stream_consumer_ptr &consumer, uint32_t max_queued_frames,
+                                   ap_stream_drop_policy_t policy) override;
+
+  virtual void remove_stream_consumer(const ap_stream_consumer_ptr &consumer) override;
+
+  virtual void set_video_buffer_provider(const ap_video_buffer_provider_ptr &provider) override;
+
+  virtual void update_playback_state(double position, double duration, double rate, uint32_t flags) override;
+
   virtual void set_mirroring_handler(ap_mirroring_session_handler_ptr handler) override;
 
   virtual void set_casting_handler(ap_casting_session_handler_ptr handler) override;
 
 protected:
+  void add_stream_tap_handler(const ap_mirroring_session_handler_ptr &handler);
+
+  void on_session_idle();
+
+  void stop_video_stream();
+
+  void stop_audio_stream();
+
   // RTSP
   void options_handler(const request &req, response &res);
 
@@ -149,6 +317,48 @@ private:
   ap_crypto_ptr crypto_;
   tcp_service_weak_ptr service_;
   ap_handler_ptr handler_;
+  ap_airplay_info_cache_ptr info_cache_;
+
+  ap_mirroring_session_pool_ptr session_pool_;
+
+  ap_session_idle_monitor_ptr idle_monitor_;
+
+  // Touched by the requests and the stream services
+  ap_session_activity_ptr activity_;
+
+  buffer_account_ptr buffer_account_;
+
+  ap_mirroring_stream_demand_ptr stream_demand_;
+
+  // Set by the application thread, taken by the audio stream setup
+  ap_audio_ring_ptr audio_ring_;
+
+  // The recorder and the fanout shared with the stream services
+  ap_mirroring_stream_tap_ptr stream_tap_;
+
+  // Guards the recorder and the fanout, set by the application thread
+  std::mutex tap_mtx_;
+
+  ap_mirroring_session_handler_ptr recorder_;
+
+  ap_stream_fanout_ptr stream_fanout_;
+
+  // The video buffer provider shared with the video stream connection
+  ap_mirroring_video_buffer_source_ptr video_buffer_source_;
+
+  // Relays the video stream to the mirroring handler, a late handler starts from its cached frames
+  ap_mirroring_video_frame_cache_ptr video_frame_cache_;
+
+  bool stream_ended_;
+
+  // The format of the running audio stream, -1 if there is none
+  std::atomic<int32_t> audio_stream_format_;
+
+  // The artwork and metadata delivered to the mirroring handler
+  ap_mirroring_metadata_cache metadata_cache_;
+
+  // The arena of the request plist objects, reset per request
+  auto_plist_arena plist_arena_;
 
   // Screen mirroring service resource
   ap_mirroring_video_stream_service_ptr mirroring_video_stream_service_;
@@ -162,6 +372,9 @@ private:
   std::string playback_uuid_;
   std::string apple_session_id_;
   ap_casting_session_handler_ptr video_session_handler_;
+
+  // Set by the application thread, read by the playback info requests
+  ap_playback_state_snapshot playback_state_;
 };
 
 typedef std::shared_ptr<ap_airplay_connection> ap_airplay_connection_ptr;
@@ -178,11 +391,28 @@ public:
 
   void set_handler(ap_handler_ptr &handler);
 
+  void set_config(ap_config_ptr &config);
+
+  void set_identity(const server_identity_ptr &identity);
+
+  /// <summary>
+  /// Fills the mirroring session pool in background.
+  /// </summary>
+  void warm_up();
+
+  virtual void stop() override;
+
 protected:
   virtual tcp_connection_ptr prepare_new_connection() override;
 
 private:
-  ap_config_ptr config_;
+  ap_airplay_info_cache_ptr info_cache_;
+
+  server_identity_ptr identity_;
+
+  ap_mirroring_session_pool_ptr session_pool_;
+
+  ap_session_idle_monitor_ptr idle_monitor_;
 
   ap_handler_ptr handler_;
 };
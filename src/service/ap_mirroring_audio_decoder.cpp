@@ -0,0 +1,471 @@
+/* 
+ *  File: ap_mirroring_audio_decoder.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+#include <cstring>
+#include <map>
+#include <mutex>
+
+#include <service/ap_mirroring_audio_decoder.h>
+#include <utils/logger.h>
+
+namespace aps {
+namespace {
+std::mutex &decoder_factory_mutex() {
+  static std::mutex mtx;
+  return mtx;
+}
+
+std::map<audio_data_format_t, ap_audio_decoder_factory> &decoder_factories() {
+  static std::map<audio_data_format_t, ap_audio_decoder_factory> factories;
+  return factories;
+}
+} // namespace
+
+void ap_audio_decoder::register_factory(const audio_data_format_t format, const ap_audio_decoder_factory &factory) {
+  std::lock_guard<std::mutex> l(decoder_factory_mutex());
+  if (factory) {
+    decoder_factories()[format] = factory;
+  } else {
+    decoder_factories().erase(format);
+  }
+}
+
+ap_audio_decoder_ptr ap_audio_decoder::create(const audio_data_format_t format, const uint32_t frames_per_packet) {
+  ap_audio_decoder_factory factory;
+  {
+    std::lock_guard<std::mutex> l(decoder_factory_mutex());
+    auto it = decoder_factories().find(format);
+    if (it != decoder_factories().end()) {
+      factory = it->second;
+    }
+  }
+
+  if (factory) {
+    return factory(frames_per_packet);
+  }
+
+  if (audio_format_alac == format) {
+    return std::make_shared<service::ap_alac_decoder>(frames_per_packet);
+  }
+
+  return nullptr;
+}
+
+namespace service {
+namespace {
+// The element types of the ALAC frame
+enum alac_element_e {
+  alac_element_sce = 0, // single channel
+  alac_element_cpe = 1, // channel pair
+  alac_element_lfe = 3, // low frequency, coded as a single channel
+  alac_element_end = 7
+};
+
+// The parameters of the adaptive Golomb coding
+const uint32_t QBSHIFT = 9;
+const uint32_t QB = 1u << QBSHIFT;
+const uint32_t MMULSHIFT = 2;
+const uint32_t MDENSHIFT = QBSHIFT - MMULSHIFT - 1;
+const uint32_t MOFF = 1u << (MDENSHIFT - 2);
+const uint32_t BITOFF = 24;
+const uint32_t MAX_PREFIX = 9;
+const uint32_t MAX_RUN_BITS = 16;
+const uint32_t N_MAX_MEAN_CLAMP = 0xffff;
+const uint32_t N_MEAN_CLAMP_VAL = 0xffff;
+const uint32_t MAX_COEFS = 32;
+
+inline uint32_t lead(uint32_t x) {
+  uint32_t n = 0;
+  if (0 == x) {
+    return 32;
+  }
+  while (!(x & 0x80000000u)) {
+    x <<= 1;
+    n++;
+  }
+  return n;
+}
+
+inline uint32_t lg3a(uint32_t x) { return 31 - lead(x + 3); }
+
+inline int32_t sign_of(int32_t i) {
+  int32_t negishift = (int32_t)(((uint32_t)-i) >> 31);
+  return negishift | (i >> 31);
+}
+
+inline int32_t sign_extend(uint32_t v, uint32_t bits) {
+  uint32_t shift = 32 - bits;
+  return ((int32_t)(v << shift)) >> shift;
+}
+
+/// <summary>
+/// Reads the big-endian bit stream of a frame, reading past the end fails the reader.
+/// </summary>
+class bit_reader {
+public:
+  bit_reader(const uint8_t *data, const uint32_t length)
+      : data_(data), length_(length), bits_((uint64_t)length * 8), pos_(0), ok_(true) {}
+
+  bool ok() const { return ok_; }
+
+  uint32_t peek32() const {
+    uint64_t byte = pos_ >> 3;
+    uint64_t window = 0;
+    for (uint64_t i = 0; i < 5; i++) {
+      window <<= 8;
+      if (byte + i < length_) {
+        window |= data_[byte + i];
+      }
+    }
+    return (uint32_t)(window >> (8 - (pos_ & 7)));
+  }
+
+  uint32_t read(uint32_t n) {
+    if (0 == n) {
+      return 0;
+    }
+    if (pos_ + n > bits_) {
+      ok_ = false;
+      pos_ = bits_;
+      return 0;
+    }
+    uint32_t v = peek32() >> (32 - n);
+    pos_ += n;
+    return v;
+  }
+
+  void skip(uint64_t n) {
+    if (pos_ + n > bits_) {
+      ok_ = false;
+      pos_ = bits_;
+      return;
+    }
+    pos_ += n;
+  }
+
+  void unread(uint32_t n) { pos_ -= std::min<uint64_t>(n, pos_); }
+
+private:
+  const uint8_t *data_;
+  uint64_t length_;
+  uint64_t bits_;
+  uint64_t pos_;
+  bool ok_;
+};
+
+// Reads one adaptive Golomb code, the long codes escape to the raw value of max_bits
+uint32_t read_golomb(bit_reader &br, uint32_t m, uint32_t k, uint32_t max_bits) {
+  uint32_t prefix = lead(~br.peek32());
+  if (prefix >= MAX_PREFIX) {
+    br.skip(MAX_PREFIX);
+    return br.read(max_bits);
+  }
+
+  br.skip(prefix + 1);
+  if (1 == k) {
+    return prefix;
+  }
+
+  uint32_t v = br.read(k);
+  uint32_t result = prefix * m;
+  if (v >= 2) {
+    result += v - 1;
+  } else {
+    br.unread(1);
+  }
+  return result;
+}
+
+// Decodes the prediction residuals of one channel
+bool dyn_decomp(bit_reader &br, int32_t *pc, uint32_t num, uint32_t chan_bits, uint32_t mb0, uint32_t pb, uint32_t kb) {
+  uint32_t wb = (1u << kb) - 1;
+  uint32_t mb = mb0;
+  uint32_t zmode = 0;
+  uint32_t c = 0;
+
+  while (c < num) {
+    uint32_t k = std::min(lg3a(mb >> QBSHIFT), kb);
+    uint32_t m = (1u << k) - 1;
+    uint32_t n = read_golomb(br, m, k, chan_bits);
+
+    // The least significant bit is the sign
+    uint32_t ndecode = n + zmode;
+    int32_t multiplier = -(int32_t)(ndecode & 1);
+    multiplier |= 1;
+    pc[c++] = (int32_t)((ndecode + 1) >> 1) * multiplier;
+
+    mb = pb * (n + zmode) + mb - ((pb * mb) >> QBSHIFT);
+    if (n > N_MAX_MEAN_CLAMP) {
+      mb = N_MEAN_CLAMP_VAL;
+    }
+
+    zmode = 0;
+    if (((mb << MMULSHIFT) < QB) && (c < num)) {
+      // A run of zeros
+      zmode = 1;
+      k = lead(mb) - BITOFF + ((mb + MOFF) >> MDENSHIFT);
+      uint32_t mz = ((1u << k) - 1) & wb;
+      n = read_golomb(br, mz, k, MAX_RUN_BITS);
+      if (c + n > num) {
+        return false;
+      }
+      for (uint32_t j = 0; j < n; j++) {
+        pc[c++] = 0;
+      }
+      if (n >= 65535) {
+        zmode = 0;
+      }
+      mb = 0;
+    }
+
+    if (!br.ok()) {
+      return false;
+    }
+  }
+
+  return true;
+}
+
+// Runs the adaptive linear predictor over the residuals, in and out may be the same buffer
+void unpc_block(const int32_t *pc, int32_t *out, uint32_t num, int16_t *coefs, uint32_t active, uint32_t chan_bits,
+                uint32_t den_shift) {
+  uint32_t chan_shift = 32 - chan_bits;
+  if (0 == num) {
+    return;
+  }
+
+  out[0] = pc[0];
+  if (0 == active) {
+    if (num > 1 && pc != out) {
+      memcpy(&out[1], &pc[1], (num - 1) * sizeof(int32_t));
+    }
+    return;
+  }
+
+  if (31 == active) {
+    // The first order predictor
+    int32_t prev = out[0];
+    for (uint32_t j = 1; j < num; j++) {
+      int32_t del = pc[j] + prev;
+      prev = (int32_t)((uint32_t)del << chan_shift) >> chan_shift;
+      out[j] = prev;
+    }
+    return;
+  }
+
+  for (uint32_t j = 1; j <= active && j < num; j++) {
+    int32_t del = pc[j] + out[j - 1];
+    out[j] = (int32_t)((uint32_t)del << chan_shift) >> chan_shift;
+  }
+
+  int32_t den_half = den_shift ? (1 << (den_shift - 1)) : 0;
+  uint32_t lim = active + 1;
+  for (uint32_t j = lim; j < num; j++) {
+    const int32_t *pout = out + j - 1;
+    int32_t top = out[j - lim];
+    int32_t sum = 0;
+    for (uint32_t k = 0; k < active; k++) {
+      sum += coefs[k] * (pout[-(int32_t)k] - top);
+    }
+
+    int32_t del = pc[j];
+    int32_t del0 = del;
+    int32_t sg = sign_of(del);
+    del += top + ((sum + den_half) >> den_shift);
+    out[j] = (int32_t)((uint32_t)del << chan_shift) >> chan_shift;
+
+    // Adapt the coefficients towards the sign of the error
+    if (sg > 0) {
+      for (int32_t k = (int32_t)active - 1; k >= 0; k--) {
+        int32_t dd = top - pout[-k];
+        int32_t sgn = sign_of(dd);
+        coefs[k] -= (int16_t)sgn;
+        del0 -= ((int32_t)active - k) * ((sgn * dd) >> den_shift);
+        if (del0 <= 0) {
+          break;
+        }
+      }
+    } else if (sg < 0) {
+      for (int32_t k = (int32_t)active - 1; k >= 0; k--) {
+        int32_t dd = top - pout[-k];
+        int32_t sgn = sign_of(dd);
+        coefs[k] += (int16_t)sgn;
+        del0 -= ((int32_t)active - k) * ((-sgn * dd) >> den_shift);
+        if (del0 >= 0) {
+          break;
+        }
+      }
+    }
+  }
+}
+
+struct channel_params_s {
+  uint32_t mode;
+  uint32_t den_shift;
+  uint32_t pb_factor;
+  uint32_t num_coefs;
+  int16_t coefs[MAX_COEFS];
+};
+
+void read_channel_params(bit_reader &br, channel_params_s &p) {
+  uint32_t h = br.read(8);
+  p.mode = h >> 4;
+  p.den_shift = h & 0xf;
+  h = br.read(8);
+  p.pb_factor = h >> 5;
+  p.num_coefs = h & 0x1f;
+  for (uint32_t i = 0; i < p.num_coefs; i++) {
+    p.coefs[i] = (int16_t)br.read(16);
+  }
+}
+} // namespace
+
+ap_alac_decoder::ap_alac_decoder(const uint32_t frame_length)
+    : frame_length_(frame_length ? frame_length : 352), bit_depth_(16), pb_(40), mb_(10), kb_(14), channels_(2),
+      sample_rate_(44100), predictor_(frame_length_), mix_u_(frame_length_), mix_v_(frame_length_) {}
+
+int32_t ap_alac_decoder::decode(const uint8_t *data, const uint32_t length, int16_t *out) {
+  bit_reader br(data, length);
+  uint32_t channel = 0;
+  int32_t frames = -1;
+
+  while (channel < channels_) {
+    uint32_t tag = br.read(3);
+    if (!br.ok() || alac_element_end == tag) {
+      break;
+    }
+
+    uint32_t element_channels = 0;
+    if (alac_element_sce == tag || alac_element_lfe == tag) {
+      element_channels = 1;
+    } else if (alac_element_cpe == tag) {
+      element_channels = 2;
+    } else {
+      LOGE() << "Unsupported ALAC element: " << tag;
+      return -1;
+    }
+    if (channel + element_channels > channels_) {
+      return -1;
+    }
+
+    br.read(4); // element instance tag
+    if (0 != br.read(12)) {
+      return -1;
+    }
+
+    uint32_t h = br.read(4);
+    uint32_t partial_frame = h >> 3;
+    uint32_t bytes_shifted = (h >> 1) & 0x3;
+    uint32_t escape = h & 0x1;
+    if (bytes_shifted) {
+      // Only the streams deeper than 16 bits shift off the low bytes
+      LOGE() << "Unsupported ALAC shift for 16-bit audio: " << bytes_shifted;
+      return -1;
+    }
+
+    uint32_t num = frame_length_;
+    if (partial_frame) {
+      num = br.read(32);
+      if (num > frame_length_) {
+        return -1;
+      }
+    }
+
+    int32_t mix_bits = 0;
+    int32_t mix_res = 0;
+    if (!escape) {
+      mix_bits = (int32_t)br.read(8);
+      mix_res = (int8_t)br.read(8);
+
+      channel_params_s params[2];
+      for (uint32_t i = 0; i < element_channels; i++) {
+        read_channel_params(br, params[i]);
+      }
+
+      // The side channel of a pair carries one extra bit
+      uint32_t chan_bits = bit_depth_ + element_channels - 1;
+      int32_t *mix[2] = {mix_u_.data(), mix_v_.data()};
+      for (uint32_t i = 0; i < element_channels; i++) {
+        channel_params_s &p = params[i];
+        if (!dyn_decomp(br, predictor_.data(), num, chan_bits, mb_, (pb_ * p.pb_factor) / 4, kb_)) {
+          return -1;
+        }
+        if (0 != p.mode) {
+          unpc_block(predictor_.data(), predictor_.data(), num, nullptr, 31, chan_bits, 0);
+        }
+        unpc_block(predictor_.data(), mix[i], num, p.coefs, p.num_coefs, chan_bits, p.den_shift);
+      }
+    } else {
+      // The uncompressed samples are interleaved
+      for (uint32_t i = 0; i < num; i++) {
+        mix_u_[i] = sign_extend(br.read(bit_depth_), bit_depth_);
+        if (2 == element_channels) {
+          mix_v_[i] = sign_extend(br.read(bit_depth_), bit_depth_);
+        }
+      }
+    }
+
+    if (!br.ok()) {
+      return -1;
+    }
+
+    int16_t *o = out + channel;
+    if (1 == element_channels) {
+      for (uint32_t i = 0; i < num; i++, o += channels_) {
+        o[0] = (int16_t)mix_u_[i];
+      }
+    } else if (0 != mix_res) {
+      // Matrixed stereo
+      for (uint32_t i = 0; i < num; i++, o += channels_) {
+        int32_t l = mix_u_[i] + mix_v_[i] - ((mix_res * mix_v_[i]) >> mix_bits);
+        o[0] = (int16_t)l;
+        o[1] = (int16_t)(l - mix_v_[i]);
+      }
+    } else {
+      for (uint32_t i = 0; i < num; i++, o += channels_) {
+        o[0] = (int16_t)mix_u_[i];
+        o[1] = (int16_t)mix_v_[i];
+      }
+    }
+
+    channel += element_channels;
+    frames = (int32_t)num;
+  }
+
+  if (frames > 0 && 1 == channel && channels_ > 1) {
+    // A mono stream only fills the left channel, play it on both
+    int16_t *o = out;
+    for (int32_t i = 0; i < frames; i++, o += channels_) {
+      o[1] = o[0];
+    }
+  }
+
+  return frames;
+}
+
+uint32_t ap_alac_decoder::channels() const { return channels_; }
+
+uint32_t ap_alac_decoder::sample_rate() const { return sample_rate_; }
+
+uint32_t ap_alac_decoder::max_frames() const { return frame_length_; }
+} // namespace service
+} // namespace aps
@@ -0,0 +1,72 @@
+/* 
+ *  File: ap_mirroring_audio_decoder.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#pragma once
+#include <cstdint>
+#include <vector>
+
+#include <ap_audio_decoder.h>
+
+namespace aps {
+namespace service {
+/// <summary>
+/// The Apple Lossless decoder for the mirroring audio, decodes the 16-bit
+/// streams with mono and stereo elements.
+/// </summary>
+class ap_alac_decoder : public ap_audio_decoder {
+public:
+  /// <summary>
+  /// Constructs the decoder with the parameters announced by the AirPlay senders:
+  /// 96 352 0 16 40 10 14 2 255 0 0 44100
+  /// </summary>
+  explicit ap_alac_decoder(const uint32_t frame_length);
+
+  virtual int32_t decode(const uint8_t *data, const uint32_t length, int16_t *out) override;
+
+  virtual uint32_t channels() const override;
+
+  virtual uint32_t sample_rate() const override;
+
+  virtual uint32_t max_frames() const override;
+
+private:
+  uint32_t frame_length_;
+
+  uint32_t bit_depth_;
+
+  uint32_t pb_;
+
+  uint32_t mb_;
+
+  uint32_t kb_;
+
+  uint32_t channels_;
+
+  uint32_t sample_rate_;
+
+  std::vector<int32_t> predictor_;
+
+  std::vector<int32_t> mix_u_;
+
+  std::vector<int32_t> mix_v_;
+};
+} // namespace service
+} // namespace aps
@@ -32,27 +32,38 @@ using namespace aps::network;
 namespace aps {
 namespace service {
 audio_udp_service::audio_udp_service(const std::string &name)
-    : aps::network::udp_service_base(name), recv_buf_(RTP_PACKET_MAX_LEN, 0) {}
+    : aps::network::udp_service_base(name, 0, thread_stage_audio) {}
 
-audio_udp_service::~audio_udp_service() = default;
+audio_udp_service::~audio_udp_service() {
+  // Stop the worker thread before the receive buffer goes back to the pool
+  close();
+}
 
 bool audio_udp_service::open() {
-  if (aps::network::udp_service_base::open()) {
-    post_recv_from(recv_buf_, remote_endpoint_);
-    return true;
+  if (recv_buf_.empty()) {
+    recv_buf_ = buffer_pool::get().acquire(RTP_PACKET_MAX_LEN * RTP_RECV_BATCH_SIZE, account_);
+    if (recv_buf_.empty()) {
+      LOGE() << "No buffer for the audio stream";
+      return false;
+    }
   }
-  return false;
+
+  return aps::network::udp_service_base::open();
 }
 
-void audio_udp_service::on_recv_from(asio::ip::udp::endpoint &remote_endpoint, const asio::error_code &e,
-                                     std::size_t bytes_transferred) {
-  if (recv_from_handler_)
-    recv_from_handler_(recv_buf_.data(), e, bytes_transferred);
+void audio_udp_service::start_receiving() {
+  post_recv_batch(recv_buf_.data(), RTP_PACKET_MAX_LEN, recv_buf_.size() / RTP_PACKET_MAX_LEN);
+}
+
+void audio_udp_service::on_recv_batch(const aps::network::udp_datagram_t *datagrams, std::size_t count,
+                                      const asio::error_code &e) {
+  if (count && recv_batch_handler_)
+    recv_batch_handler_(datagrams, count);
 
   if (e)
     handle_socket_error(e);
   else
-    post_recv_from(recv_buf_, remote_endpoint_);
+    post_recv_batch(recv_buf_.data(), RTP_PACKET_MAX_LEN, recv_buf_.size() / RTP_PACKET_MAX_LEN);
 }
 
 void audio_udp_service::handle_socket_error(const asio::error_code &e) {
@@ -93,33 +104,86 @@ void audio_udp_service::handle_socket_error(const asio::error_code &e) {
 }
 
 ap_mirroring_audio_stream_service::ap_mirroring_audio_stream_service(aps::ap_crypto_ptr &crypto,
-                                                                     aps::ap_mirroring_session_handler_ptr &handler)
-    : handler_(handler), crypto_(crypto), data_service_("audio_data_service"),
-      control_service_("audio_control_service"), expected_seq_(0) {
+                                                                     aps::ap_mirroring_session_handler_ptr &handler,
+                                                                     const buffer_account_ptr &account /*= nullptr*/,
+                                                                     const ap_mirroring_stream_demand_ptr &demand
+                                                                     /*= nullptr*/)
+    : handler_(handler), crypto_(crypto), account_(account), demand_(demand), data_service_("audio_data_service"),
+      control_service_("audio_control_service"), prepared_(false), expected_seq_(0) {
   data_service_.bind_recv_handler(std::bind(&ap_mirroring_audio_stream_service::data_handler,
                                             this,
                                             std::placeholders::_1,
-                                            std::placeholders::_2,
-                                            std::placeholders::_3));
+                                            std::placeholders::_2));
 
   control_service_.bind_recv_handler(std::bind(&ap_mirroring_audio_stream_service::control_handler,
                                                this,
                                                std::placeholders::_1,
-                                               std::placeholders::_2,
-                                               std::placeholders::_3));
+                                               std::placeholders::_2));
 
   LOGD() << "ap_audio_stream_service (" << std::hex << this << ") is being created";
 }
 
+ap_mirroring_audio_stream_service::ap_mirroring_audio_stream_service()
+    : data_service_("audio_data_service"), control_service_("audio_control_service"), prepared_(false),
+      expected_seq_(0) {
+  data_service_.bind_recv_handler(std::bind(&ap_mirroring_audio_stream_service::data_handler,
+                                            this,
+                                            std::placeholders::_1,
+                                            std::placeholders::_2));
+
+  control_service_.bind_recv_handler(std::bind(&ap_mirroring_audio_stream_service::control_handler,
+                                               this,
+                                               std::placeholders::_1,
+                                               std::placeholders::_2));
+
+  LOGD() << "ap_audio_stream_service (" << std::hex << this << ") is being created for the pool";
+}
+
 ap_mirroring_audio_stream_service::~ap_mirroring_audio_stream_service() {
   LOGD() << "ap_audio_stream_service (" << std::hex << this << ") is being destroyed";
 }
 
+void ap_mirroring_audio_stream_service::bind(aps::ap_crypto_ptr &crypto,
+                                             aps::ap_mirroring_session_handler_ptr &handler,
+                                             const buffer_account_ptr &account,
+                                             const ap_mirroring_stream_demand_ptr &demand /*= nullptr*/) {
+  crypto_ = crypto;
+  handler_ = handler;
+  account_ = account;
+  demand_ = demand;
+  set_decoder(nullptr);
+  set_audio_ring(nullptr);
+  set_stream_tap(nullptr);
+  set_activity(nullptr);
+  data_service_.set_account(account);
+  control_service_.set_account(account);
+}
+
+void ap_mirroring_audio_stream_service::set_decoder(const ap_audio_decoder_ptr &decoder) {
+  // The packets are decoded on the network thread
+  std::atomic_store(&decoder_, decoder);
+}
+
+void ap_mirroring_audio_stream_service::set_audio_ring(const ap_audio_ring_ptr &ring) {
+  std::atomic_store(&audio_ring_, ring);
+}
+
+void ap_mirroring_audio_stream_service::set_stream_tap(const ap_mirroring_stream_tap_ptr &tap) {
+  std::atomic_store(&tap_, tap);
+}
+
+void ap_mirroring_audio_stream_service::set_activity(const ap_session_activity_ptr &activity) {
+  std::atomic_store(&activity_, activity);
+}
+
 uint16_t ap_mirroring_audio_stream_service::data_port() const { return data_service_.port(); }
 
 uint16_t ap_mirroring_audio_stream_service::control_port() const { return control_service_.port(); }
 
-bool ap_mirroring_audio_stream_service::start() {
+bool ap_mirroring_audio_stream_service::prepare() {
+  data_service_.set_account(account_);
+  control_service_.set_account(account_);
+
   if (!data_service_.open())
     return false;
 
@@ -128,6 +192,17 @@ bool ap_mirroring_audio_stream_service::start() {
     return false;
   }
 
+  prepared_ = true;
+  return true;
+}
+
+bool ap_mirroring_audio_stream_service::start() {
+  if (!prepared_ && !prepare())
+    return false;
+
+  // The crypto and the handler are set, the packets queued in the sockets can be processed
+  data_service_.start_receiving();
+  control_service_.start_receiving();
   return true;
 }
 
@@ -136,90 +211,150 @@ void ap_mirroring_audio_stream_service::stop() {
   data_service_.close();
 }
 
-void ap_mirroring_audio_stream_service::data_handler(const uint8_t *buf, const asio::error_code &e,
-                                                     std::size_t bytes_transferred) {
-  if (!e) {
-    if (bytes_transferred < RTP_PACKET_MIN_LEN) {
-      LOGE() << "Packet too small: " << bytes_transferred;
-      return;
-    }
+void ap_mirroring_audio_stream_service::data_handler(const aps::network::udp_datagram_t *datagrams,
+                                                     std::size_t count) {
+  auto activity = std::atomic_load(&activity_);
+  if (activity) {
+    activity->touch();
+  }
 
-    auto *header = (rtp_packet_header_t *)buf;
-    header->sequence = ntohs(header->sequence);
-    header->timestamp = ntohl(header->timestamp);
-    if (header->payload_type != rtp_audio_data) {
-      LOGE() << "Invalid audio data packet: " << bytes_transferred;
-      return;
-    }
+  for (std::size_t i = 0; i < count; i++) {
+    data_packet(datagrams[i].data, datagrams[i].length);
+  }
+}
 
-    if (expected_seq_ == 0) {
-      expected_seq_ = header->sequence;
-    }
+void ap_mirroring_audio_stream_service::data_packet(const uint8_t *buf, std::size_t bytes_transferred) {
+  if (bytes_transferred < RTP_PACKET_MIN_LEN) {
+    LOGE() << "Packet too small: " << bytes_transferred;
+    return;
+  }
 
-    // If the new packet is next expected one just process it
-    if (header->sequence == expected_seq_) {
-      audio_data_packet((rtp_audio_data_packet_t *)header, bytes_transferred);
-      expected_seq_ = header->sequence + 1;
-      // Check the cached buffer
-      process_cached_packet();
-      return;
-    }
+  auto *header = (rtp_packet_header_t *)buf;
+  header->sequence = ntohs(header->sequence);
+  header->timestamp = ntohl(header->timestamp);
+  if (header->payload_type != rtp_audio_data) {
+    LOGE() << "Invalid audio data packet: " << bytes_transferred;
+    return;
+  }
 
-    // This packet is not the one we are waiting for
-    if (header->sequence > expected_seq_) {
-      if (cached_queue_.size() < MAX_CACHED_PACKET_SIZE) {
-        LOGV() << "CACHE RTP PACKET +++++++++++++++++++++++"
-               << "seq: " << header->sequence << ", expected:" << expected_seq_;
-        // Cache this packet
-        cache_packet(header->sequence, buf, bytes_transferred);
-      } else {
-        LOGV() << "FLUSH RTP PACKET ***********************"
-               << "seq: " << header->sequence << ", expected:" << expected_seq_;
-        // have been waiting for too long time, flush
-        process_cached_packet(true);
-      }
-      return;
-    }
+  if (expected_seq_ == 0) {
+    expected_seq_ = header->sequence;
+  }
 
-    LOGV() << "ABANDON-RTP-PACKET xxxxxxxxxxxxxxxxxxxxxxx"
-           << "seq: " << header->sequence << ", expected:" << expected_seq_;
+  // If the new packet is next expected one just process it
+  if (header->sequence == expected_seq_) {
+    audio_data_packet((rtp_audio_data_packet_t *)header, bytes_transferred);
+    expected_seq_ = header->sequence + 1;
+    // Check the cached buffer
+    process_cached_packet();
+    return;
+  }
+
+  // This packet is not the one we are waiting for
+  if (header->sequence > expected_seq_) {
+    if (cached_queue_.size() < MAX_CACHED_PACKET_SIZE) {
+      LOGV() << "CACHE RTP PACKET +++++++++++++++++++++++"
+             << "seq: " << header->sequence << ", expected:" << expected_seq_;
+      // Cache this packet
+      cache_packet(header->sequence, buf, bytes_transferred);
+    } else {
+      LOGV() << "FLUSH RTP PACKET ***********************"
+             << "seq: " << header->sequence << ", expected:" << expected_seq_;
+      // have been waiting for too long time, flush
+      process_cached_packet(true);
+    }
+    return;
   }
+
+  LOGV() << "ABANDON-RTP-PACKET xxxxxxxxxxxxxxxxxxxxxxx"
+         << "seq: " << header->sequence << ", expected:" << expected_seq_;
 }
 
 void ap_mirroring_audio_stream_service::audio_data_packet(rtp_audio_data_packet_t *packet, size_t length) {
   LOGV() << "VALID RTP PACKET: " << length << ", sequence: " << packet->sequence;
 
-  if (handler_) {
+  auto tap = std::atomic_load(&tap_);
+  bool tapped = tap && !tap->empty();
+  bool deliver = true;
+  if (demand_ && !demand_->try_consume()) {
+    // UDP can not be held back, drop the packet the application has no room for
+    demand_->drop();
+    deliver = false;
+  }
+
+  if ((handler_ && deliver) || tapped) {
     uint32_t payload_length = (uint32_t)length - (uint32_t)sizeof(rtp_audio_data_packet_t);
     uint32_t encrypted_length = payload_length / 16 * 16;
     if (encrypted_length) {
       crypto_->decrypt_audio_data(packet->payload, encrypted_length);
     }
+
+    if (tapped) {
+      tap->for_each([packet, payload_length](const ap_mirroring_session_handler_ptr &h) {
+        h->on_audio_stream_data(packet, payload_length);
+      });
+    }
+    if (!handler_ || !deliver) {
+      return;
+    }
+
+    auto decoder = std::atomic_load(&decoder_);
+    auto ring = std::atomic_load(&audio_ring_);
+    if (decoder && (ring || handler_->accepts_audio_pcm())) {
+      pcm_.resize(decoder->max_frames() * decoder->channels());
+      int32_t frames = decoder->decode(packet->payload, payload_length, pcm_.data());
+      if (frames >= 0 && ring) {
+        // The sink pulls the samples from the ring, an overrun is counted by the ring
+        ring->write(pcm_.data(), (uint32_t)frames * decoder->channels(), decoder->channels(), decoder->sample_rate());
+        return;
+      }
+      if (frames >= 0) {
+        audio_pcm_frames_t pcm;
+        pcm.samples = pcm_.data();
+        pcm.frames = (uint32_t)frames;
+        pcm.channels = decoder->channels();
+        pcm.sample_rate = decoder->sample_rate();
+        pcm.timestamp = packet->timestamp;
+        handler_->on_audio_stream_pcm(&pcm);
+        return;
+      }
+      LOGW() << "Failed to decode the audio packet, sequence: " << packet->sequence;
+    }
+
     handler_->on_audio_stream_data(packet, payload_length);
   }
 }
 
-void ap_mirroring_audio_stream_service::control_handler(const uint8_t *buf, const asio::error_code &e,
-                                                        std::size_t bytes_transferred) {
-  if (!e) {
-    if (bytes_transferred < RTP_PACKET_MIN_LEN) {
-      LOGE() << "Packet too small: " << bytes_transferred;
-      return;
-    }
+void ap_mirroring_audio_stream_service::control_handler(const aps::network::udp_datagram_t *datagrams,
+                                                        std::size_t count) {
+  auto activity = std::atomic_load(&activity_);
+  if (activity) {
+    activity->touch();
+  }
 
-    LOGV() << "ap_audio_stream_service::control_handler, " << bytes_transferred;
+  for (std::size_t i = 0; i < count; i++) {
+    control_packet(datagrams[i].data, datagrams[i].length);
+  }
+}
 
-    auto *header = (rtp_packet_header_t *)buf;
-    header->sequence = ntohs(header->sequence);
-    header->timestamp = ntohl(header->timestamp);
-    if (header->payload_type == rtp_ctrl_timing_sync && bytes_transferred == sizeof(rtp_control_sync_packet_t)) {
-      control_sync_packet((rtp_control_sync_packet_t *)header);
-    } else if (header->payload_type == rtp_ctrl_retransmit_reply &&
-               bytes_transferred == sizeof(rtp_control_retransmit_reply_packet_t)) {
-      control_retransmit_packet((rtp_control_retransmit_reply_packet_t *)header);
-    } else {
-      LOGE() << "Unknown RTP control packet, type: " << header->payload_type << " size: " << bytes_transferred;
-    }
+void ap_mirroring_audio_stream_service::control_packet(const uint8_t *buf, std::size_t bytes_transferred) {
+  if (bytes_transferred < RTP_PACKET_MIN_LEN) {
+    LOGE() << "Packet too small: " << bytes_transferred;
+    return;
+  }
+
+  LOGV() << "ap_audio_stream_service::control_handler, " << bytes_transferred;
+
+  auto *header = (rtp_packet_header_t *)buf;
+  header->sequence = ntohs(header->sequence);
+  header->timestamp = ntohl(header->timestamp);
+  if (header->payload_type == rtp_ctrl_timing_sync && bytes_transferred == sizeof(rtp_control_sync_packet_t)) {
+    control_sync_packet((rtp_control_sync_packet_t *)header);
+  } else if (header->payload_type == rtp_ctrl_retransmit_reply &&
+             bytes_transferred == sizeof(rtp_control_retransmit_reply_packet_t)) {
+    control_retransmit_packet((rtp_control_retransmit_reply_packet_t *)header);
+  } else {
+    LOGE() << "Unknown RTP control packet, type: " << header->payload_type << " size: " << bytes_transferred;
   }
 }
 
@@ -234,7 +369,13 @@ void ap_mirroring_audio_stream_service::control_retransmit_packet(rtp_control_re
 void ap_mirroring_audio_stream_service::cache_packet(const uint16_t seq, const uint8_t *buf, std::size_t length) {
   cached_packet_ptr pk = std::make_shared<cached_packet_t>();
   pk->sequence = seq;
-  pk->data.assign(buf, buf + length);
+  pk->data = buffer_pool::get().acquire(length, account_);
+  if (pk->data.empty()) {
+    // Out of the memory budget, drop this packet
+    LOGW() << "Dropped RTP packet for the memory budget, seq: " << seq;
+    return;
+  }
+  memcpy(pk->data.data(), buf, length);
   cached_queue_.push(pk);
 }
 
@@ -27,12 +27,17 @@
 
 #include <asio.hpp>
 
+#include <ap_audio_decoder.h>
 #include <ap_handler.h>
 #include <ap_session.h>
 #include <ap_types.h>
 #include <crypto/ap_crypto.h>
 #include <network/udp_service.h>
 #include <service/ap_mirroring_audio_stream_service_details.h>
+#include <service/ap_mirroring_stream_demand.h>
+#include <service/ap_mirroring_stream_tap.h>
+#include <service/ap_session_idle_monitor.h>
+#include <utils/buffer_pool.h>
 #include <utils/packing.h>
 
 using namespace aps::service::audio::details;
@@ -41,7 +46,7 @@ namespace aps {
 namespace service {
 class audio_udp_service : public aps::network::udp_service_base {
 public:
-  typedef std::function<void(const uint8_t *, const asio::error_code &, std::size_t)> recv_from_handler;
+  typedef std::function<void(const aps::network::udp_datagram_t *, std::size_t)> recv_batch_handler;
 
   explicit audio_udp_service(const std::string &name);
 
@@ -49,25 +54,35 @@ public:
 
   virtual bool open() override;
 
-  void bind_recv_handler(recv_from_handler handler) { recv_from_handler_ = handler; }
+  /// <summary>
+  /// Posts the first receive, the socket is bound by open() but not read before.
+  /// </summary>
+  void start_receiving();
 
-  virtual void on_recv_from(asio::ip::udp::endpoint &remote_endpoint, const asio::error_code &e,
-                            std::size_t bytes_transferred) override;
+  void bind_recv_handler(recv_batch_handler handler) { recv_batch_handler_ = handler; }
+
+  void set_account(const buffer_account_ptr &account) {
+    account_ = account;
+    recv_buf_.set_account(account);
+  }
+
+  virtual void on_recv_batch(const aps::network::udp_datagram_t *datagrams, std::size_t count,
+                             const asio::error_code &e) override;
 
 protected:
     void handle_socket_error(const asio::error_code &e);
 
 private:
-  std::vector<uint8_t> recv_buf_;
+  buffer_account_ptr account_;
 
-  recv_from_handler recv_from_handler_;
+  pooled_buffer recv_buf_;
 
-  asio::ip::udp::endpoint remote_endpoint_;
+  recv_batch_handler recv_batch_handler_;
 };
 
 struct cached_packet_s {
   uint16_t sequence;
-  std::vector<uint8_t> data;
+  pooled_buffer data;
 };
 typedef cached_packet_s cached_packet_t;
 typedef std::shared_ptr<cached_packet_t> cached_packet_ptr;
@@ -81,24 +96,71 @@ typedef std::priority_queue<cached_packet_ptr, std::vector<cached_packet_ptr>, c
 class ap_mirroring_audio_stream_service {
 public:
   explicit ap_mirroring_audio_stream_service(aps::ap_crypto_ptr &crypto,
-                                             aps::ap_mirroring_session_handler_ptr &handler);
+                                             aps::ap_mirroring_session_handler_ptr &handler,
+                                             const buffer_account_ptr &account = nullptr,
+                                             const ap_mirroring_stream_demand_ptr &demand = nullptr);
+
+  /// <summary>
+  /// Constructs a unbound service for the session pool, bind() must be called
+  /// before the ports are handed to the client.
+  /// </summary>
+  ap_mirroring_audio_stream_service();
 
   ~ap_mirroring_audio_stream_service();
 
+  void bind(aps::ap_crypto_ptr &crypto,
+            aps::ap_mirroring_session_handler_ptr &handler,
+            const buffer_account_ptr &account,
+            const ap_mirroring_stream_demand_ptr &demand = nullptr);
+
+  /// <summary>
+  /// Sets the decoder of the audio packets, the decoded PCM frames are delivered
+  /// with on_audio_stream_pcm instead of the compressed packets. Null disables decoding.
+  /// </summary>
+  void set_decoder(const ap_audio_decoder_ptr &decoder);
+
+  /// <summary>
+  /// Sets the ring the decoded PCM frames are written to instead of the handler.
+  /// </summary>
+  void set_audio_ring(const ap_audio_ring_ptr &ring);
+
+  /// <summary>
+  /// Sets the tap of the session, it receives the compressed packets even while decoding.
+  /// </summary>
+  void set_stream_tap(const ap_mirroring_stream_tap_ptr &tap);
+
+  /// <summary>
+  /// Sets the activity of the session, it is touched for every data and control packet.
+  /// </summary>
+  void set_activity(const ap_session_activity_ptr &activity);
+
   uint16_t data_port() const;
 
   uint16_t control_port() const;
 
+  /// <summary>
+  /// Binds the ports without receiving, for the session pool. The packets wait in the
+  /// sockets until start() is called after bind().
+  /// </summary>
+  bool prepare();
+
+  /// <summary>
+  /// Binds the ports unless prepared and starts receiving.
+  /// </summary>
   bool start();
 
   void stop();
 
 protected:
-  void data_handler(const uint8_t *buf, const asio::error_code &e, std::size_t bytes_transferred);
+  void data_handler(const aps::network::udp_datagram_t *datagrams, std::size_t count);
+
+  void data_packet(const uint8_t *buf, std::size_t bytes_transferred);
 
   void audio_data_packet(rtp_audio_data_packet_t *packet, size_t length);
 
-  void control_handler(const uint8_t *buf, const asio::error_code &e, std::size_t bytes_transferred);
+  void control_handler(const aps::network::udp_datagram_t *datagrams, std::size_t count);
+
+  void control_packet(const uint8_t *buf, std::size_t bytes_transferred);
 
   void control_sync_packet(rtp_control_sync_packet_t *packet);
 
@@ -113,10 +175,26 @@ private:
 
   aps::ap_crypto_ptr crypto_;
 
+  buffer_account_ptr account_;
+
+  ap_mirroring_stream_demand_ptr demand_;
+
+  ap_audio_decoder_ptr decoder_;
+
+  ap_audio_ring_ptr audio_ring_;
+
+  ap_mirroring_stream_tap_ptr tap_;
+
+  ap_session_activity_ptr activity_;
+
+  std::vector<int16_t> pcm_;
+
   audio_udp_service data_service_;
 
   audio_udp_service control_service_;
 
+  bool prepared_;
+
   uint16_t expected_seq_;
 
   cached_packet_queue cached_queue_;
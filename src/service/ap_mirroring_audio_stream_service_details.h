@@ -40,6 +40,11 @@ const int RTP_PACKET_MAX_LEN = 2048;
 /// </summary>
 const int RTP_PACKET_MIN_LEN = 12;
 
+/// <summary>
+/// The maximum number of packets received at once.
+/// </summary>
+const int RTP_RECV_BATCH_SIZE = 16;
+
 enum audio_format_e {
   /// <summary>
   /// 96 AppleLossless
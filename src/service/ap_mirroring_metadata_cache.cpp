@@ -0,0 +1,162 @@
+/* 
+ *  File: ap_mirroring_metadata_cache.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <cstring>
+
+#include <service/ap_mirroring_metadata_cache.h>
+
+namespace aps {
+namespace service {
+namespace {
+// 64-bit FNV-1a
+uint64_t hash_payload(const uint8_t *data, uint32_t length) {
+  uint64_t h = 0xcbf29ce484222325ULL;
+  for (uint32_t i = 0; i < length; i++) {
+    h ^= data[i];
+    h *= 0x100000001b3ULL;
+  }
+  return h;
+}
+} // namespace
+
+ap_mirroring_metadata_cache::ap_mirroring_metadata_cache() { reset(); }
+
+bool ap_mirroring_metadata_cache::update_cover(const std::string &format, const uint8_t *data, uint32_t length) {
+  return update(cover_, format, data, length);
+}
+
+bool ap_mirroring_metadata_cache::update_meta_data(const uint8_t *data, uint32_t length) {
+  return update(meta_data_, std::string(), data, length);
+}
+
+void ap_mirroring_metadata_cache::reset() {
+  cover_.valid = false;
+  meta_data_.valid = false;
+}
+
+bool ap_mirroring_metadata_cache::update(entry_s &entry, const std::string &format, const uint8_t *data,
+                                         uint32_t length) {
+  uint64_t hash = hash_payload(data, length);
+  if (entry.valid && entry.hash == hash && entry.length == length && entry.format == format) {
+    return false;
+  }
+
+  entry.valid = true;
+  entry.hash = hash;
+  entry.length = length;
+  entry.format = format;
+  return true;
+}
+
+namespace ap_daap_parser {
+namespace {
+const uint32_t DAAP_HEADER_SIZE = 8;
+
+inline uint32_t make_tag(const char *s) {
+  return ((uint32_t)(uint8_t)s[0] << 24) | ((uint32_t)(uint8_t)s[1] << 16) | ((uint32_t)(uint8_t)s[2] << 8) |
+         (uint32_t)(uint8_t)s[3];
+}
+
+inline uint64_t read_uint(const uint8_t *p, uint32_t length) {
+  uint64_t v = 0;
+  for (uint32_t i = 0; i < length && i < 8; i++) {
+    v = (v << 8) | p[i];
+  }
+  return v;
+}
+
+bool parse_items(aps::track_metadata_t &metadata, const uint8_t *data, uint32_t length, int depth) {
+  static const uint32_t TAG_MLIT = make_tag("mlit");
+  static const uint32_t TAG_MLCL = make_tag("mlcl");
+  static const uint32_t TAG_MINM = make_tag("minm");
+  static const uint32_t TAG_ASAR = make_tag("asar");
+  static const uint32_t TAG_ASAL = make_tag("asal");
+  static const uint32_t TAG_ASAA = make_tag("asaa");
+  static const uint32_t TAG_ASGN = make_tag("asgn");
+  static const uint32_t TAG_ASCP = make_tag("ascp");
+  static const uint32_t TAG_MPER = make_tag("mper");
+  static const uint32_t TAG_ASTM = make_tag("astm");
+  static const uint32_t TAG_ASTN = make_tag("astn");
+  static const uint32_t TAG_ASTC = make_tag("astc");
+  static const uint32_t TAG_ASDN = make_tag("asdn");
+  static const uint32_t TAG_ASDC = make_tag("asdc");
+  static const uint32_t TAG_ASYR = make_tag("asyr");
+
+  // The containers are nested a few levels only
+  if (depth > 4) {
+    return false;
+  }
+
+  uint32_t offset = 0;
+  while (offset + DAAP_HEADER_SIZE <= length) {
+    uint32_t tag = (uint32_t)read_uint(data + offset, 4);
+    uint32_t size = (uint32_t)read_uint(data + offset + 4, 4);
+    const uint8_t *value = data + offset + DAAP_HEADER_SIZE;
+    if (size > length - offset - DAAP_HEADER_SIZE) {
+      return false;
+    }
+
+    if (TAG_MLIT == tag || TAG_MLCL == tag) {
+      if (!parse_items(metadata, value, size, depth + 1)) {
+        return false;
+      }
+    } else if (TAG_MINM == tag) {
+      metadata.title.assign((const char *)value, size);
+    } else if (TAG_ASAR == tag) {
+      metadata.artist.assign((const char *)value, size);
+    } else if (TAG_ASAL == tag) {
+      metadata.album.assign((const char *)value, size);
+    } else if (TAG_ASAA == tag) {
+      metadata.album_artist.assign((const char *)value, size);
+    } else if (TAG_ASGN == tag) {
+      metadata.genre.assign((const char *)value, size);
+    } else if (TAG_ASCP == tag) {
+      metadata.composer.assign((const char *)value, size);
+    } else if (TAG_MPER == tag) {
+      metadata.item_id = read_uint(value, size);
+    } else if (TAG_ASTM == tag) {
+      metadata.duration_ms = (uint32_t)read_uint(value, size);
+    } else if (TAG_ASTN == tag) {
+      metadata.track_number = (uint16_t)read_uint(value, size);
+    } else if (TAG_ASTC == tag) {
+      metadata.track_count = (uint16_t)read_uint(value, size);
+    } else if (TAG_ASDN == tag) {
+      metadata.disc_number = (uint16_t)read_uint(value, size);
+    } else if (TAG_ASDC == tag) {
+      metadata.disc_count = (uint16_t)read_uint(value, size);
+    } else if (TAG_ASYR == tag) {
+      metadata.year = (uint16_t)read_uint(value, size);
+    }
+
+    offset += DAAP_HEADER_SIZE + size;
+  }
+
+  return offset == length;
+}
+} // namespace
+
+bool parse_track_metadata(aps::track_metadata_t &metadata, const uint8_t *data, uint32_t length) {
+  metadata = aps::track_metadata_t();
+  return parse_items(metadata, data, length, 0);
+}
+} // namespace ap_daap_parser
+} // namespace service
+} // namespace aps
@@ -0,0 +1,78 @@
+/* 
+ *  File: ap_mirroring_metadata_cache.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#pragma once
+#include <cstdint>
+#include <string>
+
+#include <ap_session.h>
+
+namespace aps {
+namespace service {
+/// <summary>
+/// Remembers the artwork and metadata last delivered to the mirroring handler by the hash of
+/// their payloads, the senders resend both unchanged many times during a track.
+/// </summary>
+class ap_mirroring_metadata_cache {
+public:
+  ap_mirroring_metadata_cache();
+
+  /// <summary>
+  /// Records the artwork.
+  /// </summary>
+  /// <returns>true if it differs from the last one and should be delivered.</returns>
+  bool update_cover(const std::string &format, const uint8_t *data, uint32_t length);
+
+  /// <summary>
+  /// Records the DAAP metadata.
+  /// </summary>
+  /// <returns>true if it differs from the last one and should be delivered.</returns>
+  bool update_meta_data(const uint8_t *data, uint32_t length);
+
+  /// <summary>
+  /// Forgets the delivered payloads, the next ones are delivered whatever they are.
+  /// </summary>
+  void reset();
+
+private:
+  struct entry_s {
+    bool valid;
+    uint64_t hash;
+    uint32_t length;
+    std::string format;
+  };
+
+  static bool update(entry_s &entry, const std::string &format, const uint8_t *data, uint32_t length);
+
+  entry_s cover_;
+
+  entry_s meta_data_;
+};
+
+namespace ap_daap_parser {
+/// <summary>
+/// Parses the track metadata from the DAAP tagged payload, the unknown tags are skipped.
+/// </summary>
+/// <returns>false if the payload is malformed.</returns>
+bool parse_track_metadata(aps::track_metadata_t &metadata, const uint8_t *data, uint32_t length);
+} // namespace ap_daap_parser
+} // namespace service
+} // namespace aps
@@ -0,0 +1,208 @@
+/* 
+ *  File: ap_mirroring_session_pool.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <service/ap_mirroring_session_pool.h>
+#include <utils/logger.h>
+
+namespace aps {
+namespace service {
+ap_mirroring_session_pool::ap_mirroring_session_pool(std::size_t size)
+    : worker_ctx_(std::make_shared<asio::io_context>()), worker_work_(*worker_ctx_), size_(size) {}
+
+ap_mirroring_session_pool::~ap_mirroring_session_pool() { clear(); }
+
+void ap_mirroring_session_pool::fill() {
+  while (true) {
+    bool need_video = false;
+    bool need_audio = false;
+    {
+      std::lock_guard<std::mutex> l(mtx_);
+      need_video = video_services_.size() < size_;
+      need_audio = audio_services_.size() < size_;
+    }
+
+    if (!need_video && !need_audio)
+      return;
+
+    // Bind the ports and commit the buffer outside of the lock
+    ap_mirroring_video_stream_service_ptr video;
+    ap_mirroring_audio_stream_service_ptr audio;
+    if (need_video) {
+      pooled_buffer buffer = buffer_pool::get().acquire(SMS_BUFFER_SIZE);
+      if (buffer.empty()) {
+        LOGW() << "No budget for the pooled video stream service";
+        return;
+      }
+      video = std::make_shared<ap_mirroring_video_stream_service>(std::move(buffer));
+    }
+    if (need_audio)
+      audio = std::make_shared<ap_mirroring_audio_stream_service>();
+
+    if (video && !video->prepare()) {
+      LOGE() << "Failed to prepare the pooled video stream service";
+      return;
+    }
+
+    if (audio && !audio->prepare()) {
+      LOGE() << "Failed to prepare the pooled audio stream service";
+      return;
+    }
+
+    std::lock_guard<std::mutex> l(mtx_);
+    if (0 == size_) {
+      // The pool was cleared while binding
+      return;
+    }
+    if (video)
+      video_services_.push_back(video);
+    if (audio)
+      audio_services_.push_back(audio);
+  }
+}
+
+void ap_mirroring_session_pool::post_fill() {
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (!worker_thread_) {
+      // Binding the ports and committing the buffers must not stall the SETUP of the sessions
+      std::shared_ptr<asio::io_context> io_ctx = worker_ctx_;
+      io_ctx->restart();
+      worker_thread_ = create_aps_thread([io_ctx]() { io_ctx->run(); });
+    }
+  }
+
+  std::weak_ptr<ap_mirroring_session_pool> weak_this = shared_from_this();
+  asio::post(*worker_ctx_, [weak_this]() {
+    auto pool = weak_this.lock();
+    if (pool)
+      pool->fill();
+  });
+}
+
+void ap_mirroring_session_pool::resize(std::size_t size) {
+  std::deque<ap_mirroring_video_stream_service_ptr> video_services;
+  std::deque<ap_mirroring_audio_stream_service_ptr> audio_services;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    size_ = size;
+    while (video_services_.size() > size_) {
+      video_services.push_back(video_services_.back());
+      video_services_.pop_back();
+    }
+    while (audio_services_.size() > size_) {
+      audio_services.push_back(audio_services_.back());
+      audio_services_.pop_back();
+    }
+  }
+
+  for (auto &s : video_services)
+    s->stop();
+  for (auto &s : audio_services)
+    s->stop();
+
+  post_fill();
+}
+
+void ap_mirroring_session_pool::clear() {
+  std::deque<ap_mirroring_video_stream_service_ptr> video_services;
+  std::deque<ap_mirroring_audio_stream_service_ptr> audio_services;
+  aps_thread worker_thread;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    size_ = 0;
+    video_services.swap(video_services_);
+    audio_services.swap(audio_services_);
+    worker_thread.swap(worker_thread_);
+  }
+
+  worker_ctx_->stop();
+  if (worker_thread && !worker_ctx_->get_executor().running_in_this_thread()) {
+    worker_thread->join();
+  }
+
+  for (auto &s : video_services)
+    s->stop();
+  for (auto &s : audio_services)
+    s->stop();
+}
+
+ap_mirroring_video_stream_service_ptr
+ap_mirroring_session_pool::acquire_video_service(ap_crypto_ptr &crypto,
+                                                 ap_mirroring_session_handler_ptr &handler,
+                                                 const buffer_account_ptr &account,
+                                                 const ap_mirroring_stream_demand_ptr &demand /*= nullptr*/) {
+  ap_mirroring_video_stream_service_ptr service;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (!video_services_.empty()) {
+      service = video_services_.front();
+      video_services_.pop_front();
+    }
+  }
+
+  if (service) {
+    post_fill();
+  } else {
+    LOGW() << "The session pool is empty, creating a new video stream service";
+    pooled_buffer buffer = buffer_pool::get().acquire(SMS_BUFFER_SIZE, account);
+    if (buffer.empty()) {
+      return nullptr;
+    }
+    service = std::make_shared<ap_mirroring_video_stream_service>(std::move(buffer));
+  }
+
+  service->bind(crypto, handler, account, demand);
+  service->start();
+  return service;
+}
+
+ap_mirroring_audio_stream_service_ptr
+ap_mirroring_session_pool::acquire_audio_service(ap_crypto_ptr &crypto,
+                                                 ap_mirroring_session_handler_ptr &handler,
+                                                 const buffer_account_ptr &account,
+                                                 const ap_mirroring_stream_demand_ptr &demand /*= nullptr*/) {
+  ap_mirroring_audio_stream_service_ptr service;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (!audio_services_.empty()) {
+      service = audio_services_.front();
+      audio_services_.pop_front();
+    }
+  }
+
+  if (service) {
+    post_fill();
+    service->bind(crypto, handler, account, demand);
+    if (!service->start()) {
+      return nullptr;
+    }
+    return service;
+  }
+
+  LOGW() << "The session pool is empty, creating a new audio stream service";
+  service = std::make_shared<ap_mirroring_audio_stream_service>(crypto, handler, account, demand);
+  if (!service->start()) {
+    return nullptr;
+  }
+  return service;
+}
+} // namespace service
+} // namespace aps
@@ -0,0 +1,109 @@
+/* 
+ *  File: ap_mirroring_session_pool.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#pragma once
+#include <deque>
+#include <memory>
+#include <mutex>
+#include <vector>
+
+#include <asio.hpp>
+
+#include <ap_handler.h>
+#include <crypto/ap_crypto.h>
+#include <service/ap_mirroring_audio_stream_service.h>
+#include <service/ap_mirroring_video_stream_service.h>
+#include <utils/buffer_pool.h>
+#include <utils/utils.h>
+
+namespace aps {
+namespace service {
+/// <summary>
+/// Keeps a number of pre-bound mirroring stream services with preallocated
+/// buffers, so that SETUP only needs to bind the session to one of them. The
+/// pool is refilled by its own worker thread, never by the control thread.
+/// </summary>
+class ap_mirroring_session_pool : public std::enable_shared_from_this<ap_mirroring_session_pool> {
+public:
+  explicit ap_mirroring_session_pool(std::size_t size);
+
+  ~ap_mirroring_session_pool();
+
+  /// <summary>
+  /// Tops the pool up to the configured size, this call blocks while binding the ports.
+  /// </summary>
+  void fill();
+
+  /// <summary>
+  /// Tops the pool up on the worker thread.
+  /// </summary>
+  void post_fill();
+
+  /// <summary>
+  /// Changes the number of pooled services, the pool is refilled on the worker thread.
+  /// </summary>
+  void resize(std::size_t size);
+
+  /// <summary>
+  /// Releases all pooled services and stops the worker thread.
+  /// </summary>
+  void clear();
+
+  /// <summary>
+  /// Takes a video stream service from the pool, or creates a new one if the pool
+  /// is empty. The returned service is bound and accepting, or null if the memory
+  /// budget is exhausted.
+  /// </summary>
+  ap_mirroring_video_stream_service_ptr acquire_video_service(ap_crypto_ptr &crypto,
+                                                              ap_mirroring_session_handler_ptr &handler,
+                                                              const buffer_account_ptr &account,
+                                                              const ap_mirroring_stream_demand_ptr &demand = nullptr);
+
+  /// <summary>
+  /// Takes an audio stream service from the pool, or creates a new one if the pool
+  /// is empty. The returned service is bound and receiving, or null if the memory
+  /// budget is exhausted.
+  /// </summary>
+  ap_mirroring_audio_stream_service_ptr acquire_audio_service(ap_crypto_ptr &crypto,
+                                                              ap_mirroring_session_handler_ptr &handler,
+                                                              const buffer_account_ptr &account,
+                                                              const ap_mirroring_stream_demand_ptr &demand = nullptr);
+
+private:
+  // Shared with the worker thread, which outlives the pool if the pool is released by a refill
+  std::shared_ptr<asio::io_context> worker_ctx_;
+
+  asio::io_context::work worker_work_;
+
+  aps_thread worker_thread_;
+
+  std::size_t size_;
+
+  std::mutex mtx_;
+
+  std::deque<ap_mirroring_video_stream_service_ptr> video_services_;
+
+  std::deque<ap_mirroring_audio_stream_service_ptr> audio_services_;
+};
+
+typedef std::shared_ptr<ap_mirroring_session_pool> ap_mirroring_session_pool_ptr;
+} // namespace service
+} // namespace aps
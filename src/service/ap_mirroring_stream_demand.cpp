@@ -0,0 +1,100 @@
+/* 
+ *  File: ap_mirroring_stream_demand.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <limits>
+#include <utility>
+
+#include <service/ap_mirroring_stream_demand.h>
+
+namespace aps {
+namespace service {
+ap_mirroring_stream_demand::ap_mirroring_stream_demand() : enabled_(false), demand_(0), dropped_(0) {}
+
+void ap_mirroring_stream_demand::enable(bool enabled) {
+  std::function<void()> resume;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    enabled_ = enabled;
+    if (!enabled_) {
+      resume.swap(resume_);
+    }
+  }
+
+  if (resume) {
+    resume();
+  }
+}
+
+void ap_mirroring_stream_demand::request(uint64_t n) {
+  std::function<void()> resume;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (n > std::numeric_limits<uint64_t>::max() - demand_) {
+      demand_ = std::numeric_limits<uint64_t>::max();
+    } else {
+      demand_ += n;
+    }
+    if (demand_) {
+      resume.swap(resume_);
+    }
+  }
+
+  if (resume) {
+    resume();
+  }
+}
+
+bool ap_mirroring_stream_demand::try_consume() {
+  std::lock_guard<std::mutex> l(mtx_);
+  if (!enabled_) {
+    return true;
+  }
+  if (0 == demand_) {
+    return false;
+  }
+  demand_--;
+  return true;
+}
+
+bool ap_mirroring_stream_demand::consume_or_park(const std::function<void()> &resume) {
+  std::lock_guard<std::mutex> l(mtx_);
+  if (!enabled_) {
+    return true;
+  }
+  if (demand_) {
+    demand_--;
+    return true;
+  }
+  resume_ = resume;
+  return false;
+}
+
+void ap_mirroring_stream_demand::drop() {
+  std::lock_guard<std::mutex> l(mtx_);
+  dropped_++;
+}
+
+uint64_t ap_mirroring_stream_demand::dropped() const {
+  std::lock_guard<std::mutex> l(mtx_);
+  return dropped_;
+}
+} // namespace service
+} // namespace aps
@@ -0,0 +1,83 @@
+/* 
+ *  File: ap_mirroring_stream_demand.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#pragma once
+#include <cstdint>
+#include <functional>
+#include <memory>
+#include <mutex>
+
+namespace aps {
+namespace service {
+/// <summary>
+/// The demand of the application for mirroring stream units. While flow control is enabled the
+/// video stream connection stops reading the socket once the demand is exhausted, so the TCP
+/// window pushes back on the sender. Audio arrives over UDP and can not be held back, the audio
+/// packets arriving without demand are dropped.
+/// </summary>
+class ap_mirroring_stream_demand {
+public:
+  ap_mirroring_stream_demand();
+
+  /// <summary>
+  /// Enables or disables the flow control, disabling resumes a parked reader.
+  /// </summary>
+  void enable(bool enabled);
+
+  /// <summary>
+  /// Adds demand for the specified number of units and resumes a parked reader.
+  /// </summary>
+  void request(uint64_t n);
+
+  /// <summary>
+  /// Takes one unit of demand, always succeeds when the flow control is disabled.
+  /// </summary>
+  bool try_consume();
+
+  /// <summary>
+  /// Takes one unit of demand for the next unit the reader delivers, or parks the reader if
+  /// there is none. The resume function is called once there is demand again.
+  /// </summary>
+  /// <returns>true if the reader can continue; false if it is parked.</returns>
+  bool consume_or_park(const std::function<void()> &resume);
+
+  /// <summary>
+  /// Records a unit dropped for the lack of demand.
+  /// </summary>
+  void drop();
+
+  uint64_t dropped() const;
+
+private:
+  mutable std::mutex mtx_;
+
+  bool enabled_;
+
+  uint64_t demand_;
+
+  uint64_t dropped_;
+
+  std::function<void()> resume_;
+};
+
+typedef std::shared_ptr<ap_mirroring_stream_demand> ap_mirroring_stream_demand_ptr;
+} // namespace service
+} // namespace aps
@@ -0,0 +1,76 @@
+/* 
+ *  File: ap_mirroring_stream_tap.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#pragma once
+#include <algorithm>
+#include <memory>
+#include <mutex>
+#include <vector>
+
+#include <ap_session.h>
+
+namespace aps {
+namespace service {
+/// <summary>
+/// The secondary mirroring handlers shared by the session and its stream services, they receive
+/// the decrypted stream as sent, the audio is not decoded for them even if it is for the application
+/// handler. The handlers can be added or removed at any time from any thread, the stream threads
+/// iterate a snapshot of the list without taking a lock.
+/// </summary>
+class ap_mirroring_stream_tap {
+  typedef std::vector<ap_mirroring_session_handler_ptr> handler_list;
+
+public:
+  ap_mirroring_stream_tap() : handlers_(std::make_shared<handler_list>()) {}
+
+  void add_handler(const ap_mirroring_session_handler_ptr &handler) {
+    std::lock_guard<std::mutex> l(mtx_);
+    auto handlers = std::make_shared<handler_list>(*std::atomic_load(&handlers_));
+    handlers->push_back(handler);
+    std::atomic_store(&handlers_, std::shared_ptr<const handler_list>(handlers));
+  }
+
+  void remove_handler(const ap_mirroring_session_handler_ptr &handler) {
+    std::lock_guard<std::mutex> l(mtx_);
+    auto handlers = std::make_shared<handler_list>(*std::atomic_load(&handlers_));
+    handlers->erase(std::remove(handlers->begin(), handlers->end(), handler), handlers->end());
+    std::atomic_store(&handlers_, std::shared_ptr<const handler_list>(handlers));
+  }
+
+  bool empty() const { return std::atomic_load(&handlers_)->empty(); }
+
+  template <typename Function> void for_each(Function f) const {
+    auto handlers = std::atomic_load(&handlers_);
+    for (auto &handler : *handlers) {
+      f(handler);
+    }
+  }
+
+private:
+  // Serializes the writers, the readers only load the list
+  std::mutex mtx_;
+
+  std::shared_ptr<const handler_list> handlers_;
+};
+
+typedef std::shared_ptr<ap_mirroring_stream_tap> ap_mirroring_stream_tap_ptr;
+} // namespace service
+} // namespace aps
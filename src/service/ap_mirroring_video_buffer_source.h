@@ -0,0 +1,45 @@
+/* 
+ *  File: ap_mirroring_video_buffer_source.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#pragma once
+#include <memory>
+
+#include <ap_video_buffer_provider.h>
+
+namespace aps {
+namespace service {
+/// <summary>
+/// The video buffer provider shared by the session and its video stream connection, the application
+/// sets it at any time from any thread and the stream thread loads it for every frame.
+/// </summary>
+class ap_mirroring_video_buffer_source {
+public:
+  void set(const ap_video_buffer_provider_ptr &provider) { std::atomic_store(&provider_, provider); }
+
+  ap_video_buffer_provider_ptr get() const { return std::atomic_load(&provider_); }
+
+private:
+  ap_video_buffer_provider_ptr provider_;
+};
+
+typedef std::shared_ptr<ap_mirroring_video_buffer_source> ap_mirroring_video_buffer_source_ptr;
+} // namespace service
+} // namespace aps
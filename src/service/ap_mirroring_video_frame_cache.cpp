@@ -0,0 +1,242 @@
+/* 
+ *  File: ap_mirroring_video_frame_cache.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <cstring>
+
+#include <service/ap_mirroring_video_frame_cache.h>
+#include <service/ap_mp4_muxer.h>
+#include <utils/logger.h>
+
+namespace aps {
+namespace service {
+ap_mirroring_video_frame_cache::ap_mirroring_video_frame_cache(uint32_t capacity /*= SMS_FRAME_CACHE_SIZE*/)
+    : capacity_(capacity), started_(false), frames_size_(0), length_size_(4) {}
+
+void ap_mirroring_video_frame_cache::set_handler(const ap_mirroring_session_handler_ptr &handler) {
+  executor exec;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (handler == (pending_handler_ ? pending_handler_ : handler_)) {
+      return;
+    }
+    if (!handler || !started_) {
+      handler_ = handler;
+      pending_handler_.reset();
+      return;
+    }
+
+    // The old handler gets no more packets, the new one gets them with the replay
+    handler_.reset();
+    pending_handler_ = handler;
+    exec = executor_;
+  }
+
+  std::weak_ptr<ap_mirroring_video_frame_cache> weak_self = shared_from_this();
+  if (exec && exec([weak_self, handler]() {
+        auto self = weak_self.lock();
+        if (self) {
+          self->replay(handler);
+        }
+      })) {
+    return;
+  }
+
+  // There is no stream connection the replay could be ordered with
+  replay(handler);
+}
+
+void ap_mirroring_video_frame_cache::set_executor(const executor &exec) {
+  std::lock_guard<std::mutex> l(mtx_);
+  executor_ = exec;
+}
+
+ap_mirroring_video_frame_cache::packet_ptr ap_mirroring_video_frame_cache::codec_packet() {
+  std::lock_guard<std::mutex> l(mtx_);
+  return codec_;
+}
+
+void ap_mirroring_video_frame_cache::set_account(const buffer_account_ptr &account) {
+  std::lock_guard<std::mutex> l(mtx_);
+  account_ = account;
+}
+
+bool ap_mirroring_video_frame_cache::start() {
+  ap_mirroring_session_handler_ptr handler;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (started_) {
+      return false;
+    }
+    started_ = true;
+    if (pending_handler_) {
+      handler_ = std::move(pending_handler_);
+    }
+    handler = handler_;
+  }
+
+  if (handler) {
+    handler->on_video_stream_started();
+  }
+  return true;
+}
+
+void ap_mirroring_video_frame_cache::codec(const sms_video_codec_packet_t *p) {
+  ap_mirroring_session_handler_ptr handler;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    handler = handler_;
+
+    // The frames before a new codec can not be decoded with it
+    drop_frames();
+    if (p->payload_size >= 5) {
+      length_size_ = (p->payload[4] & 0x3) + 1;
+    }
+    codec_ = cache_packet(p);
+    if (!codec_) {
+      LOGW() << "The codec packet is not cached for the memory budget";
+    }
+  }
+
+  if (handler) {
+    handler->on_video_stream_codec(p);
+  }
+}
+
+void ap_mirroring_video_frame_cache::data(const sms_video_data_packet_t *p) {
+  ap_mirroring_session_handler_ptr handler;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    handler = handler_;
+
+    bool cache = false;
+    if (codec_ && ap_mp4_muxer::contains_idr(p->payload, p->payload_size, length_size_)) {
+      drop_frames();
+      cache = true;
+    } else {
+      // The frames are cached from a key frame on
+      cache = !frames_.empty();
+    }
+
+    if (cache) {
+      packet_ptr frame;
+      if (frames_size_ + sizeof(sms_packet_header_t) + p->payload_size <= capacity_) {
+        frame = cache_packet(p);
+      }
+      if (frame) {
+        frames_size_ += frame->size();
+        frames_.push_back(std::move(frame));
+      } else {
+        // The frames after the gap could not be decoded, wait for the next key frame
+        LOGV() << "The video frame cache is full, cached frames are dropped";
+        drop_frames();
+      }
+    }
+  }
+
+  if (handler) {
+    handler->on_video_stream_data(p);
+  }
+}
+
+void ap_mirroring_video_frame_cache::heartbeat() {
+  ap_mirroring_session_handler_ptr handler;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    handler = handler_;
+  }
+
+  if (handler) {
+    handler->on_video_stream_heartbeat();
+  }
+}
+
+bool ap_mirroring_video_frame_cache::stop() {
+  ap_mirroring_session_handler_ptr handler;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (!started_) {
+      return false;
+    }
+    started_ = false;
+    executor_ = nullptr;
+    drop_frames();
+    codec_.reset();
+
+    // A handler still waiting for its replay has not seen the stream start
+    handler = handler_;
+    if (pending_handler_) {
+      handler_ = std::move(pending_handler_);
+    }
+  }
+
+  if (handler) {
+    handler->on_video_stream_stopped();
+  }
+  return true;
+}
+
+void ap_mirroring_video_frame_cache::replay(const ap_mirroring_session_handler_ptr &handler) {
+  packet_ptr codec;
+  std::vector<packet_ptr> frames;
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (handler != pending_handler_) {
+      // Replaced or stopped meanwhile
+      return;
+    }
+    handler_ = std::move(pending_handler_);
+    codec = codec_;
+    frames = frames_;
+  }
+
+  replay(handler, codec, frames);
+}
+
+void ap_mirroring_video_frame_cache::replay(const ap_mirroring_session_handler_ptr &handler,
+                                            const packet_ptr &codec,
+                                            const std::vector<packet_ptr> &frames) {
+  handler->on_video_stream_started();
+  if (!codec) {
+    return;
+  }
+  handler->on_video_stream_codec((const sms_video_codec_packet_t *)codec->data());
+  for (auto &frame : frames) {
+    handler->on_video_stream_data((const sms_video_data_packet_t *)frame->data());
+  }
+  LOGD() << "Replayed " << frames.size() << " cached video frames to the new mirroring handler";
+}
+
+ap_mirroring_video_frame_cache::packet_ptr ap_mirroring_video_frame_cache::cache_packet(const sms_packet_header_t *p) {
+  std::size_t length = sizeof(sms_packet_header_t) + p->payload_size;
+  pooled_buffer buffer = buffer_pool::get().acquire(length, account_);
+  if (buffer.empty()) {
+    return nullptr;
+  }
+  memcpy(buffer.data(), p, length);
+  return std::make_shared<pooled_buffer>(std::move(buffer));
+}
+
+void ap_mirroring_video_frame_cache::drop_frames() {
+  frames_.clear();
+  frames_size_ = 0;
+}
+} // namespace service
+} // namespace aps
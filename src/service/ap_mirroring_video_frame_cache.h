@@ -0,0 +1,136 @@
+/* 
+ *  File: ap_mirroring_video_frame_cache.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#pragma once
+#include <functional>
+#include <memory>
+#include <mutex>
+#include <vector>
+
+#include <ap_session.h>
+#include <service/ap_mirroring_video_stream_service_details.h>
+#include <utils/buffer_pool.h>
+
+namespace aps {
+namespace service {
+/// <summary>
+/// Delivers the video stream events to the mirroring handler of the session and keeps what a decoder
+/// needs to start: the last codec packet, the last key frame and the frames after it. A handler set in
+/// the middle of the stream gets the cached packets first and then the live stream, it does not wait
+/// for the next key frame of the sender.
+/// </summary>
+/// <remarks>
+/// The handler callbacks are made outside the lock of the cache, they may call set_handler(). The replay
+/// runs on the video stream thread, so it is ordered with the live packets and does not block the caller.
+/// </remarks>
+class ap_mirroring_video_frame_cache : public std::enable_shared_from_this<ap_mirroring_video_frame_cache> {
+public:
+  /// <summary>
+  /// Runs the task on the video stream thread, returns false if the stream is gone.
+  /// </summary>
+  typedef std::function<bool(const std::function<void()> &)> executor;
+
+  /// <summary>
+  /// A cached packet, shared with the replays in progress.
+  /// </summary>
+  typedef std::shared_ptr<const pooled_buffer> packet_ptr;
+
+  explicit ap_mirroring_video_frame_cache(uint32_t capacity = SMS_FRAME_CACHE_SIZE);
+
+  /// <summary>
+  /// Sets the handler. While the stream runs the handler is replaced on the video stream thread and
+  /// the cached packets are replayed to it there, before the next live packet.
+  /// </summary>
+  void set_handler(const ap_mirroring_session_handler_ptr &handler);
+
+  /// <summary>
+  /// Sets the executor of the video stream connection the packets come from.
+  /// </summary>
+  void set_executor(const executor &exec);
+
+  /// <summary>
+  /// Gets the last codec packet of the running stream, null if there is none.
+  /// </summary>
+  packet_ptr codec_packet();
+
+  /// <summary>
+  /// Sets the account the cached packets are charged to.
+  /// </summary>
+  void set_account(const buffer_account_ptr &account);
+
+  /// <summary>
+  /// Starts the stream, returns false if it is running already.
+  /// </summary>
+  bool start();
+
+  void codec(const sms_video_codec_packet_t *p);
+
+  void data(const sms_video_data_packet_t *p);
+
+  void heartbeat();
+
+  /// <summary>
+  /// Stops the stream and drops the cached packets, returns false if it was not running.
+  /// </summary>
+  bool stop();
+
+private:
+  void replay(const ap_mirroring_session_handler_ptr &handler);
+
+  // Replays the snapshot of the cache, called without the lock
+  static void replay(const ap_mirroring_session_handler_ptr &handler,
+                     const packet_ptr &codec,
+                     const std::vector<packet_ptr> &frames);
+
+  packet_ptr cache_packet(const sms_packet_header_t *p);
+
+  void drop_frames();
+
+  std::mutex mtx_;
+
+  ap_mirroring_session_handler_ptr handler_;
+
+  // The handler waiting for the replay on the video stream thread, the live packets are cached
+  // meanwhile and reach it with the replay
+  ap_mirroring_session_handler_ptr pending_handler_;
+
+  executor executor_;
+
+  buffer_account_ptr account_;
+
+  uint32_t capacity_;
+
+  bool started_;
+
+  packet_ptr codec_;
+
+  // The key frame and the frames depending on it
+  std::vector<packet_ptr> frames_;
+
+  std::size_t frames_size_;
+
+  // The NAL unit length size of the access units, from the codec packet
+  uint32_t length_size_;
+};
+
+typedef std::shared_ptr<ap_mirroring_video_frame_cache> ap_mirroring_video_frame_cache_ptr;
+} // namespace service
+} // namespace aps
@@ -19,6 +19,8 @@
  *  If not, see <https://www.gnu.org/licenses/>.
  */
 
+#include <algorithm>
+#include <cstring>
 #include <sstream>
 #include <utility>
 
@@ -30,99 +32,302 @@
 
 namespace aps {
 namespace service {
+// A larger payload means the framing of the stream is lost
+static const uint32_t SMS_MAX_PAYLOAD_SIZE = SMS_BUFFER_SIZE - sizeof(sms_packet_header_t);
+
 ap_mirroring_video_stream_connection::ap_mirroring_video_stream_connection(
-    asio::io_context &io_ctx, ap_crypto_ptr &crypto, ap_mirroring_session_handler_ptr handler /*= 0*/)
-    : network::tcp_connection_base(io_ctx), handler_(std::move(handler)), crypto_(crypto), buffer_(SMS_BUFFER_SIZE) {
-  header_ = (sms_packet_header_t *)buffer_.data();
-  payload_ = buffer_.data() + sizeof(sms_packet_header_t);
+    asio::io_context &io_ctx,
+    ap_crypto_ptr &crypto,
+    ap_mirroring_session_handler_ptr handler /*= 0*/,
+    pooled_buffer buffer /*= pooled_buffer()*/,
+    ap_mirroring_stream_demand_ptr demand /*= nullptr*/,
+    ap_mirroring_stream_tap_ptr tap /*= nullptr*/,
+    ap_session_activity_ptr activity /*= nullptr*/,
+    ap_mirroring_video_buffer_source_ptr buffer_source /*= nullptr*/,
+    ap_mirroring_video_frame_cache_ptr frame_cache /*= nullptr*/)
+    : network::tcp_connection_base(io_ctx), handler_(std::move(handler)), crypto_(crypto), buffer_(std::move(buffer)),
+      read_pos_(0), write_pos_(0), header_ready_(false), demand_(std::move(demand)), demand_held_(false),
+      tap_(std::move(tap)), activity_(std::move(activity)), buffer_source_(std::move(buffer_source)),
+      frame_cache_(std::move(frame_cache)), frame_received_(0), header_(nullptr), payload_(nullptr) {
+  // Use the preallocated buffer if there is one
+  if (buffer_.size() < SMS_BUFFER_SIZE) {
+    buffer_ = buffer_pool::get().acquire(SMS_BUFFER_SIZE);
+  }
+  if (!buffer_.empty()) {
+    header_ = (sms_packet_header_t *)buffer_.data();
+    payload_ = buffer_.data() + sizeof(sms_packet_header_t);
+  }
 
   LOGD() << "ap_video_stream_session(" << std::hex << this << ") is allocating.";
 }
 
 ap_mirroring_video_stream_connection::~ap_mirroring_video_stream_connection() {
+  release_frame_buffer();
   LOGD() << "ap_video_stream_session(" << std::hex << this << ") is destroying.";
 }
 
-void ap_mirroring_video_stream_connection::start() { post_receive_packet_header(); }
+void ap_mirroring_video_stream_connection::start() {
+  if (buffer_.empty()) {
+    LOGE() << "No buffer for the video stream, closing the connection";
+    stop();
+    return;
+  }
 
-void ap_mirroring_video_stream_connection::post_receive_packet_header() {
-  memset(header_, 0, sizeof(sms_packet_header_t));
-  asio::async_read(socket_,
-                   asio::buffer(header_, sizeof(sms_packet_header_t)),
-                   asio::bind_executor(strand_,
-                                       std::bind(&ap_mirroring_video_stream_connection::on_packet_header_received,
-                                                 shared_from_this(), // Keep the session alive
-                                                 std::placeholders::_1,
-                                                 std::placeholders::_2)));
+  // The sender bursts the key frames, let the kernel hold them while the packets are processed
+  asio::error_code ec;
+  socket_.set_option(asio::socket_base::receive_buffer_size(SMS_SOCKET_RECEIVE_BUFFER_SIZE), ec);
+  if (ec) {
+    LOGW() << "Failed to set the receive buffer size of the video stream: " << ec.message();
+  }
+
+  if (frame_cache_) {
+    // The sender reconnects after an invalid packet closed the previous connection
+    if (frame_cache_->start() && tap_) {
+      tap_->for_each([](const ap_mirroring_session_handler_ptr &h) { h->on_video_stream_started(); });
+    }
+
+    // The replays to a new handler run between the packets of this stream
+    std::weak_ptr<ap_mirroring_video_stream_connection> weak_self = shared_from_this();
+    frame_cache_->set_executor([weak_self](const std::function<void()> &task) {
+      auto self = weak_self.lock();
+      if (!self) {
+        return false;
+      }
+      asio::post(self->strand_, task);
+      return true;
+    });
+  }
+
+  receive_next_packet();
 }
 
-void ap_mirroring_video_stream_connection::on_packet_header_received(const asio::error_code &e,
-                                                                     std::size_t bytes_transferred) {
-  if (e) {
-    (void)(bytes_transferred);
-    handle_socket_error(e);
-    return;
+void ap_mirroring_video_stream_connection::receive_next_packet() {
+  // Process all the packets received, the socket is read once the buffered data runs out
+  do {
+    if (demand_ && !header_ready_ && !demand_held_) {
+      // Leave the data in the socket while the application has no demand, the TCP window fills up
+      // and the sender slows down instead of the buffers growing here. The unit is taken before
+      // the packet is read, so the audio can not use it up before the packet is delivered
+      std::weak_ptr<ap_mirroring_video_stream_connection> weak_self = shared_from_this();
+      demand_held_ = demand_->consume_or_park([weak_self]() {
+        auto self = weak_self.lock();
+        if (self) {
+          asio::post(self->strand_, std::bind(&ap_mirroring_video_stream_connection::receive_next_packet, self));
+        }
+      });
+      if (!demand_held_) {
+        LOGV() << "No demand for the mirroring stream, reading is paused";
+        return;
+      }
+    }
+  } while (process_next_packet());
+}
+
+bool ap_mirroring_video_stream_connection::process_next_packet() {
+  std::size_t available = write_pos_ - read_pos_;
+  if (!header_ready_) {
+    if (available < sizeof(sms_packet_header_t)) {
+      post_receive();
+      return false;
+    }
+
+    header_ = (sms_packet_header_t *)(buffer_.data() + read_pos_);
+    payload_ = buffer_.data() + read_pos_ + sizeof(sms_packet_header_t);
+
+    // Because all fields are little-endian we need to convert them to network
+    // byte order first and then convert them from network byte order to local
+    // host byte order
+    header_->payload_size = swap_bytes(header_->payload_size);
+    header_->payload_size = ntohl(header_->payload_size);
+
+    header_->payload_type = swap_bytes(header_->payload_type);
+    header_->payload_type = ntohs(header_->payload_type);
+
+    header_->timestamp = swap_bytes(header_->timestamp);
+    header_->timestamp = ntohll(header_->timestamp);
+
+    if (header_->payload_size > SMS_MAX_PAYLOAD_SIZE) {
+      LOGE() << "Invalid mirror packet, type: " << header_->payload_type << ", size: " << header_->payload_size;
+      close_invalid_stream();
+      return false;
+    }
+    header_ready_ = true;
+
+    if (acquire_frame_buffer()) {
+      // Move the part of the frame received already, the rest is read into the buffer directly
+      std::size_t length = std::min<std::size_t>(available - sizeof(sms_packet_header_t), header_->payload_size);
+      memcpy(frame_buffer_.data, payload_, length);
+      frame_header_ = *header_;
+      header_ = &frame_header_;
+      read_pos_ += sizeof(sms_packet_header_t) + length;
+      frame_received_ = length;
+      if (frame_received_ < header_->payload_size) {
+        post_receive_frame_payload();
+        return false;
+      }
+
+      process_packet();
+      header_ready_ = false;
+      return true;
+    }
   }
 
-  // Because all fields are little-endian we need to convert them to network
-  // byte order first and then convert them from network byte order to local
-  // host byte order
-  header_->payload_size = swap_bytes(header_->payload_size);
-  header_->payload_size = ntohl(header_->payload_size);
+  if (available < sizeof(sms_packet_header_t) + header_->payload_size) {
+    post_receive();
+    return false;
+  }
 
-  header_->payload_type = swap_bytes(header_->payload_type);
-  header_->payload_type = ntohs(header_->payload_type);
+  process_packet();
+  read_pos_ += sizeof(sms_packet_header_t) + header_->payload_size;
+  header_ready_ = false;
+  return true;
+}
 
-  header_->timestamp = swap_bytes(header_->timestamp);
-  header_->timestamp = ntohll(header_->timestamp);
+bool ap_mirroring_video_stream_connection::acquire_frame_buffer() {
+  bool video_data = sms_video_data == header_->payload_type || sms_payload_4096 == header_->payload_type;
+  auto provider = (buffer_source_ && video_data) ? buffer_source_->get() : nullptr;
+  if (!provider || 0 == header_->payload_size) {
+    return false;
+  }
+
+  // Receive the frame right into the memory of the application, it is decrypted there
+  ap_video_buffer_t buffer;
+  if (!provider->acquire_video_buffer(header_->payload_size, buffer)) {
+    return false;
+  }
+  if (!buffer.data || buffer.capacity < header_->payload_size) {
+    LOGW() << "The video buffer is too small for the frame: " << buffer.capacity << "/" << header_->payload_size;
+    provider->on_video_buffer_released(buffer);
+    return false;
+  }
 
-  // Receive payload
-  post_receive_packet_payload();
+  frame_provider_ = provider;
+  frame_buffer_ = buffer;
+  return true;
 }
 
-void ap_mirroring_video_stream_connection::post_receive_packet_payload() {
+void ap_mirroring_video_stream_connection::post_receive() {
+  if (read_pos_ == write_pos_) {
+    read_pos_ = 0;
+    write_pos_ = 0;
+  } else {
+    // Move the incomplete packet to the front if the rest of it does not fit behind
+    std::size_t length = sizeof(sms_packet_header_t) + (header_ready_ ? header_->payload_size : 0);
+    if (read_pos_ + length > buffer_.size()) {
+      memmove(buffer_.data(), buffer_.data() + read_pos_, write_pos_ - read_pos_);
+      write_pos_ -= read_pos_;
+      read_pos_ = 0;
+      header_ = (sms_packet_header_t *)buffer_.data();
+      payload_ = buffer_.data() + sizeof(sms_packet_header_t);
+    }
+  }
+
+  socket_.async_read_some(asio::buffer(buffer_.data() + write_pos_, buffer_.size() - write_pos_),
+                          asio::bind_executor(strand_,
+                                              std::bind(&ap_mirroring_video_stream_connection::on_received,
+                                                        shared_from_this(), // Keep the session alive
+                                                        std::placeholders::_1,
+                                                        std::placeholders::_2)));
+}
+
+void ap_mirroring_video_stream_connection::on_received(const asio::error_code &e, std::size_t bytes_transferred) {
+  if (!e) {
+    LOGV() << "mirror stream data received, size: " << bytes_transferred;
+    write_pos_ += bytes_transferred;
+
+    receive_next_packet();
+  } else {
+    handle_socket_error(e);
+  }
+}
+
+void ap_mirroring_video_stream_connection::post_receive_frame_payload() {
   asio::async_read(socket_,
-                   asio::buffer(payload_, header_->payload_size),
+                   asio::buffer(frame_buffer_.data + frame_received_, header_->payload_size - frame_received_),
                    asio::bind_executor(strand_,
-                                       std::bind(&ap_mirroring_video_stream_connection::on_packet_payload_received,
+                                       std::bind(&ap_mirroring_video_stream_connection::on_frame_payload_received,
                                                  shared_from_this(), // Keep the session alive
                                                  std::placeholders::_1,
                                                  std::placeholders::_2)));
 }
 
-void ap_mirroring_video_stream_connection::on_packet_payload_received(const asio::error_code &e,
-                                                                      std::size_t bytes_transferred) {
+void ap_mirroring_video_stream_connection::on_frame_payload_received(const asio::error_code &e,
+                                                                     std::size_t bytes_transferred) {
   if (!e) {
-    LOGV() << "mirror stream payload received, size: " << bytes_transferred;
+    LOGV() << "mirror frame payload received, size: " << bytes_transferred;
+    frame_received_ += bytes_transferred;
 
     process_packet();
+    header_ready_ = false;
 
-    post_receive_packet_header();
+    receive_next_packet();
   } else {
+    release_frame_buffer();
     handle_socket_error(e);
   }
 }
 
 void ap_mirroring_video_stream_connection::process_packet() {
+  if (activity_) {
+    // The heartbeats keep the session alive while the screen is still
+    activity_->touch();
+  }
+
   if (sms_video_data == header_->payload_type || sms_payload_4096 == header_->payload_type) {
     // Process the video packet
     LOGV() << "mirror VIDEO packet: " << header_->payload_size;
     auto *p = (sms_video_data_packet_t *)header_;
+    if (frame_provider_) {
+      crypto_->decrypt_video_frame(frame_buffer_.data, p->payload_size);
+      if (tap_ && !tap_->empty()) {
+        // The tap handlers take the payload inline, this is the only copy of the frame
+        pooled_buffer packet =
+            buffer_pool::get().acquire(sizeof(sms_packet_header_t) + p->payload_size, buffer_.account());
+        if (!packet.empty()) {
+          memcpy(packet.data(), p, sizeof(sms_packet_header_t));
+          memcpy(packet.data() + sizeof(sms_packet_header_t), frame_buffer_.data, p->payload_size);
+          auto *copy = (sms_video_data_packet_t *)packet.data();
+          tap_->for_each([copy](const ap_mirroring_session_handler_ptr &h) { h->on_video_stream_data(copy); });
+        } else {
+          LOGW() << "Dropped the video frame of the stream tap for the memory budget";
+        }
+      }
+      demand_held_ = false;
+      ap_video_buffer_provider_ptr provider = std::move(frame_provider_);
+      ap_video_buffer_t buffer = frame_buffer_;
+      frame_buffer_ = ap_video_buffer_t();
+      provider->on_video_buffer_filled(buffer, p->payload_size, p->timestamp);
+      return;
+    }
     crypto_->decrypt_video_frame(payload_, p->payload_size);
-    if (handler_) {
+    if (tap_) {
+      tap_->for_each([p](const ap_mirroring_session_handler_ptr &h) { h->on_video_stream_data(p); });
+    }
+    demand_held_ = false;
+    if (frame_cache_) {
+      frame_cache_->data(p);
+    } else if (handler_) {
       handler_->on_video_stream_data(p);
     }
   } else if (sms_video_codec == header_->payload_type) {
     // Process the codec packet
     LOGV() << "mirror CODEC packet: " << header_->payload_size;
     auto *p = (sms_video_codec_packet_t *)header_;
-    if (handler_) {
-        handler_->on_video_stream_codec(p);
+    if (tap_) {
+      tap_->for_each([p](const ap_mirroring_session_handler_ptr &h) { h->on_video_stream_codec(p); });
+    }
+    demand_held_ = false;
+    if (frame_cache_) {
+      frame_cache_->codec(p);
+    } else if (handler_) {
+      handler_->on_video_stream_codec(p);
     }
   } else if (sms_payload_5 == header_->payload_type) {
     // Process the 5 packet
     LOGV() << "mirror 5 packet: " << header_->payload_size;
-    if (handler_) {
+    if (frame_cache_) {
+      frame_cache_->heartbeat();
+    } else if (handler_) {
       handler_->on_video_stream_heartbeat();
     }
   } else {
@@ -131,6 +336,38 @@ void ap_mirroring_video_stream_connection::process_packet() {
   }
 }
 
+void ap_mirroring_video_stream_connection::close_invalid_stream() {
+  // The packets can not be told apart any more, the stream stops and the sender reconnects
+  release_frame_buffer();
+  handle_socket_error(asio::error::make_error_code(asio::error::message_size));
+
+  if (frame_cache_) {
+    if (frame_cache_->stop() && tap_) {
+      tap_->for_each([](const ap_mirroring_session_handler_ptr &h) { h->on_video_stream_stopped(); });
+    }
+  } else {
+    if (tap_) {
+      tap_->for_each([](const ap_mirroring_session_handler_ptr &h) { h->on_video_stream_stopped(); });
+    }
+    if (handler_) {
+      handler_->on_video_stream_stopped();
+    }
+  }
+
+  asio::error_code ec;
+  socket_.shutdown(asio::socket_base::shutdown_both, ec);
+  socket_.close(ec);
+}
+
+void ap_mirroring_video_stream_connection::release_frame_buffer() {
+  if (frame_provider_) {
+    ap_video_buffer_provider_ptr provider = std::move(frame_provider_);
+    ap_video_buffer_t buffer = frame_buffer_;
+    frame_buffer_ = ap_video_buffer_t();
+    provider->on_video_buffer_released(buffer);
+  }
+}
+
 void ap_mirroring_video_stream_connection::handle_socket_error(const asio::error_code &e) {
   switch (e.value()) {
   case asio::error::eof:
@@ -171,12 +408,47 @@ void ap_mirroring_video_stream_connection::handle_socket_error(const asio::error
 
 ap_mirroring_video_stream_service::ap_mirroring_video_stream_service(ap_crypto_ptr &crypto, uint16_t port,
                                                                      ap_mirroring_session_handler_ptr &handler)
-    : network::tcp_service_base("ap_mirroring_video_stream_service", port, true), handler_(handler), crypto_(crypto) {}
+    : network::tcp_service_base("ap_mirroring_video_stream_service", port, true, thread_stage_video),
+      handler_(handler), crypto_(crypto) {}
+
+ap_mirroring_video_stream_service::ap_mirroring_video_stream_service(pooled_buffer buffer)
+    : network::tcp_service_base("ap_mirroring_video_stream_service", 0, true, thread_stage_video),
+      buffer_(std::move(buffer)) {}
 
 ap_mirroring_video_stream_service::~ap_mirroring_video_stream_service() = default;
 
+void ap_mirroring_video_stream_service::bind(ap_crypto_ptr &crypto,
+                                             ap_mirroring_session_handler_ptr &handler,
+                                             const buffer_account_ptr &account,
+                                             const ap_mirroring_stream_demand_ptr &demand /*= nullptr*/) {
+  crypto_ = crypto;
+  handler_ = handler;
+  demand_ = demand;
+  tap_.reset();
+  activity_.reset();
+  buffer_source_.reset();
+  frame_cache_.reset();
+  buffer_.set_account(account);
+}
+
+void ap_mirroring_video_stream_service::set_stream_tap(const ap_mirroring_stream_tap_ptr &tap) { tap_ = tap; }
+
+void ap_mirroring_video_stream_service::set_activity(const ap_session_activity_ptr &activity) {
+  activity_ = activity;
+}
+
+void ap_mirroring_video_stream_service::set_video_buffer_source(const ap_mirroring_video_buffer_source_ptr &source) {
+  buffer_source_ = source;
+}
+
+void ap_mirroring_video_stream_service::set_frame_cache(const ap_mirroring_video_frame_cache_ptr &cache) {
+  frame_cache_ = cache;
+}
+
 network::tcp_connection_ptr ap_mirroring_video_stream_service::prepare_new_connection() {
-  return std::make_shared<ap_mirroring_video_stream_connection>(io_context(), crypto_, handler_);
+  // This is a single session service so the buffer is handed to the only connection
+  return std::make_shared<ap_mirroring_video_stream_connection>(
+      io_context(), crypto_, handler_, std::move(buffer_), demand_, tap_, activity_, buffer_source_, frame_cache_);
 }
 
 } // namespace service
@@ -29,7 +29,13 @@
 #include <ap_session.h>
 #include <crypto/ap_crypto.h>
 #include <network/tcp_service.h>
+#include <service/ap_mirroring_stream_demand.h>
+#include <service/ap_mirroring_stream_tap.h>
+#include <service/ap_mirroring_video_buffer_source.h>
+#include <service/ap_mirroring_video_frame_cache.h>
 #include <service/ap_mirroring_video_stream_service_details.h>
+#include <service/ap_session_idle_monitor.h>
+#include <utils/buffer_pool.h>
 #include <utils/packing.h>
 
 using namespace aps::service::mirror::details;
@@ -40,23 +46,39 @@ class ap_mirroring_video_stream_connection : public network::tcp_connection_base
                                              public std::enable_shared_from_this<ap_mirroring_video_stream_connection> {
 public:
   ap_mirroring_video_stream_connection(asio::io_context &io_ctx, ap_crypto_ptr &crypto,
-                                       ap_mirroring_session_handler_ptr handler = 0);
+                                       ap_mirroring_session_handler_ptr handler = 0,
+                                       pooled_buffer buffer = pooled_buffer(),
+                                       ap_mirroring_stream_demand_ptr demand = nullptr,
+                                       ap_mirroring_stream_tap_ptr tap = nullptr,
+                                       ap_session_activity_ptr activity = nullptr,
+                                       ap_mirroring_video_buffer_source_ptr buffer_source = nullptr,
+                                       ap_mirroring_video_frame_cache_ptr frame_cache = nullptr);
 
   ~ap_mirroring_video_stream_connection();
 
   virtual void start() override;
 
 protected:
-  void post_receive_packet_header();
+  void receive_next_packet();
 
-  void on_packet_header_received(const asio::error_code &e, std::size_t bytes_transferred);
+  bool process_next_packet();
 
-  void post_receive_packet_payload();
+  bool acquire_frame_buffer();
 
-  void on_packet_payload_received(const asio::error_code &e, std::size_t bytes_transferred);
+  void post_receive();
+
+  void on_received(const asio::error_code &e, std::size_t bytes_transferred);
+
+  void post_receive_frame_payload();
+
+  void on_frame_payload_received(const asio::error_code &e, std::size_t bytes_transferred);
 
   void process_packet();
 
+  void close_invalid_stream();
+
+  void release_frame_buffer();
+
   void handle_socket_error(const asio::error_code &e);
 
 private:
@@ -64,7 +86,40 @@ private:
 
   ap_crypto_ptr crypto_;
 
-  std::vector<uint8_t> buffer_;
+  pooled_buffer buffer_;
+
+  // The received data not processed yet is buffer_[read_pos_, write_pos_)
+  std::size_t read_pos_;
+
+  std::size_t write_pos_;
+
+  // Whether the header at read_pos_ has been converted to the host byte order
+  bool header_ready_;
+
+  ap_mirroring_stream_demand_ptr demand_;
+
+  // Whether a unit of demand is taken for the next video or codec packet
+  bool demand_held_;
+
+  ap_mirroring_stream_tap_ptr tap_;
+
+  ap_session_activity_ptr activity_;
+
+  ap_mirroring_video_buffer_source_ptr buffer_source_;
+
+  // Delivers the packets to the handler of the session instead of handler_ if set
+  ap_mirroring_video_frame_cache_ptr frame_cache_;
+
+  // The provider and its buffer the payload being received goes to
+  ap_video_buffer_provider_ptr frame_provider_;
+
+  ap_video_buffer_t frame_buffer_;
+
+  // The header of the frame received into the buffer of the provider
+  sms_packet_header_t frame_header_;
+
+  // The bytes of the frame in the buffer of the provider
+  std::size_t frame_received_;
 
   sms_packet_header_t *header_;
 
@@ -76,8 +131,38 @@ public:
   explicit ap_mirroring_video_stream_service(ap_crypto_ptr &crypto, uint16_t port,
                                              ap_mirroring_session_handler_ptr &handler);
 
+  /// <summary>
+  /// Constructs a unbound service for the session pool, bind() must be called before start().
+  /// </summary>
+  explicit ap_mirroring_video_stream_service(pooled_buffer buffer);
+
   ~ap_mirroring_video_stream_service();
 
+  void bind(ap_crypto_ptr &crypto,
+            ap_mirroring_session_handler_ptr &handler,
+            const buffer_account_ptr &account,
+            const ap_mirroring_stream_demand_ptr &demand = nullptr);
+
+  /// <summary>
+  /// Sets the tap of the session, it is handed to the next stream connection.
+  /// </summary>
+  void set_stream_tap(const ap_mirroring_stream_tap_ptr &tap);
+
+  /// <summary>
+  /// Sets the activity of the session, the next stream connection touches it for every packet.
+  /// </summary>
+  void set_activity(const ap_session_activity_ptr &activity);
+
+  /// <summary>
+  /// Sets the video buffer source of the session, it is handed to the next stream connection.
+  /// </summary>
+  void set_video_buffer_source(const ap_mirroring_video_buffer_source_ptr &source);
+
+  /// <summary>
+  /// Sets the frame cache of the session, the next stream connection delivers the packets through it.
+  /// </summary>
+  void set_frame_cache(const ap_mirroring_video_frame_cache_ptr &cache);
+
 protected:
   virtual network::tcp_connection_ptr prepare_new_connection() override;
 
@@ -85,6 +170,18 @@ private:
   ap_mirroring_session_handler_ptr handler_;
 
   ap_crypto_ptr crypto_;
+
+  pooled_buffer buffer_;
+
+  ap_mirroring_stream_demand_ptr demand_;
+
+  ap_mirroring_stream_tap_ptr tap_;
+
+  ap_session_activity_ptr activity_;
+
+  ap_mirroring_video_buffer_source_ptr buffer_source_;
+
+  ap_mirroring_video_frame_cache_ptr frame_cache_;
 };
 
 typedef std::shared_ptr<ap_mirroring_video_stream_service> ap_mirroring_video_stream_service_ptr;
@@ -33,6 +33,12 @@ namespace details {
 
 #define SMS_BUFFER_SIZE 4 * 1024 * 1024
 
+// The kernel receive buffer of the stream socket, it absorbs the bursts of the key frames
+#define SMS_SOCKET_RECEIVE_BUFFER_SIZE 1024 * 1024
+
+// The bytes of the frames cached for the handlers attached in the middle of the stream
+#define SMS_FRAME_CACHE_SIZE 4 * 1024 * 1024
+
 } // namespace details
 } // namespace mirror
 } // namespace service
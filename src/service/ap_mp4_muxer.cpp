@@ -0,0 +1,714 @@
+/* 
+ *  File: ap_mp4_muxer.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+#include <cstring>
+
+#include <service/ap_mp4_muxer.h>
+
+namespace aps {
+namespace service {
+namespace {
+// The sample flags of the trun box
+const uint32_t SAMPLE_FLAGS_SYNC = 0x02000000;
+const uint32_t SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+// The H.264 NAL unit type of an IDR slice
+const uint8_t NAL_TYPE_IDR = 5;
+
+// The audio of the mirroring session
+const uint32_t AUDIO_SAMPLE_RATE = 44100;
+const uint16_t AUDIO_CHANNELS = 2;
+
+void put_u8(std::vector<uint8_t> &out, uint8_t v) { out.push_back(v); }
+
+void put_u16(std::vector<uint8_t> &out, uint16_t v) {
+  out.push_back((uint8_t)(v >> 8));
+  out.push_back((uint8_t)v);
+}
+
+void put_u24(std::vector<uint8_t> &out, uint32_t v) {
+  out.push_back((uint8_t)(v >> 16));
+  out.push_back((uint8_t)(v >> 8));
+  out.push_back((uint8_t)v);
+}
+
+void put_u32(std::vector<uint8_t> &out, uint32_t v) {
+  out.push_back((uint8_t)(v >> 24));
+  out.push_back((uint8_t)(v >> 16));
+  out.push_back((uint8_t)(v >> 8));
+  out.push_back((uint8_t)v);
+}
+
+void put_u64(std::vector<uint8_t> &out, uint64_t v) {
+  put_u32(out, (uint32_t)(v >> 32));
+  put_u32(out, (uint32_t)v);
+}
+
+void put_bytes(std::vector<uint8_t> &out, const void *p, size_t n) {
+  out.insert(out.end(), (const uint8_t *)p, (const uint8_t *)p + n);
+}
+
+void put_zeros(std::vector<uint8_t> &out, size_t n) { out.insert(out.end(), n, 0); }
+
+void patch_u32(std::vector<uint8_t> &out, size_t offset, uint32_t v) {
+  out[offset] = (uint8_t)(v >> 24);
+  out[offset + 1] = (uint8_t)(v >> 16);
+  out[offset + 2] = (uint8_t)(v >> 8);
+  out[offset + 3] = (uint8_t)v;
+}
+
+size_t begin_box(std::vector<uint8_t> &out, const char *type) {
+  size_t offset = out.size();
+  put_u32(out, 0);
+  put_bytes(out, type, 4);
+  return offset;
+}
+
+size_t begin_full_box(std::vector<uint8_t> &out, const char *type, uint8_t version, uint32_t flags) {
+  size_t offset = begin_box(out, type);
+  put_u8(out, version);
+  put_u24(out, flags);
+  return offset;
+}
+
+void end_box(std::vector<uint8_t> &out, size_t offset) { patch_u32(out, offset, (uint32_t)(out.size() - offset)); }
+
+void put_matrix(std::vector<uint8_t> &out) {
+  static const uint32_t unity[9] = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+  for (uint32_t v : unity) {
+    put_u32(out, v);
+  }
+}
+
+/// <summary>
+/// Reads the Exp-Golomb coded fields of an SPS with the emulation prevention bytes removed.
+/// </summary>
+class rbsp_reader {
+public:
+  rbsp_reader(const uint8_t *data, uint32_t length) : pos_(0) {
+    for (uint32_t i = 0; i < length; i++) {
+      if (i >= 2 && 3 == data[i] && 0 == data[i - 1] && 0 == data[i - 2]) {
+        continue;
+      }
+      rbsp_.push_back(data[i]);
+    }
+  }
+
+  uint32_t bit() {
+    if (pos_ >= rbsp_.size() * 8) {
+      pos_++;
+      return 0;
+    }
+    uint32_t v = (rbsp_[pos_ >> 3] >> (7 - (pos_ & 7))) & 1;
+    pos_++;
+    return v;
+  }
+
+  uint32_t bits(uint32_t n) {
+    uint32_t v = 0;
+    while (n--) {
+      v = (v << 1) | bit();
+    }
+    return v;
+  }
+
+  uint32_t ue() {
+    uint32_t zeros = 0;
+    while (0 == bit() && zeros < 32) {
+      zeros++;
+    }
+    return ((1u << zeros) - 1) + bits(zeros);
+  }
+
+  int32_t se() {
+    uint32_t v = ue();
+    return (v & 1) ? (int32_t)((v + 1) / 2) : -(int32_t)(v / 2);
+  }
+
+  bool ok() const { return pos_ <= rbsp_.size() * 8; }
+
+private:
+  std::vector<uint8_t> rbsp_;
+  size_t pos_;
+};
+
+// Gets the picture size from the SPS, the avc1 sample entry needs it
+bool parse_sps_size(const uint8_t *sps, uint32_t length, uint32_t &width, uint32_t &height) {
+  if (length < 4) {
+    return false;
+  }
+
+  // Skip the NAL unit header
+  rbsp_reader r(sps + 1, length - 1);
+  uint32_t profile_idc = r.bits(8);
+  r.bits(16); // constraint flags and level_idc
+  r.ue();     // seq_parameter_set_id
+
+  uint32_t chroma_format_idc = 1;
+  if (100 == profile_idc || 110 == profile_idc || 122 == profile_idc || 244 == profile_idc || 44 == profile_idc ||
+      83 == profile_idc || 86 == profile_idc || 118 == profile_idc || 128 == profile_idc || 138 == profile_idc ||
+      139 == profile_idc || 134 == profile_idc || 135 == profile_idc) {
+    chroma_format_idc = r.ue();
+    if (3 == chroma_format_idc) {
+      r.bit(); // separate_colour_plane_flag
+    }
+    r.ue();  // bit_depth_luma_minus8
+    r.ue();  // bit_depth_chroma_minus8
+    r.bit(); // qpprime_y_zero_transform_bypass_flag
+    if (r.bit()) {
+      // seq_scaling_matrix_present_flag
+      uint32_t count = (3 != chroma_format_idc) ? 8 : 12;
+      for (uint32_t i = 0; i < count; i++) {
+        if (r.bit()) {
+          uint32_t size = (i < 6) ? 16 : 64;
+          int32_t last_scale = 8;
+          int32_t next_scale = 8;
+          for (uint32_t j = 0; j < size; j++) {
+            if (0 != next_scale) {
+              next_scale = (last_scale + r.se() + 256) % 256;
+            }
+            last_scale = (0 == next_scale) ? last_scale : next_scale;
+          }
+        }
+      }
+    }
+  }
+
+  r.ue(); // log2_max_frame_num_minus4
+  uint32_t pic_order_cnt_type = r.ue();
+  if (0 == pic_order_cnt_type) {
+    r.ue(); // log2_max_pic_order_cnt_lsb_minus4
+  } else if (1 == pic_order_cnt_type) {
+    r.bit(); // delta_pic_order_always_zero_flag
+    r.se();  // offset_for_non_ref_pic
+    r.se();  // offset_for_top_to_bottom_field
+    uint32_t cycle = r.ue();
+    for (uint32_t i = 0; i < cycle && r.ok(); i++) {
+      r.se();
+    }
+  }
+
+  r.ue();  // max_num_ref_frames
+  r.bit(); // gaps_in_frame_num_value_allowed_flag
+  uint32_t width_in_mbs = r.ue() + 1;
+  uint32_t height_in_map_units = r.ue() + 1;
+  uint32_t frame_mbs_only = r.bit();
+  if (!frame_mbs_only) {
+    r.bit(); // mb_adaptive_frame_field_flag
+  }
+  r.bit(); // direct_8x8_inference_flag
+
+  uint32_t crop_left = 0, crop_right = 0, crop_top = 0, crop_bottom = 0;
+  if (r.bit()) {
+    crop_left = r.ue();
+    crop_right = r.ue();
+    crop_top = r.ue();
+    crop_bottom = r.ue();
+  }
+
+  if (!r.ok()) {
+    return false;
+  }
+
+  uint32_t crop_unit_x = (1 == chroma_format_idc || 2 == chroma_format_idc) ? 2 : 1;
+  uint32_t crop_unit_y = (2 - frame_mbs_only) * ((1 == chroma_format_idc) ? 2 : 1);
+  width = width_in_mbs * 16 - crop_unit_x * (crop_left + crop_right);
+  height = (2 - frame_mbs_only) * height_in_map_units * 16 - crop_unit_y * (crop_top + crop_bottom);
+  return true;
+}
+} // namespace
+
+ap_mp4_muxer::ap_mp4_muxer()
+    : width_(0), height_(0), audio_format_(audio_format_pcm), audio_enabled_(false), video_in_init_(false),
+      audio_in_init_(false), video_changed_(false), audio_changed_(false), sequence_(0) {
+  video_.id = 1;
+  video_.timescale = VIDEO_TIMESCALE;
+  video_.default_duration = VIDEO_TIMESCALE / 60;
+  video_.last_duration = video_.default_duration;
+
+  audio_.id = 2;
+  audio_.timescale = AUDIO_SAMPLE_RATE;
+  audio_.default_duration = 0;
+  audio_.last_duration = 0;
+}
+
+bool ap_mp4_muxer::set_video_codec(const uint8_t *record, uint32_t length) {
+  // version, profile, compatibility, level, length size, SPS count, SPS length
+  if (length < 8 || (avcc_.size() == length && 0 == memcmp(avcc_.data(), record, length))) {
+    return false;
+  }
+
+  avcc_.assign(record, record + length);
+  uint32_t sps_length = ((uint32_t)record[6] << 8) | record[7];
+  if ((record[5] & 0x1f) && 8 + sps_length <= length) {
+    parse_sps_size(record + 8, sps_length, width_, height_);
+  }
+  video_changed_ = true;
+  return true;
+}
+
+bool ap_mp4_muxer::set_audio_format(audio_data_format_t format) {
+  bool enabled = (audio_format_alac == format || audio_format_aac == format || audio_format_aac_eld == format);
+  if (enabled == audio_enabled_ && (!enabled || format == audio_format_)) {
+    return false;
+  }
+
+  audio_enabled_ = enabled;
+  audio_format_ = format;
+  if (audio_format_alac == format) {
+    audio_.default_duration = 352;
+  } else if (audio_format_aac == format) {
+    audio_.default_duration = 1024;
+  } else {
+    audio_.default_duration = 480;
+  }
+  audio_.last_duration = audio_.default_duration;
+  audio_changed_ = true;
+  return true;
+}
+
+bool ap_mp4_muxer::has_video_codec() const { return !avcc_.empty(); }
+
+bool ap_mp4_muxer::has_audio_format() const { return audio_enabled_; }
+
+bool ap_mp4_muxer::init_segment_current() const { return !video_changed_ && !audio_changed_; }
+
+bool ap_mp4_muxer::video_in_init() const { return video_in_init_ && !video_changed_; }
+
+bool ap_mp4_muxer::audio_in_init() const { return audio_in_init_ && !audio_changed_; }
+
+bool ap_mp4_muxer::is_key_frame(const uint8_t *data, uint32_t length) const {
+  if (avcc_.size() < 5) {
+    return false;
+  }
+
+  return contains_idr(data, length, (avcc_[4] & 0x3) + 1);
+}
+
+bool ap_mp4_muxer::contains_idr(const uint8_t *data, uint32_t length, uint32_t length_size) {
+  uint32_t offset = 0;
+  while (offset + length_size < length) {
+    uint32_t nal_length = 0;
+    for (uint32_t i = 0; i < length_size; i++) {
+      nal_length = (nal_length << 8) | data[offset + i];
+    }
+    offset += length_size;
+    if (0 == nal_length || nal_length > length - offset) {
+      break;
+    }
+    if (NAL_TYPE_IDR == (data[offset] & 0x1f)) {
+      return true;
+    }
+    offset += nal_length;
+  }
+  return false;
+}
+
+void ap_mp4_muxer::add_video_sample(const uint8_t *data, uint32_t length, int64_t dts, bool key) {
+  if (video_in_init()) {
+    add_sample(video_, data, length, dts, key);
+  }
+}
+
+void ap_mp4_muxer::add_audio_sample(const uint8_t *data, uint32_t length, int64_t dts) {
+  if (audio_in_init()) {
+    add_sample(audio_, data, length, dts, true);
+  }
+}
+
+uint32_t ap_mp4_muxer::audio_timescale() const { return audio_.timescale; }
+
+uint64_t ap_mp4_muxer::buffered_bytes() const { return video_.data.size() + audio_.data.size(); }
+
+uint32_t ap_mp4_muxer::buffered_duration_ms() const {
+  const track_s &t = video_in_init_ ? video_ : audio_;
+  if (t.samples.size() < 2) {
+    return 0;
+  }
+  return (uint32_t)((t.samples.back().dts - t.samples.front().dts) * 1000 / t.timescale);
+}
+
+void ap_mp4_muxer::add_sample(track_s &track, const uint8_t *data, uint32_t length, int64_t dts, bool key) {
+  sample_s s;
+  s.offset = (uint32_t)track.data.size();
+  s.size = length;
+  s.dts = dts;
+  s.key = key;
+  if (!track.samples.empty() && s.dts <= track.samples.back().dts) {
+    // Keep the decode time strictly increasing
+    s.dts = track.samples.back().dts + 1;
+  }
+  track.samples.push_back(s);
+  track.data.insert(track.data.end(), data, data + length);
+}
+
+void ap_mp4_muxer::build_init_segment(std::vector<uint8_t> &out) {
+  size_t ftyp = begin_box(out, "ftyp");
+  put_bytes(out, "iso6", 4);
+  put_u32(out, 0);
+  put_bytes(out, "iso6", 4);
+  put_bytes(out, "iso5", 4);
+  put_bytes(out, "isom", 4);
+  put_bytes(out, "mp41", 4);
+  if (has_video_codec()) {
+    put_bytes(out, "avc1", 4);
+  }
+  end_box(out, ftyp);
+
+  size_t moov = begin_box(out, "moov");
+  size_t mvhd = begin_full_box(out, "mvhd", 0, 0);
+  put_u32(out, 0);          // creation_time
+  put_u32(out, 0);          // modification_time
+  put_u32(out, 1000);       // timescale
+  put_u32(out, 0);          // duration
+  put_u32(out, 0x00010000); // rate
+  put_u16(out, 0x0100);     // volume
+  put_zeros(out, 10);
+  put_matrix(out);
+  put_zeros(out, 24);
+  put_u32(out, 3); // next_track_ID
+  end_box(out, mvhd);
+
+  video_in_init_ = has_video_codec();
+  audio_in_init_ = has_audio_format();
+  if (video_in_init_) {
+    write_video_trak(out);
+  }
+  if (audio_in_init_) {
+    write_audio_trak(out);
+  }
+
+  size_t mvex = begin_box(out, "mvex");
+  const track_s *tracks[2] = {video_in_init_ ? &video_ : nullptr, audio_in_init_ ? &audio_ : nullptr};
+  for (const track_s *t : tracks) {
+    if (t) {
+      size_t trex = begin_full_box(out, "trex", 0, 0);
+      put_u32(out, t->id);
+      put_u32(out, 1); // default_sample_description_index
+      put_u32(out, 0); // default_sample_duration
+      put_u32(out, 0); // default_sample_size
+      put_u32(out, 0); // default_sample_flags
+      end_box(out, trex);
+    }
+  }
+  end_box(out, mvex);
+  end_box(out, moov);
+
+  video_changed_ = false;
+  audio_changed_ = false;
+  sequence_ = 0;
+}
+
+void ap_mp4_muxer::write_video_trak(std::vector<uint8_t> &out) const {
+  size_t trak = begin_box(out, "trak");
+  size_t tkhd = begin_full_box(out, "tkhd", 0, 0x3);
+  put_u32(out, 0); // creation_time
+  put_u32(out, 0); // modification_time
+  put_u32(out, video_.id);
+  put_u32(out, 0); // reserved
+  put_u32(out, 0); // duration
+  put_zeros(out, 8);
+  put_u16(out, 0); // layer
+  put_u16(out, 0); // alternate_group
+  put_u16(out, 0); // volume
+  put_u16(out, 0);
+  put_matrix(out);
+  put_u32(out, width_ << 16);
+  put_u32(out, height_ << 16);
+  end_box(out, tkhd);
+
+  size_t mdia = begin_box(out, "mdia");
+  size_t mdhd = begin_full_box(out, "mdhd", 0, 0);
+  put_u32(out, 0);
+  put_u32(out, 0);
+  put_u32(out, video_.timescale);
+  put_u32(out, 0);
+  put_u16(out, 0x55c4); // und
+  put_u16(out, 0);
+  end_box(out, mdhd);
+
+  size_t hdlr = begin_full_box(out, "hdlr", 0, 0);
+  put_u32(out, 0);
+  put_bytes(out, "vide", 4);
+  put_zeros(out, 12);
+  put_bytes(out, "VideoHandler", 13);
+  end_box(out, hdlr);
+
+  size_t minf = begin_box(out, "minf");
+  size_t vmhd = begin_full_box(out, "vmhd", 0, 1);
+  put_zeros(out, 8);
+  end_box(out, vmhd);
+
+  size_t dinf = begin_box(out, "dinf");
+  size_t dref = begin_full_box(out, "dref", 0, 0);
+  put_u32(out, 1);
+  end_box(out, begin_full_box(out, "url ", 0, 1));
+  end_box(out, dref);
+  end_box(out, dinf);
+
+  size_t stbl = begin_box(out, "stbl");
+  size_t stsd = begin_full_box(out, "stsd", 0, 0);
+  put_u32(out, 1);
+  size_t avc1 = begin_box(out, "avc1");
+  put_zeros(out, 6);
+  put_u16(out, 1); // data_reference_index
+  put_zeros(out, 16);
+  put_u16(out, (uint16_t)width_);
+  put_u16(out, (uint16_t)height_);
+  put_u32(out, 0x00480000); // horizresolution
+  put_u32(out, 0x00480000); // vertresolution
+  put_u32(out, 0);
+  put_u16(out, 1); // frame_count
+  put_zeros(out, 32);
+  put_u16(out, 0x0018); // depth
+  put_u16(out, 0xffff); // pre_defined
+  size_t avcc = begin_box(out, "avcC");
+  put_bytes(out, avcc_.data(), avcc_.size());
+  end_box(out, avcc);
+  end_box(out, avc1);
+  end_box(out, stsd);
+  static const char *empty_tables[] = {"stts", "stsc", "stco"};
+  for (const char *type : empty_tables) {
+    size_t box = begin_full_box(out, type, 0, 0);
+    put_u32(out, 0);
+    end_box(out, box);
+  }
+  size_t stsz = begin_full_box(out, "stsz", 0, 0);
+  put_u32(out, 0);
+  put_u32(out, 0);
+  end_box(out, stsz);
+  end_box(out, stbl);
+  end_box(out, minf);
+  end_box(out, mdia);
+  end_box(out, trak);
+}
+
+void ap_mp4_muxer::write_audio_trak(std::vector<uint8_t> &out) const {
+  size_t trak = begin_box(out, "trak");
+  size_t tkhd = begin_full_box(out, "tkhd", 0, 0x3);
+  put_u32(out, 0);
+  put_u32(out, 0);
+  put_u32(out, audio_.id);
+  put_u32(out, 0);
+  put_u32(out, 0);
+  put_zeros(out, 8);
+  put_u16(out, 0);
+  put_u16(out, 1);      // alternate_group
+  put_u16(out, 0x0100); // volume
+  put_u16(out, 0);
+  put_matrix(out);
+  put_u32(out, 0);
+  put_u32(out, 0);
+  end_box(out, tkhd);
+
+  size_t mdia = begin_box(out, "mdia");
+  size_t mdhd = begin_full_box(out, "mdhd", 0, 0);
+  put_u32(out, 0);
+  put_u32(out, 0);
+  put_u32(out, audio_.timescale);
+  put_u32(out, 0);
+  put_u16(out, 0x55c4);
+  put_u16(out, 0);
+  end_box(out, mdhd);
+
+  size_t hdlr = begin_full_box(out, "hdlr", 0, 0);
+  put_u32(out, 0);
+  put_bytes(out, "soun", 4);
+  put_zeros(out, 12);
+  put_bytes(out, "SoundHandler", 13);
+  end_box(out, hdlr);
+
+  size_t minf = begin_box(out, "minf");
+  size_t smhd = begin_full_box(out, "smhd", 0, 0);
+  put_u32(out, 0);
+  end_box(out, smhd);
+
+  size_t dinf = begin_box(out, "dinf");
+  size_t dref = begin_full_box(out, "dref", 0, 0);
+  put_u32(out, 1);
+  end_box(out, begin_full_box(out, "url ", 0, 1));
+  end_box(out, dref);
+  end_box(out, dinf);
+
+  size_t stbl = begin_box(out, "stbl");
+  size_t stsd = begin_full_box(out, "stsd", 0, 0);
+  put_u32(out, 1);
+  write_audio_sample_entry(out);
+  end_box(out, stsd);
+  static const char *empty_tables[] = {"stts", "stsc", "stco"};
+  for (const char *type : empty_tables) {
+    size_t box = begin_full_box(out, type, 0, 0);
+    put_u32(out, 0);
+    end_box(out, box);
+  }
+  size_t stsz = begin_full_box(out, "stsz", 0, 0);
+  put_u32(out, 0);
+  put_u32(out, 0);
+  end_box(out, stsz);
+  end_box(out, stbl);
+  end_box(out, minf);
+  end_box(out, mdia);
+  end_box(out, trak);
+}
+
+void ap_mp4_muxer::write_audio_sample_entry(std::vector<uint8_t> &out) const {
+  bool alac = (audio_format_alac == audio_format_);
+  size_t entry = begin_box(out, alac ? "alac" : "mp4a");
+  put_zeros(out, 6);
+  put_u16(out, 1); // data_reference_index
+  put_zeros(out, 8);
+  put_u16(out, AUDIO_CHANNELS);
+  put_u16(out, 16); // samplesize
+  put_u16(out, 0);
+  put_u16(out, 0);
+  put_u32(out, AUDIO_SAMPLE_RATE << 16);
+
+  if (alac) {
+    // The magic cookie of the stream, see the SDP of the RAOP announcement
+    size_t cookie = begin_full_box(out, "alac", 0, 0);
+    put_u32(out, audio_.default_duration); // frameLength
+    put_u8(out, 0);                        // compatibleVersion
+    put_u8(out, 16);                       // bitDepth
+    put_u8(out, 40);                       // pb
+    put_u8(out, 10);                       // mb
+    put_u8(out, 14);                       // kb
+    put_u8(out, (uint8_t)AUDIO_CHANNELS);
+    put_u16(out, 255); // maxRun
+    put_u32(out, 0);   // maxFrameBytes
+    put_u32(out, 0);   // avgBitRate
+    put_u32(out, AUDIO_SAMPLE_RATE);
+    end_box(out, cookie);
+  } else {
+    // AudioSpecificConfig of 44100Hz stereo, AAC-LC with 1024 or AAC-ELD with 480 samples per frame
+    static const uint8_t asc_aac[] = {0x12, 0x10};
+    static const uint8_t asc_aac_eld[] = {0xf8, 0xe8, 0x50, 0x00};
+    const uint8_t *asc = (audio_format_aac == audio_format_) ? asc_aac : asc_aac_eld;
+    uint8_t asc_length = (audio_format_aac == audio_format_) ? sizeof(asc_aac) : sizeof(asc_aac_eld);
+
+    size_t esds = begin_full_box(out, "esds", 0, 0);
+    put_u8(out, 0x03); // ES_DescrTag
+    put_u8(out, (uint8_t)(3 + 2 + 13 + 2 + asc_length + 3));
+    put_u16(out, 0); // ES_ID
+    put_u8(out, 0);  // flags
+    put_u8(out, 0x04); // DecoderConfigDescrTag
+    put_u8(out, (uint8_t)(13 + 2 + asc_length));
+    put_u8(out, 0x40); // Audio ISO/IEC 14496-3
+    put_u8(out, 0x15); // AudioStream
+    put_u24(out, 0);   // bufferSizeDB
+    put_u32(out, 0);   // maxBitrate
+    put_u32(out, 0);   // avgBitrate
+    put_u8(out, 0x05); // DecSpecificInfoTag
+    put_u8(out, asc_length);
+    put_bytes(out, asc, asc_length);
+    put_u8(out, 0x06); // SLConfigDescrTag
+    put_u8(out, 1);
+    put_u8(out, 0x02);
+    end_box(out, esds);
+  }
+  end_box(out, entry);
+}
+
+bool ap_mp4_muxer::build_fragment(std::vector<uint8_t> &out, bool final) {
+  track_s *tracks[2] = {video_in_init_ ? &video_ : nullptr, audio_in_init_ ? &audio_ : nullptr};
+  size_t counts[2] = {0, 0};
+  bool any = false;
+  for (int i = 0; i < 2; i++) {
+    if (tracks[i]) {
+      size_t n = tracks[i]->samples.size();
+      counts[i] = final ? n : (n > 0 ? n - 1 : 0);
+      any = any || counts[i] > 0;
+    }
+  }
+  if (!any) {
+    return false;
+  }
+
+  size_t moof = begin_box(out, "moof");
+  size_t mfhd = begin_full_box(out, "mfhd", 0, 0);
+  put_u32(out, ++sequence_);
+  end_box(out, mfhd);
+
+  size_t data_offset_pos[2] = {0, 0};
+  for (int i = 0; i < 2; i++) {
+    if (!counts[i]) {
+      continue;
+    }
+    track_s &t = *tracks[i];
+    size_t traf = begin_box(out, "traf");
+    size_t tfhd = begin_full_box(out, "tfhd", 0, 0x020000); // default-base-is-moof
+    put_u32(out, t.id);
+    end_box(out, tfhd);
+
+    size_t tfdt = begin_full_box(out, "tfdt", 1, 0);
+    put_u64(out, (uint64_t)t.samples[0].dts);
+    end_box(out, tfdt);
+
+    // data-offset, sample-duration, sample-size and sample-flags present
+    size_t trun = begin_full_box(out, "trun", 0, 0x000701);
+    put_u32(out, (uint32_t)counts[i]);
+    data_offset_pos[i] = out.size();
+    put_u32(out, 0);
+    for (size_t j = 0; j < counts[i]; j++) {
+      const sample_s &s = t.samples[j];
+      uint32_t duration = t.last_duration;
+      if (j + 1 < t.samples.size()) {
+        duration = (uint32_t)(t.samples[j + 1].dts - s.dts);
+        t.last_duration = duration;
+      }
+      put_u32(out, duration);
+      put_u32(out, s.size);
+      put_u32(out, s.key ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+    }
+    end_box(out, trun);
+    end_box(out, traf);
+  }
+  end_box(out, moof);
+
+  size_t mdat = begin_box(out, "mdat");
+  for (int i = 0; i < 2; i++) {
+    if (!counts[i]) {
+      continue;
+    }
+    track_s &t = *tracks[i];
+    patch_u32(out, data_offset_pos[i], (uint32_t)(out.size() - moof));
+
+    // Emit the samples and move the held back ones to the front
+    uint32_t end = (counts[i] < t.samples.size()) ? t.samples[counts[i]].offset : (uint32_t)t.data.size();
+    put_bytes(out, t.data.data(), end);
+    t.data.erase(t.data.begin(), t.data.begin() + end);
+    t.samples.erase(t.samples.begin(), t.samples.begin() + counts[i]);
+    for (sample_s &s : t.samples) {
+      s.offset -= end;
+    }
+  }
+  end_box(out, mdat);
+  return true;
+}
+
+void ap_mp4_muxer::reset_samples() {
+  video_.data.clear();
+  video_.samples.clear();
+  audio_.data.clear();
+  audio_.samples.clear();
+}
+} // namespace service
+} // namespace aps
@@ -0,0 +1,170 @@
+/* 
+ *  File: ap_mp4_muxer.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#pragma once
+#include <cstdint>
+#include <vector>
+
+#include <ap_types.h>
+
+namespace aps {
+namespace service {
+/// <summary>
+/// Builds fragmented MP4 from the mirroring stream: the H.264 access units with the avcC record
+/// of the codec packet on track 1, and the compressed audio packets on track 2. The samples are
+/// buffered until the next fragment is built, the last sample of each track is held back since
+/// its duration is only known from the next one.
+/// </summary>
+class ap_mp4_muxer {
+public:
+  static const uint32_t VIDEO_TIMESCALE = 90000;
+
+  ap_mp4_muxer();
+
+  /// <summary>
+  /// Sets the avcC record of the video track.
+  /// </summary>
+  /// <returns>true if the record changed, the next file needs a new init segment.</returns>
+  bool set_video_codec(const uint8_t *record, uint32_t length);
+
+  /// <summary>
+  /// Sets the format of the audio track, PCM is not recorded.
+  /// </summary>
+  /// <returns>true if the format changed, the next file needs a new init segment.</returns>
+  bool set_audio_format(audio_data_format_t format);
+
+  bool has_video_codec() const;
+
+  bool has_audio_format() const;
+
+  /// <summary>
+  /// Whether the tracks of the last init segment are still the current ones.
+  /// </summary>
+  bool init_segment_current() const;
+
+  /// <summary>
+  /// Whether the track is in the last init segment and unchanged since, the samples of other
+  /// tracks are dropped until the next init segment.
+  /// </summary>
+  bool video_in_init() const;
+
+  bool audio_in_init() const;
+
+  /// <summary>
+  /// Checks whether the AVCC access unit contains an IDR slice.
+  /// </summary>
+  bool is_key_frame(const uint8_t *data, uint32_t length) const;
+
+  /// <summary>
+  /// Checks whether the AVCC access unit with the given NAL unit length size contains an IDR slice.
+  /// </summary>
+  static bool contains_idr(const uint8_t *data, uint32_t length, uint32_t length_size);
+
+  /// <summary>
+  /// Adds an access unit, dts is in VIDEO_TIMESCALE and must not go backwards.
+  /// </summary>
+  void add_video_sample(const uint8_t *data, uint32_t length, int64_t dts, bool key);
+
+  /// <summary>
+  /// Adds an audio packet, dts is in audio_timescale() and must not go backwards.
+  /// </summary>
+  void add_audio_sample(const uint8_t *data, uint32_t length, int64_t dts);
+
+  uint32_t audio_timescale() const;
+
+  /// <summary>
+  /// The bytes of the buffered samples.
+  /// </summary>
+  uint64_t buffered_bytes() const;
+
+  /// <summary>
+  /// The duration of the buffered samples in milliseconds, of the video track if any.
+  /// </summary>
+  uint32_t buffered_duration_ms() const;
+
+  /// <summary>
+  /// Appends the ftyp and moov boxes of the current tracks and starts a new fragment sequence.
+  /// </summary>
+  void build_init_segment(std::vector<uint8_t> &out);
+
+  /// <summary>
+  /// Appends a moof and mdat pair of the buffered samples.
+  /// </summary>
+  /// <param name="final">Whether to emit the held back samples too, at the end of a file.</param>
+  /// <returns>false if there was no sample to emit.</returns>
+  bool build_fragment(std::vector<uint8_t> &out, bool final);
+
+  /// <summary>
+  /// Drops all the buffered samples.
+  /// </summary>
+  void reset_samples();
+
+private:
+  struct sample_s {
+    uint32_t offset;
+    uint32_t size;
+    int64_t dts;
+    bool key;
+  };
+
+  struct track_s {
+    uint32_t id;
+    uint32_t timescale;
+    uint32_t default_duration;
+    uint32_t last_duration;
+    std::vector<uint8_t> data;
+    std::vector<sample_s> samples;
+  };
+
+  void add_sample(track_s &track, const uint8_t *data, uint32_t length, int64_t dts, bool key);
+
+  void write_video_trak(std::vector<uint8_t> &out) const;
+
+  void write_audio_trak(std::vector<uint8_t> &out) const;
+
+  void write_audio_sample_entry(std::vector<uint8_t> &out) const;
+
+  std::vector<uint8_t> avcc_;
+
+  uint32_t width_;
+
+  uint32_t height_;
+
+  audio_data_format_t audio_format_;
+
+  bool audio_enabled_;
+
+  bool video_in_init_;
+
+  bool audio_in_init_;
+
+  bool video_changed_;
+
+  bool audio_changed_;
+
+  uint32_t sequence_;
+
+  track_s video_;
+
+  track_s audio_;
+};
+} // namespace service
+} // namespace aps
@@ -0,0 +1,144 @@
+/* 
+ *  File: ap_session_idle_monitor.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <chrono>
+#include <utility>
+
+#include <service/ap_session_idle_monitor.h>
+
+// The resolution of the deadlines
+#define WHEEL_TICK_MS 500
+
+// One revolution covers 32 seconds, longer timeouts take several rounds
+#define WHEEL_SLOTS 64
+
+namespace aps {
+namespace service {
+static int64_t steady_now_ms() {
+  return std::chrono::duration_cast<std::chrono::milliseconds>(std::chrono::steady_clock::now().time_since_epoch())
+      .count();
+}
+
+ap_session_activity::ap_session_activity() : last_ms_(steady_now_ms()) {}
+
+void ap_session_activity::touch() { last_ms_.store(steady_now_ms(), std::memory_order_relaxed); }
+
+int64_t ap_session_activity::idle_ms() const { return steady_now_ms() - last_ms_.load(std::memory_order_relaxed); }
+
+ap_session_idle_monitor::ap_session_idle_monitor(asio::io_context &io_ctx)
+    : timer_(io_ctx), slots_(WHEEL_SLOTS), cursor_(0), count_(0), ticking_(false) {}
+
+ap_session_idle_monitor::~ap_session_idle_monitor() = default;
+
+void ap_session_idle_monitor::watch(const ap_session_activity_ptr &activity,
+                                    uint32_t timeout_ms,
+                                    const idle_handler &handler) {
+  if (!activity || !handler || !timeout_ms)
+    return;
+
+  std::weak_ptr<ap_session_idle_monitor> weak_self = shared_from_this();
+  std::weak_ptr<ap_session_activity> weak_activity = activity;
+  asio::post(timer_.get_executor(), [weak_self, weak_activity, timeout_ms, handler]() {
+    auto self = weak_self.lock();
+    if (!self)
+      return;
+
+    entry e;
+    e.activity = weak_activity;
+    e.timeout_ms = timeout_ms;
+    e.rounds = 0;
+    e.handler = handler;
+    self->schedule(std::move(e), timeout_ms);
+    self->count_++;
+    self->start_ticking();
+  });
+}
+
+void ap_session_idle_monitor::schedule(entry &&e, int64_t delay_ms) {
+  // Never earlier than the deadline, at most one tick later
+  int64_t ticks = (delay_ms + WHEEL_TICK_MS - 1) / WHEEL_TICK_MS;
+  if (ticks < 1)
+    ticks = 1;
+
+  e.rounds = (uint32_t)((ticks - 1) / WHEEL_SLOTS);
+  slots_[(cursor_ + ticks) % WHEEL_SLOTS].push_back(std::move(e));
+}
+
+void ap_session_idle_monitor::start_ticking() {
+  if (ticking_)
+    return;
+
+  ticking_ = true;
+  std::weak_ptr<ap_session_idle_monitor> weak_self = shared_from_this();
+  timer_.expires_after(std::chrono::milliseconds(WHEEL_TICK_MS));
+  timer_.async_wait([weak_self](const asio::error_code &e) {
+    auto self = weak_self.lock();
+    if (self) {
+      self->on_tick(e);
+    }
+  });
+}
+
+void ap_session_idle_monitor::on_tick(const asio::error_code &e) {
+  ticking_ = false;
+  if (e)
+    return;
+
+  cursor_ = (cursor_ + 1) % WHEEL_SLOTS;
+  std::vector<entry> due;
+  due.swap(slots_[cursor_]);
+
+  std::vector<idle_handler> idle;
+  for (auto &item : due) {
+    if (item.rounds > 0) {
+      item.rounds--;
+      slots_[cursor_].push_back(std::move(item));
+      continue;
+    }
+
+    auto activity = item.activity.lock();
+    if (!activity) {
+      // The session is gone
+      count_--;
+      continue;
+    }
+
+    int64_t remaining_ms = (int64_t)item.timeout_ms - activity->idle_ms();
+    if (remaining_ms <= 0) {
+      count_--;
+      idle.push_back(std::move(item.handler));
+    } else {
+      schedule(std::move(item), remaining_ms);
+    }
+  }
+
+  if (count_ > 0) {
+    start_ticking();
+  }
+
+  // The handlers tear the sessions down, call them after the wheel is consistent
+  for (auto &handler : idle) {
+    handler();
+  }
+}
+
+} // namespace service
+} // namespace aps
@@ -0,0 +1,106 @@
+/* 
+ *  File: ap_session_idle_monitor.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#pragma once
+#include <atomic>
+#include <cstdint>
+#include <functional>
+#include <memory>
+#include <vector>
+
+#include <asio.hpp>
+
+namespace aps {
+namespace service {
+/// <summary>
+/// The time of the last traffic of a session, touched by the RTSP connection and the stream
+/// services from their own threads.
+/// </summary>
+class ap_session_activity {
+public:
+  ap_session_activity();
+
+  /// <summary>
+  /// Records traffic at the current time.
+  /// </summary>
+  void touch();
+
+  /// <summary>
+  /// The milliseconds since the last traffic.
+  /// </summary>
+  int64_t idle_ms() const;
+
+private:
+  std::atomic<int64_t> last_ms_;
+};
+
+typedef std::shared_ptr<ap_session_activity> ap_session_activity_ptr;
+
+/// <summary>
+/// Detects idle sessions with a hashed timer wheel driven by one timer on the io context of the
+/// service. Every watched session sits in the slot of its earliest possible deadline, a tick only
+/// visits the sessions of one slot and those still active are moved to the slot of their new
+/// deadline. The timer only runs while there are watched sessions.
+/// </summary>
+class ap_session_idle_monitor : public std::enable_shared_from_this<ap_session_idle_monitor> {
+public:
+  typedef std::function<void()> idle_handler;
+
+  explicit ap_session_idle_monitor(asio::io_context &io_ctx);
+
+  ~ap_session_idle_monitor();
+
+  /// <summary>
+  /// Watches the activity of a session, can be called from any thread. The handler is called
+  /// once on the io context when the session has been idle for the timeout, the session is not
+  /// watched afterwards. Releasing the activity stops watching it.
+  /// </summary>
+  void watch(const ap_session_activity_ptr &activity, uint32_t timeout_ms, const idle_handler &handler);
+
+protected:
+  struct entry {
+    std::weak_ptr<ap_session_activity> activity;
+    uint32_t timeout_ms;
+    uint32_t rounds;
+    idle_handler handler;
+  };
+
+  void schedule(entry &&e, int64_t delay_ms);
+
+  void start_ticking();
+
+  void on_tick(const asio::error_code &e);
+
+private:
+  asio::steady_timer timer_;
+
+  std::vector<std::vector<entry>> slots_;
+
+  uint32_t cursor_;
+
+  std::size_t count_;
+
+  bool ticking_;
+};
+
+typedef std::shared_ptr<ap_session_idle_monitor> ap_session_idle_monitor_ptr;
+} // namespace service
+} // namespace aps
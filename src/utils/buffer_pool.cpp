@@ -0,0 +1,210 @@
+/* 
+ *  File: buffer_pool.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <new>
+
+#include <utils/buffer_pool.h>
+#include <utils/logger.h>
+
+// 256 bytes to 4 MB, larger buffers are not cached
+#define MIN_SIZE_CLASS_SHIFT 8
+#define SIZE_CLASS_COUNT 15
+
+// Cached free buffers beyond this are returned to the system
+#define MAX_CACHED_BYTES (16 * 1024 * 1024)
+
+namespace aps {
+buffer_account::buffer_account() : in_use_(0), peak_(0), rejected_(0) {}
+
+uint64_t buffer_account::in_use() const { return in_use_; }
+
+uint64_t buffer_account::peak() const { return peak_; }
+
+uint64_t buffer_account::rejected() const { return rejected_; }
+
+void buffer_account::charge(std::size_t bytes) {
+  uint64_t v = in_use_ += bytes;
+  uint64_t p = peak_;
+  while (v > p && !peak_.compare_exchange_weak(p, v)) {
+  }
+}
+
+void buffer_account::refund(std::size_t bytes) { in_use_ -= bytes; }
+
+void buffer_account::reject() { rejected_++; }
+
+pooled_buffer::pooled_buffer() : data_(nullptr), size_(0), capacity_(0) {}
+
+pooled_buffer::pooled_buffer(pooled_buffer &&other) noexcept
+    : data_(other.data_), size_(other.size_), capacity_(other.capacity_), account_(std::move(other.account_)) {
+  other.data_ = nullptr;
+  other.size_ = 0;
+  other.capacity_ = 0;
+}
+
+pooled_buffer &pooled_buffer::operator=(pooled_buffer &&other) noexcept {
+  if (this != &other) {
+    release();
+    data_ = other.data_;
+    size_ = other.size_;
+    capacity_ = other.capacity_;
+    account_ = std::move(other.account_);
+    other.data_ = nullptr;
+    other.size_ = 0;
+    other.capacity_ = 0;
+  }
+  return *this;
+}
+
+pooled_buffer::~pooled_buffer() { release(); }
+
+void pooled_buffer::set_account(const buffer_account_ptr &account) {
+  if (data_) {
+    if (account_)
+      account_->refund(capacity_);
+    if (account)
+      account->charge(capacity_);
+  }
+  account_ = account;
+}
+
+void pooled_buffer::release() {
+  if (data_) {
+    if (account_)
+      account_->refund(capacity_);
+    buffer_pool::get().recycle(data_, capacity_);
+  }
+  data_ = nullptr;
+  size_ = 0;
+  capacity_ = 0;
+  account_.reset();
+}
+
+buffer_pool &buffer_pool::get() {
+  static buffer_pool s_instance;
+  return s_instance;
+}
+
+buffer_pool::buffer_pool() : budget_(0), allocated_(0), cached_(0), free_lists_(SIZE_CLASS_COUNT) {}
+
+buffer_pool::~buffer_pool() { trim(); }
+
+pooled_buffer buffer_pool::acquire(std::size_t size, const buffer_account_ptr &account /*= nullptr*/) {
+  pooled_buffer buffer;
+  int size_class = size_class_of(size);
+  std::size_t capacity = (size_class < 0) ? size : size_of_class(size_class);
+
+  {
+    std::lock_guard<std::mutex> l(mtx_);
+    if (size_class >= 0 && !free_lists_[size_class].empty()) {
+      buffer.data_ = free_lists_[size_class].back();
+      free_lists_[size_class].pop_back();
+      cached_ -= capacity;
+    } else {
+      if (budget_ && allocated_ + capacity > budget_) {
+        // Give the cached memory back before rejecting
+        trim_locked();
+      }
+
+      if (budget_ && allocated_ + capacity > budget_) {
+        LOGW() << "Buffer pool budget exceeded, rejecting " << size << " bytes, allocated: " << allocated_
+               << ", budget: " << budget_;
+        if (account)
+          account->reject();
+        return buffer;
+      }
+
+      buffer.data_ = new (std::nothrow) uint8_t[capacity];
+      if (!buffer.data_) {
+        if (account)
+          account->reject();
+        return buffer;
+      }
+      allocated_ += capacity;
+    }
+  }
+
+  buffer.size_ = size;
+  buffer.capacity_ = capacity;
+  buffer.set_account(account);
+  return buffer;
+}
+
+void buffer_pool::set_budget(uint64_t bytes) {
+  std::lock_guard<std::mutex> l(mtx_);
+  budget_ = bytes;
+  if (budget_ && allocated_ > budget_)
+    trim_locked();
+}
+
+uint64_t buffer_pool::budget() const {
+  std::lock_guard<std::mutex> l(mtx_);
+  return budget_;
+}
+
+uint64_t buffer_pool::allocated() const {
+  std::lock_guard<std::mutex> l(mtx_);
+  return allocated_;
+}
+
+void buffer_pool::trim() {
+  std::lock_guard<std::mutex> l(mtx_);
+  trim_locked();
+}
+
+void buffer_pool::recycle(uint8_t *data, std::size_t capacity) {
+  int size_class = size_class_of(capacity);
+
+  std::lock_guard<std::mutex> l(mtx_);
+  if (size_class >= 0 && size_of_class(size_class) == capacity && cached_ + capacity <= MAX_CACHED_BYTES &&
+      (!budget_ || allocated_ <= budget_)) {
+    free_lists_[size_class].push_back(data);
+    cached_ += capacity;
+    return;
+  }
+
+  delete[] data;
+  allocated_ -= capacity;
+}
+
+int buffer_pool::size_class_of(std::size_t size) {
+  for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+    if (size <= size_of_class(i))
+      return i;
+  }
+  return -1;
+}
+
+std::size_t buffer_pool::size_of_class(int size_class) {
+  return (std::size_t)1 << (MIN_SIZE_CLASS_SHIFT + size_class);
+}
+
+void buffer_pool::trim_locked() {
+  for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+    for (auto p : free_lists_[i]) {
+      delete[] p;
+      allocated_ -= size_of_class(i);
+    }
+    free_lists_[i].clear();
+  }
+  cached_ = 0;
+}
+} // namespace aps
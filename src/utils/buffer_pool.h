@@ -0,0 +1,169 @@
+/* 
+ *  File: buffer_pool.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef BUFFER_POOL_H
+#define BUFFER_POOL_H
+#pragma once
+
+#include <atomic>
+#include <cstddef>
+#include <cstdint>
+#include <memory>
+#include <mutex>
+#include <vector>
+
+namespace aps {
+/// <summary>
+/// Tracks the native buffer memory used by one session.
+/// </summary>
+class buffer_account {
+public:
+  buffer_account();
+
+  uint64_t in_use() const;
+
+  uint64_t peak() const;
+
+  uint64_t rejected() const;
+
+  void charge(std::size_t bytes);
+
+  void refund(std::size_t bytes);
+
+  void reject();
+
+private:
+  std::atomic<uint64_t> in_use_;
+
+  std::atomic<uint64_t> peak_;
+
+  std::atomic<uint64_t> rejected_;
+};
+
+typedef std::shared_ptr<buffer_account> buffer_account_ptr;
+
+/// <summary>
+/// A buffer borrowed from the buffer_pool, it goes back to the pool when destroyed.
+/// </summary>
+class pooled_buffer {
+public:
+  pooled_buffer();
+
+  pooled_buffer(pooled_buffer &&other) noexcept;
+
+  pooled_buffer &operator=(pooled_buffer &&other) noexcept;
+
+  pooled_buffer(const pooled_buffer &) = delete;
+
+  pooled_buffer &operator=(const pooled_buffer &) = delete;
+
+  ~pooled_buffer();
+
+  uint8_t *data() { return data_; }
+
+  const uint8_t *data() const { return data_; }
+
+  /// <summary>
+  /// The requested size, the real capacity is the size of the size class.
+  /// </summary>
+  std::size_t size() const { return size_; }
+
+  bool empty() const { return nullptr == data_; }
+
+  /// <summary>
+  /// Moves the charge of this buffer to another account.
+  /// </summary>
+  void set_account(const buffer_account_ptr &account);
+
+  const buffer_account_ptr &account() const { return account_; }
+
+  void release();
+
+private:
+  friend class buffer_pool;
+
+  uint8_t *data_;
+
+  std::size_t size_;
+
+  std::size_t capacity_;
+
+  buffer_account_ptr account_;
+};
+
+/// <summary>
+/// The process wide pool of the stream buffers. Buffers are grouped in power of two size classes,
+/// the total native memory held by the pool is limited by the budget.
+/// </summary>
+class buffer_pool {
+public:
+  static buffer_pool &get();
+
+  /// <summary>
+  /// Borrows a buffer, the returned buffer is empty if the budget would be exceeded.
+  /// </summary>
+  pooled_buffer acquire(std::size_t size, const buffer_account_ptr &account = nullptr);
+
+  /// <summary>
+  /// Sets the memory budget in bytes, 0 means unlimited.
+  /// </summary>
+  void set_budget(uint64_t bytes);
+
+  uint64_t budget() const;
+
+  /// <summary>
+  /// The bytes allocated from the system, including the cached free buffers.
+  /// </summary>
+  uint64_t allocated() const;
+
+  /// <summary>
+  /// Frees all cached buffers.
+  /// </summary>
+  void trim();
+
+protected:
+  friend class pooled_buffer;
+
+  buffer_pool();
+
+  ~buffer_pool();
+
+  void recycle(uint8_t *data, std::size_t capacity);
+
+  static int size_class_of(std::size_t size);
+
+  static std::size_t size_of_class(int size_class);
+
+  void trim_locked();
+
+private:
+  mutable std::mutex mtx_;
+
+  uint64_t budget_;
+
+  uint64_t allocated_;
+
+  uint64_t cached_;
+
+  std::vector<std::vector<uint8_t *>> free_lists_;
+};
+} // namespace aps
+#endif // BUFFER_POOL_H
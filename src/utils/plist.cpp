@@ -48,13 +48,19 @@ typedef struct {
   plist_object_t **values;
 } plist_dict_t;
 
+#define PLIST_FLAG_ARENA 0x01
+
+#define PLIST_ARENA_DEFAULT_BLOCK_SIZE 4096
+#define PLIST_ARENA_ALIGNMENT 8
+
+// The most the arena keeps across a reset, a single large plist must not pin its peak size
+#define PLIST_ARENA_MAX_RETAINED_SIZE (64 * 1024)
+
 struct plist_object_s {
-  union {
-    uint8_t type;
+  uint8_t type;
 
-    // Enforce the memory alignment to 8
-    double padding;
-  };
+  // PLIST_FLAG_ARENA is set for objects owned by a plist_arena_t
+  uint8_t flags;
 
   union {
     uint8_t value_primitive;
@@ -67,6 +73,69 @@ struct plist_object_s {
   } value;
 };
 
+typedef struct plist_arena_block_s {
+  struct plist_arena_block_s *next;
+  uint64_t size;
+  uint64_t used;
+} plist_arena_block_t;
+
+struct plist_arena_s {
+  plist_arena_block_t *head;
+  uint64_t block_size;
+};
+
+static plist_arena_block_t *plist_arena_new_block(uint64_t size) {
+  plist_arena_block_t *block = (plist_arena_block_t *)malloc(sizeof(plist_arena_block_t) + (size_t)size);
+  if (!block) {
+    return NULL;
+  }
+  block->next = NULL;
+  block->size = size;
+  block->used = 0;
+  return block;
+}
+
+static void *plist_arena_alloc(plist_arena_t *arena, uint64_t size) {
+  plist_arena_block_t *block;
+  uint8_t *p;
+
+  size = (size + PLIST_ARENA_ALIGNMENT - 1) & ~((uint64_t)PLIST_ARENA_ALIGNMENT - 1);
+  block = arena->head;
+  if (!block || block->used + size > block->size) {
+    block = plist_arena_new_block(size > arena->block_size ? size : arena->block_size);
+    if (!block) {
+      return NULL;
+    }
+    block->next = arena->head;
+    arena->head = block;
+  }
+
+  p = (uint8_t *)(block + 1) + block->used;
+  block->used += size;
+  memset(p, 0, (size_t)size);
+  return p;
+}
+
+static void *bplist_alloc(plist_arena_t *arena, uint64_t count, uint64_t size) {
+  if (arena) {
+    return plist_arena_alloc(arena, count * size);
+  }
+  return calloc((size_t)count, (size_t)size);
+}
+
+static void bplist_free(plist_arena_t *arena, void *p) {
+  // Arena memory is released by plist_arena_reset/plist_arena_destroy
+  if (!arena) {
+    free(p);
+  }
+}
+
+static void bplist_destroy(plist_arena_t *arena, plist_object_t *object) {
+  if (!arena) {
+    plist_object_destroy(object);
+  }
+}
+
 static int parse_integer(const uint8_t *data, uint64_t dataidx, uint8_t length, int64_t *value) {
   assert(data);
   assert(value);
@@ -201,7 +270,7 @@ static uint8_t blist_integer_length(int64_t value) {
   }
 }
 
-static void bplist_analyze(plist_object_t *object, uint64_t *objects, uint64_t *bytes, uint64_t *refs) {
+static void bplist_analyze(const plist_object_t *object, uint64_t *objects, uint64_t *bytes, uint64_t *refs) {
   uint64_t i;
 
   *objects += 1;
@@ -245,7 +314,7 @@ static void bplist_analyze(plist_object_t *object, uint64_t *objects, uint64_t *
     if (size < 15) {
       *bytes += 1;
     } else {
-      *bytes += 1 + 1 + (uint64_t)integer_length(2 * size);
+      *bytes += 1 + 1 + (uint64_t)integer_length(size);
     }
     *refs += 2 * size;
     for (i = 0; i < size; i++) {
@@ -261,124 +330,160 @@ static void bplist_analyze(plist_object_t *object, uint64_t *objects, uint64_t *
   }
 }
 
-static int64_t bplist_serialize_string(int64_t *reftab, uint64_t *reftabidx, uint8_t *data, uint64_t *dataidx,
-                                       char *value) {
-  int64_t length;
-  int64_t objectid;
-
-  objectid = (int64_t)*reftabidx;
-  reftab[(*reftabidx)++] = *dataidx;
+/// <summary>
+/// The serialization state. The offset of every object is written straight into
+/// the offset table, which sits right after the object data in the output buffer.
+/// </summary>
+typedef struct {
+  uint8_t *data;
+  uint64_t dataidx;
+  uint64_t offtabidx;
+  uint64_t objectidx;
+  uint8_t offlen;
+  uint8_t reflen;
+} bplist_writer_t;
+
+static int64_t bplist_begin_object(bplist_writer_t *writer) {
+  int64_t objectid = (int64_t)writer->objectidx++;
+  uint64_t offidx = writer->offtabidx + (uint64_t)objectid * writer->offlen;
+  serialize_integer(writer->data, &offidx, writer->offlen, (int64_t)writer->dataidx);
+  return objectid;
+}
 
-  length = (int64_t)strlen(value);
+static void bplist_serialize_marker(bplist_writer_t *writer, uint8_t type, int64_t length) {
   if (length < 15) {
-    data[(*dataidx)++] = PLIST_TYPE_STRING | (int8_t)length;
+    writer->data[writer->dataidx++] = type | (uint8_t)length;
   } else {
-    data[(*dataidx)++] = PLIST_TYPE_STRING | 0x0f;
-    data[(*dataidx)++] = PLIST_TYPE_INTEGER | blist_integer_length(length);
-    serialize_integer(data, dataidx, integer_length(length), length);
+    writer->data[writer->dataidx++] = type | 0x0f;
+    writer->data[writer->dataidx++] = PLIST_TYPE_INTEGER | blist_integer_length(length);
+    serialize_integer(writer->data, &writer->dataidx, integer_length(length), length);
   }
-  memcpy(&data[*dataidx], value, (size_t)length);
-  *dataidx += length;
+}
+
+static int64_t bplist_serialize_string(bplist_writer_t *writer, const char *value) {
+  int64_t objectid = bplist_begin_object(writer);
+  int64_t length = (int64_t)strlen(value);
+
+  bplist_serialize_marker(writer, PLIST_TYPE_STRING, length);
+  memcpy(&writer->data[writer->dataidx], value, (size_t)length);
+  writer->dataidx += length;
 
   return objectid;
 }
 
-static int64_t bplist_serialize_object(int64_t *reftab, uint64_t *reftabidx, uint8_t reflen, uint8_t *data,
-                                       uint64_t *dataidx, plist_object_t *object) {
+static int64_t bplist_serialize_object(bplist_writer_t *writer, const plist_object_t *object) {
   int64_t objectid;
   uint64_t i;
 
-  objectid = (int64_t)*reftabidx;
-  reftab[(*reftabidx)++] = *dataidx;
+  objectid = bplist_begin_object(writer);
   if (!object) {
-    data[(*dataidx)++] = 0;
+    writer->data[writer->dataidx++] = 0;
     return objectid;
   }
   if (object->type == PLIST_TYPE_PRIMITIVE) {
-    data[(*dataidx)++] = PLIST_TYPE_PRIMITIVE | object->value.value_primitive;
+    writer->data[writer->dataidx++] = PLIST_TYPE_PRIMITIVE | object->value.value_primitive;
   } else if (object->type == PLIST_TYPE_INTEGER) {
     int64_t value = object->value.value_integer;
-    data[(*dataidx)++] = PLIST_TYPE_INTEGER | blist_integer_length(value);
-    serialize_integer(data, dataidx, integer_length(value), value);
+    writer->data[writer->dataidx++] = PLIST_TYPE_INTEGER | blist_integer_length(value);
+    serialize_integer(writer->data, &writer->dataidx, integer_length(value), value);
   } else if (object->type == PLIST_TYPE_REAL) {
-    data[(*dataidx)++] = PLIST_TYPE_REAL | 3;
-    memcpy(&data[*dataidx], &object->value.value_real, sizeof(double));
-    *dataidx += sizeof(double);
+    double value = _htond(object->value.value_real);
+    writer->data[writer->dataidx++] = PLIST_TYPE_REAL | 3;
+    memcpy(&writer->data[writer->dataidx], &value, sizeof(double));
+    writer->dataidx += sizeof(double);
   } else if (object->type == PLIST_TYPE_DATA) {
     int64_t length = (int64_t)object->value.value_data.length;
-    if (length < 15) {
-      data[(*dataidx)++] = PLIST_TYPE_DATA | (int8_t)length;
-    } else {
-      data[(*dataidx)++] = PLIST_TYPE_DATA | 0x0f;
-      data[(*dataidx)++] = PLIST_TYPE_INTEGER | blist_integer_length(length);
-      serialize_integer(data, dataidx, integer_length(length), length);
-    }
-    memcpy(&data[*dataidx], object->value.value_data.value, (size_t)length);
-    *dataidx += length;
+    bplist_serialize_marker(writer, PLIST_TYPE_DATA, length);
+    memcpy(&writer->data[writer->dataidx], object->value.value_data.value, (size_t)length);
+    writer->dataidx += length;
   } else if (object->type == PLIST_TYPE_STRING) {
     int64_t length = (int64_t)strlen(object->value.value_string);
-    if (length < 15) {
-      data[(*dataidx)++] = PLIST_TYPE_STRING | (int8_t)length;
-    } else {
-      data[(*dataidx)++] = PLIST_TYPE_STRING | 0x0f;
-      data[(*dataidx)++] = PLIST_TYPE_INTEGER | blist_integer_length(length);
-      serialize_integer(data, dataidx, integer_length(length), length);
-    }
-    memcpy(&data[*dataidx], object->value.value_string, (size_t)length);
-    *dataidx += length;
+    bplist_serialize_marker(writer, PLIST_TYPE_STRING, length);
+    memcpy(&writer->data[writer->dataidx], object->value.value_string, (size_t)length);
+    writer->dataidx += length;
   } else if (object->type == PLIST_TYPE_ARRAY) {
     uint64_t size = (uint64_t)object->value.value_array.size;
     uint64_t valueidx;
 
-    if (size < 15) {
-      data[(*dataidx)++] = PLIST_TYPE_ARRAY | (int8_t)size;
-    } else {
-      data[(*dataidx)++] = PLIST_TYPE_ARRAY | 0x0f;
-      data[(*dataidx)++] = PLIST_TYPE_INTEGER | blist_integer_length(size);
-      serialize_integer(data, dataidx, integer_length(size), size);
-    }
+    bplist_serialize_marker(writer, PLIST_TYPE_ARRAY, (int64_t)size);
 
     /* Reserve space for references */
-    valueidx = *dataidx;
-    *dataidx += size * reflen;
+    valueidx = writer->dataidx;
+    writer->dataidx += size * writer->reflen;
     for (i = 0; i < size; i++) {
-      int64_t valueid =
-          bplist_serialize_object(reftab, reftabidx, reflen, data, dataidx, object->value.value_array.values[i]);
-      serialize_integer(data, &valueidx, reflen, valueid);
+      int64_t valueid = bplist_serialize_object(writer, object->value.value_array.values[i]);
+      serialize_integer(writer->data, &valueidx, writer->reflen, valueid);
     }
   } else if (object->type == PLIST_TYPE_DICT) {
     uint64_t size = (uint64_t)object->value.value_dict.size;
     uint64_t keyidx = 0;
     uint64_t valueidx = 0;
 
-    if (size < 15) {
-      data[(*dataidx)++] = PLIST_TYPE_DICT | (int8_t)size;
-    } else {
-      data[(*dataidx)++] = PLIST_TYPE_DICT | 0x0f;
-      data[(*dataidx)++] = PLIST_TYPE_INTEGER | blist_integer_length(size);
-      serialize_integer(data, dataidx, integer_length(size), size);
-    }
+    bplist_serialize_marker(writer, PLIST_TYPE_DICT, (int64_t)size);
 
-    keyidx = *dataidx;
-    *dataidx += size * reflen;
-    valueidx = *dataidx;
-    *dataidx += size * reflen;
+    keyidx = writer->dataidx;
+    writer->dataidx += size * writer->reflen;
+    valueidx = writer->dataidx;
+    writer->dataidx += size * writer->reflen;
 
     for (i = 0; i < size; i++) {
       int64_t keyid = 0;
       int64_t valueid = 0;
 
-      keyid = bplist_serialize_string(reftab, reftabidx, data, dataidx, object->value.value_dict.keys[i]);
-      valueid = bplist_serialize_object(reftab, reftabidx, reflen, data, dataidx, object->value.value_dict.values[i]);
-      serialize_integer(data, &keyidx, reflen, keyid);
-      serialize_integer(data, &valueidx, reflen, valueid);
+      keyid = bplist_serialize_string(writer, object->value.value_dict.keys[i]);
+      valueid = bplist_serialize_object(writer, object->value.value_dict.values[i]);
+      serialize_integer(writer->data, &keyidx, writer->reflen, keyid);
+      serialize_integer(writer->data, &valueidx, writer->reflen, valueid);
     }
   }
   return objectid;
 }
 
-static plist_object_t *bplist_parse_object(const int64_t *reftab, uint64_t reftablen, uint64_t reftabidx,
-                                           const uint8_t *data, uint64_t datalen, uint8_t reflen) {
+static uint64_t bplist_measure(const plist_object_t *object, uint64_t *objects, uint8_t *offlen, uint8_t *reflen) {
+  uint64_t bytes, refs;
+  uint64_t buflen;
+
+  *objects = bytes = refs = 0;
+  bplist_analyze(object, objects, &bytes, &refs);
+  *reflen = integer_length(refs);
+
+  buflen = BPLIST_HEADER_LEN;
+  buflen += bytes + refs * (*reflen);
+  *offlen = integer_length(buflen);
+  buflen += (*objects) * (*offlen);
+  buflen += BPLIST_TRAILER_LEN;
+  return buflen;
+}
+
+static void bplist_serialize(const plist_object_t *object, uint8_t *buf, uint64_t buflen, uint64_t objects,
+                             uint8_t offlen, uint8_t reflen) {
+  bplist_writer_t writer;
+  uint64_t bufidx;
+
+  writer.data = buf;
+  writer.dataidx = BPLIST_HEADER_LEN;
+  writer.offtabidx = buflen - BPLIST_TRAILER_LEN - objects * offlen;
+  writer.objectidx = 0;
+  writer.offlen = offlen;
+  writer.reflen = reflen;
+
+  memcpy(buf, "bplist00", BPLIST_HEADER_LEN);
+  bplist_serialize_object(&writer, object);
+  assert(writer.dataidx == writer.offtabidx);
+
+  bufidx = buflen - BPLIST_TRAILER_LEN;
+  memset(buf + bufidx, 0, 6);
+  bufidx += 6; /* Unused bytes in blist trailer */
+  serialize_integer(buf, &bufidx, 1, offlen);
+  serialize_integer(buf, &bufidx, 1, reflen);
+  serialize_integer(buf, &bufidx, 8, objects);
+  /* We always serialize root object as 0 */
+  serialize_integer(buf, &bufidx, 8, 0);
+  serialize_integer(buf, &bufidx, 8, writer.offtabidx);
+}
+
+static plist_object_t *bplist_parse_object(plist_arena_t *arena, const int64_t *reftab, uint64_t reftablen,
+                                           uint64_t reftabidx, const uint8_t *data, uint64_t datalen, uint8_t reflen) {
   plist_object_t *object;
   uint64_t dataidx;
   uint8_t type;
@@ -419,91 +524,70 @@ static plist_object_t *bplist_parse_object(const int64_t *reftab, uint64_t refta
     dataidx += ret;
   }
 
-  object = (plist_object_t *)calloc(1, sizeof(plist_object_t));
+  object = (plist_object_t *)bplist_alloc(arena, 1, sizeof(plist_object_t));
   if (!object) {
     return NULL;
   }
 
   object->type = type & 0xf0;
+  object->flags = arena ? PLIST_FLAG_ARENA : 0;
   if (object->type == PLIST_TYPE_PRIMITIVE) {
     object->value.value_primitive = type & 0x0f;
   } else if (object->type == PLIST_TYPE_INTEGER) {
     if (dataidx + ((uint64_t)1 << length) > datalen) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
     ret = parse_integer(data, dataidx, (1 << length), &object->value.value_integer);
     if (ret < 0) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
   } else if (object->type == PLIST_TYPE_REAL) {
     if (dataidx + ((uint64_t)1 << length) > datalen) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
     ret = parse_real(data, dataidx, ((uint64_t)1 << length), &object->value.value_real);
     if (ret < 0) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
-  } else if (object->type == PLIST_TYPE_DATE) {
-    // for date type it is 8 bytes always
-    length = 8;
-    uint8_t *buffer;
-    if (dataidx + length > datalen) {
-      free(object);
-      return NULL;
-    }
-    buffer = (uint8_t *)malloc((size_t)length);
-    if (!buffer) {
-      free(object);
-      return NULL;
-    }
-    memcpy(buffer, data + dataidx, (size_t)length);
-
-    object->value.value_data.length = length;
-    object->value.value_data.value = buffer;
-  } else if (object->type == PLIST_TYPE_DATA) {
+  } else if (object->type == PLIST_TYPE_DATE || object->type == PLIST_TYPE_DATA) {
     uint8_t *buffer;
 
+    // for date type it is 8 bytes always
+    if (object->type == PLIST_TYPE_DATE) {
+      length = 8;
+    }
     if (dataidx + length > datalen) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
-    buffer = (uint8_t *)malloc((size_t)length);
-    if (!buffer) {
-      free(object);
-      return NULL;
+    if (arena) {
+      // The arena objects view the source buffer directly
+      buffer = (uint8_t *)(data + dataidx);
+    } else {
+      buffer = (uint8_t *)malloc((size_t)length);
+      if (!buffer) {
+        free(object);
+        return NULL;
+      }
+      memcpy(buffer, data + dataidx, (size_t)length);
     }
-    memcpy(buffer, data + dataidx, (size_t)length);
 
     object->value.value_data.length = length;
     object->value.value_data.value = buffer;
-  } else if (object->type == PLIST_TYPE_STRING) {
+  } else if (object->type == PLIST_TYPE_STRING || object->type == PLIST_TYPE_UNICODE_STRING) {
     char *buffer;
 
     if (dataidx + length > datalen) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
-    buffer = (char *)calloc((size_t)length + 1, sizeof(char));
+    buffer = (char *)bplist_alloc(arena, length + 1, sizeof(char));
     if (!buffer) {
-      free(object);
-      return NULL;
-    }
-    memcpy(buffer, data + dataidx, (size_t)length);
-    object->value.value_string = buffer;
-  } else if (object->type == PLIST_TYPE_UNICODE_STRING) {
-    char *buffer;
-
-    if (dataidx + length > datalen) {
-      free(object);
-      return NULL;
-    }
-    buffer = (char *)calloc((size_t)length + 1, sizeof(char));
-    if (!buffer) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
     memcpy(buffer, data + dataidx, (size_t)length);
@@ -513,12 +597,12 @@ static plist_object_t *bplist_parse_object(const int64_t *reftab, uint64_t refta
     uint64_t i;
 
     if (dataidx + length * reflen > datalen) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
-    values = (plist_object_t **)calloc((size_t)length, sizeof(plist_object_t *));
+    values = (plist_object_t **)bplist_alloc(arena, length, sizeof(plist_object_t *));
     if (!values) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
     for (i = 0; i < length; i++) {
@@ -532,17 +616,17 @@ static plist_object_t *bplist_parse_object(const int64_t *reftab, uint64_t refta
         break;
       }
       dataidx += reflen;
-      values[i] = bplist_parse_object(reftab, reftablen, valueidx, data, datalen, reflen);
+      values[i] = bplist_parse_object(arena, reftab, reftablen, valueidx, data, datalen, reflen);
       if (!values[i]) {
         break;
       }
     }
     if (i != length) {
       for (i = 0; i < length; i++) {
-        plist_object_destroy(values[i]);
+        bplist_destroy(arena, values[i]);
       }
-      free(values);
-      free(object);
+      bplist_free(arena, values);
+      bplist_free(arena, object);
       return NULL;
     }
     object->value.value_array.size = length;
@@ -553,18 +637,18 @@ static plist_object_t *bplist_parse_object(const int64_t *reftab, uint64_t refta
     uint64_t ki, vi;
 
     if (dataidx + 2 * length * reflen > datalen) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
-    keys = (char **)calloc((size_t)length, sizeof(char *));
+    keys = (char **)bplist_alloc(arena, length, sizeof(char *));
     if (!keys) {
-      free(object);
+      bplist_free(arena, object);
       return NULL;
     }
-    values = (plist_object_t **)calloc((size_t)length, sizeof(plist_object_t *));
+    values = (plist_object_t **)bplist_alloc(arena, length, sizeof(plist_object_t *));
     if (!values) {
-      free(keys);
-      free(object);
+      bplist_free(arena, keys);
+      bplist_free(arena, object);
       return NULL;
     }
     for (ki = 0; ki < length; ki++) {
@@ -579,16 +663,16 @@ static plist_object_t *bplist_parse_object(const int64_t *reftab, uint64_t refta
         break;
       }
       dataidx += reflen;
-      obj = bplist_parse_object(reftab, reftablen, keyidx, data, datalen, reflen);
+      obj = bplist_parse_object(arena, reftab, reftablen, keyidx, data, datalen, reflen);
       if (!obj) {
         break;
       }
       if (obj->type != PLIST_TYPE_STRING) {
-        plist_object_destroy(obj);
+        bplist_destroy(arena, obj);
         break;
       }
       keys[ki] = obj->value.value_string;
-      free(obj);
+      bplist_free(arena, obj);
     }
     for (vi = 0; vi < length; vi++) {
       int64_t valueidx;
@@ -601,7 +685,7 @@ static plist_object_t *bplist_parse_object(const int64_t *reftab, uint64_t refta
         break;
       }
       dataidx += reflen;
-      values[vi] = bplist_parse_object(reftab, reftablen, valueidx, data, datalen, reflen);
+      values[vi] = bplist_parse_object(arena, reftab, reftablen, valueidx, data, datalen, reflen);
       if (!values[vi]) {
         break;
       }
@@ -609,12 +693,12 @@ static plist_object_t *bplist_parse_object(const int64_t *reftab, uint64_t refta
     if (ki != length || vi != length) {
       uint64_t i;
       for (i = 0; i < length; i++) {
-        free(keys[i]);
-        plist_object_destroy(values[i]);
+        bplist_free(arena, keys[i]);
+        bplist_destroy(arena, values[i]);
       }
-      free(values);
-      free(keys);
-      free(object);
+      bplist_free(arena, values);
+      bplist_free(arena, keys);
+      bplist_free(arena, object);
       return NULL;
     }
     object->value.value_dict.size = length;
@@ -622,10 +706,54 @@ static plist_object_t *bplist_parse_object(const int64_t *reftab, uint64_t refta
     object->value.value_dict.values = values;
   } else {
     /* Currently unhandled type */
-    free(object);
+    bplist_free(arena, object);
+    return NULL;
+  }
+
+  return object;
+}
+
+static plist_object_t *bplist_parse(plist_arena_t *arena, const uint8_t *data, uint32_t datalen) {
+  plist_object_t *object;
+  const uint8_t *trailer;
+  uint8_t offlen, reflen;
+  int64_t objects, rootid, reftaboffset;
+  int64_t *reftab;
+  int i;
+
+  if (!data) {
+    return NULL;
+  }
+  if (datalen < BPLIST_TRAILER_LEN) {
     return NULL;
   }
 
+  trailer = &data[datalen - BPLIST_TRAILER_LEN];
+  offlen = trailer[6];
+  reflen = trailer[7];
+  parse_integer(trailer, 8, 8, &objects);
+  parse_integer(trailer, 16, 8, &rootid);
+  parse_integer(trailer, 24, 8, &reftaboffset);
+  if (objects <= 0) {
+    return NULL;
+  }
+  if (rootid < 0 || rootid >= objects) {
+    return NULL;
+  }
+  if (reftaboffset < BPLIST_HEADER_LEN || reftaboffset + objects * offlen > datalen) {
+    return NULL;
+  }
+
+  reftab = (int64_t *)bplist_alloc(arena, (uint64_t)objects, sizeof(int64_t));
+  if (!reftab) {
+    return NULL;
+  }
+  for (i = 0; i < objects; i++) {
+    parse_integer(data, reftaboffset + i * (uint64_t)offlen, offlen, &reftab[i]);
+  }
+  object = bplist_parse_object(arena, reftab, objects, rootid, data, datalen, reflen);
+  bplist_free(arena, reftab);
+
   return object;
 }
 
@@ -916,118 +1044,117 @@ const plist_object_t *plist_object_dict_get_key_value(const plist_object_t *obje
 }
 
 plist_object_t *plist_object_from_bplist(const uint8_t *data, uint32_t datalen) {
-  plist_object_t *object;
-  const uint8_t *trailer;
-  uint8_t offlen, reflen;
-  int64_t objects, rootid, reftaboffset;
-  int64_t *reftab;
-  int i;
+  return bplist_parse(NULL, data, datalen);
+}
 
-  if (!data) {
-    return NULL;
-  }
-  if (datalen < BPLIST_TRAILER_LEN) {
-    return NULL;
-  }
+int plist_object_to_bplist(plist_object_t *object, uint8_t **data, uint64_t *datalen) {
+  uint64_t objects;
+  uint8_t reflen, offlen;
+  uint8_t *buf;
+  uint64_t buflen;
 
-  trailer = &data[datalen - BPLIST_TRAILER_LEN];
-  offlen = trailer[6];
-  reflen = trailer[7];
-  parse_integer(trailer, 8, 8, &objects);
-  parse_integer(trailer, 16, 8, &rootid);
-  parse_integer(trailer, 24, 8, &reftaboffset);
-  if (objects <= 0) {
-    return NULL;
-  }
-  if (rootid < 0 || rootid >= objects) {
-    return NULL;
-  }
-  if (reftaboffset < BPLIST_HEADER_LEN || reftaboffset + objects * offlen > datalen) {
-    return NULL;
+  if (!object || !data || !datalen) {
+    return -1;
   }
 
-  reftab = (int64_t *)calloc((size_t)objects, sizeof(int64_t));
-  if (!reftab) {
-    return NULL;
-  }
-  for (i = 0; i < objects; i++) {
-    parse_integer(data, reftaboffset + i * (uint64_t)offlen, offlen, &reftab[i]);
+  buflen = bplist_measure(object, &objects, &offlen, &reflen);
+  buf = (uint8_t *)calloc((size_t)buflen, sizeof(uint8_t));
+  if (!buf) {
+    return -2;
   }
-  object = bplist_parse_object(reftab, objects, rootid, data, datalen, reflen);
-  free(reftab);
+  bplist_serialize(object, buf, buflen, objects, offlen, reflen);
 
-  return object;
+  *data = buf;
+  *datalen = buflen;
+  return 0;
 }
 
-int plist_object_to_bplist(plist_object_t *object, uint8_t **data, uint64_t *datalen) {
-  uint64_t objects, bytes, refs;
+int plist_object_to_bplist_buffer(const plist_object_t *object, std::vector<uint8_t> &buffer) {
+  uint64_t objects;
   uint8_t reflen, offlen;
-  uint8_t *buf;
   uint64_t buflen;
-  uint64_t bufidx;
-  int64_t *reftab;
-  uint64_t reftabidx;
-  uint64_t reftaboffset;
-  int i;
 
-  if (!object || !data || !datalen) {
+  if (!object) {
     return -1;
   }
 
-  objects = bytes = refs = 0;
-  bplist_analyze(object, &objects, &bytes, &refs);
-  reflen = integer_length(refs);
+  buflen = bplist_measure(object, &objects, &offlen, &reflen);
+  // Keeps the capacity of the buffer, so a reused buffer is not reallocated
+  buffer.resize((size_t)buflen);
+  bplist_serialize(object, buffer.data(), buflen, objects, offlen, reflen);
+  return 0;
+}
 
-  buflen = BPLIST_HEADER_LEN;
-  buflen += bytes + refs * reflen;
-  offlen = integer_length(buflen);
-  buflen += objects * offlen;
-  buflen += BPLIST_TRAILER_LEN;
+plist_arena_t *plist_arena_create(uint32_t block_size) {
+  plist_arena_t *arena;
 
-  buf = (uint8_t *)calloc((size_t)buflen, sizeof(uint8_t));
-  if (!buf) {
-    return -2;
+  arena = (plist_arena_t *)calloc(1, sizeof(plist_arena_t));
+  if (!arena) {
+    return NULL;
+  }
+  arena->block_size = block_size ? block_size : PLIST_ARENA_DEFAULT_BLOCK_SIZE;
+  arena->head = plist_arena_new_block(arena->block_size);
+  if (!arena->head) {
+    free(arena);
+    return NULL;
   }
-  bufidx = 0;
+  return arena;
+}
 
-  reftab = (int64_t *)calloc((size_t)objects, sizeof(uint64_t));
-  if (!reftab) {
-    free(buf);
-    return -3;
+void plist_arena_reset(plist_arena_t *arena) {
+  plist_arena_block_t *block;
+  uint64_t total = 0;
+  uint64_t retained;
+
+  if (!arena || !arena->head) {
+    return;
   }
-  reftabidx = 0;
 
-  memcpy(buf, "bplist00", BPLIST_HEADER_LEN);
-  bufidx += BPLIST_HEADER_LEN;
+  retained = arena->block_size > PLIST_ARENA_MAX_RETAINED_SIZE ? arena->block_size : PLIST_ARENA_MAX_RETAINED_SIZE;
+  if (!arena->head->next && arena->head->size <= retained) {
+    arena->head->used = 0;
+    return;
+  }
 
-  bplist_serialize_object(reftab, &reftabidx, reflen, buf, &bufidx, object);
-  reftaboffset = bufidx;
-  for (i = 0; i < objects; i++) {
-    serialize_integer(buf, &bufidx, offlen, reftab[i]);
+  // Coalesce the chained blocks into one, so the next request of the same
+  // shape is served from a single block, up to the retained size
+  while ((block = arena->head)) {
+    arena->head = block->next;
+    total += block->size;
+    free(block);
   }
+  arena->head = plist_arena_new_block(total < retained ? total : arena->block_size);
+}
 
-  bufidx += 6; /* Unused bytes in blist trailer */
-  serialize_integer(buf, &bufidx, 1, offlen);
-  serialize_integer(buf, &bufidx, 1, reflen);
-  serialize_integer(buf, &bufidx, 8, objects);
-  /* We always serialize root object as 0 */
-  serialize_integer(buf, &bufidx, 8, 0);
-  serialize_integer(buf, &bufidx, 8, reftaboffset);
+void plist_arena_destroy(plist_arena_t *arena) {
+  plist_arena_block_t *block;
 
-  free(reftab);
+  if (!arena) {
+    return;
+  }
 
-  *data = buf;
-  *datalen = buflen;
-  return 0;
+  while ((block = arena->head)) {
+    arena->head = block->next;
+    free(block);
+  }
+  free(arena);
+}
+
+const plist_object_t *plist_object_from_bplist_arena(plist_arena_t *arena, const uint8_t *data, uint32_t datalen) {
+  if (!arena) {
+    return NULL;
+  }
+  return bplist_parse(arena, data, datalen);
 }
 
 void plist_object_destroy(plist_object_t *object) {
   uint64_t i;
-  if (!object) {
+  if (!object || (object->flags & PLIST_FLAG_ARENA)) {
     return;
   }
 
   switch (object->type) {
+  case PLIST_TYPE_DATE:
   case PLIST_TYPE_DATA:
     free(object->value.value_data.value);
     break;
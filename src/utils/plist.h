@@ -43,6 +43,8 @@
 
 typedef struct plist_object_s plist_object_t;
 
+typedef struct plist_arena_s plist_arena_t;
+
 plist_object_t *plist_object_true();
 plist_object_t *plist_object_false();
 plist_object_t *plist_object_integer(uint64_t value);
@@ -66,8 +68,25 @@ const plist_object_t *plist_object_dict_get_key_value(const plist_object_t *obje
 plist_object_t *plist_object_from_bplist(const uint8_t *data, uint32_t datalen);
 int plist_object_to_bplist(plist_object_t *object, uint8_t **data, uint64_t *datalen);
 
+int plist_object_to_bplist_buffer(const plist_object_t *object, std::vector<uint8_t> &buffer);
+
 void plist_object_destroy(plist_object_t *object);
 
+/// <summary>
+/// Creates an arena for decoding binary plists. All objects decoded by the arena
+/// are released at once by plist_arena_reset or plist_arena_destroy. A reset keeps
+/// up to 64 KB, or the block size if it is larger, for the next decoding.
+/// </summary>
+plist_arena_t *plist_arena_create(uint32_t block_size);
+void plist_arena_reset(plist_arena_t *arena);
+void plist_arena_destroy(plist_arena_t *arena);
+
+/// <summary>
+/// Decodes the binary plist into the arena. The data and date values view the
+/// source buffer, so the source buffer must outlive the returned objects.
+/// </summary>
+const plist_object_t *plist_object_from_bplist_arena(plist_arena_t *arena, const uint8_t *data, uint32_t datalen);
+
 class auto_plist {
 public:
   auto_plist() { obj_ = 0; }
@@ -106,16 +125,16 @@ public:
 
   std::vector<uint8_t> to_bytes_array() const {
     std::vector<uint8_t> buf;
-    uint8_t *data = 0;
-    uint64_t length = 0;
-    plist_object_to_bplist(obj_, &data, &length);
-    buf.assign(data, data + length);
-    free(data);
+    plist_object_to_bplist_buffer(obj_, buf);
     return buf;
   }
 
+  void to_bytes_array(std::vector<uint8_t> &buf) const { plist_object_to_bplist_buffer(obj_, buf); }
+
   std::string dump() { return dump_object(obj_, 0); }
 
+  static std::string dump(const plist_object_t *o) { return dump_object(o, 0); }
+
   ~auto_plist() {
     if (obj_) {
       plist_object_destroy(obj_);
@@ -124,7 +143,7 @@ public:
   }
 
 protected:
-  std::string dump_object(const plist_object_t *o, int indent) {
+  static std::string dump_object(const plist_object_t *o, int indent) {
     std::ostringstream oss;
     std::string prefix_indent;
 
@@ -200,4 +219,38 @@ private:
   plist_object_t *obj_;
 };
 
+class auto_plist_arena {
+public:
+  auto_plist_arena(uint32_t block_size = 0) { arena_ = plist_arena_create(block_size); }
+
+  ~auto_plist_arena() {
+    if (arena_) {
+      plist_arena_destroy(arena_);
+      arena_ = 0;
+    }
+  }
+
+  /// <summary>
+  /// Releases the objects decoded previously and decodes the new binary plist.
+  /// </summary>
+  const plist_object_t *from_bplist(const uint8_t *data, uint32_t datalen) {
+    plist_arena_reset(arena_);
+    return plist_object_from_bplist_arena(arena_, data, datalen);
+  }
+
+  const plist_object_t *from_bplist(const std::vector<uint8_t> &data) {
+    return from_bplist(data.data(), (uint32_t)data.size());
+  }
+
+  void reset() { plist_arena_reset(arena_); }
+
+  plist_arena_t *get() const { return arena_; }
+
+private:
+  auto_plist_arena(const auto_plist_arena &);
+  auto_plist_arena &operator=(const auto_plist_arena &);
+
+  plist_arena_t *arena_;
+};
+
 #endif
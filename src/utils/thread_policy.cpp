@@ -0,0 +1,162 @@
+/* 
+ *  File: thread_policy.cpp
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#include <cerrno>
+#include <mutex>
+
+#if defined(_WIN32)
+#include <windows.h>
+#elif defined(__APPLE__)
+#include <pthread.h>
+#include <pthread/qos.h>
+#else
+#include <pthread.h>
+#include <sched.h>
+#include <sys/resource.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#endif
+
+#include <utils/logger.h>
+#include <utils/thread_policy.h>
+#include <utils/utils.h>
+
+namespace aps {
+// The audio is the most sensitive to the scheduling delays, then the video. The defaults match
+// the audio and display priorities of Android.
+static const thread_policy_t s_default_policies[thread_stage_count] = {
+    thread_policy_t(),
+    thread_policy_t("aps-control", 0, 0),
+    thread_policy_t("aps-video", -4, 0),
+    thread_policy_t("aps-audio", -16, 0),
+};
+
+static std::mutex s_policies_mtx;
+static thread_policy_t s_policies[thread_stage_count] = {
+    s_default_policies[thread_stage_default],
+    s_default_policies[thread_stage_control],
+    s_default_policies[thread_stage_video],
+    s_default_policies[thread_stage_audio],
+};
+
+void set_thread_policy(thread_stage_t stage, const thread_policy_t &policy) {
+  if (stage <= thread_stage_default || stage >= thread_stage_count)
+    return;
+
+  std::lock_guard<std::mutex> l(s_policies_mtx);
+  s_policies[stage] = policy;
+}
+
+thread_policy_t get_thread_policy(thread_stage_t stage) {
+  if (stage < thread_stage_default || stage >= thread_stage_count)
+    return thread_policy_t();
+
+  std::lock_guard<std::mutex> l(s_policies_mtx);
+  return s_policies[stage];
+}
+
+thread_policy_t default_thread_policy(thread_stage_t stage) {
+  if (stage < thread_stage_default || stage >= thread_stage_count)
+    return thread_policy_t();
+
+  return s_default_policies[stage];
+}
+
+void apply_thread_policy(thread_stage_t stage) {
+  if (stage <= thread_stage_default || stage >= thread_stage_count)
+    return;
+
+  thread_policy_t policy = get_thread_policy(stage);
+
+#if defined(_WIN32)
+  if (!policy.name.empty()) {
+    set_current_thread_name(policy.name.c_str());
+  }
+
+  if (policy.nice) {
+    // TIME_CRITICAL would run ahead of the threads of the system in the process, such as the
+    // audio engine, the highest priority is capped at HIGHEST
+    int priority = THREAD_PRIORITY_NORMAL;
+    if (policy.nice <= -8)
+      priority = THREAD_PRIORITY_HIGHEST;
+    else if (policy.nice < 0)
+      priority = THREAD_PRIORITY_ABOVE_NORMAL;
+    else if (policy.nice >= 10)
+      priority = THREAD_PRIORITY_LOWEST;
+    else
+      priority = THREAD_PRIORITY_BELOW_NORMAL;
+
+    if (!::SetThreadPriority(::GetCurrentThread(), priority)) {
+      LOGW() << "Failed to set the priority of the " << policy.name << " thread: " << ::GetLastError();
+    }
+  }
+
+  if (policy.affinity && !::SetThreadAffinityMask(::GetCurrentThread(), (DWORD_PTR)policy.affinity)) {
+    LOGW() << "Failed to set the affinity of the " << policy.name << " thread: " << ::GetLastError();
+  }
+#elif defined(__APPLE__)
+  if (!policy.name.empty()) {
+    pthread_setname_np(policy.name.c_str());
+  }
+
+  // The nice value is per process on Darwin, the QoS class is the per thread equivalent
+  if (policy.nice) {
+    qos_class_t qos = QOS_CLASS_DEFAULT;
+    if (policy.nice <= -10)
+      qos = QOS_CLASS_USER_INTERACTIVE;
+    else if (policy.nice < 0)
+      qos = QOS_CLASS_USER_INITIATED;
+    else
+      qos = QOS_CLASS_UTILITY;
+
+    if (0 != pthread_set_qos_class_self_np(qos, 0)) {
+      LOGW() << "Failed to set the QoS class of the " << policy.name << " thread";
+    }
+  }
+#else
+  if (!policy.name.empty()) {
+    // The kernel limits the names to 15 characters
+    pthread_setname_np(pthread_self(), policy.name.substr(0, 15).c_str());
+  }
+
+  // Linux schedules the threads as tasks of their own, the nice value of the task id only applies to it
+  pid_t tid = (pid_t)syscall(SYS_gettid);
+  if (policy.nice && 0 != setpriority(PRIO_PROCESS, (id_t)tid, policy.nice)) {
+    // Raising the priority needs CAP_SYS_NICE or a RLIMIT_NICE allowing it
+    LOGW() << "Failed to set the nice value of the " << policy.name << " thread: " << errno;
+  }
+
+  if (policy.affinity) {
+    cpu_set_t cpus;
+    CPU_ZERO(&cpus);
+    for (int i = 0; i < 64 && i < CPU_SETSIZE; i++) {
+      if (policy.affinity & (1ull << i)) {
+        CPU_SET(i, &cpus);
+      }
+    }
+
+    if (0 != sched_setaffinity(tid, sizeof(cpus), &cpus)) {
+      LOGW() << "Failed to set the affinity of the " << policy.name << " thread: " << errno;
+    }
+  }
+#endif
+}
+} // namespace aps
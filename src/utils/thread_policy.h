@@ -0,0 +1,94 @@
+/* 
+ *  File: thread_policy.h
+ *  Project: apsdk
+ *  Created: Oct 25, 2018
+ *  Author: Sheen Tian
+ *  
+ *  This file is part of apsdk (https://github.com/air-display/apsdk-public) 
+ *  Copyright (C) 2018-2024 Sheen Tian 
+ *  
+ *  apsdk is free software: you can redistribute it and/or modify it under the terms 
+ *  of the GNU General Public License as published by the Free Software Foundation, 
+ *  either version 3 of the License, or (at your option) any later version.
+ *  
+ *  apsdk is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; 
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+ *  See the GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along with Foobar. 
+ *  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef THREAD_POLICY_H
+#define THREAD_POLICY_H
+#pragma once
+
+#include <cstdint>
+#include <string>
+
+namespace aps {
+/// <summary>
+/// The pipeline stages whose threads are scheduled by a policy.
+/// </summary>
+enum thread_stage_e {
+  // The threads left to the default scheduling, such as the workers feeding the application
+  thread_stage_default = 0,
+
+  // The RTSP and HTTP connections and the timing sync
+  thread_stage_control = 1,
+
+  // The mirroring video stream
+  thread_stage_video = 2,
+
+  // The mirroring audio data and control
+  thread_stage_audio = 3,
+
+  thread_stage_count
+};
+typedef thread_stage_e thread_stage_t;
+
+/// <summary>
+/// The scheduling policy of the threads of a stage.
+/// </summary>
+struct thread_policy_s {
+  /// <summary>
+  /// The thread name, truncated to 15 characters on Linux and Android. Empty keeps the name.
+  /// </summary>
+  std::string name;
+
+  /// <summary>
+  /// The nice value from -20 (highest priority) to 19, 0 keeps the default priority. Windows
+  /// maps it to a thread priority level, at most THREAD_PRIORITY_HIGHEST, and macOS to a QoS class.
+  /// </summary>
+  int32_t nice;
+
+  /// <summary>
+  /// The mask of the CPUs the threads may run on, 0 allows all. Not supported on macOS.
+  /// </summary>
+  uint64_t affinity;
+
+  thread_policy_s() : nice(0), affinity(0) {}
+
+  thread_policy_s(const std::string &n, int32_t v, uint64_t a) : name(n), nice(v), affinity(a) {}
+};
+typedef thread_policy_s thread_policy_t;
+
+/// <summary>
+/// Sets the policy of a stage for the whole process, it applies to the threads started afterwards.
+/// </summary>
+void set_thread_policy(thread_stage_t stage, const thread_policy_t &policy);
+
+thread_policy_t get_thread_policy(thread_stage_t stage);
+
+/// <summary>
+/// Gets the built-in policy of a stage, the default of the configuration.
+/// </summary>
+thread_policy_t default_thread_policy(thread_stage_t stage);
+
+/// <summary>
+/// Applies the policy of the stage to the calling thread.
+/// </summary>
+void apply_thread_policy(thread_stage_t stage);
+} // namespace aps
+
+#endif // THREAD_POLICY_H
@@ -33,6 +33,8 @@
 
 #include <asio.hpp>
 
+#include <utils/thread_policy.h>
+
 #ifdef __GNUC__
 #ifdef __ANDROID__
 #include <endian.h>
@@ -193,14 +195,17 @@ void detachCurrentThreadFromJvm();
 typedef std::shared_ptr<asio::thread> aps_thread;
 
 /// <summary>
-///
+/// Creates a thread scheduled by the policy of the pipeline stage.
 /// </summary>
-template <typename Function> aps_thread create_aps_thread(Function f) {
-  return std::make_shared<asio::thread>([f]() {
+template <typename Function>
+aps_thread create_aps_thread(Function f, aps::thread_stage_t stage = aps::thread_stage_default) {
+  return std::make_shared<asio::thread>([f, stage]() {
 #if __ANDROID__
     attachCurrentThreadToJvm();
 #endif
-      f();
+    // After attaching, the JVM renames the thread
+    aps::apply_thread_policy(stage);
+    f();
 #if __ANDROID__
     detachCurrentThreadFromJvm();
 #endif